@@ -0,0 +1,136 @@
+package com.identityworksllc.iiq.common;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.databind.type.MapType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sailpoint.object.Application;
+import sailpoint.object.Identity;
+import sailpoint.object.Link;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former string-based {@link Mapper#objectToMap(Object)} path, which built
+ * a new ObjectMapper and round-tripped through JSON text on every call, against the
+ * cached {@code convertValue} path for a plain bean and against the hand-written
+ * converter for the same Link.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapperBenchmark {
+    public static class Bean {
+        private Map<String, Object> attributes;
+
+        private boolean enabled;
+
+        private String name;
+
+        private List<String> owners;
+
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getOwners() {
+            return owners;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setAttributes(Map<String, Object> attributes) {
+            this.attributes = attributes;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setOwners(List<String> owners) {
+            this.owners = owners;
+        }
+    }
+
+    private Bean bean;
+
+    private Link link;
+
+    /**
+     * The former implementation of objectToMap, for comparison
+     */
+    private static Map<String, Object> stringRoundTrip(Object anything) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.addMixIn(anything.getClass(), Mappable.FilterMixin.class);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        mapper.setFilterProvider(new SimpleFilterProvider().addFilter("mappableFilter", SimpleBeanPropertyFilter.serializeAll()));
+        String json = mapper.writeValueAsString(anything);
+        MapType javaType = mapper.getTypeFactory().constructMapType(Map.class, String.class, Object.class);
+        return mapper.readValue(json, javaType);
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        Map<String, Object> attributes = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            attributes.put("attribute" + i, "value" + i);
+        }
+        attributes.put("memberOf", Arrays.asList("CN=Group A", "CN=Group B", "CN=Group C"));
+
+        bean = new Bean();
+        bean.setName("bean");
+        bean.setEnabled(true);
+        bean.setOwners(Arrays.asList("spadmin", "admin"));
+        bean.setAttributes(attributes);
+
+        Application application = new Application();
+        application.setName("Active Directory");
+        Identity identity = new Identity();
+        identity.setName("jdoe");
+        link = new Link();
+        link.setApplication(application);
+        link.setIdentity(identity);
+        link.setNativeIdentity("CN=John Doe,OU=Users,DC=example,DC=com");
+        link.setAttributes(new sailpoint.object.Attributes<>(attributes));
+    }
+
+    @Benchmark
+    public void cachedConvertValue(Blackhole bh) throws Exception {
+        bh.consume(Mapper.objectToMap(bean));
+    }
+
+    @Benchmark
+    public void handWrittenLink(Blackhole bh) throws Exception {
+        bh.consume(Mapper.objectToMap(link));
+    }
+
+    @Benchmark
+    public void stringRoundTrip(Blackhole bh) throws Exception {
+        bh.consume(stringRoundTrip(bean));
+    }
+
+    /**
+     * The former path for a Link, which is the baseline for {@link #handWrittenLink(Blackhole)}
+     */
+    @Benchmark
+    public void stringRoundTripLink(Blackhole bh) throws Exception {
+        bh.consume(stringRoundTrip(link));
+    }
+}
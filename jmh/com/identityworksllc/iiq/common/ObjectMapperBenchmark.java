@@ -0,0 +1,151 @@
+package com.identityworksllc.iiq.common;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the reflective {@link ObjectMapper#decode(Map)} path against the
+ * {@link CompiledObjectMapper} decode and encode paths for a typical configuration
+ * object with scalar, list, and nested fields.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObjectMapperBenchmark {
+    public static class Rule {
+        private String name;
+
+        private int priority;
+
+        private List<String> values;
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public List<String> getValues() {
+            return values;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setPriority(int priority) {
+            this.priority = priority;
+        }
+
+        public void setValues(List<String> values) {
+            this.values = values;
+        }
+    }
+
+    public static class Config {
+        private String application;
+
+        private boolean enabled;
+
+        private long limit;
+
+        private List<String> owners;
+
+        @ObjectMapper.Nested(Rule.class)
+        private List<Rule> rules;
+
+        public String getApplication() {
+            return application;
+        }
+
+        public long getLimit() {
+            return limit;
+        }
+
+        public List<String> getOwners() {
+            return owners;
+        }
+
+        public List<Rule> getRules() {
+            return rules;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setApplication(String application) {
+            this.application = application;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public void setLimit(long limit) {
+            this.limit = limit;
+        }
+
+        public void setOwners(List<String> owners) {
+            this.owners = owners;
+        }
+
+        public void setRules(List<Rule> rules) {
+            this.rules = rules;
+        }
+    }
+
+    private CompiledObjectMapper<Config> compiled;
+
+    private Config decoded;
+
+    private Map<String, Object> input;
+
+    private ObjectMapper<Config> reflective;
+
+    @Setup
+    public void setup() throws Exception {
+        input = new HashMap<>();
+        input.put("application", "Active Directory");
+        input.put("enabled", "true");
+        input.put("limit", "5000");
+        input.put("owners", "spadmin,admin");
+        List<Map<String, Object>> rules = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Map<String, Object> rule = new HashMap<>();
+            rule.put("name", "rule" + i);
+            rule.put("priority", i);
+            rule.put("values", Arrays.asList("a", "b", "c"));
+            rules.add(rule);
+        }
+        input.put("rules", rules);
+
+        reflective = new ObjectMapper<>(Config.class);
+        reflective.decode(input);
+        compiled = reflective.compiled();
+        decoded = compiled.decode(input);
+    }
+
+    @Benchmark
+    public void compiledDecode(Blackhole bh) throws Exception {
+        bh.consume(compiled.decode(input));
+    }
+
+    @Benchmark
+    public void compiledEncode(Blackhole bh) throws Exception {
+        bh.consume(compiled.encode(decoded));
+    }
+
+    @Benchmark
+    public void reflectiveDecode(Blackhole bh) throws Exception {
+        bh.consume(reflective.decode(input));
+    }
+}
@@ -0,0 +1,96 @@
+package com.identityworksllc.iiq.common;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the former HashSet-based collection comparison in {@link Sameness} against
+ * {@link SetComparison} for group-membership-style lists of DNs, with identical sorted
+ * lists, shuffled lists, and lists differing in one value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SamenessBenchmark {
+    @Param({"10", "1000", "20000"})
+    private int size;
+
+    @Param({"false", "true"})
+    private boolean ignoreCase;
+
+    private List<String> different;
+
+    private List<String> shuffled;
+
+    private List<String> sorted;
+
+    private List<String> sortedCopy;
+
+    /**
+     * The former implementation of the collection comparison, for comparison
+     */
+    private static boolean legacy(Collection<?> newValue, Collection<?> oldValue, boolean ignoreCase) {
+        HashSet<Object> newSet = new HashSet<>(newValue);
+        HashSet<Object> oldSet = new HashSet<>(oldValue);
+        if (ignoreCase) {
+            newSet = newSet.stream().map(e -> String.valueOf(e).toUpperCase()).collect(Collectors.toCollection(HashSet::new));
+            oldSet = oldSet.stream().map(e -> String.valueOf(e).toUpperCase()).collect(Collectors.toCollection(HashSet::new));
+        }
+        return newSet.equals(oldSet);
+    }
+
+    @Setup
+    public void setup() {
+        sorted = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            sorted.add(String.format("CN=GROUP %06d,OU=GROUPS,DC=EXAMPLE,DC=COM", i));
+        }
+        sortedCopy = new ArrayList<>(sorted);
+        shuffled = new ArrayList<>(sorted);
+        Collections.shuffle(shuffled, new Random(42));
+        different = new ArrayList<>(shuffled);
+        different.set(different.size() / 2, "CN=Other Group,OU=Groups,DC=example,DC=com");
+    }
+
+    @Benchmark
+    public void legacyDifferent(Blackhole bh) {
+        bh.consume(legacy(shuffled, different, ignoreCase));
+    }
+
+    @Benchmark
+    public void legacyShuffled(Blackhole bh) {
+        bh.consume(legacy(sorted, shuffled, ignoreCase));
+    }
+
+    @Benchmark
+    public void legacySorted(Blackhole bh) {
+        bh.consume(legacy(sorted, sortedCopy, ignoreCase));
+    }
+
+    @Benchmark
+    public void setComparisonDelta(Blackhole bh) {
+        bh.consume(SetComparison.compare(shuffled, different, ignoreCase));
+    }
+
+    @Benchmark
+    public void setComparisonDifferent(Blackhole bh) {
+        bh.consume(SetComparison.isSameStrings(shuffled, different, ignoreCase));
+    }
+
+    @Benchmark
+    public void setComparisonShuffled(Blackhole bh) {
+        bh.consume(SetComparison.isSameStrings(sorted, shuffled, ignoreCase));
+    }
+
+    @Benchmark
+    public void setComparisonSorted(Blackhole bh) {
+        bh.consume(SetComparison.isSameStrings(sorted, sortedCopy, ignoreCase));
+    }
+}
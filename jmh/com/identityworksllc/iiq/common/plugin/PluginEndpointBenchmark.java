@@ -0,0 +1,127 @@
+package com.identityworksllc.iiq.common.plugin;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.identityworksllc.iiq.common.logging.LoggingConstants;
+import com.identityworksllc.iiq.common.plugin.annotations.AuthorizeAll;
+import com.identityworksllc.iiq.common.plugin.annotations.AuthorizeAny;
+import com.identityworksllc.iiq.common.plugin.annotations.AuthorizedBy;
+import com.identityworksllc.iiq.common.plugin.annotations.NoReturnValue;
+import com.identityworksllc.iiq.common.plugin.annotations.ResponsesAllowed;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.annotation.AnnotationUtils;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request framework overhead of {@link BaseCommonPluginResource#handle(PluginAction)}
+ * for a no-op endpoint, comparing the original per-request work (annotation scan, a new
+ * Jackson ObjectMapper for the audit record, and {@link UUID#randomUUID()}) against the
+ * cached {@link EndpointDescriptor}, the shared audit writer, and the cheap request ID.
+ *
+ * Running handle() itself requires a live IIQ session and servlet request, so this
+ * benchmark exercises the same steps in isolation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PluginEndpointBenchmark {
+    @AuthorizeAny({@AuthorizedBy(systemAdmin = true), @AuthorizedBy(capability = "HelpDesk")})
+    @ResponsesAllowed({String.class})
+    public static class NoOpResource {
+        @NoReturnValue
+        public void noOp() {
+            // Nothing
+        }
+    }
+
+    private static final ObjectWriter sharedWriter = new ObjectMapper().writer();
+
+    private Method endpointMethod;
+
+    @Setup
+    public void setup() throws Exception {
+        endpointMethod = NoOpResource.class.getMethod("noOp");
+    }
+
+    private static Map<String, Object> auditMap(String requestId) {
+        Map<String, Object> auditMap = new HashMap<>();
+        auditMap.put(LoggingConstants.LOG_CTX_ID, requestId);
+        auditMap.put(LoggingConstants.LOG_MDC_URI, "/identityiq/plugin/rest/bench/noop");
+        auditMap.put(LoggingConstants.LOG_HTTP_METHOD, "GET");
+        auditMap.put(LoggingConstants.LOG_CLIENT_IP, "127.0.0.1");
+        auditMap.put(LoggingConstants.LOG_MDC_USER, "spadmin");
+        auditMap.put(LoggingConstants.LOG_MDC_USER_DISPLAY, "Administrator");
+        auditMap.put(LoggingConstants.LOG_MDC_PLUGIN, "BenchPlugin");
+        auditMap.put(LoggingConstants.LOG_MDC_ENDPOINT_CLASS, NoOpResource.class.getName());
+        auditMap.put(LoggingConstants.LOG_MDC_ENDPOINT_METHOD, "noOp");
+        return auditMap;
+    }
+
+    /**
+     * The per-request work performed by handle() before endpoint metadata was cached
+     */
+    @Benchmark
+    public void legacyRequest(Blackhole bh) throws Exception {
+        String requestId = UUID.randomUUID().toString();
+
+        Class<?> endpointClass = NoOpResource.class;
+        AuthorizedBy authorizedBy = AnnotationUtils.getAnnotation(endpointMethod, AuthorizedBy.class);
+        AuthorizeAny authorizeAny = null;
+        if (authorizedBy == null) {
+            authorizeAny = AnnotationUtils.getAnnotation(endpointMethod, AuthorizeAny.class);
+        }
+        if (authorizedBy == null && authorizeAny == null) {
+            authorizedBy = AnnotationUtils.findAnnotation(endpointClass, AuthorizedBy.class);
+            if (authorizedBy == null) {
+                bh.consume(AnnotationUtils.findAnnotation(endpointClass, AuthorizeAll.class));
+                authorizeAny = AnnotationUtils.findAnnotation(endpointClass, AuthorizeAny.class);
+            }
+        }
+        bh.consume(authorizeAny);
+
+        bh.consume(endpointClass.isAnnotationPresent(NoReturnValue.class) || endpointMethod.isAnnotationPresent(NoReturnValue.class));
+        List<Class<?>> allowedClasses = new ArrayList<>();
+        if (endpointClass.isAnnotationPresent(ResponsesAllowed.class)) {
+            allowedClasses.addAll(Arrays.asList(endpointClass.getAnnotation(ResponsesAllowed.class).value()));
+        }
+        if (endpointMethod.isAnnotationPresent(ResponsesAllowed.class)) {
+            allowedClasses.addAll(Arrays.asList(endpointMethod.getAnnotation(ResponsesAllowed.class).value()));
+        }
+        bh.consume(allowedClasses);
+
+        ObjectMapper mapper = new ObjectMapper();
+        bh.consume(mapper.writeValueAsString(auditMap(requestId)));
+    }
+
+    /**
+     * The per-request work performed by handle() with cached endpoint metadata
+     */
+    @Benchmark
+    public void cachedRequest(Blackhole bh) throws Exception {
+        String requestId = BaseCommonPluginResource.newRequestId();
+
+        EndpointDescriptor endpoint = EndpointDescriptor.forEndpoint(NoOpResource.class, endpointMethod);
+        bh.consume(endpoint.getAuthorizations());
+        bh.consume(endpoint.hasReturnValue());
+        bh.consume(endpoint.getAllowedReturnTypes());
+
+        bh.consume(sharedWriter.writeValueAsString(auditMap(requestId)));
+    }
+
+    @Benchmark
+    public String requestIdRandomUUID() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String requestIdThreadLocalRandom() {
+        return BaseCommonPluginResource.newRequestId();
+    }
+}
@@ -50,11 +50,22 @@ public class AccountUtilities extends AbstractBaseUtility {
          */
         private String accountFilterString;
 
+        /**
+         * Fully specified options for individual accounts to aggregate, such as provided data
+         */
+        private List<AggregateOptions> accountOptions;
+
         /**
          * The accounts list to aggregate; the input pairs are (application name, native identity)
          */
         private List<Pair<String, String>> accountsList;
 
+        /**
+         * True if a failure aggregating one account should be recorded as a Failure outcome,
+         * rather than interrupting the remaining aggregations
+         */
+        private boolean continueOnError;
+
         /**
          * The options to pass to the Aggregator
          */
@@ -69,6 +80,7 @@ public class AccountUtilities extends AbstractBaseUtility {
          * No-args constructor allowing all options to be configured using setters
          */
         public MultipleAggregateOptions() {
+            this.accountOptions = new ArrayList<>();
             this.accountsList = new ArrayList<>();
             this.aggregateOptions = new HashMap<>();
         }
@@ -89,6 +101,14 @@ public class AccountUtilities extends AbstractBaseUtility {
             return accountFilterString;
         }
 
+        /**
+         * Gets the fully specified options for individual accounts to aggregate
+         * @return The account options, or null if none was set
+         */
+        public List<AggregateOptions> getAccountOptions() {
+            return accountOptions;
+        }
+
         /**
          * Gets the list of accounts to aggregate
          * @return The accounts list, or null if none was set
@@ -113,6 +133,14 @@ public class AccountUtilities extends AbstractBaseUtility {
             return identity;
         }
 
+        /**
+         * Returns true if failures should be recorded as outcomes, rather than thrown
+         * @return True if the batch should continue after a failure
+         */
+        public boolean isContinueOnError() {
+            return continueOnError;
+        }
+
         /**
          * Sets the account filter
          * @param accountFilter The account filter
@@ -129,6 +157,17 @@ public class AccountUtilities extends AbstractBaseUtility {
             this.accountFilterString = accountFilterString;
         }
 
+        /**
+         * Sets the fully specified options for individual accounts to aggregate. These are
+         * aggregated along with any entries in the accounts list. The application and connector
+         * will be filled in from the shared per-application instances if they are not set.
+         *
+         * @param accountOptions The account options
+         */
+        public void setAccountOptions(List<AggregateOptions> accountOptions) {
+            this.accountOptions = accountOptions;
+        }
+
         /**
          * Sets the list of accounts to aggregate. The input pairs are (application name, native identity).
          * @param accountsList The accounts list
@@ -145,6 +184,14 @@ public class AccountUtilities extends AbstractBaseUtility {
             this.aggregateOptions = aggregateOptions;
         }
 
+        /**
+         * Sets whether failures should be recorded as outcomes, rather than thrown
+         * @param continueOnError True if the batch should continue after a failure
+         */
+        public void setContinueOnError(boolean continueOnError) {
+            this.continueOnError = continueOnError;
+        }
+
         /**
          * Sets the identity from whom to pull accounts
          * @param identity The identity name
@@ -1112,70 +1159,179 @@ public class AccountUtilities extends AbstractBaseUtility {
     }
 
     /**
-     * Aggregates a list of individual accounts belonging to an Identity according to the options provided.
-     * This allows you to "resync" an Identity's entire set of existing links in a single operation.
+     * Aggregates a list of individual accounts according to the options provided. This allows
+     * you to "resync" an Identity's entire set of existing links in a single operation, or to
+     * aggregate an arbitrary batch of accounts, such as a burst of HR events, efficiently.
      *
      * In the output Map, the key is a {@link Pair} with the first element being the application
      * name and the second element being the native identity. The Map value is the {@link AggregationOutcome}
      * corresponding to that aggregation.
      *
-     * If a list of accounts is supplied, it will be used. Otherwise, all accounts on the Identity
-     * will be aggregated, subject to the accountFilter if one is provided.
+     * If a list of accounts or account options is supplied, it will be used. Otherwise, all accounts
+     * on the Identity will be aggregated, subject to the accountFilter if one is provided.
+     *
+     * The accounts are grouped by application. Each Application is loaded once and a single
+     * Connector instance is shared by every account on it, rather than going through the
+     * ConnectorFactory for each account. Repeated accounts are aggregated only once; where
+     * account options repeat a native identity, the last one wins.
      *
-     * The four-argument version of aggregateAccount() is used to perform each individual aggregation:
-     * #aggregateAccount(String, String, boolean, Map).
+     * {@link #aggregateAccount(AggregateOptions)} is used to perform each individual aggregation,
+     * with the batch's aggregate options merged under each account's own options, so that an
+     * option set on an account wins over the same option set on the batch. The account options
+     * passed in are not modified; each is copied before the shared Application and Connector
+     * and the merged aggregate options are filled in.
      *
-     * The aggregation option correlateOnly will always be set to true.
+     * If an Identity is specified, the aggregation option correlateOnly will always be set to true.
      *
-     * @param options The options, specifying which Identity and accounts to aggregate
+     * @param options The options, specifying which Identity and/or accounts to aggregate
      * @return The outcomes of the aggregations
-     * @throws GeneralException if any failures occur
+     * @throws GeneralException if any failures occur, unless continueOnError is set
      */
     public Map<Pair<String, String>, AggregationOutcome> aggregateAccounts(MultipleAggregateOptions options) throws GeneralException {
-        if (Util.isNullOrEmpty(options.identity)) {
-            throw new IllegalArgumentException("The input options must contain an Identity name or ID");
+        boolean hasAccounts = !Util.isEmpty(options.accountsList) || !Util.isEmpty(options.accountOptions);
+        if (Util.isNullOrEmpty(options.identity) && !hasAccounts) {
+            throw new IllegalArgumentException("The input options must contain an Identity name or ID, or a list of accounts");
         }
 
-        Identity target = context.getObject(Identity.class, options.identity);
-        if (target == null) {
-            throw new IllegalArgumentException("The identity " + options.identity + " does not exist");
+        List<Pair<String, String>> toProcess = Util.isEmpty(options.getAccountsList()) ? new ArrayList<>() : options.getAccountsList();
+
+        if (Util.isNotNullOrEmpty(options.identity)) {
+            Identity target = context.getObject(Identity.class, options.identity);
+            if (target == null) {
+                throw new IllegalArgumentException("The identity " + options.identity + " does not exist");
+            }
+
+            if (Util.isNotNullOrEmpty(options.accountFilterString) && options.accountFilter == null) {
+                options.accountFilter = Filter.compile(options.accountFilterString);
+            }
+
+            if (!hasAccounts) {
+                List<Link> accounts = target.getLinks();
+
+                for (Link link : Util.safeIterable(accounts)) {
+                    boolean included = true;
+                    if (options.accountFilter != null) {
+                        HybridObjectMatcher matcher = new HybridObjectMatcher(context, options.accountFilter);
+                        included = matcher.matches(link);
+                    }
+
+                    if (included) {
+                        toProcess.add(Pair.make(link.getApplicationName(), link.getNativeIdentity()));
+                    }
+                }
+            }
         }
 
-        if (Util.isNotNullOrEmpty(options.accountFilterString) && options.accountFilter == null) {
-            options.accountFilter = Filter.compile(options.accountFilterString);
+        Map<String, List<AggregateOptions>> byApplication = new LinkedHashMap<>();
+        for (Pair<String, String> pair : toProcess) {
+            AggregateOptions accountOptions = new AggregateOptions();
+            accountOptions.applicationName = pair.getFirst();
+            accountOptions.accountName = pair.getSecond();
+            byApplication.computeIfAbsent(pair.getFirst(), k -> new ArrayList<>()).add(accountOptions);
+        }
+        for (AggregateOptions accountOptions : Util.safeIterable(options.accountOptions)) {
+            String applicationName = accountOptions.application != null ? accountOptions.application.getName() : accountOptions.applicationName;
+            byApplication.computeIfAbsent(applicationName, k -> new ArrayList<>()).add(accountOptions);
         }
 
-        List<Pair<String, String>> toProcess = Util.isEmpty(options.getAccountsList()) ? new ArrayList<>() : options.getAccountsList();
+        Map<Pair<String, String>, AggregationOutcome> linkOutcomes = new LinkedHashMap<>();
 
-        if (Util.isEmpty(toProcess)) {
-            List<Link> accounts = target.getLinks();
+        for (Map.Entry<String, List<AggregateOptions>> entry : byApplication.entrySet()) {
+            aggregateApplicationBatch(entry.getKey(), entry.getValue(), options, linkOutcomes);
+        }
 
-            for (Link link : Util.safeIterable(accounts)) {
-                boolean included = true;
-                if (options.accountFilter != null) {
-                    HybridObjectMatcher matcher = new HybridObjectMatcher(context, options.accountFilter);
-                    included = matcher.matches(link);
-                }
+        return linkOutcomes;
+    }
 
-                if (included) {
-                    toProcess.add(Pair.make(link.getApplicationName(), link.getNativeIdentity()));
-                }
+    /**
+     * Aggregates the accounts for a single application on behalf of
+     * {@link #aggregateAccounts(MultipleAggregateOptions)}, sharing one Application
+     * and one Connector across the whole batch.
+     *
+     * The Aggregator is not shared. Each account may carry its own aggregate options, which
+     * are fixed when an Aggregator is constructed, and {@link #aggregateAccount(AggregateOptions)}
+     * builds a fresh one per account for its single-object aggregation.
+     *
+     * @param applicationName The application name
+     * @param batch The options for each account on the application
+     * @param options The batch options
+     * @param linkOutcomes The output map, to which each outcome is added
+     * @throws GeneralException if any failures occur, unless continueOnError is set
+     */
+    private void aggregateApplicationBatch(String applicationName, List<AggregateOptions> batch, MultipleAggregateOptions options, Map<Pair<String, String>, AggregationOutcome> linkOutcomes) throws GeneralException {
+        Application appObject;
+        Connector appConnector;
+        try {
+            appObject = context.getObjectByName(Application.class, applicationName);
+            if (appObject == null) {
+                throw new GeneralException("Invalid application name: " + applicationName);
+            }
+            appConnector = ConnectorFactory.getConnector(appObject, null);
+            if (null == appConnector) {
+                throw new GeneralException("Failed to construct an instance of connector [" + appObject.getConnector() + "]");
             }
+        } catch(GeneralException | RuntimeException e) {
+            if (!options.continueOnError) {
+                throw e;
+            }
+            log.error("Unable to prepare the batch aggregation for application " + applicationName, e);
+            for (AggregateOptions accountOptions : batch) {
+                linkOutcomes.put(Pair.make(applicationName, accountOptions.accountName), new AggregationOutcome(applicationName, accountOptions.accountName, OutcomeType.Failure, e.getMessage()));
+            }
+            return;
         }
 
-        Map<Pair<String, String>, AggregationOutcome> linkOutcomes = new HashMap<>();
+        // Keyed by native identity, so that repeated accounts are aggregated only once
+        Map<String, AggregateOptions> unique = new LinkedHashMap<>();
+        for (AggregateOptions callerOptions : batch) {
+            // Filled in below, so the caller's options are left as they were passed
+            AggregateOptions accountOptions = AggregateOptions.builder(callerOptions).build();
+            if (accountOptions.accountName == null && accountOptions.resourceObject != null) {
+                fixResourceObjectIdentity(accountOptions.resourceObject, appObject);
+                accountOptions.accountName = accountOptions.resourceObject.getIdentity();
+            }
+            String key = accountOptions.accountName != null ? accountOptions.accountName : "#" + unique.size();
+            unique.remove(key);
+            unique.put(key, accountOptions);
+        }
+
+        if (log.isDebugEnabled() && unique.size() < batch.size()) {
+            log.debug("Skipping " + (batch.size() - unique.size()) + " repeated account(s) on application " + applicationName);
+        }
+
+        for (AggregateOptions accountOptions : unique.values()) {
+            accountOptions.applicationName = appObject.getName();
+            accountOptions.application = appObject;
+            if (accountOptions.connector == null) {
+                accountOptions.connector = appConnector;
+            }
 
-        for(Pair<String, String> pair : toProcess) {
             Map<String, Object> aggArgs = new HashMap<>();
-            aggArgs.put(Aggregator.ARG_CORRELATE_ONLY, true);
+            if (options.aggregateOptions != null) {
+                aggArgs.putAll(options.aggregateOptions);
+            }
+            if (accountOptions.aggregateOptions != null) {
+                aggArgs.putAll(accountOptions.aggregateOptions);
+            }
+            if (Util.isNotNullOrEmpty(options.identity)) {
+                aggArgs.put(Aggregator.ARG_CORRELATE_ONLY, true);
+            }
+            accountOptions.aggregateOptions = aggArgs;
 
-            AggregationOutcome outcome = aggregateAccount(pair.getFirst(), pair.getSecond(), false, aggArgs);
+            AggregationOutcome outcome;
+            try {
+                outcome = aggregateAccount(accountOptions);
+            } catch(GeneralException | RuntimeException e) {
+                if (!options.continueOnError) {
+                    throw e;
+                }
+                log.error("Caught an error aggregating account " + accountOptions.accountName + " from application " + applicationName, e);
+                outcome = new AggregationOutcome(applicationName, accountOptions.accountName, OutcomeType.Failure, e.getMessage());
+            }
             if (outcome != null) {
-                linkOutcomes.put(pair, outcome);
+                linkOutcomes.put(Pair.make(applicationName, accountOptions.accountName), outcome);
             }
         }
-
-        return linkOutcomes;
     }
 
     /**
@@ -33,11 +33,31 @@ import java.util.stream.Collectors;
  *
  *  (4) Old and new values will be sorted, for easier comparison.
  *
+ *  (5) Links, permissions, and multi-valued attribute values are matched via hash
+ *      indexes rather than list scans, so very large snapshots (thousands of links or
+ *      tens of thousands of group memberships) can be compared in linear time.
+ *
+ * In addition to producing an {@link IdentityDifference}, differences can be streamed
+ * to a {@link Consumer} via {@link #diff(IdentitySnapshot, IdentitySnapshot, Consumer, Consumer)}.
+ * This avoids building the full IdentityDifference when a caller only needs a count
+ * ({@link #countDifferences(IdentitySnapshot, IdentitySnapshot)}) or the first few
+ * changes ({@link #firstDifferences(IdentitySnapshot, IdentitySnapshot, int)}).
+ *
  * TODO: Policy violation differences
  * TODO: Javadocs!
  */
 public class BetterDifferencer {
 
+    /**
+     * The attribute name given to assigned role differences in streaming mode
+     */
+    public static final String ATTR_ASSIGNED_ROLES = "assignedRoles";
+
+    /**
+     * The attribute name given to detected role differences in streaming mode
+     */
+    public static final String ATTR_BUNDLES = "bundles";
+
     /**
      * A container for holding a pair of links judged by this tool to be the same
      * Link in two different snapshot contexts
@@ -72,6 +92,252 @@ public class BetterDifferencer {
         }
     }
 
+    /**
+     * The receiver of the differences found by the diff engine. The IdentityDifference
+     * and streaming modes each supply their own implementation.
+     */
+    private interface DifferenceHandler {
+        void attribute(Difference difference);
+
+        void assignedRoles(Difference difference);
+
+        void bundles(Difference difference);
+
+        void links(List<Difference> differences);
+
+        void permission(PermissionDifference difference);
+    }
+
+    /**
+     * An index of LinkSnapshots by application, instance, and native identity, used to
+     * pair up Links between two snapshots without scanning the list for each Link. Links
+     * are handed out at most once, in their original list order.
+     */
+    private final class LinkIndex {
+        /**
+         * Links keyed by (application, instance, native identity)
+         */
+        private final Map<String, Deque<LinkSnapshot>> byKey;
+
+        /**
+         * Links keyed by application only, built on first use for rename guessing
+         */
+        private Map<String, List<LinkSnapshot>> byApplication;
+
+        /**
+         * The original list of Links
+         */
+        private final List<LinkSnapshot> links;
+
+        /**
+         * Links that have already been handed out
+         */
+        private final Set<LinkSnapshot> used;
+
+        private LinkIndex(List<LinkSnapshot> links) {
+            this.links = links;
+            this.byKey = new HashMap<>();
+            this.used = Collections.newSetFromMap(new IdentityHashMap<>());
+            for(LinkSnapshot link : links) {
+                String key = linkKey(link.getApplicationName(), link.getInstance(), link.getNativeIdentity());
+                byKey.computeIfAbsent(key, k -> new ArrayDeque<>()).add(link);
+            }
+        }
+
+        /**
+         * Returns the Links not yet matched that have the same application as the target,
+         * in original list order
+         *
+         * @param target The target Link
+         * @return The unmatched Links on the same application
+         */
+        private List<LinkSnapshot> candidatesByApplication(LinkSnapshot target) {
+            if (byApplication == null) {
+                byApplication = new HashMap<>();
+                for(LinkSnapshot link : links) {
+                    if (!used.contains(link)) {
+                        byApplication.computeIfAbsent(foldCase(link.getApplicationName()), k -> new ArrayList<>()).add(link);
+                    }
+                }
+            }
+            List<LinkSnapshot> candidates = new ArrayList<>();
+            for(LinkSnapshot link : Util.safeIterable(byApplication.get(foldCase(target.getApplicationName())))) {
+                if (!used.contains(link)) {
+                    candidates.add(link);
+                }
+            }
+            return candidates;
+        }
+
+        /**
+         * @return True if there are any Links that have not been handed out
+         */
+        private boolean hasRemaining() {
+            return used.size() < links.size();
+        }
+
+        /**
+         * Marks the given Link as used
+         * @param link The link
+         */
+        private void markUsed(LinkSnapshot link) {
+            used.add(link);
+        }
+
+        /**
+         * @return The Links that have not been handed out, in original list order
+         */
+        private List<LinkSnapshot> remaining() {
+            List<LinkSnapshot> result = new ArrayList<>();
+            for(LinkSnapshot link : links) {
+                if (!used.contains(link)) {
+                    result.add(link);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Finds and marks used the Link matching the target by application, instance, and
+         * native identity. If there is no match, and the target's application has been
+         * renamed, the new application name will be tried.
+         *
+         * @param target The Link to match
+         * @return The matching Link, or null if none
+         */
+        private LinkSnapshot take(LinkSnapshot target) {
+            LinkSnapshot result = take(linkKey(target.getApplicationName(), target.getInstance(), target.getNativeIdentity()));
+            if (result == null) {
+                String translatedName = renamedApplications.get(target.getApplicationName());
+                if (Util.isNotNullOrEmpty(translatedName)) {
+                    result = take(linkKey(translatedName, target.getInstance(), target.getNativeIdentity()));
+                }
+            }
+            return result;
+        }
+
+        private LinkSnapshot take(String key) {
+            Deque<LinkSnapshot> matches = byKey.get(key);
+            while (matches != null && !matches.isEmpty()) {
+                LinkSnapshot link = matches.poll();
+                if (!used.contains(link)) {
+                    used.add(link);
+                    return link;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An index of Permissions used to match each 'before' Permission to an 'after' one.
+     * Permissions will be matched with decreasing specificity:
+     *
+     *  1) [Target, Rights, Annotation]
+     *  2) [Target, Rights]
+     *  3) [Target]
+     *
+     * Keys follow the {@link Sameness} rules, meaning that rights lists will be compared
+     * independent of order (and possibly case). Permissions are handed out at most once,
+     * in their original list order at each level.
+     */
+    private static final class PermissionIndex {
+        private final Map<String, Deque<Permission>> byTarget;
+        private final Map<String, Deque<Permission>> byTargetAndRights;
+        private final Map<String, Deque<Permission>> byTargetRightsAndAnnotation;
+        private final boolean ignoreCase;
+        private final Set<Permission> used;
+
+        private PermissionIndex(List<Permission> permissions, boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+            this.byTarget = new HashMap<>();
+            this.byTargetAndRights = new HashMap<>();
+            this.byTargetRightsAndAnnotation = new HashMap<>();
+            this.used = Collections.newSetFromMap(new IdentityHashMap<>());
+            for(Permission p : Util.safeIterable(permissions)) {
+                String target = targetKey(p);
+                String rights = target + "\u0001" + rightsKey(p);
+                String full = rights + "\u0001" + annotationKey(p);
+                byTarget.computeIfAbsent(target, k -> new ArrayDeque<>()).add(p);
+                byTargetAndRights.computeIfAbsent(rights, k -> new ArrayDeque<>()).add(p);
+                byTargetRightsAndAnnotation.computeIfAbsent(full, k -> new ArrayDeque<>()).add(p);
+            }
+        }
+
+        private static String annotationKey(Permission p) {
+            return p.getAnnotation() == null ? "\u0000" : p.getAnnotation();
+        }
+
+        /**
+         * Builds the key for the rights list, matching {@link Sameness#isSame(Object, Object, boolean)}
+         * semantics: order and duplicates are ignored, null is the same as empty, and case is
+         * ignored if configured.
+         */
+        private String rightsKey(Permission p) {
+            List<String> rights = p.getRightsList();
+            if (rights == null || rights.isEmpty()) {
+                return "";
+            }
+            TreeSet<String> normalized = new TreeSet<>();
+            for(String right : rights) {
+                String value = String.valueOf(right);
+                normalized.add(ignoreCase ? value.toUpperCase() : value);
+            }
+            return String.join("\u0002", normalized);
+        }
+
+        private String targetKey(Permission p) {
+            String target = p.getTarget();
+            if (target == null) {
+                return "";
+            }
+            return ignoreCase ? foldCase(target) : target;
+        }
+
+        /**
+         * Finds and marks used the permission best matching the input, trying the most
+         * specific match first
+         *
+         * @param p1 The permission to match
+         * @return The matching permission, or null if none
+         */
+        private Permission take(Permission p1) {
+            String target = targetKey(p1);
+            String rights = target + "\u0001" + rightsKey(p1);
+            String full = rights + "\u0001" + annotationKey(p1);
+            Permission result = take(byTargetRightsAndAnnotation, full);
+            if (result == null) {
+                result = take(byTargetAndRights, rights);
+            }
+            if (result == null) {
+                result = take(byTarget, target);
+            }
+            return result;
+        }
+
+        private Permission take(Map<String, Deque<Permission>> index, String key) {
+            Deque<Permission> matches = index.get(key);
+            while (matches != null && !matches.isEmpty()) {
+                Permission p = matches.poll();
+                if (!used.contains(p)) {
+                    used.add(p);
+                    return p;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Thrown by a limiting consumer to stop the diff engine once enough differences
+     * have been collected. This never escapes this class.
+     */
+    private static final class StopDiffing extends RuntimeException {
+        private StopDiffing() {
+            super(null, null, false, false);
+        }
+    }
+
     /**
      * A set of applications where the comparison ought to be case-insensitive
      */
@@ -109,30 +375,41 @@ public class BetterDifferencer {
 
     /**
      * Adds the added and removed values to the Difference object by comparing the old
-     * and new values.
+     * and new values. The comparison is set-based: each side is indexed once by a
+     * comparison key, which is the case-folded string for String values and the value
+     * itself otherwise. As before indexing was introduced, String values that differ
+     * only in case are never reported as added or removed, regardless of the
+     * application's or field's case sensitivity.
      *
      * @param difference The Difference object to populate
      * @param oldValue The old value, which may be a collection or a single-valued object
      * @param newValue The new value, which may be a collection or a single-valued object
      */
     private void addAddedRemovedValues(Difference difference, Object oldValue, Object newValue) {
-        List<Object> oldCollection = new ArrayList<>();
-        List<Object> newCollection = new ArrayList<>();
+        List<Object> oldCollection = toValueList(oldValue);
+        List<Object> newCollection = toValueList(newValue);
 
-        if (oldValue instanceof Collection) {
-            oldCollection.addAll((Collection<?>)oldValue);
-        } else if (oldValue != null) {
-            oldCollection.add(oldValue);
+        Set<Object> oldKeys = new HashSet<>(oldCollection.size() * 2);
+        for(Object o : oldCollection) {
+            oldKeys.add(valueKey(o));
         }
-
-        if (newValue instanceof Collection) {
-            newCollection.addAll((Collection<?>)newValue);
-        } else if (newValue != null) {
-            newCollection.add(newValue);
+        Set<Object> newKeys = new HashSet<>(newCollection.size() * 2);
+        for(Object o : newCollection) {
+            newKeys.add(valueKey(o));
         }
 
-        List<String> removedValues = oldCollection.stream().filter(o -> !Utilities.caseInsensitiveContains(newCollection, o)).filter(Objects::nonNull).map(String::valueOf).collect(Collectors.toList());
-        List<String> addedValues = newCollection.stream().filter(o -> !Utilities.caseInsensitiveContains(oldCollection, o)).filter(Objects::nonNull).map(String::valueOf).collect(Collectors.toList());
+        List<String> removedValues = new ArrayList<>();
+        for(Object o : oldCollection) {
+            if (o != null && !newKeys.contains(valueKey(o))) {
+                removedValues.add(String.valueOf(o));
+            }
+        }
+        List<String> addedValues = new ArrayList<>();
+        for(Object o : newCollection) {
+            if (o != null && !oldKeys.contains(valueKey(o))) {
+                addedValues.add(String.valueOf(o));
+            }
+        }
 
         if (!addedValues.isEmpty()) {
             difference.setAddedValues(addedValues);
@@ -227,11 +504,28 @@ public class BetterDifferencer {
         }
     }
 
+    /**
+     * Counts the differences between the two snapshots without retaining them. Attribute,
+     * link, and role differences are counted, as are permission differences. As in an
+     * IdentityDifference, a Permission present on both versions of a Link is reported
+     * as a PermissionDifference, so it is included in the count.
+     *
+     * @param before The before snapshot
+     * @param after The after snapshot
+     * @return The number of differences
+     * @throws GeneralException if any failures occur
+     */
+    public int countDifferences(IdentitySnapshot before, IdentitySnapshot after) throws GeneralException {
+        int[] count = new int[1];
+        diff(before, after, d -> count[0]++, pd -> count[0]++);
+        return count[0];
+    }
+
     /**
      * Diffs the two snapshots and returns an IdentityDifference object containing all
      * of the attribute, link, and role differences.
      *
-     * TODO support permissions and policy violations
+     * TODO support policy violations
      *
      * @param before The before snapshot
      * @param after The after snapshot
@@ -240,7 +534,128 @@ public class BetterDifferencer {
      */
     public IdentityDifference diff(IdentitySnapshot before, IdentitySnapshot after) throws GeneralException {
         IdentityDifference differences = new IdentityDifference();
-        diffIdentityAttributes(differences, before, after);
+        diff(before, after, new DifferenceHandler() {
+            @Override
+            public void assignedRoles(Difference difference) {
+                differences.addAssignedRoleDifference(difference);
+            }
+
+            @Override
+            public void attribute(Difference difference) {
+                differences.addAttributeDifference(difference);
+            }
+
+            @Override
+            public void bundles(Difference difference) {
+                differences.addBundleDifference(difference);
+            }
+
+            @Override
+            public void links(List<Difference> linkDifferences) {
+                differences.addLinkDifferences(linkDifferences);
+            }
+
+            @Override
+            public void permission(PermissionDifference difference) {
+                differences.add(difference);
+            }
+        });
+        return differences;
+    }
+
+    /**
+     * Diffs the two snapshots, passing each difference to the given consumers as it is
+     * found, rather than building an IdentityDifference. Link differences will have
+     * their context set to the Link's application and native identity, as in an
+     * IdentityDifference. Role differences will have their attribute set to 'bundles'
+     * or 'assignedRoles'.
+     *
+     * @param before The before snapshot
+     * @param after The after snapshot
+     * @param differenceConsumer The consumer of attribute, link, and role differences
+     * @param permissionConsumer The consumer of permission differences, or null to skip them
+     * @throws GeneralException if any failures occur
+     */
+    public void diff(IdentitySnapshot before, IdentitySnapshot after, Consumer<Difference> differenceConsumer, Consumer<PermissionDifference> permissionConsumer) throws GeneralException {
+        Objects.requireNonNull(differenceConsumer);
+        diff(before, after, new DifferenceHandler() {
+            @Override
+            public void assignedRoles(Difference difference) {
+                if (difference.getAttribute() == null) {
+                    difference.setAttribute(ATTR_ASSIGNED_ROLES);
+                }
+                differenceConsumer.accept(difference);
+            }
+
+            @Override
+            public void attribute(Difference difference) {
+                differenceConsumer.accept(difference);
+            }
+
+            @Override
+            public void bundles(Difference difference) {
+                if (difference.getAttribute() == null) {
+                    difference.setAttribute(ATTR_BUNDLES);
+                }
+                differenceConsumer.accept(difference);
+            }
+
+            @Override
+            public void links(List<Difference> linkDifferences) {
+                for(Difference difference : linkDifferences) {
+                    differenceConsumer.accept(difference);
+                }
+            }
+
+            @Override
+            public void permission(PermissionDifference difference) {
+                if (permissionConsumer != null) {
+                    permissionConsumer.accept(difference);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the first N attribute, link, or role differences between the two snapshots.
+     * The diff stops as soon as the limit is reached, so later Links are never examined.
+     * Permission differences are not included.
+     *
+     * @param before The before snapshot
+     * @param after The after snapshot
+     * @param limit The maximum number of differences to return
+     * @return Up to 'limit' differences, in the order they were found
+     * @throws GeneralException if any failures occur
+     */
+    public List<Difference> firstDifferences(IdentitySnapshot before, IdentitySnapshot after, int limit) throws GeneralException {
+        List<Difference> results = new ArrayList<>();
+        if (limit <= 0) {
+            return results;
+        }
+        try {
+            diff(before, after, d -> {
+                results.add(d);
+                if (results.size() >= limit) {
+                    throw new StopDiffing();
+                }
+            }, null);
+        } catch(StopDiffing e) {
+            /* Expected when we reach the limit */
+        }
+        return results;
+    }
+
+    /**
+     * The core diff engine, passing all differences to the given handler
+     *
+     * @param before The before snapshot
+     * @param after The after snapshot
+     * @param handler The handler for the differences found
+     * @throws GeneralException if any failures occur
+     */
+    private void diff(IdentitySnapshot before, IdentitySnapshot after, DifferenceHandler handler) throws GeneralException {
+        diffIdentityAttributes(handler, before, after);
+        Map<String, Optional<Application>> applicationCache = new HashMap<>();
         List<LinkPair> linkPairs = findLinkPairs(before, after);
         for(LinkPair pair : linkPairs) {
             String context;
@@ -249,7 +664,7 @@ public class BetterDifferencer {
             } else {
                 context = IdentityDifference.generateContext(pair.ls1.getApplicationName(), pair.ls1.getNativeIdentity());
             }
-            diffLinks(differences, context, pair.ls1, pair.ls2);
+            diffLinks(handler, applicationCache, context, pair.ls1, pair.ls2);
         }
 
         // TODO I really need to figure out a good way to do role differences
@@ -260,16 +675,15 @@ public class BetterDifferencer {
         List<String> rolesAfter = Utilities.safeStream(after.getBundles()).map(BundleSnapshot::getName).sorted().collect(Collectors.toList());
         Difference rolesDifference = Difference.diff(rolesBefore, rolesAfter, 4000, true);
         if (rolesDifference != null) {
-            differences.addBundleDifference(rolesDifference);
+            handler.bundles(rolesDifference);
         }
 
         List<String> assignmentsBefore = Utilities.safeStream(before.getAssignedRoles()).map(RoleAssignmentSnapshot::getName).sorted().collect(Collectors.toList());
         List<String> assignmentsAfter = Utilities.safeStream(after.getAssignedRoles()).map(RoleAssignmentSnapshot::getName).sorted().collect(Collectors.toList());
         Difference assignmentDifference = Difference.diff(assignmentsBefore, assignmentsAfter, 4000, true);
         if (assignmentDifference != null) {
-            differences.addAssignedRoleDifference(assignmentDifference);
+            handler.assignedRoles(assignmentDifference);
         }
-        return differences;
     }
 
     /**
@@ -365,7 +779,7 @@ public class BetterDifferencer {
         }
     }
 
-    private void diffIdentityAttributes(IdentityDifference difference, IdentitySnapshot before, IdentitySnapshot after) {
+    private void diffIdentityAttributes(DifferenceHandler handler, IdentitySnapshot before, IdentitySnapshot after) {
         Attributes<String, Object> beforeAttributes = before.getAttributes();
         Attributes<String, Object> afterAttributes = after.getAttributes();
         final ObjectConfig identityAttributes = Identity.getObjectConfig();
@@ -377,40 +791,40 @@ public class BetterDifferencer {
                 null,
                 a -> nullSafeObjectAttribute(identityAttributes, a).isMulti(),
                 a -> nullSafeObjectAttribute(identityAttributes, a).getDisplayName(),
-                difference::addAttributeDifference
+                handler::attribute
         );
     }
 
     /**
-     * Detects the differences in the given LinkSnapshots and stores them in the
-     * IdentityDifference container
+     * Detects the differences in the given LinkSnapshots and passes them to the handler
      *
-     * @param differences The object into which differences ar added
+     * @param handler The handler to which differences are passed
+     * @param applicationCache Applications already looked up during this diff, by name
      * @param contextName The context name (the native ID)
      * @param beforeLink The link before the change
      * @param afterLink The link after the change
      * @throws GeneralException if anything goes wrong
      */
-    private void diffLinks(IdentityDifference differences, String contextName, LinkSnapshot beforeLink, LinkSnapshot afterLink) throws GeneralException {
+    private void diffLinks(DifferenceHandler handler, Map<String, Optional<Application>> applicationCache, String contextName, LinkSnapshot beforeLink, LinkSnapshot afterLink) throws GeneralException {
         List<String> exclusions = Arrays.asList("directPermissions", "targetPermissions");
         Application application = null;
         if (beforeLink != null) {
-            application = context.getObject(Application.class, beforeLink.getApplication());
+            application = getApplication(applicationCache, beforeLink.getApplication());
 
             if (application == null) {
                 String renameMaybe = this.renamedApplications.get(beforeLink.getApplication());
                 if (Util.isNotNullOrEmpty(renameMaybe)) {
-                    application = context.getObject(Application.class, renameMaybe);
+                    application = getApplication(applicationCache, renameMaybe);
                 }
             }
         }
         if (application == null && afterLink != null) {
-            application = context.getObject(Application.class, afterLink.getApplication());
+            application = getApplication(applicationCache, afterLink.getApplication());
 
             if (application == null) {
                 String renameMaybe = this.renamedApplications.get(afterLink.getApplication());
                 if (Util.isNotNullOrEmpty(renameMaybe)) {
-                    application = context.getObject(Application.class, renameMaybe);
+                    application = getApplication(applicationCache, renameMaybe);
                 }
             }
         }
@@ -473,7 +887,7 @@ public class BetterDifferencer {
             linkDifferences.add(niDifference);
         }
 
-        differences.addLinkDifferences(linkDifferences);
+        handler.links(linkDifferences);
 
         List<Permission> beforePermissions = getPermissions(beforeLink);
         List<Permission> afterPermissions = getPermissions(afterLink);
@@ -481,7 +895,7 @@ public class BetterDifferencer {
         Collections.sort(beforePermissions, Comparator.comparing(Permission::getTarget).thenComparing(Permission::getRights));
         Collections.sort(afterPermissions, Comparator.comparing(Permission::getTarget).thenComparing(Permission::getRights));
 
-        diffPermissions(beforeLink, afterLink, beforePermissions, afterPermissions, ignoreCase, differences::add);
+        diffPermissions(beforeLink, afterLink, beforePermissions, afterPermissions, ignoreCase, handler::permission);
     }
 
     /**
@@ -495,22 +909,23 @@ public class BetterDifferencer {
      */
     private void diffPermissions(LinkSnapshot beforeLink, LinkSnapshot afterLink, List<Permission> beforePermissions, List<Permission> afterPermissions, boolean ignoreCase, Consumer<PermissionDifference> differenceConsumer) {
         List<Pair<Permission, Permission>> changes = new ArrayList<>();
-        List<Permission> newPermissions = new ArrayList<>();
-        if (afterPermissions != null) {
-            // Copy so we can remove them as we match
-            newPermissions.addAll(afterPermissions);
-        }
+        PermissionIndex index = new PermissionIndex(afterPermissions, ignoreCase);
         List<Permission> oldPermissions = new ArrayList<>();
         for(Permission p1 : Util.safeIterable(beforePermissions)) {
-            Permission p2 = findPermission(p1, newPermissions, ignoreCase);
+            Permission p2 = index.take(p1);
             if (p2 == null) {
                 oldPermissions.add(p1);
             } else {
-                newPermissions.remove(p2);
                 Pair<Permission, Permission> pair = new Pair<>(p1, p2);
                 changes.add(pair);
             }
         }
+        List<Permission> newPermissions = new ArrayList<>();
+        for(Permission p2 : Util.safeIterable(afterPermissions)) {
+            if (!index.used.contains(p2)) {
+                newPermissions.add(p2);
+            }
+        }
         for(Permission p1 : oldPermissions) {
             PermissionDifference permissionDifference = new PermissionDifference();
             permissionDifference.setRights(p1.getRights());
@@ -538,33 +953,6 @@ public class BetterDifferencer {
         }
     }
 
-    /**
-     * Finds the a LinkSnapshot in the given list that matches the target by app,
-     * instance, and nativeIdentity
-     *
-     * @param snapshots The list of LinkSnapshots to search
-     * @param target The target to find
-     * @return the discovered LinkSnapshot, or null if none
-     */
-    private LinkSnapshot findLink(List<LinkSnapshot> snapshots, LinkSnapshot target) {
-        for(LinkSnapshot link : Util.safeIterable(snapshots)) {
-            if (Differencer.objectsEqual(link.getApplicationName(), target.getApplicationName(), true) && Differencer.objectsEqual(link.getNativeIdentity(), target.getNativeIdentity(), true) && Differencer.objectsEqual(link.getInstance(), target.getInstance(), true)) {
-                return link;
-            }
-        }
-
-        String translatedName = this.renamedApplications.get(target.getApplicationName());
-        if (Util.isNotNullOrEmpty(translatedName)) {
-            for(LinkSnapshot link : Util.safeIterable(snapshots)) {
-                if (Differencer.objectsEqual(link.getApplicationName(), translatedName, true) && Differencer.objectsEqual(link.getNativeIdentity(), target.getNativeIdentity(), true) && Differencer.objectsEqual(link.getInstance(), target.getInstance(), true)) {
-                    return link;
-                }
-            }
-        }
-
-        return null;
-    }
-
     /**
      * Finds pairs of LinkSnapshots in the 'before' and 'after' snapshots by comparing
      * them by identifier, native ID, or other matching methods.
@@ -576,32 +964,30 @@ public class BetterDifferencer {
     private List<LinkPair> findLinkPairs(IdentitySnapshot before, IdentitySnapshot after) {
         List<LinkPair> pairs = new ArrayList<>();
         List<LinkSnapshot> beforeLinks = safeCopy(before.getLinks());
-        List<LinkSnapshot> afterLinks = safeCopy(after.getLinks());
+        LinkIndex afterLinks = new LinkIndex(safeCopy(after.getLinks()));
 
-        Iterator<LinkSnapshot> beforeIterator = beforeLinks.iterator();
-        while(beforeIterator.hasNext()) {
-            LinkSnapshot ls1 = beforeIterator.next();
-            LinkSnapshot ls2 = findLink(afterLinks, ls1);
+        List<LinkSnapshot> unmatched = new ArrayList<>();
+        for(LinkSnapshot ls1 : beforeLinks) {
+            LinkSnapshot ls2 = afterLinks.take(ls1);
             if (ls2 != null) {
-                LinkPair pair = new LinkPair(ls1, ls2);
-                afterLinks.remove(ls2);
-                beforeIterator.remove();
-                pairs.add(pair);
+                pairs.add(new LinkPair(ls1, ls2));
+            } else {
+                unmatched.add(ls1);
             }
         }
 
-        if (shouldGuessRenames() && !beforeLinks.isEmpty() && !afterLinks.isEmpty()) {
+        if (shouldGuessRenames() && !unmatched.isEmpty() && afterLinks.hasRemaining()) {
             // Match by Application only for renames
-            Iterator<LinkSnapshot> beforeIterator2 = beforeLinks.iterator();
+            Iterator<LinkSnapshot> beforeIterator2 = unmatched.iterator();
             while(beforeIterator2.hasNext()) {
                 LinkSnapshot ls1 = beforeIterator2.next();
-                List<LinkSnapshot> candidates = findLinksBlindly(afterLinks, ls1);
+                List<LinkSnapshot> candidates = afterLinks.candidatesByApplication(ls1);
                 if (candidates.size() == 1) {
                     // We found just one, assume it's a rename
                     LinkSnapshot ls2 = candidates.get(0);
                     if (looksLikeRename(ls1, ls2)) {
                         LinkPair pair = new LinkPair(ls1, ls2);
-                        afterLinks.remove(ls2);
+                        afterLinks.markUsed(ls2);
                         beforeIterator2.remove();
                         pairs.add(pair);
                     }
@@ -609,9 +995,8 @@ public class BetterDifferencer {
                     // See if there are any that look like a rename (i.e. match by all other attributes except nativeIdentity)
                     for(LinkSnapshot candidate : candidates) {
                         if (looksLikeRename(ls1, candidate)) {
-                            LinkSnapshot ls2 = candidates.get(0);
-                            LinkPair pair = new LinkPair(ls1, ls2);
-                            afterLinks.remove(ls2);
+                            LinkPair pair = new LinkPair(ls1, candidate);
+                            afterLinks.markUsed(candidate);
                             beforeIterator2.remove();
                             pairs.add(pair);
                             break;
@@ -620,68 +1005,58 @@ public class BetterDifferencer {
                 }
             }
         }
-        if (!afterLinks.isEmpty()) {
-            // New accounts
-            for(LinkSnapshot ls : afterLinks) {
-                LinkPair pair = new LinkPair(null, ls);
-                pairs.add(pair);
-            }
+        // New accounts
+        for(LinkSnapshot ls : afterLinks.remaining()) {
+            LinkPair pair = new LinkPair(null, ls);
+            pairs.add(pair);
         }
-        if (!beforeLinks.isEmpty()) {
-            // Deleted accounts
-            for(LinkSnapshot ls : beforeLinks) {
-                LinkPair pair = new LinkPair(ls, null);
-                pairs.add(pair);
-            }
+        // Deleted accounts
+        for(LinkSnapshot ls : unmatched) {
+            LinkPair pair = new LinkPair(ls, null);
+            pairs.add(pair);
         }
 
         return pairs;
     }
 
     /**
-     * Finds any LinkSnapshots in the given list that matches the target by app
-     * only, without checking the native identity. This is a last resort if the
-     * account has been renamed.
+     * Case-folds the given string for use as a hash key, consistent with
+     * {@link String#equalsIgnoreCase(String)}. Null becomes a marker value that
+     * cannot collide with any real string.
      *
-     * @param snapshots The list of LinkSnapshots to search
-     * @param target The target to find
-     * @return the discovered LinkSnapshot, or null if none
+     * @param value The string to fold
+     * @return The folded string
      */
-    private List<LinkSnapshot> findLinksBlindly(List<LinkSnapshot> snapshots, LinkSnapshot target) {
-        List<LinkSnapshot> results = new ArrayList<>();
-        for(LinkSnapshot link : Util.safeIterable(snapshots)) {
-            if (Differencer.objectsEqual(link.getApplicationName(), target.getApplicationName(), true)) {
-                results.add(link);
-            }
+    private static String foldCase(String value) {
+        if (value == null) {
+            return "\u0000";
         }
-        return results;
+        char[] chars = value.toCharArray();
+        for(int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
     }
 
     /**
-     * Finds the permission in the list matching p1. Permissions will be matched with decreasing specificity:
-     *
-     *  1) [Target, Rights, Annotation]
-     *  2) [Target, Rights]
-     *  3) [Target]
+     * Gets the Application with the given name, caching the result (including a
+     * missing Application) for the duration of a single diff
      *
-     * Matching will be done using the {@link Sameness} class, meaning that list values will be compared independent of order (and possibly case).
-     *
-     * @param p1 The permission to match
-     * @param afterPermissions The list from which permissions will be matched
-     * @param ignoreCase If true, case will be ignored in comparison
-     * @return The matching Permission object from the list, or null
+     * @param applicationCache The cache for this diff
+     * @param name The application name
+     * @return The Application, or null if it does not exist
+     * @throws GeneralException if the lookup fails
      */
-    private Permission findPermission(Permission p1, List<Permission> afterPermissions, boolean ignoreCase) {
-        Optional<Permission> permission = Utilities.safeStream(afterPermissions).filter(p2 -> Sameness.isSame(p2.getTarget(), p1.getTarget(), ignoreCase)).filter(p2 -> Sameness.isSame(p2.getRightsList(), p1.getRightsList(), ignoreCase)).filter(p2 -> Util.nullSafeEq(p1.getAnnotation(), p2.getAnnotation())).findFirst();
-        if (permission.isPresent()) {
-            return permission.get();
+    private Application getApplication(Map<String, Optional<Application>> applicationCache, String name) throws GeneralException {
+        if (name == null) {
+            return null;
         }
-        permission = Utilities.safeStream(afterPermissions).filter(p2 -> Sameness.isSame(p2.getTarget(), p1.getTarget(), ignoreCase)).filter(p2 -> Sameness.isSame(p2.getRightsList(), p1.getRightsList(), ignoreCase)).findFirst();
-        if (permission.isPresent()) {
-            return permission.get();
+        Optional<Application> cached = applicationCache.get(name);
+        if (cached == null) {
+            cached = Optional.ofNullable(context.getObject(Application.class, name));
+            applicationCache.put(name, cached);
         }
-        permission = Utilities.safeStream(afterPermissions).filter(p2 -> Sameness.isSame(p2.getTarget(), p1.getTarget(), ignoreCase)).findFirst();
-        return permission.orElse(null);
+        return cached.orElse(null);
     }
 
     /**
@@ -740,6 +1115,9 @@ public class BetterDifferencer {
     }
 
     private ObjectAttribute nullSafeObjectAttribute(ObjectConfig source, String name) {
+        if (source == null) {
+            return new ObjectAttribute();
+        }
         ObjectAttribute attr = source.getObjectAttribute(name);
         if (attr == null) {
             attr = new ObjectAttribute();
@@ -747,6 +1125,19 @@ public class BetterDifferencer {
         return attr;
     }
 
+    /**
+     * Builds the index key for a Link. Each component is compared case-insensitively,
+     * as {@link Differencer#objectsEqual(Object, Object, boolean)} would.
+     *
+     * @param application The application name
+     * @param instance The instance, usually null
+     * @param nativeIdentity The native identity
+     * @return The index key
+     */
+    private static String linkKey(String application, String instance, String nativeIdentity) {
+        return foldCase(application) + "\u0001" + foldCase(instance) + "\u0001" + foldCase(nativeIdentity);
+    }
+
     /**
      * Creates a shallow copy of a possibly null list. If the list is null, an
      * empty list will be returned.
@@ -763,6 +1154,33 @@ public class BetterDifferencer {
         return copy;
     }
 
+    /**
+     * Transforms a single or multi-valued attribute value into a list of values
+     * @param value The value
+     * @return The list of values, which may be empty
+     */
+    private static List<Object> toValueList(Object value) {
+        List<Object> values = new ArrayList<>();
+        if (value instanceof Collection) {
+            values.addAll((Collection<?>) value);
+        } else if (value != null) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the comparison key for a single attribute value
+     * @param value The value
+     * @return The key, which is case-folded for Strings
+     */
+    private static Object valueKey(Object value) {
+        if (value instanceof String) {
+            return foldCase((String) value);
+        }
+        return value;
+    }
+
     /**
      * Sets the 'guess renames' flag to true. If true, the BetterDifferencer will attempt
      * to guess which Link corresponds to the one in the previous snapshot.
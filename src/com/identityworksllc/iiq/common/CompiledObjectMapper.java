@@ -0,0 +1,660 @@
+package com.identityworksllc.iiq.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A precompiled form of an {@link ObjectMapper}. Where {@link ObjectMapper#decode(Map, boolean)}
+ * iterates over the input Map and looks up the setter, expected type, and nested mapper for
+ * each key, this class resolves all of that once, at construction time, into a flat array of
+ * field steps. Each step holds:
+ *
+ *  - The Map key to read
+ *  - A converter specialized for the field's type (nested, collection, map, or scalar)
+ *  - A setter, which is a {@link LambdaMetafactory}-generated {@link BiConsumer} where the
+ *    setter is a regular method, or an exact-typed {@link MethodHandle} otherwise
+ *
+ * Decoding is therefore a straight-line walk over the steps with no hash lookups beyond
+ * the reads from the input Map itself. Nested types are decoded by their own compiled
+ * mappers, resolved lazily so that self-referencing types work.
+ *
+ * This class also supports the reverse direction, via {@link #encode(Object)}, using
+ * generated getters. Encoding a decoded object and decoding the output again will produce
+ * an equivalent object, so config objects can be round-tripped cheaply.
+ *
+ * Differences from the reflective path:
+ *
+ *  - The decode cache is not used. Compiled decoding is cheap enough that callers on hot
+ *    paths should prefer it to fingerprinting the input.
+ *  - Where several aliases of the same field are present in the input, the field's own
+ *    name takes precedence over its aliases, rather than depending on Map iteration order.
+ *
+ * Obtain an instance via {@link ObjectMapper#compiled()}:
+ *
+ * ```
+ * CompiledObjectMapper<MyConfig> mapper = ObjectMapper.get(MyConfig.class).compiled();
+ * MyConfig config = mapper.decode(map);
+ * Map<String, Object> again = mapper.encode(config);
+ * ```
+ *
+ * @param <T> The type of object being mapped
+ */
+public final class CompiledObjectMapper<T> {
+
+    /**
+     * A value converter for a single field, resolved at compile time
+     */
+    @FunctionalInterface
+    private interface Converter {
+        Object convert(Object value) throws ObjectMapper.ObjectMapperException;
+    }
+
+    /**
+     * A single field decode step
+     */
+    private static final class DecodeStep {
+        /**
+         * The converter for the field's value
+         */
+        private final Converter converter;
+
+        /**
+         * The input key (the field name or an alias)
+         */
+        private final String key;
+
+        /**
+         * The setter, invoked with the target object and the converted value
+         */
+        private final BiConsumer<Object, Object> setter;
+
+        private DecodeStep(String key, Converter converter, BiConsumer<Object, Object> setter) {
+            this.key = key;
+            this.converter = converter;
+            this.setter = setter;
+        }
+    }
+
+    /**
+     * A single field encode step
+     */
+    private static final class EncodeStep {
+        /**
+         * The getter, invoked with the source object
+         */
+        private final Function<Object, Object> getter;
+
+        /**
+         * The output key (the field name)
+         */
+        private final String key;
+
+        /**
+         * The nested mapper for this field, or null if it is not nested
+         */
+        private final ObjectMapper<?> nestedMapper;
+
+        private EncodeStep(String key, Function<Object, Object> getter, ObjectMapper<?> nestedMapper) {
+            this.key = key;
+            this.getter = getter;
+            this.nestedMapper = nestedMapper;
+        }
+    }
+
+    /**
+     * A wrapper for a Throwable thrown by a MethodHandle inside a functional interface
+     */
+    private static final class InvocationFailure extends RuntimeException {
+        private InvocationFailure(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * The decode steps, with each field's aliases before its primary name
+     */
+    private final DecodeStep[] decodeSteps;
+
+    /**
+     * The encode steps, one per mapped field
+     */
+    private final EncodeStep[] encodeSteps;
+
+    /**
+     * The initializer method (if defined) to invoke after all setters
+     */
+    private final MethodHandle initializer;
+
+    /**
+     * Creates new instances of the target class
+     */
+    private final Supplier<Object> instantiator;
+
+    /**
+     * Logger
+     */
+    private final Log log;
+
+    /**
+     * The source mapper, used for scalar type conversion
+     */
+    private final ObjectMapper<T> mapper;
+
+    /**
+     * The target class being mapped
+     */
+    private final Class<T> targetClass;
+
+    /**
+     * Compiles the given mapper. The mapper must already be initialized. You should
+     * prefer {@link ObjectMapper#compiled()} to this.
+     *
+     * @param mapper The mapper to compile
+     * @throws ObjectMapper.ObjectMapperException if the mapper cannot be compiled
+     */
+    /*package*/ CompiledObjectMapper(ObjectMapper<T> mapper) throws ObjectMapper.ObjectMapperException {
+        this.mapper = mapper;
+        this.targetClass = mapper.getTargetClass();
+        this.log = LogFactory.getLog(this.getClass());
+
+        MethodHandles.Lookup lookup = lookupFor(targetClass);
+
+        this.instantiator = compileInstantiator(lookup);
+        this.initializer = mapper.getInitializer();
+
+        Map<String, MethodHandle> setters = mapper.getSetterHandles();
+        Map<String, Class<?>> setterTypes = mapper.getSetterTypes();
+        Map<String, ObjectMapper<?>> nested = mapper.getNestedMappers();
+        Map<String, Field> fields = mapper.getMappedFields();
+
+        List<DecodeStep> decoders = new ArrayList<>();
+        List<EncodeStep> encoders = new ArrayList<>();
+        for (Map.Entry<String, Field> fieldEntry : fields.entrySet()) {
+            String fieldName = fieldEntry.getKey();
+            Field field = fieldEntry.getValue();
+            ObjectMapper<?> nestedMapper = nested.get(fieldName);
+
+            // Aliases go first so that the primary name, set last, wins
+            List<String> keys = new ArrayList<>();
+            if (field.isAnnotationPresent(ObjectMapper.Aliases.class)) {
+                keys.addAll(Arrays.asList(field.getAnnotation(ObjectMapper.Aliases.class).value()));
+            }
+            keys.add(fieldName);
+
+            for (String key : keys) {
+                MethodHandle setterHandle = setters.get(key);
+                Class<?> expectedType = setterTypes.get(key);
+                if (setterHandle == null || expectedType == null) {
+                    continue;
+                }
+                Converter converter = compileConverter(key, expectedType, nestedMapper);
+                BiConsumer<Object, Object> setter = compileSetter(lookup, setterHandle, expectedType);
+                decoders.add(new DecodeStep(key, converter, setter));
+            }
+
+            Function<Object, Object> getter = compileGetter(lookup, field);
+            if (getter != null) {
+                encoders.add(new EncodeStep(fieldName, getter, nestedMapper));
+            }
+        }
+        this.decodeSteps = decoders.toArray(new DecodeStep[0]);
+        this.encodeSteps = encoders.toArray(new EncodeStep[0]);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Compiled mapper for " + targetClass.getName() + " with " + decodeSteps.length + " decode steps and " + encodeSteps.length + " encode steps");
+        }
+    }
+
+    /**
+     * Returns the boxed equivalent of a primitive type, or the type itself
+     * @param type The type
+     * @return The boxed type
+     */
+    private static Class<?> boxed(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    /**
+     * Gets a full-privilege lookup in the target class, so that generated lambdas are
+     * defined in the target's own class loader. This matters for plugin classes, which
+     * are not visible from this library's class loader.
+     *
+     * @param type The target type
+     * @return A lookup for the target type
+     */
+    private static MethodHandles.Lookup lookupFor(Class<?> type) {
+        try {
+            return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch(IllegalAccessException | SecurityException e) {
+            return MethodHandles.lookup();
+        }
+    }
+
+    /**
+     * Unwraps an InvocationFailure into an ObjectMapperException
+     * @param t The throwable
+     * @return The appropriate exception
+     */
+    private static ObjectMapper.ObjectMapperException unwrap(Throwable t) {
+        if (t instanceof InvocationFailure && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof ObjectMapper.ObjectMapperException) {
+            return (ObjectMapper.ObjectMapperException) t;
+        }
+        return new ObjectMapper.ObjectMapperException(t);
+    }
+
+    /**
+     * Creates an empty collection of the appropriate type for the expected type,
+     * matching the rules of the reflective mapper's nested iterable decoding.
+     *
+     * @param expectedType The expected collection type
+     * @return A supplier of empty collections
+     * @throws ObjectMapper.ObjectMapperException if the type is not a supported collection
+     */
+    private static Supplier<Collection<Object>> collectionFactory(Class<?> expectedType) throws ObjectMapper.ObjectMapperException {
+        if (expectedType.equals(Collection.class) || expectedType.equals(Iterable.class) || expectedType.equals(List.class) || expectedType.equals(ArrayList.class) || expectedType.equals(LinkedList.class)) {
+            return ArrayList::new;
+        } else if (expectedType.equals(Set.class) || expectedType.equals(HashSet.class) || expectedType.equals(TreeSet.class)) {
+            return HashSet::new;
+        } else if (Collection.class.isAssignableFrom(expectedType)) {
+            try {
+                Object exemplar = expectedType.getConstructor().newInstance();
+                if (exemplar instanceof Queue) {
+                    return LinkedList::new;
+                } else if (exemplar instanceof List) {
+                    return ArrayList::new;
+                } else if (exemplar instanceof Set) {
+                    return HashSet::new;
+                }
+            } catch(Exception e) {
+                throw new ObjectMapper.ObjectMapperException("Non-standard collection type must have a no-args constructor: " + expectedType);
+            }
+        }
+        throw new ObjectMapper.ObjectMapperException("Illegal destination type of a nested mapped list: " + expectedType);
+    }
+
+    /**
+     * Creates an empty Map of the appropriate type for the expected type, matching the
+     * rules of the reflective mapper's nested map decoding
+     *
+     * @param expectedType The expected map type
+     * @return A supplier of empty maps
+     */
+    private static Supplier<Map<String, Object>> mapFactory(Class<?> expectedType) {
+        if (Hashtable.class.isAssignableFrom(expectedType)) {
+            return Hashtable::new;
+        } else if (expectedType.isAssignableFrom(TreeMap.class)) {
+            return TreeMap::new;
+        }
+        return HashMap::new;
+    }
+
+    /**
+     * Compiles the converter for the given field
+     *
+     * @param key The field key, used for error messages
+     * @param expectedType The setter's parameter type
+     * @param nestedMapper The nested mapper, if the field is nested
+     * @return The converter
+     * @throws ObjectMapper.ObjectMapperException if the field cannot be compiled
+     */
+    private Converter compileConverter(String key, Class<?> expectedType, ObjectMapper<?> nestedMapper) throws ObjectMapper.ObjectMapperException {
+        if (nestedMapper == null) {
+            final Class<?> instanceType = boxed(expectedType);
+            return value -> {
+                if (instanceType.isInstance(value)) {
+                    return value;
+                }
+                Object converted = mapper.convertObject(value, expectedType);
+                if (converted == null) {
+                    throw new IllegalArgumentException("For field " + key + ", could not convert object of type " + value.getClass().getName() + " to type " + expectedType.getName());
+                }
+                return converted;
+            };
+        }
+
+        final Converter element = compileNestedElementConverter(key, nestedMapper);
+        final Supplier<Collection<Object>> collectionFactory = Iterable.class.isAssignableFrom(expectedType) || Collection.class.isAssignableFrom(expectedType) ? collectionFactory(expectedType) : null;
+        final boolean mapTarget = Map.class.isAssignableFrom(expectedType);
+        final Supplier<Map<String, Object>> mapFactory = mapTarget ? mapFactory(expectedType) : null;
+
+        return value -> {
+            if (value instanceof Iterable) {
+                if (collectionFactory == null) {
+                    throw new ObjectMapper.ObjectMapperException("Illegal destination type of a nested mapped list: " + expectedType);
+                }
+                Collection<Object> output = collectionFactory.get();
+                for (Object member : (Iterable<?>) value) {
+                    output.add(member == null ? null : element.convert(member));
+                }
+                return output;
+            } else if (value instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> input = (Map<String, Object>) value;
+                if (mapTarget) {
+                    Map<String, Object> output = mapFactory.get();
+                    for (Map.Entry<String, Object> entry : input.entrySet()) {
+                        if (entry.getValue() != null) {
+                            output.put(entry.getKey(), element.convert(entry.getValue()));
+                        }
+                    }
+                    return output;
+                } else {
+                    return nestedMapper.compiled().decode(input);
+                }
+            } else {
+                throw new IllegalArgumentException("The field " + key + " requires a map or a list of nested maps");
+            }
+        };
+    }
+
+    /**
+     * Compiles the converter for a single member of a nested collection or map
+     *
+     * @param key The field key, used for error messages
+     * @param nestedMapper The nested mapper
+     * @return The element converter
+     */
+    private Converter compileNestedElementConverter(String key, ObjectMapper<?> nestedMapper) {
+        final Class<?> nestedType = nestedMapper.getTargetClass();
+        final boolean convertible = ObjectMapper.Convertible.class.isAssignableFrom(nestedType);
+        return member -> {
+            if (nestedType.isInstance(member)) {
+                return member;
+            }
+            if (convertible) {
+                try {
+                    ObjectMapper.Convertible target = (ObjectMapper.Convertible) nestedType.getConstructor().newInstance();
+                    if (target.canCoerce(member)) {
+                        target.initializeFrom(member);
+                        return target;
+                    }
+                } catch(ObjectMapper.ObjectMapperException e) {
+                    throw e;
+                } catch(Exception e) {
+                    throw new ObjectMapper.ObjectMapperException(e);
+                }
+            }
+            if (member instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> m = (Map<String, Object>) member;
+                return nestedMapper.compiled().decode(m);
+            }
+            if (!convertible) {
+                return mapper.convertObject(member, nestedType);
+            }
+            throw new IllegalArgumentException("The field " + key + " requires a nested map");
+        };
+    }
+
+    /**
+     * Compiles a getter for the given field. A public getX or isX method is preferred,
+     * via a generated {@link Function}, falling back to a direct field read.
+     *
+     * @param lookup The lookup in the target class
+     * @param field The field
+     * @return The getter, or null if the field cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    private Function<Object, Object> compileGetter(MethodHandles.Lookup lookup, Field field) {
+        Method getterMethod = null;
+        for (Method m : targetClass.getMethods()) {
+            if (m.getParameterCount() == 0 && !Modifier.isStatic(m.getModifiers()) && field.getType().equals(m.getReturnType())) {
+                String name = m.getName();
+                if (name.equalsIgnoreCase("get" + field.getName()) || (name.equalsIgnoreCase("is" + field.getName()) && boxed(field.getType()).equals(Boolean.class))) {
+                    getterMethod = m;
+                    break;
+                }
+            }
+        }
+        try {
+            if (getterMethod != null) {
+                MethodHandle handle = lookup.unreflect(getterMethod);
+                try {
+                    CallSite site = LambdaMetafactory.metafactory(
+                            lookup,
+                            "apply",
+                            MethodType.methodType(Function.class),
+                            MethodType.methodType(Object.class, Object.class),
+                            handle,
+                            MethodType.methodType(boxed(field.getType()), getterMethod.getDeclaringClass())
+                    );
+                    return (Function<Object, Object>) site.getTarget().invoke();
+                } catch(Throwable t) {
+                    if (log.isTraceEnabled()) {
+                        log.trace("Unable to generate a getter for " + field.getName() + ", using a method handle", t);
+                    }
+                    return handleGetter(handle);
+                }
+            }
+            return handleGetter(lookup.unreflectGetter(field));
+        } catch(IllegalAccessException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("For mapped type " + targetClass.getName() + ", no accessible getter or field found for name " + field.getName());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Compiles a no-args constructor call for the target class
+     *
+     * @param lookup The lookup in the target class
+     * @return A supplier of new instances
+     * @throws ObjectMapper.ObjectMapperException if there is no accessible no-args constructor
+     */
+    @SuppressWarnings("unchecked")
+    private Supplier<Object> compileInstantiator(MethodHandles.Lookup lookup) throws ObjectMapper.ObjectMapperException {
+        MethodHandle constructor;
+        try {
+            constructor = lookup.findConstructor(targetClass, MethodType.methodType(void.class));
+        } catch(NoSuchMethodException | IllegalAccessException e) {
+            throw new ObjectMapper.ObjectMapperException(e);
+        }
+        try {
+            CallSite site = LambdaMetafactory.metafactory(
+                    lookup,
+                    "get",
+                    MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class),
+                    constructor,
+                    MethodType.methodType(targetClass)
+            );
+            return (Supplier<Object>) site.getTarget().invoke();
+        } catch(Throwable t) {
+            final MethodHandle exact = constructor.asType(MethodType.methodType(Object.class));
+            return () -> {
+                try {
+                    return (Object) exact.invokeExact();
+                } catch(Throwable e) {
+                    throw new InvocationFailure(e);
+                }
+            };
+        }
+    }
+
+    /**
+     * Compiles the setter for the given handle. Regular setter methods are converted
+     * to a generated {@link BiConsumer}. Direct field writes, which the lambda metafactory
+     * does not support, use an exact-typed method handle.
+     *
+     * @param lookup The lookup in the target class
+     * @param setterHandle The setter handle from the source mapper
+     * @param expectedType The setter's parameter type
+     * @return The compiled setter
+     */
+    @SuppressWarnings("unchecked")
+    private BiConsumer<Object, Object> compileSetter(MethodHandles.Lookup lookup, MethodHandle setterHandle, Class<?> expectedType) {
+        try {
+            CallSite site = LambdaMetafactory.metafactory(
+                    lookup,
+                    "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    setterHandle,
+                    MethodType.methodType(void.class, setterHandle.type().parameterType(0), boxed(expectedType))
+            );
+            return (BiConsumer<Object, Object>) site.getTarget().invoke();
+        } catch(Throwable t) {
+            if (log.isTraceEnabled()) {
+                log.trace("Unable to generate a setter for " + setterHandle + ", using a method handle", t);
+            }
+            final MethodHandle exact = setterHandle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            return (target, value) -> {
+                try {
+                    exact.invokeExact(target, value);
+                } catch(Throwable e) {
+                    throw new InvocationFailure(e);
+                }
+            };
+        }
+    }
+
+    /**
+     * Decodes the given Map into a new instance of the target type
+     *
+     * @param map The input map; null is treated as an empty map
+     * @return The decoded object
+     * @throws ObjectMapper.ObjectMapperException if any failures occur
+     */
+    public T decode(Map<String, Object> map) throws ObjectMapper.ObjectMapperException {
+        if (map == null) {
+            map = new HashMap<>();
+        }
+        Object result;
+        try {
+            result = instantiator.get();
+            for (DecodeStep step : decodeSteps) {
+                Object value = map.get(step.key);
+                if (value != null) {
+                    step.setter.accept(result, step.converter.convert(value));
+                }
+            }
+        } catch(ObjectMapper.ObjectMapperException | IllegalArgumentException e) {
+            throw e;
+        } catch(Throwable t) {
+            throw unwrap(t);
+        }
+
+        if (initializer != null) {
+            try {
+                Object[] params = new Object[1];
+                params[0] = result;
+                initializer.invokeWithArguments(params);
+            } catch(Throwable t) {
+                throw new ObjectMapper.ObjectMapperException(t);
+            }
+        }
+
+        if (result instanceof MapDecodable) {
+            ((MapDecodable) result).initializeFromMap(map);
+        }
+
+        return targetClass.cast(result);
+    }
+
+    /**
+     * Encodes the given object into a Map that {@link #decode(Map)} would turn back into
+     * an equivalent object. Null field values are omitted. Nested fields are encoded by
+     * their own compiled mappers; values of any other type are placed in the Map as-is.
+     *
+     * @param object The object to encode
+     * @return The encoded map, or an empty map if the input is null
+     * @throws ObjectMapper.ObjectMapperException if any failures occur
+     */
+    public Map<String, Object> encode(T object) throws ObjectMapper.ObjectMapperException {
+        Map<String, Object> output = new HashMap<>();
+        if (object == null) {
+            return output;
+        }
+        try {
+            for (EncodeStep step : encodeSteps) {
+                Object value = step.getter.apply(object);
+                if (value != null) {
+                    if (step.nestedMapper != null) {
+                        value = encodeNested(step.nestedMapper, value);
+                    }
+                    output.put(step.key, value);
+                }
+            }
+        } catch(Throwable t) {
+            throw unwrap(t);
+        }
+        return output;
+    }
+
+    /**
+     * Encodes a nested value, which may be a single object, a Collection, or a Map
+     * of nested objects. Members that are not instances of the nested type are copied
+     * as-is.
+     *
+     * @param nestedMapper The mapper for the nested type
+     * @param value The value to encode
+     * @return The encoded value
+     * @throws ObjectMapper.ObjectMapperException if any failures occur
+     */
+    @SuppressWarnings("unchecked")
+    private Object encodeNested(ObjectMapper<?> nestedMapper, Object value) throws ObjectMapper.ObjectMapperException {
+        CompiledObjectMapper<Object> nestedCompiled = (CompiledObjectMapper<Object>) nestedMapper.compiled();
+        Class<?> nestedType = nestedMapper.getTargetClass();
+        if (nestedType.isInstance(value)) {
+            return nestedCompiled.encode(value);
+        } else if (value instanceof Collection) {
+            List<Object> output = new ArrayList<>(((Collection<?>) value).size());
+            for (Object member : (Collection<?>) value) {
+                output.add(nestedType.isInstance(member) ? nestedCompiled.encode(member) : member);
+            }
+            return output;
+        } else if (value instanceof Map) {
+            Map<String, Object> output = new HashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                Object member = entry.getValue();
+                output.put(entry.getKey(), nestedType.isInstance(member) ? nestedCompiled.encode(member) : member);
+            }
+            return output;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the target class
+     * @return The target class
+     */
+    public Class<T> getTargetClass() {
+        return targetClass;
+    }
+
+    /**
+     * Wraps a getter method handle in an exact-typed Function
+     * @param handle The getter handle
+     * @return The function
+     */
+    private Function<Object, Object> handleGetter(MethodHandle handle) {
+        final MethodHandle exact = handle.asType(MethodType.methodType(Object.class, Object.class));
+        return target -> {
+            try {
+                return (Object) exact.invokeExact(target);
+            } catch(Throwable e) {
+                throw new InvocationFailure(e);
+            }
+        };
+    }
+}
@@ -13,6 +13,7 @@ import javax.validation.constraints.Null;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -68,6 +69,14 @@ public class IdentityLinkUtil {
      * The Identity associated with this utility
      */
     private final Identity identity;
+    /**
+     * The optional shared ManagedAttribute index
+     */
+    private ManagedAttributeIndex managedAttributeIndex;
+    /**
+     * The ManagedAttribute resolver, created on first use
+     */
+    private ManagedAttributeResolver managedAttributeResolver;
     /**
      * Identity Link utility constructor
      * @param context The Sailpoint context
@@ -173,24 +182,47 @@ public class IdentityLinkUtil {
         if (ie == null) {
             throw new NullPointerException("IdentityEntitlement");
         }
-        QueryOptions qo = new QueryOptions();
-        qo.addFilter(Filter.eq("application.name", ie.getApplication().getName()));
-        qo.addFilter(Filter.eq("attribute", ie.getName()));
-        qo.addFilter(Filter.eq("value", ie.getValue()));
+        if (ie.getValue() == null) {
+            return Optional.empty();
+        }
+        return getManagedAttributeResolver().resolve(new ManagedAttributeResolver.Key(ie.getAppName(), ie.getName(), ie.getStringValue()));
+    }
 
-        List<ManagedAttribute> managedAttributes = context.getObjects(ManagedAttribute.class, qo);
+    /**
+     * Retrieves the managed attributes for the given IdentityEntitlements in batches,
+     * using a {@link ManagedAttributeResolver}. Entitlements with no matching managed
+     * attribute are absent from the output.
+     *
+     * @param entitlements The IdentityEntitlements
+     * @return A map from each IdentityEntitlement to its managed attribute
+     * @throws GeneralException If the query fails for some reason
+     * @throws TooManyResultsException If an entitlement matches more than 1 managed attribute
+     */
+    public Map<IdentityEntitlement, ManagedAttribute> findManagedAttributes(Collection<IdentityEntitlement> entitlements) throws GeneralException {
+        Map<IdentityEntitlement, ManagedAttributeResolver.Key> keys = new LinkedHashMap<>();
+        for(IdentityEntitlement ie : Util.safeIterable(entitlements)) {
+            if (ie != null && ie.getValue() != null) {
+                keys.put(ie, new ManagedAttributeResolver.Key(ie.getAppName(), ie.getName(), ie.getStringValue()));
+            }
+        }
 
-        if (managedAttributes == null || managedAttributes.size() == 0) {
-            return Optional.empty();
-        } else if (managedAttributes.size() == 1) {
-            return Optional.of(managedAttributes.get(0));
-        } else {
-            throw new TooManyResultsException(ManagedAttribute.class, qo.toString(), managedAttributes.size());
+        Map<ManagedAttributeResolver.Key, ManagedAttribute> resolved = getManagedAttributeResolver().resolve(keys.values());
+
+        Map<IdentityEntitlement, ManagedAttribute> result = new LinkedHashMap<>();
+        for(Map.Entry<IdentityEntitlement, ManagedAttributeResolver.Key> entry : keys.entrySet()) {
+            ManagedAttribute ma = resolved.get(entry.getValue());
+            if (ma != null) {
+                result.put(entry.getKey(), ma);
+            }
         }
+        return result;
     }
 
     /**
-     * Retrieves all ManagedAttributes associated with the given Link
+     * Retrieves all ManagedAttributes associated with the given Link. The values are
+     * resolved in batches using a {@link ManagedAttributeResolver}, so the number of
+     * queries is proportional to the number of entitlement attributes, not values.
+     *
      * @param link the Link to check
      * @return A map from field name to a list of ManagedAttribute objects
      * @throws GeneralException If the query fails for some reason
@@ -203,36 +235,31 @@ public class IdentityLinkUtil {
 
         Map<String, List<ManagedAttribute>> result = new HashMap<>();
 
-        String appName = link.getApplicationName();
-
         @SuppressWarnings("unchecked")
         Attributes<String, Object> entitlementAttributes = link.getEntitlementAttributes();
-
         for(String fieldName : entitlementAttributes.getKeys()) {
-            List<String> values = Util.otol(entitlementAttributes.get(fieldName));
             result.put(fieldName, new ArrayList<>());
+        }
 
-            for(String value : values) {
-                QueryOptions qo = new QueryOptions();
-                qo.addFilter(Filter.eq("application.name", appName));
-                qo.addFilter(Filter.eq("attribute", fieldName));
-                qo.addFilter(Filter.eq("value", value));
-
-                List<ManagedAttribute> managedAttributes = context.getObjects(ManagedAttribute.class, qo);
-
-                if (managedAttributes != null && managedAttributes.size() > 0) {
-                    if (managedAttributes.size() == 1) {
-                        result.get(fieldName).add(managedAttributes.get(0));
-                    } else {
-                        throw new TooManyResultsException(ManagedAttribute.class, qo.toString(), managedAttributes.size());
-                    }
-                } // else { no match, ignore it }
-            }
+        Map<ManagedAttributeResolver.Key, ManagedAttribute> resolved = getManagedAttributeResolver().resolve(ManagedAttributeResolver.keysFor(link));
+        for(Map.Entry<ManagedAttributeResolver.Key, ManagedAttribute> entry : resolved.entrySet()) {
+            result.computeIfAbsent(entry.getKey().getAttribute(), k -> new ArrayList<>()).add(entry.getValue());
         }
 
         return result;
     }
 
+    /**
+     * Gets the ManagedAttribute resolver, constructing it if needed
+     * @return The resolver
+     */
+    private ManagedAttributeResolver getManagedAttributeResolver() {
+        if (managedAttributeResolver == null) {
+            managedAttributeResolver = new ManagedAttributeResolver(context, managedAttributeIndex);
+        }
+        return managedAttributeResolver;
+    }
+
     /**
      * Gets the applied (possibly null) global link filter
      * @return The applied global link filter
@@ -598,4 +625,16 @@ public class IdentityLinkUtil {
     public void setGlobalLinkFilter(Filter globalLinkFilter) {
         this.globalLinkFilter = globalLinkFilter;
     }
+
+    /**
+     * Sets a shared index to consult before querying for ManagedAttributes, such
+     * as {@link ManagedAttributeIndex#getSharedInstance()}. If not set, the
+     * ManagedAttribute methods always query the database, though still in batches.
+     *
+     * @param managedAttributeIndex The index, or null to disable
+     */
+    public void setManagedAttributeIndex(ManagedAttributeIndex managedAttributeIndex) {
+        this.managedAttributeIndex = managedAttributeIndex;
+        this.managedAttributeResolver = null;
+    }
 }
@@ -0,0 +1,454 @@
+package com.identityworksllc.iiq.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import sailpoint.api.IncrementalProjectionIterator;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Filter;
+import sailpoint.object.ManagedAttribute;
+import sailpoint.object.QueryOptions;
+import sailpoint.tools.GeneralException;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, read-mostly, in-memory index from entitlement key (application, attribute,
+ * value) to {@link ManagedAttributeResolver.Summary}, intended to be shared across
+ * threads and requests.
+ *
+ * Applications are indexed lazily and in their entirety the first time one of their
+ * keys is requested ("warming"). After the refresh interval elapses, the next lookup
+ * for an application queries only the ManagedAttributes created or modified since
+ * the newest date already indexed. Incremental refresh cannot detect deletions, so
+ * each application is fully rebuilt after the full refresh interval.
+ *
+ * The index is bounded by its total number of entries. When it is full, whole
+ * applications are evicted, least recently used first. An application with more
+ * ManagedAttributes than the bound is never indexed; lookups for it return empty,
+ * and {@link ManagedAttributeResolver} falls back to the database.
+ *
+ * Lookups that miss also return empty, rather than "does not exist", so that a
+ * resolver can confirm against the database, which may use a case-insensitive
+ * collation.
+ */
+public class ManagedAttributeIndex {
+
+    /**
+     * The indexed entries for a single application
+     */
+    private static final class ApplicationEntries {
+        /**
+         * The entries, keyed by attribute and value
+         */
+        private final Map<ManagedAttributeResolver.Key, ManagedAttributeResolver.Summary> entries;
+
+        /**
+         * The time of the last full rebuild
+         */
+        private final long fullRefreshTime;
+
+        /**
+         * The newest created or modified date in the index
+         */
+        private volatile Date highWater;
+
+        /**
+         * The time of the last incremental refresh
+         */
+        private volatile long refreshTime;
+
+        /**
+         * Constructs a new, empty set of entries
+         * @param now The current time
+         */
+        private ApplicationEntries(long now) {
+            this.entries = new ConcurrentHashMap<>();
+            this.fullRefreshTime = now;
+            this.refreshTime = now;
+        }
+
+        /**
+         * Adds a summary and advances the high water mark
+         * @param summary The summary to add
+         */
+        private void add(ManagedAttributeResolver.Summary summary) {
+            entries.put(summary.getKey(), summary);
+            Date modified = summary.getModified();
+            if (modified != null && (highWater == null || modified.after(highWater))) {
+                highWater = modified;
+            }
+        }
+    }
+
+    /**
+     * The default maximum number of entries across all applications
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 250000;
+
+    /**
+     * The shared instance
+     */
+    private static final ManagedAttributeIndex sharedInstance = new ManagedAttributeIndex(DEFAULT_MAX_ENTRIES, TimeUnit.MINUTES.toMillis(1), TimeUnit.HOURS.toMillis(1));
+
+    /**
+     * The indexed applications, in access order for LRU eviction. All access is
+     * synchronized on this map.
+     */
+    private final LinkedHashMap<String, ApplicationEntries> applications;
+
+    /**
+     * The full refresh interval in milliseconds
+     */
+    private final long fullRefreshMillis;
+
+    /**
+     * Hit counter
+     */
+    private final AtomicLong hits;
+
+    /**
+     * Logger
+     */
+    private final Log log;
+
+    /**
+     * The maximum number of entries across all applications
+     */
+    private final int maxEntries;
+
+    /**
+     * Miss counter
+     */
+    private final AtomicLong misses;
+
+    /**
+     * The incremental refresh interval in milliseconds
+     */
+    private final long refreshMillis;
+
+    /**
+     * Applications too large to index, by name, with the time they were measured
+     */
+    private final Map<String, Long> tooLarge;
+
+    /**
+     * The warms in progress, by application name, so that only one thread warms a given
+     * application and other threads can wait for its result without holding any lock
+     */
+    private final Map<String, FutureTask<ApplicationEntries>> warming;
+
+    /**
+     * Constructs a new index
+     *
+     * @param maxEntries The maximum number of entries across all applications
+     * @param refreshMillis The interval after which an application is incrementally refreshed
+     * @param fullRefreshMillis The interval after which an application is fully rebuilt
+     */
+    public ManagedAttributeIndex(int maxEntries, long refreshMillis, long fullRefreshMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.refreshMillis = refreshMillis;
+        this.fullRefreshMillis = fullRefreshMillis;
+        this.applications = new LinkedHashMap<>(16, 0.75f, true);
+        this.tooLarge = new ConcurrentHashMap<>();
+        this.warming = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.log = LogFactory.getLog(ManagedAttributeIndex.class);
+    }
+
+    /**
+     * Gets the shared, JVM-wide index
+     * @return The shared index
+     */
+    public static ManagedAttributeIndex getSharedInstance() {
+        return sharedInstance;
+    }
+
+    /**
+     * Warms the application, or waits for a warm already in progress in another thread
+     * and returns its result
+     *
+     * @param context The IIQ context
+     * @param application The application name
+     * @param now The current time
+     * @return The entries, or null if the application is too large
+     * @throws GeneralException if the warm fails or the wait is interrupted
+     */
+    private ApplicationEntries awaitWarm(SailPointContext context, String application, long now) throws GeneralException {
+        FutureTask<ApplicationEntries> task = new FutureTask<>(() -> {
+            // Another thread may have finished warming since this one looked
+            ApplicationEntries current;
+            synchronized (applications) {
+                current = applications.get(application);
+            }
+            if (current != null && now - current.fullRefreshTime < fullRefreshMillis) {
+                return current;
+            }
+            return warm(context, application, now);
+        });
+        FutureTask<ApplicationEntries> existing = warming.putIfAbsent(application, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                warming.remove(application, task);
+            }
+        } else {
+            task = existing;
+        }
+        try {
+            return task.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralException("Interrupted waiting for the ManagedAttribute index of " + application, e);
+        } catch(ExecutionException e) {
+            if (e.getCause() instanceof GeneralException) {
+                throw (GeneralException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new GeneralException(e.getCause());
+        }
+    }
+
+    /**
+     * Removes all applications from the index
+     */
+    public void clear() {
+        synchronized (applications) {
+            applications.clear();
+        }
+        tooLarge.clear();
+    }
+
+    /**
+     * Looks up the given key, warming or refreshing its application if needed
+     *
+     * @param context The IIQ context, used to query if the application needs to be warmed or refreshed
+     * @param key The entitlement key
+     * @return The summary, or empty if the key is not indexed
+     * @throws GeneralException if warming or refreshing the application fails
+     */
+    public Optional<ManagedAttributeResolver.Summary> get(SailPointContext context, ManagedAttributeResolver.Key key) throws GeneralException {
+        ApplicationEntries entries = entriesFor(context, key.getApplication());
+        ManagedAttributeResolver.Summary summary = (entries != null) ? entries.entries.get(key) : null;
+        if (summary != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return Optional.ofNullable(summary);
+    }
+
+    /**
+     * Gets the number of lookups that found an entry
+     * @return The hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that did not find an entry
+     * @return The miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes the given application from the index, so it will be rebuilt on next use
+     * @param application The application name
+     */
+    public void invalidate(String application) {
+        synchronized (applications) {
+            applications.remove(application);
+        }
+        tooLarge.remove(application);
+    }
+
+    /**
+     * Gets the total number of entries in the index
+     * @return The number of entries
+     */
+    public int size() {
+        synchronized (applications) {
+            int size = 0;
+            for (ApplicationEntries entries : applications.values()) {
+                size += entries.entries.size();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Returns the entries for the application, warming or refreshing as needed. Returns
+     * null if the application is too large to index.
+     *
+     * Only one thread warms a given application at a time; other threads looking up
+     * the same application wait for its result rather than issuing duplicate queries.
+     * No monitor is held while an application is loaded, so lookups and refreshes of
+     * other applications, and calls such as {@link #size()}, are never blocked by a warm.
+     *
+     * @param context The IIQ context
+     * @param application The application name
+     * @return The entries, or null
+     * @throws GeneralException if any queries fail
+     */
+    private ApplicationEntries entriesFor(SailPointContext context, String application) throws GeneralException {
+        long now = System.currentTimeMillis();
+        Long measured = tooLarge.get(application);
+        if (measured != null) {
+            if (now - measured < fullRefreshMillis) {
+                return null;
+            }
+            tooLarge.remove(application);
+        }
+
+        ApplicationEntries entries;
+        synchronized (applications) {
+            entries = applications.get(application);
+        }
+        if (entries != null && now - entries.fullRefreshTime >= fullRefreshMillis) {
+            entries = null;
+        }
+
+        if (entries == null) {
+            entries = awaitWarm(context, application, now);
+        } else if (now - entries.refreshTime >= refreshMillis) {
+            synchronized (entries) {
+                if (now - entries.refreshTime >= refreshMillis) {
+                    refresh(context, application, entries);
+                    entries.refreshTime = now;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Evicts least recently used applications until the index is within its bound.
+     * Must be called while synchronized on {@link #applications}.
+     */
+    private void evict() {
+        int size = 0;
+        for (ApplicationEntries entries : applications.values()) {
+            size += entries.entries.size();
+        }
+        Iterator<Map.Entry<String, ApplicationEntries>> iterator = applications.entrySet().iterator();
+        while (size > maxEntries && iterator.hasNext()) {
+            Map.Entry<String, ApplicationEntries> eldest = iterator.next();
+            size -= eldest.getValue().entries.size();
+            iterator.remove();
+            if (log.isDebugEnabled()) {
+                log.debug("Evicted application " + eldest.getKey() + " from the ManagedAttribute index");
+            }
+        }
+    }
+
+    /**
+     * Reads the summaries of ManagedAttributes matching the filter into the entries
+     *
+     * @param context The IIQ context
+     * @param application The application name
+     * @param filter The filter
+     * @param entries The entries to populate
+     * @param limit Stop and return false if more than this many entries would be present
+     * @return True if the read completed within the limit
+     * @throws GeneralException if the query fails
+     */
+    private boolean load(SailPointContext context, String application, Filter filter, ApplicationEntries entries, int limit) throws GeneralException {
+        QueryOptions qo = new QueryOptions();
+        qo.addFilter(filter);
+        qo.setCacheResults(false);
+        qo.setTransactionLock(false);
+
+        IncrementalProjectionIterator rows = new IncrementalProjectionIterator(context, ManagedAttribute.class, qo, ManagedAttributeResolver.SUMMARY_FIELDS);
+        while (rows.hasNext()) {
+            Object[] row = rows.next();
+            if (row[0] == null || row[2] == null) {
+                continue;
+            }
+            entries.add(ManagedAttributeResolver.toSummary(application, row));
+            if (entries.entries.size() > limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Incrementally refreshes the entries for an application, reading only the
+     * ManagedAttributes created or modified at or after the high water mark
+     *
+     * @param context The IIQ context
+     * @param application The application name
+     * @param entries The entries to refresh
+     * @throws GeneralException if the query fails
+     */
+    private void refresh(SailPointContext context, String application, ApplicationEntries entries) throws GeneralException {
+        Date since = entries.highWater;
+        if (since == null) {
+            since = new Date(entries.fullRefreshTime);
+        }
+        Filter filter = Filter.and(
+                Filter.eq("application.name", application),
+                Filter.or(Filter.ge("created", since), Filter.ge("modified", since))
+        );
+        int before = entries.entries.size();
+        if (!load(context, application, filter, entries, maxEntries)) {
+            invalidate(application);
+            tooLarge.put(application, System.currentTimeMillis());
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Refreshed ManagedAttribute index for " + application + " since " + since + "; " + (entries.entries.size() - before) + " new entries");
+        }
+        if (entries.entries.size() != before) {
+            synchronized (applications) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Fully indexes an application
+     *
+     * @param context The IIQ context
+     * @param application The application name
+     * @param now The current time
+     * @return The entries, or null if the application is too large
+     * @throws GeneralException if the query fails
+     */
+    private ApplicationEntries warm(SailPointContext context, String application, long now) throws GeneralException {
+        ApplicationEntries entries = new ApplicationEntries(now);
+        if (!load(context, application, Filter.eq("application.name", application), entries, maxEntries)) {
+            log.info("Application " + application + " has more than " + maxEntries + " ManagedAttributes and will not be indexed");
+            tooLarge.put(application, now);
+            synchronized (applications) {
+                applications.remove(application);
+            }
+            return null;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Warmed ManagedAttribute index for " + application + " with " + entries.entries.size() + " entries");
+        }
+        synchronized (applications) {
+            applications.put(application, entries);
+            evict();
+        }
+        return entries;
+    }
+}
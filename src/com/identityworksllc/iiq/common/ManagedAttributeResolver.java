@@ -0,0 +1,468 @@
+package com.identityworksllc.iiq.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Attributes;
+import sailpoint.object.Filter;
+import sailpoint.object.Link;
+import sailpoint.object.ManagedAttribute;
+import sailpoint.object.QueryOptions;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.Util;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Resolves entitlement values (application, attribute, value) to ManagedAttributes
+ * in batches, rather than with one query per value.
+ *
+ * Requested keys are grouped by application and attribute, then resolved using
+ * projection queries with a chunked `Filter.in("value", ...)`, so that resolving the
+ * 1,200 groups of an AD account costs two queries rather than 1,200. The result of
+ * the projection is a {@link Summary} containing the ID and display data, which is
+ * enough for most rules and UI endpoints. If full objects are needed, use
+ * {@link #resolve(Collection)}, which loads them by ID, again in chunks.
+ *
+ * If a {@link ManagedAttributeIndex} is supplied, keys are looked up in the index
+ * first, and only index misses go to the database.
+ *
+ * ```
+ * ManagedAttributeResolver resolver = new ManagedAttributeResolver(context, ManagedAttributeIndex.getSharedInstance());
+ * Map<ManagedAttributeResolver.Key, ManagedAttributeResolver.Summary> groups = resolver.resolveSummaries(ManagedAttributeResolver.keysFor(link));
+ * ```
+ */
+public class ManagedAttributeResolver {
+
+    /**
+     * An entitlement key, made up of the application name, attribute name, and value.
+     * A null attribute indicates a permission-type ManagedAttribute.
+     */
+    public static final class Key implements Serializable {
+        /**
+         * The application name
+         */
+        private final String application;
+
+        /**
+         * The attribute name
+         */
+        private final String attribute;
+
+        /**
+         * The entitlement value
+         */
+        private final String value;
+
+        /**
+         * Constructs a new entitlement key
+         * @param application The application name
+         * @param attribute The attribute name
+         * @param value The entitlement value
+         */
+        public Key(String application, String attribute, String value) {
+            this.application = Objects.requireNonNull(application, "application");
+            this.attribute = attribute;
+            this.value = Objects.requireNonNull(value, "value");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return application.equals(key.application) && Objects.equals(attribute, key.attribute) && value.equals(key.value);
+        }
+
+        /**
+         * Gets the application name
+         * @return The application name
+         */
+        public String getApplication() {
+            return application;
+        }
+
+        /**
+         * Gets the attribute name
+         * @return The attribute name
+         */
+        public String getAttribute() {
+            return attribute;
+        }
+
+        /**
+         * Gets the entitlement value
+         * @return The entitlement value
+         */
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(application, attribute, value);
+        }
+
+        @Override
+        public String toString() {
+            return application + "|" + attribute + "|" + value;
+        }
+    }
+
+    /**
+     * The ID and display data of a ManagedAttribute, as read from a projection query
+     */
+    public static final class Summary implements Serializable {
+        /**
+         * The display name, which may be null
+         */
+        private final String displayName;
+
+        /**
+         * The ManagedAttribute ID
+         */
+        private final String id;
+
+        /**
+         * The entitlement key
+         */
+        private final Key key;
+
+        /**
+         * The last modified (or created) date of the ManagedAttribute
+         */
+        private final Date modified;
+
+        /**
+         * Whether the ManagedAttribute is requestable
+         */
+        private final boolean requestable;
+
+        /**
+         * Constructs a new summary
+         * @param key The entitlement key
+         * @param id The ManagedAttribute ID
+         * @param displayName The display name
+         * @param requestable The requestable flag
+         * @param modified The last modified (or created) date
+         */
+        public Summary(Key key, String id, String displayName, boolean requestable, Date modified) {
+            this.key = Objects.requireNonNull(key, "key");
+            this.id = Objects.requireNonNull(id, "id");
+            this.displayName = displayName;
+            this.requestable = requestable;
+            this.modified = modified;
+        }
+
+        /**
+         * Gets the display name, or the value if no display name is set
+         * @return The display name
+         */
+        public String getDisplayableName() {
+            return Util.isNotNullOrEmpty(displayName) ? displayName : key.getValue();
+        }
+
+        /**
+         * Gets the display name
+         * @return The display name, possibly null
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * Gets the ManagedAttribute ID
+         * @return The ID
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Gets the entitlement key
+         * @return The entitlement key
+         */
+        public Key getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the last modified (or created) date
+         * @return The date, possibly null
+         */
+        public Date getModified() {
+            return modified;
+        }
+
+        /**
+         * Gets the requestable flag
+         * @return True if the ManagedAttribute is requestable
+         */
+        public boolean isRequestable() {
+            return requestable;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary[" + key + " -> " + id + "]";
+        }
+    }
+
+    /**
+     * The default number of values in a single Filter.in clause. Oracle does not
+     * permit more than 1,000.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * The projection fields read by {@link #toSummary(String, Object[])}
+     */
+    /*package*/ static final List<String> SUMMARY_FIELDS = Collections.unmodifiableList(Arrays.asList("id", "attribute", "value", "displayName", "requestable", "created", "modified"));
+
+    /**
+     * The maximum number of values in a single Filter.in clause
+     */
+    private int chunkSize;
+
+    /**
+     * The IIQ context
+     */
+    private final SailPointContext context;
+
+    /**
+     * The optional shared index
+     */
+    private final ManagedAttributeIndex index;
+
+    /**
+     * Logger
+     */
+    private final Log log;
+
+    /**
+     * Constructs a new resolver that always queries the database
+     * @param context The IIQ context
+     */
+    public ManagedAttributeResolver(SailPointContext context) {
+        this(context, null);
+    }
+
+    /**
+     * Constructs a new resolver that consults the given index before the database
+     * @param context The IIQ context
+     * @param index The index, or null to always query the database
+     */
+    public ManagedAttributeResolver(SailPointContext context, ManagedAttributeIndex index) {
+        this.context = Objects.requireNonNull(context);
+        this.index = index;
+        this.chunkSize = DEFAULT_CHUNK_SIZE;
+        this.log = LogFactory.getLog(ManagedAttributeResolver.class);
+    }
+
+    /**
+     * Returns the entitlement keys for all entitlement attribute values on the given Link
+     *
+     * @param link The Link
+     * @return The keys, in attribute and value order
+     */
+    public static List<Key> keysFor(Link link) {
+        List<Key> keys = new ArrayList<>();
+        if (link == null) {
+            return keys;
+        }
+        @SuppressWarnings("unchecked")
+        Attributes<String, Object> entitlementAttributes = link.getEntitlementAttributes();
+        if (entitlementAttributes != null) {
+            for (String fieldName : entitlementAttributes.getKeys()) {
+                for (String value : Util.safeIterable(Util.otol(entitlementAttributes.get(fieldName)))) {
+                    if (value != null) {
+                        keys.add(new Key(link.getApplicationName(), fieldName, value));
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Converts a projection row, in the order of {@link #SUMMARY_FIELDS}, to a summary
+     *
+     * @param application The application name
+     * @param row The projection row
+     * @return The summary
+     */
+    /*package*/ static Summary toSummary(String application, Object[] row) {
+        Date created = (Date) row[5];
+        Date modified = (Date) row[6];
+        Key key = new Key(application, Util.otoa(row[1]), Util.otoa(row[2]));
+        return new Summary(key, Util.otoa(row[0]), Util.otoa(row[3]), Util.otob(row[4]), modified != null ? modified : created);
+    }
+
+    /**
+     * Gets the chunk size
+     * @return The maximum number of values in a single Filter.in clause
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Resolves the given keys to full ManagedAttribute objects. Summaries are resolved
+     * first, then the objects are loaded by ID in chunks. Keys with no ManagedAttribute
+     * are absent from the output.
+     *
+     * @param keys The keys to resolve
+     * @return A map from key to ManagedAttribute, in the iteration order of the input
+     * @throws GeneralException if any queries fail
+     * @throws TooManyResultsException if a key matches more than one ManagedAttribute
+     */
+    public Map<Key, ManagedAttribute> resolve(Collection<Key> keys) throws GeneralException {
+        Map<Key, Summary> summaries = resolveSummaries(keys);
+
+        Map<String, ManagedAttribute> byId = new HashMap<>();
+        List<String> ids = new ArrayList<>();
+        for (Summary summary : summaries.values()) {
+            ids.add(summary.getId());
+        }
+        for (int start = 0; start < ids.size(); start += chunkSize) {
+            List<String> chunk = ids.subList(start, Math.min(ids.size(), start + chunkSize));
+            QueryOptions qo = new QueryOptions();
+            qo.addFilter(Filter.in("id", chunk));
+            for (ManagedAttribute ma : Util.safeIterable(context.getObjects(ManagedAttribute.class, qo))) {
+                byId.put(ma.getId(), ma);
+            }
+        }
+
+        Map<Key, ManagedAttribute> result = new LinkedHashMap<>();
+        for (Map.Entry<Key, Summary> entry : summaries.entrySet()) {
+            ManagedAttribute ma = byId.get(entry.getValue().getId());
+            if (ma != null) {
+                result.put(entry.getKey(), ma);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a single key, returning an empty Optional if there is no match
+     *
+     * @param key The key to resolve
+     * @return The ManagedAttribute, if one exists
+     * @throws GeneralException if any queries fail
+     * @throws TooManyResultsException if the key matches more than one ManagedAttribute
+     */
+    public Optional<ManagedAttribute> resolve(Key key) throws GeneralException {
+        return Optional.ofNullable(resolve(Collections.singletonList(key)).get(key));
+    }
+
+    /**
+     * Resolves the given keys to ManagedAttribute summaries. Keys are looked up in the
+     * index, if one is configured, and the remainder are grouped by application and
+     * attribute and queried in chunks. Keys with no ManagedAttribute are absent from
+     * the output.
+     *
+     * If the database returns a value differing only in case from the requested value,
+     * as can happen with case-insensitive collations, it is matched to every requested
+     * key with that value that has no exact match.
+     *
+     * @param keys The keys to resolve
+     * @return A map from key to summary, in the iteration order of the input
+     * @throws GeneralException if any queries fail
+     * @throws TooManyResultsException if a key matches more than one ManagedAttribute
+     */
+    public Map<Key, Summary> resolveSummaries(Collection<Key> keys) throws GeneralException {
+        Map<Key, Summary> found = new HashMap<>();
+        Map<Key, Map<String, List<Key>>> pending = new LinkedHashMap<>();
+
+        for (Key key : Util.safeIterable(keys)) {
+            if (key == null || found.containsKey(key)) {
+                continue;
+            }
+            if (index != null) {
+                Optional<Summary> indexed = index.get(context, key);
+                if (indexed.isPresent()) {
+                    found.put(key, indexed.get());
+                    continue;
+                }
+            }
+            // The group key has an empty value, so it can reuse the Key class
+            Key group = new Key(key.getApplication(), key.getAttribute(), "");
+            pending.computeIfAbsent(group, g -> new LinkedHashMap<>()).computeIfAbsent(key.getValue().toLowerCase(Locale.ROOT), v -> new ArrayList<>()).add(key);
+        }
+
+        int queries = 0;
+        for (Map.Entry<Key, Map<String, List<Key>>> entry : pending.entrySet()) {
+            Key group = entry.getKey();
+            Map<String, List<Key>> requested = entry.getValue();
+            List<String> values = new ArrayList<>();
+            for (List<Key> sameFolded : requested.values()) {
+                for (Key key : sameFolded) {
+                    values.add(key.getValue());
+                }
+            }
+
+            for (int start = 0; start < values.size(); start += chunkSize) {
+                List<String> chunk = values.subList(start, Math.min(values.size(), start + chunkSize));
+                QueryOptions qo = new QueryOptions();
+                qo.addFilter(Filter.eq("application.name", group.getApplication()));
+                if (group.getAttribute() != null) {
+                    qo.addFilter(Filter.eq("attribute", group.getAttribute()));
+                } else {
+                    qo.addFilter(Filter.isnull("attribute"));
+                }
+                qo.addFilter(Filter.in("value", chunk));
+
+                queries++;
+                Iterator<Object[]> rows = context.search(ManagedAttribute.class, qo, SUMMARY_FIELDS);
+                try {
+                    while (rows.hasNext()) {
+                        Summary summary = toSummary(group.getApplication(), rows.next());
+                        List<Key> candidates = requested.get(summary.getKey().getValue().toLowerCase(Locale.ROOT));
+                        if (candidates == null) {
+                            continue;
+                        }
+                        // Several case variants of one value may be requested in the same batch
+                        for (Key target : candidates) {
+                            Summary existing = found.get(target);
+                            if (existing != null && !existing.getId().equals(summary.getId())) {
+                                // Prefer the exact match when the database is case-insensitive
+                                if (existing.getKey().equals(target) == summary.getKey().equals(target)) {
+                                    throw new TooManyResultsException(ManagedAttribute.class, target.toString(), 2);
+                                } else if (existing.getKey().equals(target)) {
+                                    continue;
+                                }
+                            }
+                            found.put(target, summary);
+                        }
+                    }
+                } finally {
+                    Util.flushIterator(rows);
+                }
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Resolved " + found.size() + " ManagedAttributes from " + Util.size(keys) + " keys using " + queries + " queries");
+        }
+
+        Map<Key, Summary> result = new LinkedHashMap<>();
+        for (Key key : Util.safeIterable(keys)) {
+            if (key != null && found.containsKey(key)) {
+                result.put(key, found.get(key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets the chunk size
+     * @param chunkSize The maximum number of values in a single Filter.in clause
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+}
@@ -1,16 +1,20 @@
 package com.identityworksllc.iiq.common;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.fasterxml.jackson.databind.type.MapType;
 import sailpoint.api.SailPointContext;
 import sailpoint.object.*;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.MapUtil;
+import sailpoint.tools.Util;
 import sailpoint.transformer.IdentityTransformer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -22,16 +26,41 @@ import java.util.stream.Collectors;
 public class Mapper {
 
     /**
-     * Returns the default ObjectMapper instance.
-     * TOOD caching and cloning of the ObjectMapper?
+     * The preconfigured ObjectMapper for each class passed to {@link #objectToMap(Object)}.
+     * Each class needs its own mapper, since the filter mixin is registered per class.
+     * ObjectMappers are thread-safe once configured. A ClassValue is used so that the
+     * cache does not prevent plugin classes from being unloaded.
+     */
+    private static final ClassValue<ObjectMapper> MAPPERS = new ClassValue<ObjectMapper>() {
+        @Override
+        protected ObjectMapper computeValue(Class<?> type) {
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.addMixIn(type, Mappable.FilterMixin.class);
+            mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            mapper.setFilterProvider(new SimpleFilterProvider().addFilter("mappableFilter", SimpleBeanPropertyFilter.serializeAll()));
+            return mapper;
+        }
+    };
+
+    /**
+     * Returns the cached, preconfigured ObjectMapper for the given class. This is
+     * package-private so that the caching can be tested.
+     *
+     * @param type The class to be converted
      * @return The ObjectMapper instance
      */
-    private static ObjectMapper getMapper() {
-        return new ObjectMapper();
+    static ObjectMapper getMapper(Class<?> type) {
+        return MAPPERS.get(type);
     }
 
     /**
-     * A static version of the utility implemented via {@link Mappable}
+     * A static version of the utility implemented via {@link Mappable}.
+     *
+     * Identities, Links, Applications, ProvisioningPlans, and AttributeAssignments are
+     * converted by the hand-written methods in this class, without Jackson. Any other
+     * object is converted directly to a Map by a cached Jackson mapper, without being
+     * written to a JSON string.
+     *
      * @param anything Whatever object is needed
      * @return The object converted to a Map
      * @throws GeneralException if anything fails
@@ -41,15 +70,23 @@ public class Mapper {
             return new HashMap<>();
         }
 
-        ObjectMapper mapper = getMapper();
-        mapper.addMixIn(anything.getClass(), Mappable.FilterMixin.class);
-        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        if (anything instanceof Identity) {
+            return toMap((Identity) anything);
+        } else if (anything instanceof Link) {
+            return toMap((Link) anything);
+        } else if (anything instanceof Application) {
+            return toMap((Application) anything);
+        } else if (anything instanceof ProvisioningPlan) {
+            return new HashMap<>(toMap((ProvisioningPlan) anything));
+        } else if (anything instanceof AttributeAssignment) {
+            return toMap((AttributeAssignment) anything);
+        }
 
+        ObjectMapper mapper = getMapper(anything.getClass());
         try {
-            String json = mapper.writeValueAsString(anything);
-            MapType javaType = mapper.getTypeFactory().constructMapType(Map.class, String.class, Object.class);
-            return mapper.readValue(json, javaType);
-        } catch(JsonProcessingException e) {
+            MapType javaType = mapper.getTypeFactory().constructMapType(HashMap.class, String.class, Object.class);
+            return mapper.convertValue(anything, javaType);
+        } catch(IllegalArgumentException e) {
             throw new GeneralException(e);
         }
     }
@@ -146,6 +183,40 @@ public class Mapper {
         return plan.toMap();
     }
 
+    /**
+     * Transforms the given Identity into a Map, without a context. Unlike the output of
+     * {@link #toMap(SailPointContext, Identity)}, this includes only the identity's
+     * attributes, its basic properties, its manager, and its links.
+     *
+     * @param identity The identity
+     * @return The resulting Map
+     */
+    public static Map<String, Object> toMap(Identity identity) {
+        Map<String, Object> map = new HashMap<>();
+        if (identity.getAttributes() != null) {
+            map.putAll(identity.getAttributes());
+        }
+        map.put("id", identity.getId());
+        map.put("name", identity.getName());
+        map.put("displayName", identity.getDisplayableName());
+        map.put("firstname", identity.getFirstname());
+        map.put("lastname", identity.getLastname());
+        map.put("email", identity.getEmail());
+        map.put("inactive", identity.isInactive());
+        map.put("correlated", identity.isCorrelated());
+        map.put("type", identity.getType());
+        if (identity.getManager() != null) {
+            map.put("manager.id", identity.getManager().getId());
+            map.put("manager.name", identity.getManager().getName());
+        }
+        List<Map<String, Object>> links = new ArrayList<>();
+        for(Link link : Util.safeIterable(identity.getLinks())) {
+            links.add(toMap(link));
+        }
+        map.put("links", links);
+        return map;
+    }
+
     public static Map<String, Object> toMap(SailPointContext context, Identity identity) throws GeneralException {
         IdentityTransformer transformer = new IdentityTransformer(context);
         transformer.setLinkExpand(true);
@@ -219,8 +290,10 @@ public class Mapper {
         map.put("nativeIdentity", link.getNativeIdentity());
         map.put("displayName", link.getDisplayableName());
         map.put("instance", link.getInstance());
-        map.put("identity.name", link.getIdentity().getName());
-        map.put("identity.id", link.getIdentity().getId());
+        if (link.getIdentity() != null) {
+            map.put("identity.name", link.getIdentity().getName());
+            map.put("identity.id", link.getIdentity().getId());
+        }
         map.put("application.name", link.getApplicationName());
         map.put("application.id", link.getApplicationId());
         return map;
@@ -14,8 +14,12 @@ import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
@@ -92,7 +96,16 @@ import java.util.function.Supplier;
  * The default for the Configuration and Custom decode() methods is to true (yes do
  * use the cache), and for the Map input it is false.
  *
- * Cached decoded objects will be retained forever.
+ * Cached objects are keyed by a SHA-256 fingerprint of the Map's content (see
+ * {@link #fingerprint(Map)}). On a fingerprint hit, the cached source Map is also
+ * compared to the input with equals(), so two different Maps can never return each
+ * other's decoded objects, even in the event of a collision. The cache is bounded
+ * to {@link #DEFAULT_CACHE_MAX_ENTRIES} entries per mapper by default, evicting the
+ * least recently used entry first. You can change the bounds, or add a maximum entry
+ * age, via {@link #configureCache(int, long, TimeUnit)}.
+ *
+ * The {@link SailpointObjectMapper} subclass can additionally cache by source object
+ * and modification stamp. See {@link SailpointObjectMapper#setStampedCacheEnabled(boolean)}.
  *
  * ----
  *
@@ -220,6 +233,185 @@ public class ObjectMapper<T> {
         }
     }
 
+    /**
+     * A bounded, least-recently-used cache of decoded objects, keyed by the content
+     * fingerprint of the source Map. Each entry retains a structural copy of the source
+     * Map, which is compared against the input on lookup, so a fingerprint collision
+     * results in a cache miss rather than the wrong object.
+     *
+     * All operations are synchronized on the cache instance. Decoding happens outside
+     * of the lock, so two threads may occasionally decode the same Map concurrently;
+     * the last one to finish wins.
+     *
+     * @param <V> The type of the cached decoded objects
+     */
+    public static final class DecodeCache<V> {
+        /**
+         * A single cache entry
+         */
+        private static final class Entry<V> {
+            /**
+             * The timestamp at which this entry was cached
+             */
+            private final long created;
+
+            /**
+             * A copy of the Map from which the value was decoded
+             */
+            private final Map<String, Object> source;
+
+            /**
+             * The decoded value
+             */
+            private final V value;
+
+            private Entry(Map<String, Object> source, V value) {
+                this.created = System.currentTimeMillis();
+                this.source = source;
+                this.value = value;
+            }
+        }
+
+        /**
+         * The entries, in access order, for LRU eviction
+         */
+        private final LinkedHashMap<String, Entry<V>> entries;
+
+        /**
+         * The number of entries evicted due to size or age
+         */
+        private long evictions;
+
+        /**
+         * The number of cache hits
+         */
+        private long hits;
+
+        /**
+         * The maximum age of an entry in milliseconds, or zero for no limit
+         */
+        private volatile long maxAgeMillis;
+
+        /**
+         * The maximum number of entries to retain
+         */
+        private volatile int maxEntries;
+
+        /**
+         * The number of cache misses, including collisions and expired entries
+         */
+        private long misses;
+
+        /**
+         * Constructs a new decode cache
+         *
+         * @param maxEntries The maximum number of entries to retain
+         * @param maxAgeMillis The maximum entry age in milliseconds, or zero for no limit
+         */
+        public DecodeCache(int maxEntries, long maxAgeMillis) {
+            this.maxEntries = Math.max(1, maxEntries);
+            this.maxAgeMillis = Math.max(0, maxAgeMillis);
+            this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                    boolean remove = size() > DecodeCache.this.maxEntries;
+                    if (remove) {
+                        evictions++;
+                    }
+                    return remove;
+                }
+            };
+        }
+
+        /**
+         * Removes all entries from the cache
+         */
+        public synchronized void clear() {
+            entries.clear();
+        }
+
+        /**
+         * Retrieves the cached value for the given source Map, if one exists. The
+         * cached source must be equal to the input; otherwise, this is treated as
+         * a miss.
+         *
+         * @param fingerprint The fingerprint of the source Map
+         * @param source The source Map
+         * @return The cached value, or null if there is none
+         */
+        public synchronized V get(String fingerprint, Map<String, Object> source) {
+            Entry<V> entry = entries.get(fingerprint);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            if (maxAgeMillis > 0 && (System.currentTimeMillis() - entry.created) > maxAgeMillis) {
+                entries.remove(fingerprint);
+                evictions++;
+                misses++;
+                return null;
+            }
+            if (!Objects.equals(entry.source, source)) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return entry.value;
+        }
+
+        /**
+         * @return The number of entries evicted due to size or age limits
+         */
+        public synchronized long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return The number of cache hits
+         */
+        public synchronized long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return The number of cache misses
+         */
+        public synchronized long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Stores the given decoded value. A structural copy of the source Map is
+         * retained so that later modifications to the input do not affect the cache.
+         *
+         * @param fingerprint The fingerprint of the source Map
+         * @param source The source Map
+         * @param value The decoded value
+         */
+        public synchronized void put(String fingerprint, Map<String, Object> source, V value) {
+            entries.put(fingerprint, new Entry<>(copyStructure(source), value));
+        }
+
+        /**
+         * Changes the bounds of this cache. If the new maximum size is smaller than the
+         * current size, the excess entries will be evicted on the next put.
+         *
+         * @param maxEntries The maximum number of entries to retain
+         * @param maxAgeMillis The maximum entry age in milliseconds, or zero for no limit
+         */
+        public synchronized void setLimits(int maxEntries, long maxAgeMillis) {
+            this.maxEntries = Math.max(1, maxEntries);
+            this.maxAgeMillis = Math.max(0, maxAgeMillis);
+        }
+
+        /**
+         * @return The number of entries currently cached
+         */
+        public synchronized int size() {
+            return entries.size();
+        }
+    }
+
     /**
      * Translates from a Class type to a name. By default, just retrieves the name of the class.
      * Subclasses may extend this behavior if additional behavior is required. For example,
@@ -231,6 +423,11 @@ public class ObjectMapper<T> {
         }
     }
 
+    /**
+     * The default maximum number of decoded objects cached per mapper
+     */
+    public static final int DEFAULT_CACHE_MAX_ENTRIES = 64;
+
     /**
      * The type-to-name converter to use, namely the Sailpoint one
      */
@@ -241,6 +438,119 @@ public class ObjectMapper<T> {
      */
     private static final Map<String, ObjectMapper<?>> cachedMappers = new ConcurrentHashMap<>();
 
+    /**
+     * Copies the nested Map and Collection structure of the input, leaving all other
+     * values as-is. Used to snapshot a source Map for the decode cache.
+     *
+     * @param in The input object
+     * @param <V> The type of the input
+     * @return A structural copy of the input
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> V copyStructure(V in) {
+        if (in instanceof Map) {
+            Map<Object, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) in).entrySet()) {
+                copy.put(entry.getKey(), copyStructure(entry.getValue()));
+            }
+            return (V) copy;
+        } else if (in instanceof Set) {
+            Set<Object> copy = new HashSet<>();
+            for (Object item : (Set<?>) in) {
+                copy.add(copyStructure(item));
+            }
+            return (V) copy;
+        } else if (in instanceof Collection) {
+            List<Object> copy = new ArrayList<>();
+            for (Object item : (Collection<?>) in) {
+                copy.add(copyStructure(item));
+            }
+            return (V) copy;
+        }
+        return in;
+    }
+
+    /**
+     * Computes a stable content fingerprint of the given Map. Keys are sorted, so the
+     * fingerprint does not depend on the Map's iteration order. Nested Maps and
+     * Collections are walked recursively. Other values contribute their class name
+     * and string value.
+     *
+     * Values whose toString() is not content-based (e.g. identity-based) will simply
+     * cause cache misses, not incorrect hits, because the cache also verifies the
+     * source Map with equals().
+     *
+     * @param map The input map
+     * @return A hexadecimal SHA-256 fingerprint of the map's content
+     * @throws ObjectMapperException if the hash algorithm is not available
+     */
+    public static String fingerprint(Map<String, Object> map) throws ObjectMapperException {
+        StringBuilder canonical = new StringBuilder();
+        appendCanonical(canonical, map);
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch(NoSuchAlgorithmException e) {
+            throw new ObjectMapperException(e);
+        }
+    }
+
+    /**
+     * Appends a canonical, order-independent (for Maps and Sets) string form of
+     * the given value to the builder. String lengths are included so that values
+     * containing delimiter characters cannot produce ambiguous output.
+     *
+     * @param builder The output builder
+     * @param value The value to append
+     */
+    private static void appendCanonical(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append('N');
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            TreeMap<String, Object> sorted = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            builder.append("M").append(sorted.size()).append('{');
+            for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+                appendCanonical(builder, entry.getKey());
+                builder.append('=');
+                appendCanonical(builder, entry.getValue());
+            }
+            builder.append('}');
+        } else if (value instanceof Set) {
+            List<String> members = new ArrayList<>();
+            for (Object item : (Set<?>) value) {
+                StringBuilder member = new StringBuilder();
+                appendCanonical(member, item);
+                members.add(member.toString());
+            }
+            Collections.sort(members);
+            builder.append("S").append(members.size()).append('[');
+            for (String member : members) {
+                builder.append(member);
+            }
+            builder.append(']');
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            builder.append("L").append(collection.size()).append('[');
+            for (Object item : collection) {
+                appendCanonical(builder, item);
+            }
+            builder.append(']');
+        } else {
+            String str = String.valueOf(value);
+            builder.append(value.getClass().getName()).append(':').append(str.length()).append(':').append(str);
+        }
+    }
+
     /**
      * Gets a predefined mapper for the given type. Mappers will be recalculated when
      * the plugin cache is updated, allowing mapped classes to be changed at runtime.
@@ -341,9 +651,13 @@ public class ObjectMapper<T> {
     /**
      * Caches already-seen converted Maps so that we don't have to continually reconvert
      * the same maps into the same objects. Two subsequent calls to decode() with an identical
-     * map should result in the same (==) object.
+     * map should result in the same (==) object, as long as the entry has not been evicted.
+     */
+    private final DecodeCache<T> cachedConfigs;
+    /**
+     * The compiled form of this mapper, created on the first call to {@link #compiled()}
      */
-    private final ConcurrentHashMap<Integer, T> cachedConfigs;
+    private volatile CompiledObjectMapper<T> compiled;
     /**
      * The initializer method (if defined) to invoke after all setup is done
      */
@@ -352,6 +666,10 @@ public class ObjectMapper<T> {
      * Logger
      */
     private final Log log;
+    /**
+     * The mapped fields, keyed by field name (not alias), for which a setter was found
+     */
+    private final ConcurrentHashMap<String, Field> mappedFields;
     /**
      * The lookup of field names that are nested types, indicated by the @Nested
      * annotation on the field.
@@ -377,14 +695,57 @@ public class ObjectMapper<T> {
      */
     public ObjectMapper(Class<T> targetClass) {
         this.targetClass = targetClass;
-        this.cachedConfigs = new ConcurrentHashMap<>();
+        this.cachedConfigs = new DecodeCache<>(DEFAULT_CACHE_MAX_ENTRIES, 0);
         this.setters = new ConcurrentHashMap<>();
         this.setterTypes = new ConcurrentHashMap<>();
         this.nested = new ConcurrentHashMap<>();
+        this.mappedFields = new ConcurrentHashMap<>();
         this.log = LogFactory.getLog(this.getClass());
         this.initializer = null;
     }
 
+    /**
+     * Removes all cached decoded objects for this mapper
+     */
+    public void clearCache() {
+        cachedConfigs.clear();
+    }
+
+    /**
+     * Returns the compiled form of this mapper, creating it on the first call. The
+     * compiled mapper decodes (and encodes) via a precomputed sequence of typed field
+     * steps rather than the reflective lookups in {@link #decode(Map, boolean)}.
+     *
+     * @return The compiled mapper for this type
+     * @throws ObjectMapperException if the mapper cannot be initialized or compiled
+     * @see CompiledObjectMapper
+     */
+    public CompiledObjectMapper<T> compiled() throws ObjectMapperException {
+        CompiledObjectMapper<T> result = this.compiled;
+        if (result == null) {
+            initSetters();
+            synchronized (setters) {
+                result = this.compiled;
+                if (result == null) {
+                    result = new CompiledObjectMapper<>(this);
+                    this.compiled = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Changes the bounds of the decode cache for this mapper
+     *
+     * @param maxEntries The maximum number of decoded objects to retain
+     * @param maxAge The maximum age of a cached object, or zero for no limit
+     * @param unit The unit of maxAge
+     */
+    public void configureCache(int maxEntries, long maxAge, TimeUnit unit) {
+        cachedConfigs.setLimits(maxEntries, unit.toMillis(maxAge));
+    }
+
     /**
      * Converts the given object to the expected type. If the input is null, a null
      * will be returned. If the input is already compatible with the expected type,
@@ -469,7 +830,8 @@ public class ObjectMapper<T> {
             map = new HashMap<>();
         }
         initSetters();
-        T result = cache ? cachedConfigs.get(map.hashCode()) : null;
+        String fingerprint = cache ? fingerprint(map) : null;
+        T result = cache ? cachedConfigs.get(fingerprint, map) : null;
         if (result != null) {
             return result;
         }
@@ -547,9 +909,9 @@ public class ObjectMapper<T> {
         }
 
         if (cache) {
-            // Why am I copying this? Why didn't I comment on this when I wrote it?
-            Map<String, Object> copy = new HashMap<>(map);
-            cachedConfigs.put(copy.hashCode(), result);
+            // The cache stores its own copy of the map, so that later changes to the
+            // input (e.g., by an in-memory edit to a Configuration) can't alter the key
+            cachedConfigs.put(fingerprint, map, result);
         }
 
         return result;
@@ -733,6 +1095,54 @@ public class ObjectMapper<T> {
 
     }
 
+    /**
+     * Gets the decode cache for this mapper, mainly for exposing statistics
+     * @return The decode cache
+     */
+    public DecodeCache<T> getCache() {
+        return cachedConfigs;
+    }
+
+    /**
+     * Gets the initializer method handle, if any, for use by {@link CompiledObjectMapper}
+     * @return The initializer method handle, or null
+     */
+    /*package*/ MethodHandle getInitializer() {
+        return initializer;
+    }
+
+    /**
+     * Gets the mapped fields, keyed by field name, for use by {@link CompiledObjectMapper}
+     * @return The mapped fields
+     */
+    /*package*/ Map<String, Field> getMappedFields() {
+        return Collections.unmodifiableMap(mappedFields);
+    }
+
+    /**
+     * Gets the nested mappers, keyed by field name, for use by {@link CompiledObjectMapper}
+     * @return The nested mappers
+     */
+    /*package*/ Map<String, ObjectMapper<?>> getNestedMappers() {
+        return Collections.unmodifiableMap(nested);
+    }
+
+    /**
+     * Gets the setter method handles, keyed by field name or alias, for use by {@link CompiledObjectMapper}
+     * @return The setter method handles
+     */
+    /*package*/ Map<String, MethodHandle> getSetterHandles() {
+        return Collections.unmodifiableMap(setters);
+    }
+
+    /**
+     * Gets the setter parameter types, keyed by field name or alias, for use by {@link CompiledObjectMapper}
+     * @return The setter parameter types
+     */
+    /*package*/ Map<String, Class<?>> getSetterTypes() {
+        return Collections.unmodifiableMap(setterTypes);
+    }
+
     /**
      * Gets the target class
      * @return The target class
@@ -919,6 +1329,7 @@ public class ObjectMapper<T> {
             setterTypes.put(name, field.getType());
             setterMap.put(name, lookupUtility.findSetter(targetClass, fieldName, field.getType()));
         }
+        mappedFields.put(fieldName, field);
     }
 
     /**
@@ -943,6 +1354,7 @@ public class ObjectMapper<T> {
             setterTypes.put(name, setterMethod.getParameterTypes()[0]);
             setterMap.put(name, lookupUtility.unreflect(setterMethod));
         }
+        mappedFields.put(fieldName, field);
     }
 
 }
@@ -1,5 +1,7 @@
 package com.identityworksllc.iiq.common;
 
+import com.identityworksllc.iiq.common.vo.Outcome;
+import com.identityworksllc.iiq.common.vo.OutcomeType;
 import sailpoint.api.IdentityService;
 import sailpoint.api.ObjectUtil;
 import sailpoint.api.Provisioner;
@@ -12,15 +14,24 @@ import sailpoint.provisioning.PlanCompiler;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.Message;
 import sailpoint.tools.Util;
+import sailpoint.tools.xml.XMLObjectFactory;
 
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -323,6 +334,132 @@ public class ProvisioningUtilities extends AbstractBaseUtility {
 		return thePlan;
 	}
 
+	/**
+	 * Merges the given plans into one plan per target Identity, preserving the order in which
+	 * each Identity first appears. This lets a bulk operation compile and execute once per
+	 * person rather than once per plan.
+	 *
+	 * Within each Identity's plan, AccountRequests for the same application, instance, and
+	 * native identity with the same operation (a null operation counts as Modify) are combined,
+	 * with their attribute and permission requests appended. Requests that do not match any
+	 * existing request, including account creates with no native identity, are added as-is.
+	 * Plan arguments are merged, with later plans winning.
+	 *
+	 * The input plans are not modified. AccountRequests that are not combined with any other
+	 * are shared with the input plans; an AccountRequest is copied the first time another is
+	 * combined into it, so merging the same plans again produces the same result. Plans
+	 * without an Identity or native identity are omitted from the output.
+	 *
+	 * @param plans The plans to merge
+	 * @return The merged plans, keyed by Identity name
+	 * @throws GeneralException if an AccountRequest cannot be copied
+	 */
+	public static Map<String, ProvisioningPlan> mergePlansByIdentity(List<ProvisioningPlan> plans) throws GeneralException {
+		Map<String, ProvisioningPlan> merged = new LinkedHashMap<>();
+		// The AccountRequests created by this merge, which may be modified in place
+		Set<AccountRequest> copies = Collections.newSetFromMap(new IdentityHashMap<>());
+		for(ProvisioningPlan plan : Util.safeIterable(plans)) {
+			String identityName = getPlanIdentityName(plan);
+			if (identityName == null) {
+				continue;
+			}
+			ProvisioningPlan target = merged.get(identityName);
+			if (target == null) {
+				target = new ProvisioningPlan();
+				target.setIdentity(plan.getIdentity());
+				target.setNativeIdentity(identityName);
+				target.setComments(plan.getComments());
+				target.setSource(plan.getSource());
+				merged.put(identityName, target);
+			}
+			if (plan.getArguments() != null) {
+				Attributes<String, Object> arguments = getArguments(target);
+				arguments.putAll(plan.getArguments());
+				target.setArguments(arguments);
+			}
+			for(AccountRequest request : Util.safeIterable(plan.getAccountRequests())) {
+				AccountRequest existing = findMergeableRequest(target, request);
+				if (existing == null) {
+					target.add(request);
+				} else {
+					if (!copies.contains(existing)) {
+						existing = replaceWithCopy(target, existing);
+						copies.add(existing);
+					}
+					for(AttributeRequest attributeRequest : Util.safeIterable(request.getAttributeRequests())) {
+						existing.add(attributeRequest);
+					}
+					for(ProvisioningPlan.PermissionRequest permissionRequest : Util.safeIterable(request.getPermissionRequests())) {
+						existing.add(permissionRequest);
+					}
+					if (request.getArguments() != null) {
+						Attributes<String, Object> arguments = getArguments(existing);
+						arguments.putAll(request.getArguments());
+						existing.setArguments(arguments);
+					}
+				}
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Finds an AccountRequest in the plan that the given request can be combined with
+	 * @param plan The plan to search
+	 * @param request The request to combine
+	 * @return The matching request, or null if there is none
+	 */
+	private static AccountRequest findMergeableRequest(ProvisioningPlan plan, AccountRequest request) {
+		if (request.getNativeIdentity() == null && !ProvisioningPlan.APP_IIQ.equals(request.getApplication())) {
+			return null;
+		}
+		AccountRequest.Operation operation = request.getOperation() == null ? AccountRequest.Operation.Modify : request.getOperation();
+		for(AccountRequest existing : Util.safeIterable(plan.getAccountRequests())) {
+			AccountRequest.Operation existingOperation = existing.getOperation() == null ? AccountRequest.Operation.Modify : existing.getOperation();
+			if (existingOperation == operation
+					&& Util.nullSafeEq(existing.getApplication(), request.getApplication(), true)
+					&& Util.nullSafeEq(existing.getInstance(), request.getInstance(), true)
+					&& Util.nullSafeEq(existing.getNativeIdentity(), request.getNativeIdentity(), true)) {
+				return existing;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the name of the Identity targeted by the plan
+	 * @param plan The plan
+	 * @return The Identity name, or null if the plan has neither an Identity nor a native identity
+	 */
+	private static String getPlanIdentityName(ProvisioningPlan plan) {
+		if (plan == null) {
+			return null;
+		} else if (plan.getIdentity() != null && Util.isNotNullOrEmpty(plan.getIdentity().getName())) {
+			return plan.getIdentity().getName();
+		} else {
+			return Util.isNotNullOrEmpty(plan.getNativeIdentity()) ? plan.getNativeIdentity() : null;
+		}
+	}
+
+	/**
+	 * Replaces the given AccountRequest in the plan with a copy, so that the copy can be
+	 * modified without affecting the plan the original came from
+	 *
+	 * @param plan The plan containing the request
+	 * @param request The request to copy
+	 * @return The copy
+	 * @throws GeneralException if the request cannot be copied
+	 */
+	private static AccountRequest replaceWithCopy(ProvisioningPlan plan, AccountRequest request) throws GeneralException {
+		AccountRequest copy = (AccountRequest) XMLObjectFactory.getInstance().clone(request, null);
+		List<AccountRequest> accountRequests = new ArrayList<>();
+		for(AccountRequest existing : Util.safeIterable(plan.getAccountRequests())) {
+			accountRequests.add(existing == request ? copy : existing);
+		}
+		plan.setAccountRequests(accountRequests);
+		return copy;
+	}
+
 	/**
 	 * Modifies the plan to add a role removal request for the given role
 	 * @param roleName The role to remove from the identity
@@ -857,6 +994,32 @@ public class ProvisioningUtilities extends AbstractBaseUtility {
 		doProvisioning(plan);
 	}
 
+	/**
+	 * Disables all accounts that are not already disabled, for each of the given Identities,
+	 * using the bulk form of {@link #doProvisioning(List, boolean, Map, int)}. This is intended
+	 * for mass leaver processing.
+	 *
+	 * @param identities Who to disable the accounts on
+	 * @param onlyThese If not null, only Link objects where the Predicate returns true will be disabled
+	 * @param threads The maximum number of Identities to provision at once
+	 * @return The outcome for each Identity, in input order
+	 * @throws GeneralException if any failures occur building the plans
+	 */
+	public List<Outcome> disableAccounts(List<Identity> identities, Predicate<Link> onlyThese, int threads) throws GeneralException {
+		List<ProvisioningPlan> plans = new ArrayList<>();
+		for(Identity identity : Util.safeIterable(identities)) {
+			ProvisioningPlan plan = new ProvisioningPlan();
+			plan.setIdentity(identity);
+			for(Link link : Util.safeIterable(identity.getLinks())) {
+				if (!link.isDisabled() && (onlyThese == null || onlyThese.test(link))) {
+					plan.add(link.getApplicationName(), link.getNativeIdentity(), AccountRequest.Operation.Disable);
+				}
+			}
+			plans.add(plan);
+		}
+		return doProvisioning(plans, false, provisioningArguments.getDefaultExtraParameters(), threads);
+	}
+
     /**
      * Submits a provisioning plan using the configured defaults. This plan must have an Identity attached to it using setIdentity().
      * @param plan The ProvisioningPlan to execute
@@ -922,27 +1085,11 @@ public class ProvisioningUtilities extends AbstractBaseUtility {
 			beforeProvisioningConsumer.accept(plan);
 		}
 		ProvisioningProject outputProject = null;
-		if (isErrorOnAccountSelection() || isErrorOnManualTask() || isErrorOnProvisioningForms() || isErrorOnNewAccount() || projectDebugger != null) {
+		boolean validate = isErrorOnAccountSelection() || isErrorOnManualTask() || isErrorOnProvisioningForms() || isErrorOnNewAccount() || projectDebugger != null;
+		if (validate && provisioningArguments.isUseWorkflow()) {
 			PlanCompiler compiler = new PlanCompiler(context);
 			ProvisioningProject project = compiler.compile(new Attributes<>(extraParameters), plan, new Attributes<>());
-			if (projectDebugger != null) {
-				projectDebugger.accept(project);
-			}
-			if (isErrorOnManualTask() && project.hasUnmanagedPlan()) {
-				throw new GeneralException("Provisioning request refused because it would result in a manual task");
-			}
-			if (isErrorOnProvisioningForms() && (project.hasQuestions() || project.hasUnansweredAccountSelections() || project.hasUnansweredProvisioningTargets())) {
-				throw new GeneralException("Provisioning request refused because it would result in an unanswered form");
-			}
-			if (isErrorOnNewAccount()) {
-				long count = project.getPlans().stream().flatMap(p -> p.getAccountRequests() != null ? p.getAccountRequests().stream() : null).filter(req -> req.getOperation() != null && req.getOperation().equals(AccountRequest.Operation.Create)).count();
-				if (count > 0) {
-					throw new GeneralException("Provisioning request refused because it would result in a new account creation");
-				}
-			}
-			if (isErrorOnAccountSelection() && (project.hasUnansweredAccountSelections() || project.hasUnansweredProvisioningTargets())) {
-				throw new GeneralException("Provisioning request refused because we could not identify a target account");
-			}
+			validateProject(project);
 		}
 		if (provisioningArguments.isUseWorkflow()) {
 	        String planField = provisioningArguments.getPlanFieldName();
@@ -1006,7 +1153,14 @@ public class ProvisioningUtilities extends AbstractBaseUtility {
 				extraParameters.forEach(provisioner::setArgument);
 			}
 			provisioner.setDoRefresh(doRefresh);
-			provisioner.execute(plan);
+			if (validate) {
+				// Check and execute the same compiled project, rather than compiling the plan twice
+				ProvisioningProject compiled = provisioner.compile(plan, new Attributes<>());
+				validateProject(compiled);
+				provisioner.execute(compiled);
+			} else {
+				provisioner.execute(plan);
+			}
 			ProvisioningProject project = provisioner.getProject();
 			// Do a refresh only if the project is fully committed; otherwise we might break something
 			if (project.isFullyCommitted() && doRefresh) {
@@ -1018,6 +1172,77 @@ public class ProvisioningUtilities extends AbstractBaseUtility {
 		return outputProject;
     }
 
+	/**
+	 * Submits many provisioning plans at once, such as for a mass leaver or role change.
+	 *
+	 * The plans are first merged into one plan per Identity using {@link #mergePlansByIdentity(List)},
+	 * so that each person is compiled and provisioned once, along with all of their role
+	 * expansions. The merged plans are then submitted through a bounded pool of the given
+	 * number of threads, each running {@link #doProvisioning(ProvisioningPlan, boolean, Map)}
+	 * in its own private context with this object's configuration. The configured consumers,
+	 * such as the project debugger, may therefore be invoked concurrently.
+	 *
+	 * The output list is parallel to the input list. Plans that were merged for the same
+	 * Identity share a single {@link Outcome}, which records the status, timing, and any
+	 * error for that Identity. A failure for one Identity does not affect the others.
+	 *
+	 * @param plans The plans to provision
+	 * @param doRefresh If true, a refresh will be performed by the provisioning handler
+	 * @param extraParameters A Map containing workflow parameters that will be passed to the provisioning workflow or Provisioner
+	 * @param threads The maximum number of plans to provision at once
+	 * @return The outcome of each plan, in input order
+	 * @throws GeneralException if the batch is interrupted
+	 */
+	public List<Outcome> doProvisioning(List<ProvisioningPlan> plans, boolean doRefresh, Map<String, Object> extraParameters, int threads) throws GeneralException {
+		Map<String, ProvisioningPlan> merged = mergePlansByIdentity(plans);
+		Map<String, Outcome> outcomes = new HashMap<>();
+
+		if (log.isDebugEnabled()) {
+			log.debug("Merged " + Util.size(plans) + " plans into " + merged.size() + " plans; provisioning with " + threads + " thread(s)");
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, Math.max(1, merged.size()))));
+		try {
+			Map<String, Future<Outcome>> futures = new LinkedHashMap<>();
+			for(Map.Entry<String, ProvisioningPlan> entry : merged.entrySet()) {
+				String identityName = entry.getKey();
+				ProvisioningPlan plan = entry.getValue();
+				futures.put(identityName, executor.submit(() -> provisionInPrivateContext(identityName, plan, doRefresh, extraParameters)));
+			}
+			for(Map.Entry<String, Future<Outcome>> entry : futures.entrySet()) {
+				try {
+					outcomes.put(entry.getKey(), entry.getValue().get());
+				} catch(ExecutionException e) {
+					Outcome outcome = new Outcome();
+					outcome.setIdentityName(entry.getKey());
+					outcome.addError("Provisioning failed", e.getCause());
+					outcome.setStatus(OutcomeType.Failure);
+					outcome.close();
+					outcomes.put(entry.getKey(), outcome);
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GeneralException("Interrupted while waiting for bulk provisioning", e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List<Outcome> output = new ArrayList<>();
+		for(ProvisioningPlan plan : Util.safeIterable(plans)) {
+			String identityName = getPlanIdentityName(plan);
+			Outcome outcome = identityName != null ? outcomes.get(identityName) : null;
+			if (outcome == null) {
+				outcome = new Outcome();
+				outcome.setStatus(OutcomeType.Skipped);
+				outcome.addMessage(Message.warn("The plan has no Identity"));
+				outcome.close();
+			}
+			output.add(outcome);
+		}
+		return output;
+	}
+
 	/**
 	 * Enables the given account by submitting an Enable provisioning action to IIQ
 	 * @param link The Link to enable
@@ -1161,6 +1386,58 @@ public class ProvisioningUtilities extends AbstractBaseUtility {
 		}
 	}
 
+	/**
+	 * Provisions a single merged plan in a private context, for the bulk form of
+	 * {@link #doProvisioning(List, boolean, Map, int)}. A copy of this object, bound to the
+	 * private context, does the provisioning, so that the caller's context is never
+	 * shared across threads.
+	 *
+	 * @param identityName The Identity name
+	 * @param plan The merged plan
+	 * @param doRefresh If true, a refresh will be performed by the provisioning handler
+	 * @param extraParameters The extra workflow or Provisioner parameters
+	 * @return The outcome
+	 * @throws GeneralException if the private context cannot be created
+	 */
+	private Outcome provisionInPrivateContext(String identityName, ProvisioningPlan plan, boolean doRefresh, Map<String, Object> extraParameters) throws GeneralException {
+		Outcome outcome = Outcome.start();
+		outcome.setIdentityName(identityName);
+		Utilities.withPrivateContext((threadContext) -> {
+			try {
+				Identity identity = threadContext.getObjectByName(Identity.class, identityName);
+				if (identity == null) {
+					outcome.setStatus(OutcomeType.Failure);
+					outcome.addMessage(Message.error("No such Identity: " + identityName));
+					return;
+				}
+				plan.setIdentity(identity);
+
+				ProvisioningUtilities threadUtilities = new ProvisioningUtilities(threadContext, provisioningArguments);
+				threadUtilities.planArguments.putAll(planArguments);
+				threadUtilities.externalTicketId = externalTicketId;
+				threadUtilities.beforeProvisioningConsumer = beforeProvisioningConsumer;
+				threadUtilities.projectDebugger = projectDebugger;
+				threadUtilities.workflowDebugger = workflowDebugger;
+
+				Map<String, Object> parameters = extraParameters != null ? new HashMap<>(extraParameters) : null;
+				ProvisioningProject project = threadUtilities.doProvisioning(plan, doRefresh, parameters);
+				if (project != null && project.getMessages() != null) {
+					for(Message message : project.getMessages()) {
+						outcome.addMessage(message);
+					}
+				}
+				boolean hasErrors = project != null && project.getMessages() != null && project.getMessages().stream().anyMatch(m -> m.getType() == Message.Type.Error);
+				outcome.setStatus(hasErrors ? OutcomeType.Failure : OutcomeType.Success);
+			} catch(Exception e) {
+				log.warn("Bulk provisioning failed for Identity " + identityName, e);
+				outcome.addError("Provisioning failed", e);
+				outcome.setStatus(OutcomeType.Failure);
+			}
+		});
+		outcome.close();
+		return outcome;
+	}
+
 	/**
 	 * Removes all entitlements and assigned roles from the given Identity
 	 *
@@ -1703,4 +1980,31 @@ public class ProvisioningUtilities extends AbstractBaseUtility {
 		doProvisioning(identity.getName(), changes, false, extraParameters);
 	}
 
+	/**
+	 * Passes the compiled project to the project debugger, if any, and then applies the
+	 * configured 'errorOn' checks to it
+	 *
+	 * @param project The compiled project
+	 * @throws GeneralException if the project fails one of the checks
+	 */
+	private void validateProject(ProvisioningProject project) throws GeneralException {
+		if (projectDebugger != null) {
+			projectDebugger.accept(project);
+		}
+		if (isErrorOnManualTask() && project.hasUnmanagedPlan()) {
+			throw new GeneralException("Provisioning request refused because it would result in a manual task");
+		}
+		if (isErrorOnProvisioningForms() && (project.hasQuestions() || project.hasUnansweredAccountSelections() || project.hasUnansweredProvisioningTargets())) {
+			throw new GeneralException("Provisioning request refused because it would result in an unanswered form");
+		}
+		if (isErrorOnNewAccount()) {
+			long count = project.getPlans().stream().flatMap(p -> p.getAccountRequests() != null ? p.getAccountRequests().stream() : null).filter(req -> req.getOperation() != null && req.getOperation().equals(AccountRequest.Operation.Create)).count();
+			if (count > 0) {
+				throw new GeneralException("Provisioning request refused because it would result in a new account creation");
+			}
+		}
+		if (isErrorOnAccountSelection() && (project.hasUnansweredAccountSelections() || project.hasUnansweredProvisioningTargets())) {
+			throw new GeneralException("Provisioning request refused because we could not identify a target account");
+		}
+	}
 }
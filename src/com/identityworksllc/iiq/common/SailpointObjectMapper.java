@@ -17,8 +17,10 @@ import sailpoint.tools.Util;
 import sailpoint.tools.xml.AbstractXmlObject;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * An extension of ObjectMapper to handle SailPointObject types
@@ -40,6 +42,46 @@ public class SailpointObjectMapper<T> extends ObjectMapper<T> {
         }
     }
 
+    /**
+     * A decoded object, along with the modification stamp of the object from which
+     * it was decoded
+     *
+     * @param <T> The decoded type
+     */
+    private static final class StampedValue<T> {
+        /**
+         * The modification stamp of the source object at decode time
+         */
+        private final long stamp;
+
+        /**
+         * The decoded value
+         */
+        private final T value;
+
+        private StampedValue(long stamp, T value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Gets the modification stamp of the given object, which is the modified date
+     * if one exists, or the created date otherwise. Returns -1 if neither is set,
+     * which is the case for objects that have never been saved.
+     *
+     * @param object The object to check
+     * @return The modification stamp
+     */
+    private static long getModificationStamp(SailPointObject object) {
+        if (object.getModified() != null) {
+            return object.getModified().getTime();
+        } else if (object.getCreated() != null) {
+            return object.getCreated().getTime();
+        }
+        return -1L;
+    }
+
     /**
      * Gets the current plugin version, or "NA" if plugins ar not enabled
      * @return The plugin version number
@@ -81,6 +123,18 @@ public class SailpointObjectMapper<T> extends ObjectMapper<T> {
         }
     }
 
+    /**
+     * A cache of decoded objects keyed weakly by the source Configuration or Custom
+     * object. Entries disappear when the source object is garbage collected, e.g. when
+     * IIQ's own object cache replaces it.
+     */
+    private final Map<SailPointObject, StampedValue<T>> stampedCache;
+
+    /**
+     * If true, the stamped cache will be consulted before the content cache
+     */
+    private volatile boolean stampedCacheEnabled;
+
     /**
      * Basic constructor. You should prefer {@link ObjectMapper#get(Class)} to this.
      *
@@ -88,6 +142,18 @@ public class SailpointObjectMapper<T> extends ObjectMapper<T> {
      */
     public SailpointObjectMapper(Class<T> targetClass) {
         super(targetClass);
+        this.stampedCache = Collections.synchronizedMap(new WeakHashMap<>());
+        this.stampedCacheEnabled = false;
+    }
+
+    /**
+     * Removes all cached decoded objects for this mapper, including those in the
+     * stamped cache
+     */
+    @Override
+    public void clearCache() {
+        super.clearCache();
+        stampedCache.clear();
     }
 
     /**
@@ -196,7 +262,7 @@ public class SailpointObjectMapper<T> extends ObjectMapper<T> {
         if (configuration != null) {
             input = configuration.getAttributes();
         }
-        return decode(input, cache);
+        return decodeStamped(configuration, input, cache);
     }
 
 
@@ -224,7 +290,66 @@ public class SailpointObjectMapper<T> extends ObjectMapper<T> {
         if (configuration != null) {
             input = configuration.getAttributes();
         }
-        return decode(input, cache);
+        return decodeStamped(configuration, input, cache);
+    }
+
+    /**
+     * Decodes the given attributes, consulting the stamped cache first if it is
+     * enabled. A stamped cache entry is only used if the source object's current
+     * modification stamp matches the one recorded at decode time. On a miss, the
+     * content-fingerprint cache in {@link ObjectMapper#decode(Map, boolean)} is used
+     * as normal and the result is recorded against the source object.
+     *
+     * @param source The source object, which may be null
+     * @param input The attributes of the source object
+     * @param cache If true, the cached value will be returned if possible
+     * @return An object of the expected type
+     * @throws ObjectMapperException if any failures occur
+     */
+    private T decodeStamped(SailPointObject source, Map<String, Object> input, boolean cache) throws ObjectMapperException {
+        if (!cache || !stampedCacheEnabled || source == null) {
+            return decode(input, cache);
+        }
+        long stamp = getModificationStamp(source);
+        if (stamp >= 0) {
+            StampedValue<T> existing = stampedCache.get(source);
+            if (existing != null && existing.stamp == stamp) {
+                return existing.value;
+            }
+        }
+        T result = decode(input, true);
+        if (stamp >= 0) {
+            stampedCache.put(source, new StampedValue<>(stamp, result));
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the stamped cache is enabled
+     * @return True if the stamped cache is enabled
+     */
+    public boolean isStampedCacheEnabled() {
+        return stampedCacheEnabled;
+    }
+
+    /**
+     * Enables or disables the stamped cache. When enabled, decoding a Configuration
+     * or Custom object with caching will first look for a previously decoded value
+     * for that same object, held via a weak reference, and will return it if the
+     * object's modified (or created) date has not changed. This skips even the
+     * fingerprinting of the attributes Map, which is useful for frequently decoded
+     * objects held in IIQ's own object cache.
+     *
+     * Objects that have never been saved (no created or modified date) always use
+     * the content cache.
+     *
+     * @param stampedCacheEnabled True to enable the stamped cache
+     */
+    public void setStampedCacheEnabled(boolean stampedCacheEnabled) {
+        this.stampedCacheEnabled = stampedCacheEnabled;
+        if (!stampedCacheEnabled) {
+            stampedCache.clear();
+        }
     }
 
 
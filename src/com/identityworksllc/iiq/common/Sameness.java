@@ -5,10 +5,9 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * Utility methods for detecting whether two objects are the same, since IIQ is inconsistent about it.
@@ -22,24 +21,6 @@ import java.util.stream.Collectors;
 public class Sameness {
     private static final Log log = LogFactory.getLog(Sameness.class);
 
-    /**
-     * Populates two HashSet collections with the appropriate values, taking into
-     * account case sensitivity, and then returns true if they are the same.
-     *
-     * @param ignoreCase True if the comparison should ignore case
-     * @param newSet The set containing 'new' values
-     * @param oldSet The set containing 'old' values
-     * @return True if the values are the same
-     */
-    private static boolean checkSets(boolean ignoreCase, HashSet<Object> newSet, HashSet<Object> oldSet) {
-        if (ignoreCase) {
-            newSet = newSet.stream().map(e -> String.valueOf(e).toUpperCase()).collect(Collectors.toCollection(HashSet::new));
-            oldSet = oldSet.stream().map(e -> String.valueOf(e).toUpperCase()).collect(Collectors.toCollection(HashSet::new));
-        }
-
-        return newSet.equals(oldSet);
-    }
-
     /**
      * Returns true if the given thing is empty in the isSame() sense, i.e.,
      * if it ought to be the same as null. These are values that are often
@@ -96,7 +77,7 @@ public class Sameness {
      * 1) Type differences: If the two values are a String and a Boolean (or a String and a Number), but will be stored the same way by Hibernate, they are the same
      * 2) Null and empty: Null is the same as any empty object (strings, lists, maps, boolean false)
      * 3) Dates and Longs: If one value is a long and one is a Date, they are the same if {@link Date#getTime()} equals the long value
-     * 4) Collections: Two collections are the same if they have equal elements in any order. If ignoreCase is true, elements will be converted to strings and compared case-insensitively.
+     * 4) Collections: Two collections are the same if they have equal elements in any order. If ignoreCase is true, elements will be converted to strings and compared case-insensitively. See {@link SetComparison}.
      * 5) String case: Two strings will be compared case-insensitive if the flag is passed as true
      * 6) String vs. Collection case: A string is the same as collection containing only that string
      *
@@ -131,21 +112,13 @@ public class Sameness {
         } else if (oldValue.getClass().isArray() && isEmpty(oldValue)) {
             return isEmpty(newValue);
         } else if (newValue instanceof Collection && oldValue instanceof Collection) {
-            HashSet<Object> newSet = new HashSet<>((Collection<?>) newValue);
-            HashSet<Object> oldSet = new HashSet<>((Collection<?>) oldValue);
-            return checkSets(ignoreCase, newSet, oldSet);
+            return SetComparison.isSameElements((Collection<?>) newValue, (Collection<?>) oldValue, ignoreCase);
         } else if (newValue instanceof Map && oldValue instanceof Map) {
             return newValue.equals(oldValue);
         } else if (newValue instanceof String && oldValue instanceof Collection) {
-            HashSet<Object> newSet = new HashSet<>();
-            HashSet<Object> oldSet = new HashSet<>((Collection<?>)oldValue);
-            newSet.add(newValue);
-            return checkSets(ignoreCase, newSet, oldSet);
+            return SetComparison.isSameElements(Collections.singletonList(newValue), (Collection<?>) oldValue, ignoreCase);
         } else if (newValue instanceof Collection && oldValue instanceof String) {
-            HashSet<Object> newSet = new HashSet<>((Collection<?>) newValue);
-            HashSet<Object> oldSet = new HashSet<>();
-            oldSet.add(oldValue);
-            return checkSets(ignoreCase, newSet, oldSet);
+            return SetComparison.isSameElements((Collection<?>) newValue, Collections.singletonList(oldValue), ignoreCase);
         } else {
             String ns = String.valueOf(newValue);
             String os = String.valueOf(oldValue);
@@ -0,0 +1,341 @@
+package com.identityworksllc.iiq.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares the elements of two collections as sets, optionally ignoring case, which is
+ * the comparison used by {@link Sameness#isSame(Object, Object, boolean)} for collections.
+ * Order and duplicates are not significant. When ignoring case, every element is compared
+ * by the upper-case form of its string value.
+ *
+ * This is built for large multi-valued attributes, such as group memberships with tens of
+ * thousands of DNs, and so avoids building two intermediate sets:
+ *
+ * 1) Identical instances, empty collections, equal lists, and differently-sized HashSets are
+ *    decided without hashing anything.
+ * 2) Each value's case-folded form is computed exactly once and reused for the whole comparison.
+ * 3) If both inputs are sorted by their comparison keys, they are compared with a single
+ *    ordered merge, without hashing.
+ * 4) Otherwise, only the 'old' values are hashed, and the comparison stops at the first 'new'
+ *    value that is not present.
+ *
+ * {@link #compare(Collection, Collection, boolean)} returns the added and removed values
+ * in the same pass, so a caller needing both the answer and the differences does not
+ * have to diff the collections again.
+ */
+public final class SetComparison {
+    /**
+     * The differences between two collections, as computed by {@link #compare(Collection, Collection, boolean)}
+     */
+    public static final class Delta {
+        /**
+         * The values in the new collection but not the old one
+         */
+        private final List<Object> added;
+
+        /**
+         * The values in the old collection but not the new one
+         */
+        private final List<Object> removed;
+
+        /**
+         * Constructs a new, empty Delta
+         */
+        private Delta() {
+            this.added = new ArrayList<>();
+            this.removed = new ArrayList<>();
+        }
+
+        /**
+         * Returns the values present only in the new collection, in their original form,
+         * without duplicates (in the comparison sense)
+         *
+         * @return The added values
+         */
+        public List<Object> getAdded() {
+            return Collections.unmodifiableList(added);
+        }
+
+        /**
+         * Returns the values present only in the old collection, in their original form,
+         * without duplicates (in the comparison sense)
+         *
+         * @return The removed values
+         */
+        public List<Object> getRemoved() {
+            return Collections.unmodifiableList(removed);
+        }
+
+        /**
+         * Returns true if the two collections contained the same elements
+         *
+         * @return True if nothing was added or removed
+         */
+        public boolean isSame() {
+            return added.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * Private utility constructor
+     */
+    private SetComparison() {
+
+    }
+
+    /**
+     * Compares the two collections, returning the added and removed values
+     *
+     * @param newValues The new values (can be null)
+     * @param oldValues The old values (can be null)
+     * @param ignoreCase True if values should be compared case-insensitively
+     * @return The differences between the two collections
+     */
+    public static Delta compare(Collection<?> newValues, Collection<?> oldValues, boolean ignoreCase) {
+        Collection<?> newSafe = (newValues != null) ? newValues : Collections.emptyList();
+        Collection<?> oldSafe = (oldValues != null) ? oldValues : Collections.emptyList();
+        Object[] newOriginals = newSafe.toArray();
+        Object[] oldOriginals = oldSafe.toArray();
+        Delta delta = new Delta();
+        compareKeys(keys(newOriginals, ignoreCase), keys(oldOriginals, ignoreCase), newOriginals, oldOriginals, delta);
+        return delta;
+    }
+
+    /**
+     * Compares the comparison keys of two collections, choosing an ordered merge if both
+     * are sorted, or else a hash lookup
+     *
+     * @param newKeys The comparison keys of the new values
+     * @param oldKeys The comparison keys of the old values
+     * @param newOriginals The new values, used to populate the delta
+     * @param oldOriginals The old values, used to populate the delta
+     * @param delta The delta to populate, or null to stop at the first difference
+     * @return True if the keys are the same as sets
+     */
+    private static boolean compareKeys(Object[] newKeys, Object[] oldKeys, Object[] newOriginals, Object[] oldOriginals, Delta delta) {
+        if (isSorted(newKeys) && isSorted(oldKeys)) {
+            return mergeCompare(newKeys, oldKeys, newOriginals, oldOriginals, delta);
+        }
+        return hashCompare(newKeys, oldKeys, newOriginals, oldOriginals, delta);
+    }
+
+    /**
+     * Returns the case-folded comparison form of the given value, which is the same form
+     * that {@link Sameness} has always used
+     *
+     * @param value The value
+     * @return The upper-case string form of the value
+     */
+    /*package*/ static String fold(Object value) {
+        return String.valueOf(value).toUpperCase();
+    }
+
+    /**
+     * Compares the keys by hashing the old keys and probing with each new key
+     *
+     * @see #compareKeys(Object[], Object[], Object[], Object[], Delta)
+     */
+    private static boolean hashCompare(Object[] newKeys, Object[] oldKeys, Object[] newOriginals, Object[] oldOriginals, Delta delta) {
+        Map<Object, Integer> firstIndex = new HashMap<>(Math.max(16, (int) (oldKeys.length / 0.75f) + 1));
+        for (int j = 0; j < oldKeys.length; j++) {
+            firstIndex.putIfAbsent(oldKeys[j], j);
+        }
+        boolean[] seen = new boolean[oldKeys.length];
+        int matched = 0;
+        boolean same = true;
+        Set<Object> addedKeys = null;
+        for (int i = 0; i < newKeys.length; i++) {
+            Integer j = firstIndex.get(newKeys[i]);
+            if (j == null) {
+                same = false;
+                if (delta == null) {
+                    return false;
+                }
+                if (addedKeys == null) {
+                    addedKeys = new HashSet<>();
+                }
+                if (addedKeys.add(newKeys[i])) {
+                    delta.added.add(newOriginals[i]);
+                }
+            } else if (!seen[j]) {
+                seen[j] = true;
+                matched++;
+            }
+        }
+        if (matched != firstIndex.size()) {
+            same = false;
+            if (delta != null) {
+                for (int j = 0; j < oldKeys.length; j++) {
+                    if (!seen[j] && firstIndex.get(oldKeys[j]) == j) {
+                        delta.removed.add(oldOriginals[j]);
+                    }
+                }
+            }
+        }
+        return same;
+    }
+
+    /**
+     * Returns true if the two collections contain the same elements, in the sense
+     * described in the class documentation
+     *
+     * @param newValues The new values (can be null)
+     * @param oldValues The old values (can be null)
+     * @param ignoreCase True if values should be compared case-insensitively
+     * @return True if the collections contain the same elements
+     */
+    public static boolean isSameElements(Collection<?> newValues, Collection<?> oldValues, boolean ignoreCase) {
+        if (newValues == oldValues) {
+            return true;
+        }
+        boolean newEmpty = (newValues == null || newValues.isEmpty());
+        boolean oldEmpty = (oldValues == null || oldValues.isEmpty());
+        if (newEmpty || oldEmpty) {
+            return newEmpty && oldEmpty;
+        }
+        if (!ignoreCase) {
+            if (newValues instanceof HashSet && oldValues instanceof HashSet) {
+                return newValues.equals(oldValues);
+            }
+            if (newValues instanceof List && oldValues instanceof List && newValues.size() == oldValues.size() && newValues.equals(oldValues)) {
+                return true;
+            }
+        }
+        if (newValues instanceof List && oldValues instanceof List && newValues.iterator().next() instanceof String && oldValues.iterator().next() instanceof String) {
+            String[] newKeys = stringKeys((List<?>) newValues, ignoreCase);
+            String[] oldKeys = (newKeys != null) ? stringKeys((List<?>) oldValues, ignoreCase) : null;
+            if (newKeys != null && oldKeys != null) {
+                return compareKeys(newKeys, oldKeys, newKeys, oldKeys, null);
+            }
+        }
+        Object[] newKeys = keys(newValues.toArray(), ignoreCase);
+        Object[] oldKeys = keys(oldValues.toArray(), ignoreCase);
+        return compareKeys(newKeys, oldKeys, newKeys, oldKeys, null);
+    }
+
+    /**
+     * Returns true if the two lists of strings contain the same elements. This is the
+     * fast path for the common case of multi-valued string attributes.
+     *
+     * @param newValues The new values (can be null)
+     * @param oldValues The old values (can be null)
+     * @param ignoreCase True if values should be compared case-insensitively
+     * @return True if the lists contain the same elements
+     */
+    public static boolean isSameStrings(List<String> newValues, List<String> oldValues, boolean ignoreCase) {
+        return isSameElements(newValues, oldValues, ignoreCase);
+    }
+
+    /**
+     * Returns true if every key is a String and the keys are in non-descending order
+     *
+     * @param keys The keys
+     * @return True if the keys are sorted strings
+     */
+    private static boolean isSorted(Object[] keys) {
+        for (int i = 0; i < keys.length; i++) {
+            if (!(keys[i] instanceof String)) {
+                return false;
+            }
+            if (i > 0 && ((String) keys[i - 1]).compareTo((String) keys[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the comparison keys for the given values, folding case once per value
+     * if needed
+     *
+     * @param values The values
+     * @param ignoreCase True if case should be folded
+     * @return The keys, which is the input array itself if case is not folded
+     */
+    private static Object[] keys(Object[] values, boolean ignoreCase) {
+        if (!ignoreCase) {
+            return values;
+        }
+        Object[] keys = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            keys[i] = fold(values[i]);
+        }
+        return keys;
+    }
+
+    /**
+     * Compares two sorted key arrays with a single ordered merge, skipping runs of
+     * duplicate keys on either side
+     *
+     * @see #compareKeys(Object[], Object[], Object[], Object[], Delta)
+     */
+    private static boolean mergeCompare(Object[] newKeys, Object[] oldKeys, Object[] newOriginals, Object[] oldOriginals, Delta delta) {
+        int i = 0;
+        int j = 0;
+        boolean same = true;
+        while (i < newKeys.length || j < oldKeys.length) {
+            int order;
+            if (i >= newKeys.length) {
+                order = 1;
+            } else if (j >= oldKeys.length) {
+                order = -1;
+            } else {
+                order = ((String) newKeys[i]).compareTo((String) oldKeys[j]);
+            }
+            if (order != 0) {
+                same = false;
+                if (delta == null) {
+                    return false;
+                }
+            }
+            if (order <= 0) {
+                if (order < 0) {
+                    delta.added.add(newOriginals[i]);
+                }
+                Object key = newKeys[i];
+                while (i < newKeys.length && newKeys[i].equals(key)) {
+                    i++;
+                }
+                if (order == 0) {
+                    while (j < oldKeys.length && oldKeys[j].equals(key)) {
+                        j++;
+                    }
+                }
+            } else {
+                delta.removed.add(oldOriginals[j]);
+                Object key = oldKeys[j];
+                while (j < oldKeys.length && oldKeys[j].equals(key)) {
+                    j++;
+                }
+            }
+        }
+        return same;
+    }
+
+    /**
+     * Returns the comparison keys for a list that is expected to contain only strings,
+     * or null if any element is not a string
+     *
+     * @param values The values
+     * @param ignoreCase True if case should be folded
+     * @return The keys, or null if the list contains a non-string
+     */
+    private static String[] stringKeys(List<?> values, boolean ignoreCase) {
+        String[] keys = new String[values.size()];
+        int i = 0;
+        for (Object value : values) {
+            if (!(value instanceof String)) {
+                return null;
+            }
+            keys[i++] = ignoreCase ? ((String) value).toUpperCase() : (String) value;
+        }
+        return keys;
+    }
+}
@@ -32,6 +32,9 @@ import java.util.Map;
  * A straightforward "delegating" connector that will allow loading of connector
  * classes from a plugin. All connector operations will be forwarded to the
  * delegate.
+ *
+ * If enabled on the application, getObject() results are cached briefly by a shared
+ * {@link ResourceObjectCache}. See that class for the relevant application attributes.
  */
 public class BaseDelegatingConnector extends AbstractConnector implements ConnectorStateChangeListener {
     /**
@@ -84,8 +87,15 @@ public class BaseDelegatingConnector extends AbstractConnector implements Connec
     }
 
     @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
     public Map doHealthCheck(Map<String, Object> map) throws ConnectorException {
-        return getRealConnector().doHealthCheck(map);
+        Map result = getRealConnector().doHealthCheck(map);
+        ResourceObjectCache cache = ResourceObjectCache.forApplication(getApplication());
+        if (cache != null) {
+            result = (result != null) ? new HashMap(result) : new HashMap();
+            result.putAll(cache.getStatistics());
+        }
+        return result;
     }
 
     @Override
@@ -140,6 +150,10 @@ public class BaseDelegatingConnector extends AbstractConnector implements Connec
 
     @Override
     public ResourceObject getObject(String s, String s1, Map<String, Object> map) throws ConnectorException {
+        ResourceObjectCache cache = ResourceObjectCache.forApplication(getApplication());
+        if (cache != null) {
+            return cache.get(s, s1, map, () -> getRealConnector().getObject(s, s1, map));
+        }
         return getRealConnector().getObject(s, s1, map);
     }
 
@@ -235,7 +249,16 @@ public class BaseDelegatingConnector extends AbstractConnector implements Connec
 
     @Override
     public ProvisioningResult provision(ProvisioningPlan provisioningPlan) throws ConnectorException, GeneralException {
-        return getRealConnector().provision(provisioningPlan);
+        ResourceObjectCache cache = ResourceObjectCache.forApplication(getApplication());
+        if (cache == null) {
+            return getRealConnector().provision(provisioningPlan);
+        }
+        cache.invalidate(provisioningPlan);
+        try {
+            return getRealConnector().provision(provisioningPlan);
+        } finally {
+            cache.invalidate(provisioningPlan);
+        }
     }
 
     @Override
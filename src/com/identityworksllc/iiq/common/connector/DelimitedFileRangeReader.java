@@ -0,0 +1,382 @@
+package com.identityworksllc.iiq.common.connector;
+
+import sailpoint.tools.CloseableIterator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the delimited records that start within a byte range of a file, using a sliding
+ * memory-mapped window. Bytes are tokenized directly from the mapped file, and only the
+ * bytes of each field are copied and decoded.
+ *
+ * Fields may be quoted. A quoted field may contain delimiters, newlines, and doubled quote
+ * characters, which are read as a single quote. A quote character only starts a quoted
+ * field at the beginning of a field; elsewhere it is a literal character. Records end
+ * with LF or CRLF outside of quotes.
+ *
+ * The static {@link #split(Path, long, int, char, char)} method finds record-aligned range
+ * boundaries, so that a file can be read in parallel by several readers, each with its
+ * own range, without any record being read twice or split between readers.
+ *
+ * The charset must encode the newline, delimiter, and quote characters as single bytes
+ * that do not occur inside other characters. UTF-8, US-ASCII, and ISO-8859-1 qualify.
+ */
+public class DelimitedFileRangeReader implements AutoCloseable, CloseableIterator<List<String>>, Iterator<List<String>> {
+    /**
+     * The default size of each memory-mapped window
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The current mapped window
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The file channel
+     */
+    private final FileChannel channel;
+
+    /**
+     * The charset used to decode fields
+     */
+    private final Charset charset;
+
+    /**
+     * True once the reader has been closed or exhausted
+     */
+    private boolean closed;
+
+    /**
+     * The field delimiter byte
+     */
+    private final byte delimiter;
+
+    /**
+     * The end of the range; records starting at or after this offset are not read
+     */
+    private final long end;
+
+    /**
+     * The reusable buffer for the bytes of the current field
+     */
+    private byte[] field;
+
+    /**
+     * The number of bytes in the current field
+     */
+    private int fieldLength;
+
+    /**
+     * The record read ahead by {@link #hasNext()}
+     */
+    private List<String> nextRecord;
+
+    /**
+     * The file offset of the next byte to be read
+     */
+    private long position;
+
+    /**
+     * The quote byte
+     */
+    private final byte quote;
+
+    /**
+     * The size of the file
+     */
+    private final long size;
+
+    /**
+     * The file offset of the start of the current window
+     */
+    private long windowStart;
+
+    /**
+     * The size of each memory-mapped window
+     */
+    private final int windowSize;
+
+    /**
+     * Opens a reader for the records starting in the given byte range
+     *
+     * @param path The file
+     * @param start The offset of the first record to read, which must be the start of a record
+     * @param end The offset at which to stop; records starting at or after it are not read
+     * @param delimiter The field delimiter
+     * @param quote The quote character
+     * @param charset The charset of the file
+     * @param windowSize The size of each memory-mapped window
+     * @throws IOException if the file cannot be opened
+     */
+    public DelimitedFileRangeReader(Path path, long start, long end, char delimiter, char quote, Charset charset, int windowSize) throws IOException {
+        if (!isSupportedCharset(charset)) {
+            throw new IllegalArgumentException("Unsupported charset for delimited file ranges: " + charset);
+        }
+        if (delimiter > 127 || quote > 127) {
+            throw new IllegalArgumentException("The delimiter and quote must be ASCII characters");
+        }
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("The mapping window size must be positive");
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.position = start;
+        this.end = Math.min(end, size);
+        this.delimiter = (byte) delimiter;
+        this.quote = (byte) quote;
+        this.charset = charset;
+        this.windowSize = windowSize;
+        this.field = new byte[256];
+    }
+
+    /**
+     * Returns true if the given charset can be used with this class
+     *
+     * @param charset The charset
+     * @return True if the charset is supported
+     */
+    public static boolean isSupportedCharset(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset) || StandardCharsets.ISO_8859_1.equals(charset);
+    }
+
+    /**
+     * Returns the offset just after the given number of records from the start of the file.
+     * This can be used to skip header lines.
+     *
+     * @param path The file
+     * @param records The number of records to skip
+     * @param delimiter The field delimiter
+     * @param quote The quote character
+     * @return The offset of the first record after the skipped ones
+     * @throws IOException if the file cannot be read
+     */
+    public static long skipRecords(Path path, int records, char delimiter, char quote) throws IOException {
+        try (DelimitedFileRangeReader reader = new DelimitedFileRangeReader(path, 0L, Long.MAX_VALUE, delimiter, quote, StandardCharsets.ISO_8859_1, DEFAULT_WINDOW_SIZE)) {
+            for(int i = 0; i < records && reader.readRecord(false) != null; i++) {
+                /* Skipping */
+            }
+            return reader.position;
+        }
+    }
+
+    /**
+     * Splits the file, from the given offset, into up to the given number of ranges of
+     * roughly equal size. Each boundary is moved forward to the end of a record, taking
+     * quoted newlines into account, which requires a single sequential scan of the file.
+     *
+     * @param path The file
+     * @param dataStart The offset of the first record, e.g. after any header
+     * @param count The desired number of ranges
+     * @param delimiter The field delimiter
+     * @param quote The quote character
+     * @return The ranges, as two-element arrays of start (inclusive) and end (exclusive) offsets
+     * @throws IOException if the file cannot be read
+     */
+    public static List<long[]> split(Path path, long dataStart, int count, char delimiter, char quote) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        try (DelimitedFileRangeReader reader = new DelimitedFileRangeReader(path, dataStart, Long.MAX_VALUE, delimiter, quote, StandardCharsets.ISO_8859_1, DEFAULT_WINDOW_SIZE)) {
+            long size = reader.size;
+            if (dataStart >= size) {
+                return ranges;
+            }
+            int parts = Math.max(1, count);
+            long rangeStart = dataStart;
+            for(int i = 1; i < parts; i++) {
+                long target = dataStart + ((size - dataStart) * i) / parts;
+                boolean more = true;
+                while (reader.position < target && (more = reader.readRecord(false) != null)) {
+                    /* Skipping to the end of the record containing the target */
+                }
+                if (!more || reader.position >= size) {
+                    break;
+                }
+                if (reader.position > rangeStart) {
+                    ranges.add(new long[] { rangeStart, reader.position });
+                    rangeStart = reader.position;
+                }
+            }
+            ranges.add(new long[] { rangeStart, size });
+        }
+        return ranges;
+    }
+
+    /**
+     * Appends a byte to the current field
+     *
+     * @param b The byte
+     */
+    private void append(byte b) {
+        if (fieldLength == field.length) {
+            field = Arrays.copyOf(field, field.length * 2);
+        }
+        field[fieldLength++] = b;
+    }
+
+    /**
+     * Closes the file. Mapped windows are released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer = null;
+        try {
+            channel.close();
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Completes the current field, adding it to the record if one is being collected
+     *
+     * @param record The record, or null if skipping
+     */
+    private void finishField(List<String> record) {
+        if (record != null) {
+            record.add(new String(field, 0, fieldLength, charset));
+        }
+        fieldLength = 0;
+    }
+
+    /**
+     * Reads ahead to the next record in the range, if there is one
+     *
+     * @return True if there is another record
+     */
+    @Override
+    public boolean hasNext() {
+        if (nextRecord != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        if (position >= end) {
+            close();
+            return false;
+        }
+        try {
+            nextRecord = readRecord(true);
+        } catch(IOException e) {
+            close();
+            throw new IllegalStateException(e);
+        }
+        if (nextRecord == null) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next record
+     *
+     * @return The fields of the next record
+     */
+    @Override
+    public List<String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<String> record = nextRecord;
+        nextRecord = null;
+        return record;
+    }
+
+    /**
+     * Returns the next byte without consuming it
+     *
+     * @return The next byte, as an unsigned value from 0 to 255, or -1 at the end of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    private int peek() throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        if (buffer == null || position >= windowStart + buffer.limit() || position < windowStart) {
+            windowStart = position;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, size - windowStart));
+        }
+        // Unsigned, so that a 0xFF byte is not mistaken for the end of the file
+        return buffer.get((int) (position - windowStart)) & 0xFF;
+    }
+
+    /**
+     * Consumes and returns the next byte
+     *
+     * @return The next byte, or -1 at the end of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    private int read() throws IOException {
+        int b = peek();
+        if (b != -1) {
+            position++;
+        }
+        return b;
+    }
+
+    /**
+     * Reads one record, starting at the current position
+     *
+     * @param collect If false, the record is skipped and an empty list is returned
+     * @return The record's fields, or null at the end of the file
+     * @throws IOException if the file cannot be read
+     */
+    private List<String> readRecord(boolean collect) throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        List<String> record = collect ? new ArrayList<>() : null;
+        fieldLength = 0;
+        boolean inQuotes = false;
+        boolean fieldStart = true;
+        while (true) {
+            int b = read();
+            if (b == -1) {
+                finishField(record);
+                return collect ? record : new ArrayList<>();
+            }
+            if (inQuotes) {
+                if (b == quote) {
+                    if (peek() == quote) {
+                        read();
+                        append(quote);
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    append((byte) b);
+                }
+            } else if (b == quote && fieldStart) {
+                inQuotes = true;
+                fieldStart = false;
+            } else if (b == delimiter) {
+                finishField(record);
+                fieldStart = true;
+            } else if (b == '\n') {
+                finishField(record);
+                return collect ? record : new ArrayList<>();
+            } else if (b == '\r' && peek() == '\n') {
+                /* The newline will end the record */
+            } else {
+                append((byte) b);
+                fieldStart = false;
+            }
+        }
+    }
+}
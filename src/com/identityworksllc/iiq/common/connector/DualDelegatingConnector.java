@@ -10,6 +10,11 @@ import sailpoint.tools.CloseableIterator;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.Util;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -17,15 +22,79 @@ import java.util.*;
  * where reading from the source would be expensive or infeasible. Sort of the opposite of an
  * IntegrationConfig.
  *
- * Optionally, getObject() can be forwarded to the 'write' connector.
+ * Optionally, getObject() can be forwarded to the 'write' connector. If enabled on this
+ * application, getObject() results are cached briefly by a shared {@link ResourceObjectCache}.
+ *
+ * If the read application is a local Delimited File application, partitioned account
+ * aggregations are partitioned by this connector rather than by the read connector, which
+ * only ever returns a single partition. The file is split into record-aligned byte ranges,
+ * each of which is read independently by a {@link DelimitedFileRangeReader}. The file must
+ * be readable at the same path on every node that may run a partition. This is skipped if
+ * the read application uses any options that this connector does not reproduce, such as
+ * row merging or customization rules, and can be disabled by setting the application
+ * attribute `delegate_read_FilePartitioning` to false.
  */
 public class DualDelegatingConnector extends AbstractConnector implements ConnectorStateChangeListener {
+    /**
+     * The application attribute that can be set to false to disable file partitioning
+     */
+    public static final String ATTR_FILE_PARTITIONING = "delegate_read_FilePartitioning";
+
+    /**
+     * The Delimited File options that this connector cannot reproduce when reading file ranges
+     */
+    private static final List<String> UNSUPPORTED_FILE_OPTIONS = Arrays.asList("buildMapRule", "filterString", "mapToResourceObjectRule", "mergeMapsRule", "postIterateRule", "preIterateRule");
+
+    /**
+     * Partition attribute: the column names
+     */
+    private static final String PARTITION_COLUMNS = "delegateFileColumns";
+
+    /**
+     * Partition attribute: the comment character, if any
+     */
+    private static final String PARTITION_COMMENT = "delegateFileComment";
+
+    /**
+     * Partition attribute: the field delimiter
+     */
+    private static final String PARTITION_DELIMITER = "delegateFileDelimiter";
+
+    /**
+     * Partition attribute: the file encoding
+     */
+    private static final String PARTITION_ENCODING = "delegateFileEncoding";
+
+    /**
+     * Partition attribute: the end offset of the range (exclusive)
+     */
+    private static final String PARTITION_END = "delegateFileEnd";
+
+    /**
+     * Partition attribute: the file path; its presence marks a file range partition
+     */
+    private static final String PARTITION_FILE = "delegateFile";
+
+    /**
+     * Partition attribute: the quote character
+     */
+    private static final String PARTITION_QUOTE = "delegateFileQuote";
+
+    /**
+     * Partition attribute: the start offset of the range
+     */
+    private static final String PARTITION_START = "delegateFileStart";
 
     /**
      * The log
      */
     private final Log log;
 
+    /**
+     * The application used for reading operations
+     */
+    private Application readApplication;
+
     /**
      * The Connector to use for reading operations
      */
@@ -69,7 +138,15 @@ public class DualDelegatingConnector extends AbstractConnector implements Connec
     @Override
     @SuppressWarnings("rawtypes")
     public Map doHealthCheck(Map<String, Object> options) throws ConnectorException, UnsupportedOperationException {
-        return getReadConnector().doHealthCheck(options);
+        Map result = getReadConnector().doHealthCheck(options);
+        ResourceObjectCache cache = ResourceObjectCache.forApplication(getApplication());
+        if (cache != null) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> combined = (result != null) ? new HashMap<>(result) : new HashMap<>();
+            combined.putAll(cache.getStatistics());
+            result = combined;
+        }
+        return result;
     }
 
     @Override
@@ -94,9 +171,149 @@ public class DualDelegatingConnector extends AbstractConnector implements Connec
         return super.getDefaultSchemas();
     }
 
+    /**
+     * Returns the file partitioning settings of the read application, if it is a local
+     * Delimited File application whose account file can be split into byte ranges by this
+     * connector, or null if the read connector must be used
+     *
+     * @param objectType The object type being aggregated
+     * @return The partition attributes common to every range, or null
+     * @throws IOException if the file header cannot be read
+     */
+    private Attributes<String, Object> getFilePartitionSettings(String objectType) throws IOException {
+        Object enabled = getAttributes() != null ? getAttributes().get(ATTR_FILE_PARTITIONING) : null;
+        if (!Schema.TYPE_ACCOUNT.equals(objectType) || (enabled != null && !Util.otob(enabled))) {
+            return null;
+        }
+        getReadConnector();
+        if (readApplication == null || !"DelimitedFile".equals(readApplication.getType())) {
+            return null;
+        }
+        Attributes<String, Object> appAttributes = readApplication.getAttributes();
+        if (appAttributes == null) {
+            return null;
+        }
+        String transport = appAttributes.getString("filetransport");
+        String parseType = appAttributes.getString("parseType");
+        if ((Util.isNotNullOrEmpty(transport) && !"local".equalsIgnoreCase(transport)) || (Util.isNotNullOrEmpty(parseType) && !"delimited".equalsIgnoreCase(parseType)) || appAttributes.getBoolean("mergeRows")) {
+            return null;
+        }
+        for(String option : UNSUPPORTED_FILE_OPTIONS) {
+            if (appAttributes.get(option) != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Not partitioning the file because the read application uses " + option);
+                }
+                return null;
+            }
+        }
+        String fileName = appAttributes.getString("file");
+        if (Util.isNullOrEmpty(fileName) || !new File(fileName).isFile()) {
+            return null;
+        }
+        String delimiter = appAttributes.getString("delimiter");
+        if (Util.isNullOrEmpty(delimiter)) {
+            delimiter = ",";
+        } else if ("\\t".equals(delimiter) || "tab".equalsIgnoreCase(delimiter)) {
+            delimiter = "\t";
+        }
+        String quote = appAttributes.getString("textQualifier");
+        if (Util.isNullOrEmpty(quote)) {
+            quote = "\"";
+        }
+        Charset charset;
+        try {
+            String encoding = appAttributes.getString("fileEncoding");
+            charset = Util.isNullOrEmpty(encoding) ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+        } catch(IllegalArgumentException e) {
+            return null;
+        }
+        if (delimiter.length() != 1 || quote.length() != 1 || delimiter.charAt(0) > 127 || quote.charAt(0) > 127 || !DelimitedFileRangeReader.isSupportedCharset(charset)) {
+            return null;
+        }
+
+        Path path = new File(fileName).toPath();
+        int skip = Util.otoi(appAttributes.get("linesToSkip"));
+        long dataStart = DelimitedFileRangeReader.skipRecords(path, skip, delimiter.charAt(0), quote.charAt(0));
+        List<String> columns = appAttributes.getStringList("columnNames");
+        if (appAttributes.getBoolean("hasHeader")) {
+            try (DelimitedFileRangeReader header = new DelimitedFileRangeReader(path, dataStart, Long.MAX_VALUE, delimiter.charAt(0), quote.charAt(0), charset, DelimitedFileRangeReader.DEFAULT_WINDOW_SIZE)) {
+                if (!header.hasNext()) {
+                    return null;
+                }
+                List<String> headerColumns = header.next();
+                if (columns == null || columns.isEmpty()) {
+                    columns = new ArrayList<>();
+                    for(String column : headerColumns) {
+                        columns.add(column.trim());
+                    }
+                }
+            }
+            dataStart = DelimitedFileRangeReader.skipRecords(path, skip + 1, delimiter.charAt(0), quote.charAt(0));
+        }
+        if (columns == null || columns.isEmpty()) {
+            return null;
+        }
+
+        Attributes<String, Object> settings = new Attributes<>();
+        settings.put(PARTITION_FILE, path.toAbsolutePath().toString());
+        settings.put(PARTITION_START, String.valueOf(dataStart));
+        settings.put(PARTITION_COLUMNS, new ArrayList<>(columns));
+        settings.put(PARTITION_DELIMITER, delimiter);
+        settings.put(PARTITION_QUOTE, quote);
+        settings.put(PARTITION_ENCODING, charset.name());
+        String comment = appAttributes.getString("commentCharacter");
+        if (Util.isNotNullOrEmpty(comment)) {
+            settings.put(PARTITION_COMMENT, comment);
+        }
+        return settings;
+    }
+
+    /**
+     * Returns the partitions for the given aggregation. If the read application is an
+     * eligible Delimited File application, the file is split into record-aligned byte
+     * ranges, one per partition. Otherwise, the read connector decides the partitions.
+     *
+     * @param objectType The object type being aggregated
+     * @param suggestedPartitionCount The suggested number of partitions
+     * @param filter The aggregation filter
+     * @param ops The aggregation options
+     * @return The partitions
+     * @throws ConnectorException if the partitions cannot be decided
+     */
     @Override
     public List<Partition> getIteratorPartitions(String objectType, int suggestedPartitionCount, Filter filter, Map<String, Object> ops) throws ConnectorException {
         String realConnector = getObligatoryStringAttribute("delegate_read_Application");
+
+        if (suggestedPartitionCount > 1) {
+            try {
+                Attributes<String, Object> settings = getFilePartitionSettings(objectType);
+                if (settings != null) {
+                    Path path = new File(settings.getString(PARTITION_FILE)).toPath();
+                    long dataStart = Long.parseLong(settings.getString(PARTITION_START));
+                    char delimiter = settings.getString(PARTITION_DELIMITER).charAt(0);
+                    char quote = settings.getString(PARTITION_QUOTE).charAt(0);
+                    List<long[]> ranges = DelimitedFileRangeReader.split(path, dataStart, suggestedPartitionCount, delimiter, quote);
+                    log.info("Partitioning file " + path + " from read application " + realConnector + " into " + ranges.size() + " byte ranges");
+
+                    List<Partition> partitions = new ArrayList<>();
+                    for(long[] range : ranges) {
+                        Attributes<String, Object> attributes = new Attributes<>(settings);
+                        attributes.put(PARTITION_START, String.valueOf(range[0]));
+                        attributes.put(PARTITION_END, String.valueOf(range[1]));
+
+                        Partition partition = new Partition();
+                        partition.setName(path.getFileName() + " bytes " + range[0] + "-" + range[1]);
+                        partition.setObjectType(objectType);
+                        partition.setAttributes(attributes);
+                        partitions.add(partition);
+                    }
+                    return partitions;
+                }
+            } catch(IOException e) {
+                throw new ConnectorException(e);
+            }
+        }
+
         log.info("Deciding partitions with read connector: " + realConnector);
 
         return getReadConnector().getIteratorPartitions(objectType, suggestedPartitionCount, filter, ops);
@@ -104,6 +321,23 @@ public class DualDelegatingConnector extends AbstractConnector implements Connec
 
     @Override
     public ResourceObject getObject(String s, String s1, Map<String, Object> map) throws ConnectorException {
+        ResourceObjectCache cache = ResourceObjectCache.forApplication(getApplication());
+        if (cache != null) {
+            return cache.get(s, s1, map, () -> getObjectFromDelegate(s, s1, map));
+        }
+        return getObjectFromDelegate(s, s1, map);
+    }
+
+    /**
+     * Fetches a single object from the read or write connector, as configured
+     *
+     * @param s The object type
+     * @param s1 The native identity
+     * @param map The getObject options
+     * @return The object
+     * @throws ConnectorException if the fetch fails
+     */
+    private ResourceObject getObjectFromDelegate(String s, String s1, Map<String, Object> map) throws ConnectorException {
         String whichConnectorForGetObject = getStringAttribute("delegate_read_GetObjectConnector");
         if (Util.isNullOrEmpty(whichConnectorForGetObject)) {
             whichConnectorForGetObject = "read";
@@ -129,7 +363,7 @@ public class DualDelegatingConnector extends AbstractConnector implements Connec
 
         try {
             String readApplicationName = getObligatoryStringAttribute("delegate_read_Application");
-            Application readApplication = (Application) getConnectorServices().getObject(Application.class, readApplicationName);
+            this.readApplication = (Application) getConnectorServices().getObject(Application.class, readApplicationName);
             this.readConnector = ConnectorFactory.getConnector(readApplication, null);
             this.readConnector.setConnectorServices(getConnectorServices());
         } catch (Exception e) {
@@ -192,19 +426,132 @@ public class DualDelegatingConnector extends AbstractConnector implements Connec
         return getReadConnector().iterateObjects(s, filter, map);
     }
 
+    /**
+     * Iterates over the objects in the given partition. Byte range partitions created by
+     * {@link #getIteratorPartitions(String, int, Filter, Map)} are read directly from the
+     * file; any other partition is passed to the read connector.
+     *
+     * @param partition The partition to read
+     * @return An iterator over the objects in the partition
+     * @throws ConnectorException if the partition cannot be read
+     */
     @Override
     public CloseableIterator<ResourceObject> iterateObjects(Partition partition) throws ConnectorException {
         String realConnector = getObligatoryStringAttribute("delegate_read_Application");
+        Attributes<String, Object> attributes = partition.getAttributes();
+        if (attributes != null && attributes.get(PARTITION_FILE) != null) {
+            log.info("Iterating objects in " + partition.getName() + " from read application " + realConnector);
+            return iterateFileRange(partition.getObjectType(), attributes);
+        }
         log.info("Iterating objects with read connector: " + realConnector);
         return getReadConnector().iterateObjects(partition);
     }
 
+    /**
+     * Streams the records of a file range partition as ResourceObjects, using the read
+     * application's schema for the identity and display attributes. Empty values are
+     * omitted and records whose values are all empty are skipped, as the Delimited File
+     * connector does.
+     *
+     * @param objectType The object type
+     * @param attributes The partition attributes
+     * @return An iterator over the ResourceObjects in the range
+     * @throws ConnectorException if the file cannot be opened
+     */
+    private CloseableIterator<ResourceObject> iterateFileRange(String objectType, Attributes<String, Object> attributes) throws ConnectorException {
+        getReadConnector();
+        Schema schema = readApplication.getSchema(Util.isNullOrEmpty(objectType) ? Schema.TYPE_ACCOUNT : objectType);
+        if (schema == null) {
+            throw new ConnectorException("The read application has no schema for object type " + objectType);
+        }
+        final String identityAttribute = schema.getIdentityAttribute();
+        final String displayAttribute = schema.getDisplayAttribute();
+        final String type = schema.getObjectType();
+        final List<String> columns = attributes.getStringList(PARTITION_COLUMNS);
+        final String comment = attributes.getString(PARTITION_COMMENT);
+
+        final DelimitedFileRangeReader reader;
+        try {
+            reader = new DelimitedFileRangeReader(
+                    new File(attributes.getString(PARTITION_FILE)).toPath(),
+                    Long.parseLong(attributes.getString(PARTITION_START)),
+                    Long.parseLong(attributes.getString(PARTITION_END)),
+                    attributes.getString(PARTITION_DELIMITER).charAt(0),
+                    attributes.getString(PARTITION_QUOTE).charAt(0),
+                    Charset.forName(attributes.getString(PARTITION_ENCODING)),
+                    DelimitedFileRangeReader.DEFAULT_WINDOW_SIZE
+            );
+        } catch(IOException e) {
+            throw new ConnectorException(e);
+        }
+
+        return new CloseableIterator<ResourceObject>() {
+            /**
+             * The next object, read ahead by hasNext()
+             */
+            private ResourceObject nextObject;
+
+            @Override
+            public void close() {
+                reader.close();
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (nextObject == null && reader.hasNext()) {
+                    List<String> record = reader.next();
+                    if (Util.isNotNullOrEmpty(comment) && !record.isEmpty() && record.get(0).startsWith(comment)) {
+                        continue;
+                    }
+                    ResourceObject ro = new ResourceObject();
+                    ro.setObjectType(type);
+                    for(int i = 0; i < record.size() && i < columns.size(); i++) {
+                        String value = record.get(i);
+                        if (Util.isNotNullOrEmpty(value)) {
+                            ro.put(columns.get(i), value);
+                        }
+                    }
+                    if (ro.getAttributes() == null || ro.getAttributes().isEmpty()) {
+                        continue;
+                    }
+                    if (Util.isNotNullOrEmpty(identityAttribute)) {
+                        ro.setIdentity(ro.getStringAttribute(identityAttribute));
+                    }
+                    if (Util.isNotNullOrEmpty(displayAttribute)) {
+                        ro.setDisplayName(ro.getStringAttribute(displayAttribute));
+                    }
+                    nextObject = ro;
+                }
+                return nextObject != null;
+            }
+
+            @Override
+            public ResourceObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ResourceObject ro = nextObject;
+                nextObject = null;
+                return ro;
+            }
+        };
+    }
+
     @Override
     public ProvisioningResult provision(ProvisioningPlan plan) throws ConnectorException, GeneralException {
         String realConnector = getObligatoryStringAttribute("delegate_write_ConnectorClass");
         log.info("Provisioning with write connector: " + realConnector);
 
-        return getWriteConnector().provision(plan);
+        ResourceObjectCache cache = ResourceObjectCache.forApplication(getApplication());
+        if (cache == null) {
+            return getWriteConnector().provision(plan);
+        }
+        cache.invalidate(plan);
+        try {
+            return getWriteConnector().provision(plan);
+        } finally {
+            cache.invalidate(plan);
+        }
     }
 
     @Override
@@ -0,0 +1,417 @@
+package com.identityworksllc.iiq.common.connector;
+
+import sailpoint.connector.ConnectorException;
+import sailpoint.object.Application;
+import sailpoint.object.Attributes;
+import sailpoint.object.ProvisioningPlan;
+import sailpoint.object.ResourceObject;
+import sailpoint.tools.Util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A short-lived, read-through cache of the ResourceObjects returned by a connector's
+ * getObject(), used by the delegating connectors. IIQ frequently fetches the same account
+ * several times within a few seconds during a single provisioning flow, and each fetch
+ * may be an expensive call to the target system.
+ *
+ * Entries are keyed by object type, native identity, and getObject options, and expire
+ * after a short TTL. Concurrent requests for the same key are coalesced into a single
+ * call to the target. Entries for every identity touched by a provisioning plan are
+ * invalidated before and after the plan is provisioned. A fetch that overlaps an
+ * invalidation is never cached, and callers arriving after the invalidation start a new
+ * fetch rather than joining it. Callers receive copies, so modifying a returned object
+ * does not affect the cache.
+ *
+ * Since IIQ frequently constructs a new Connector for each operation, caches are shared
+ * per application name via {@link #forApplication(Application)}. Caches are not shared
+ * between cluster nodes, so the TTL bounds how stale a cached object may be after a
+ * change made through another node.
+ *
+ * The cache is enabled by setting `getObjectCacheEnabled` to true on the application.
+ * The TTL may be set with `getObjectCacheTtlSeconds` and the maximum number of cached
+ * objects with `getObjectCacheMaxSize`.
+ */
+public class ResourceObjectCache {
+    /**
+     * Loads an object from the target system on a cache miss
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Loads the object
+         *
+         * @return The object, or null if it does not exist
+         * @throws ConnectorException if the load fails
+         */
+        ResourceObject load() throws ConnectorException;
+    }
+
+    /**
+     * A cached object and its expiration time
+     */
+    private static final class Entry {
+        /**
+         * The time at which this entry expires, in System.nanoTime() terms
+         */
+        private final long expires;
+
+        /**
+         * The cached object
+         */
+        private final ResourceObject object;
+
+        /**
+         * Constructs a new Entry
+         *
+         * @param object The cached object
+         * @param expires The expiration time
+         */
+        private Entry(ResourceObject object, long expires) {
+            this.object = object;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * A cache key
+     */
+    private static final class Key {
+        /**
+         * The native identity
+         */
+        private final String identity;
+
+        /**
+         * The object type
+         */
+        private final String objectType;
+
+        /**
+         * A copy of the getObject options
+         */
+        private final Map<String, Object> options;
+
+        /**
+         * Constructs a new Key
+         *
+         * @param objectType The object type
+         * @param identity The native identity
+         * @param options The getObject options
+         */
+        private Key(String objectType, String identity, Map<String, Object> options) {
+            this.objectType = objectType;
+            this.identity = identity;
+            this.options = (options == null || options.isEmpty()) ? null : new HashMap<>(options);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(identity, key.identity) && Objects.equals(objectType, key.objectType) && Objects.equals(options, key.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(identity, objectType, options);
+        }
+    }
+
+    /**
+     * The application attribute that enables the cache
+     */
+    public static final String ATTR_ENABLED = "getObjectCacheEnabled";
+
+    /**
+     * The application attribute specifying the maximum number of cached objects
+     */
+    public static final String ATTR_MAX_SIZE = "getObjectCacheMaxSize";
+
+    /**
+     * The application attribute specifying the TTL of cached objects, in seconds
+     */
+    public static final String ATTR_TTL_SECONDS = "getObjectCacheTtlSeconds";
+
+    /**
+     * The default maximum number of cached objects
+     */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    /**
+     * The default TTL of cached objects, in seconds
+     */
+    public static final int DEFAULT_TTL_SECONDS = 30;
+
+    /**
+     * The shared caches, by application name
+     */
+    private static final ConcurrentHashMap<String, ResourceObjectCache> caches = new ConcurrentHashMap<>();
+
+    /**
+     * The number of coalesced fetches, which waited for another thread's identical fetch
+     */
+    private final AtomicLong coalesced;
+
+    /**
+     * The cached entries in LRU order; guarded by its own monitor
+     */
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /**
+     * The number of cache hits
+     */
+    private final AtomicLong hits;
+
+    /**
+     * The fetches currently in progress
+     */
+    private final ConcurrentHashMap<Key, CompletableFuture<ResourceObject>> inFlight;
+
+    /**
+     * Incremented on every invalidation, so that overlapping fetches are not cached
+     */
+    private final AtomicLong invalidations;
+
+    /**
+     * The maximum number of cached objects
+     */
+    private final int maxSize;
+
+    /**
+     * The number of cache misses
+     */
+    private final AtomicLong misses;
+
+    /**
+     * The TTL of cached objects, in nanoseconds
+     */
+    private final long ttlNanos;
+
+    /**
+     * Constructs a new cache
+     *
+     * @param ttl The TTL of cached objects
+     * @param unit The unit of the TTL
+     * @param maxSize The maximum number of cached objects
+     */
+    public ResourceObjectCache(long ttl, TimeUnit unit, int maxSize) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxSize = Math.max(1, maxSize);
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > ResourceObjectCache.this.maxSize;
+            }
+        };
+        this.inFlight = new ConcurrentHashMap<>();
+        this.invalidations = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.coalesced = new AtomicLong();
+    }
+
+    /**
+     * Returns a copy of the given object, with its own attribute map and lists, so that
+     * callers cannot modify the cached copy
+     *
+     * @param object The object to copy
+     * @return The copy, or null if the input is null
+     */
+    private static ResourceObject copy(ResourceObject object) {
+        if (object == null) {
+            return null;
+        }
+        ResourceObject copy = new ResourceObject();
+        copy.setIdentity(object.getIdentity());
+        copy.setUuid(object.getUuid());
+        copy.setDisplayName(object.getDisplayName());
+        copy.setObjectType(object.getObjectType());
+        copy.setInstance(object.getInstance());
+        copy.setIncomplete(object.isIncomplete());
+        if (object.getAttributes() != null) {
+            Attributes<String, Object> attributes = new Attributes<>();
+            for(Map.Entry<String, Object> attribute : object.getAttributes().entrySet()) {
+                Object value = attribute.getValue();
+                if (value instanceof List) {
+                    value = new ArrayList<>((List<?>) value);
+                }
+                attributes.put(attribute.getKey(), value);
+            }
+            copy.setAttributes(attributes);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the shared cache for the given application, or null if the cache is not
+     * enabled for it. If the application's cache settings have changed, a new cache
+     * replaces the previous one.
+     *
+     * @param application The application
+     * @return The cache, or null if caching is disabled
+     */
+    public static ResourceObjectCache forApplication(Application application) {
+        if (application == null || Util.isNullOrEmpty(application.getName()) || !Util.otob(application.getAttributeValue(ATTR_ENABLED))) {
+            return null;
+        }
+        Object ttlSetting = application.getAttributeValue(ATTR_TTL_SECONDS);
+        Object maxSizeSetting = application.getAttributeValue(ATTR_MAX_SIZE);
+        final int ttlSeconds = (ttlSetting != null) ? Util.otoi(ttlSetting) : DEFAULT_TTL_SECONDS;
+        final int maxSize = (maxSizeSetting != null) ? Util.otoi(maxSizeSetting) : DEFAULT_MAX_SIZE;
+        if (ttlSeconds <= 0) {
+            return null;
+        }
+        return caches.compute(application.getName(), (name, existing) -> {
+            if (existing != null && existing.ttlNanos == TimeUnit.SECONDS.toNanos(ttlSeconds) && existing.maxSize == Math.max(1, maxSize)) {
+                return existing;
+            }
+            return new ResourceObjectCache(ttlSeconds, TimeUnit.SECONDS, maxSize);
+        });
+    }
+
+    /**
+     * Returns the object with the given type and identity, from the cache if a live entry
+     * exists, or else from the loader. If another thread is already loading the same
+     * object, this waits for and shares its result.
+     *
+     * @param objectType The object type
+     * @param identity The native identity
+     * @param options The getObject options, which are part of the cache key
+     * @param loader The loader to invoke on a cache miss
+     * @return A copy of the object, or null if it does not exist
+     * @throws ConnectorException if the load fails
+     */
+    public ResourceObject get(String objectType, String identity, Map<String, Object> options, Loader loader) throws ConnectorException {
+        Key key = new Key(objectType, identity, options);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expires - System.nanoTime() > 0) {
+                    hits.incrementAndGet();
+                    return copy(entry.object);
+                }
+                entries.remove(key);
+            }
+        }
+
+        CompletableFuture<ResourceObject> mine = new CompletableFuture<>();
+        CompletableFuture<ResourceObject> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return copy(existing.get());
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException(e);
+            } catch(ExecutionException e) {
+                if (e.getCause() instanceof ConnectorException) {
+                    throw (ConnectorException) e.getCause();
+                }
+                throw new ConnectorException(e.getCause());
+            }
+        }
+
+        misses.incrementAndGet();
+        long generation = invalidations.get();
+        try {
+            ResourceObject object = loader.load();
+            if (object != null && invalidations.get() == generation) {
+                synchronized (entries) {
+                    entries.put(key, new Entry(copy(object), System.nanoTime() + ttlNanos));
+                }
+            }
+            mine.complete(copy(object));
+            return object;
+        } catch(ConnectorException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Returns the cache statistics, suitable for inclusion in a health check result
+     *
+     * @return The cache statistics
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("getObjectCacheHits", hits.get());
+        statistics.put("getObjectCacheMisses", misses.get());
+        statistics.put("getObjectCacheCoalesced", coalesced.get());
+        synchronized (entries) {
+            statistics.put("getObjectCacheSize", entries.size());
+        }
+        return statistics;
+    }
+
+    /**
+     * Removes every cached object with one of the given native identities, of any type.
+     * Fetches of those identities already in progress are detached, so that later
+     * callers do not receive their (possibly stale) results.
+     *
+     * @param identities The native identities
+     */
+    public void invalidate(Collection<String> identities) {
+        invalidations.incrementAndGet();
+        if (identities == null || identities.isEmpty()) {
+            return;
+        }
+        inFlight.keySet().removeIf(key -> identities.contains(key.identity));
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> identities.contains(key.identity));
+        }
+    }
+
+    /**
+     * Removes every cached object affected by the given plan, i.e., those with the native
+     * identity of any account or object request in the plan
+     *
+     * @param plan The provisioning plan
+     */
+    public void invalidate(ProvisioningPlan plan) {
+        List<String> identities = new ArrayList<>();
+        if (plan != null) {
+            if (plan.getAccountRequests() != null) {
+                for(ProvisioningPlan.AccountRequest request : plan.getAccountRequests()) {
+                    if (Util.isNotNullOrEmpty(request.getNativeIdentity())) {
+                        identities.add(request.getNativeIdentity());
+                    }
+                }
+            }
+            if (plan.getObjectRequests() != null) {
+                for(ProvisioningPlan.ObjectRequest request : plan.getObjectRequests()) {
+                    if (Util.isNotNullOrEmpty(request.getNativeIdentity())) {
+                        identities.add(request.getNativeIdentity());
+                    }
+                }
+            }
+        }
+        invalidate(identities);
+    }
+
+    /**
+     * Removes every cached object and detaches every fetch in progress
+     */
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        inFlight.clear();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.identityworksllc.iiq.common.iterators;
+
+import sailpoint.tools.CloseableIterator;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * An iterator that lazily reads the lines of a text file, one at a time, without
+ * loading the whole file into memory. Line terminators (LF or CRLF) are removed.
+ *
+ * Small files are read with a buffered reader. Files at least as large as the mapping
+ * threshold are read through a sliding memory-mapped window instead, which avoids copying
+ * the data through the Java heap. Memory mapping is only used for charsets in which a
+ * newline is always the single byte 0x0A (UTF-8, US-ASCII, and ISO-8859-1).
+ *
+ * The iterator must be closed, or read to the end, to release the underlying file.
+ *
+ * ```
+ * try (FileLineIterator lines = new FileLineIterator(path)) {
+ *     while(lines.hasNext()) {
+ *         String line = lines.next();
+ *     }
+ * }
+ * ```
+ */
+public class FileLineIterator implements AutoCloseable, CloseableIterator<String>, Iterator<String> {
+    /**
+     * The default file size above which the file will be memory-mapped
+     */
+    public static final long DEFAULT_MAPPING_THRESHOLD = 256L * 1024 * 1024;
+
+    /**
+     * The default size of each memory-mapped window
+     */
+    public static final int DEFAULT_MAPPING_WINDOW = 64 * 1024 * 1024;
+
+    /**
+     * The current mapped window, if memory mapping is used
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The channel, if memory mapping is used
+     */
+    private FileChannel channel;
+
+    /**
+     * The charset of the file
+     */
+    private final Charset charset;
+
+    /**
+     * True once the iterator has been closed or exhausted
+     */
+    private boolean closed;
+
+    /**
+     * The line read ahead by {@link #hasNext()}
+     */
+    private String nextLine;
+
+    /**
+     * The file offset of the end of the current mapped window
+     */
+    private long position;
+
+    /**
+     * The reader, if memory mapping is not used
+     */
+    private BufferedReader reader;
+
+    /**
+     * The size of the file when it was opened
+     */
+    private long size;
+
+    /**
+     * The size of each memory-mapped window
+     */
+    private final int windowSize;
+
+    /**
+     * Opens the given UTF-8 file with the default mapping settings
+     *
+     * @param path The file to read
+     * @throws IOException if the file cannot be opened
+     */
+    public FileLineIterator(Path path) throws IOException {
+        this(path, StandardCharsets.UTF_8, DEFAULT_MAPPING_THRESHOLD, DEFAULT_MAPPING_WINDOW);
+    }
+
+    /**
+     * Opens the given file
+     *
+     * @param path The file to read
+     * @param charset The charset of the file
+     * @param mappingThreshold The file size at or above which the file will be memory-mapped
+     * @param windowSize The size of each memory-mapped window
+     * @throws IOException if the file cannot be opened
+     */
+    public FileLineIterator(Path path, Charset charset, long mappingThreshold, int windowSize) throws IOException {
+        Objects.requireNonNull(path);
+        this.charset = Objects.requireNonNull(charset);
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("The mapping window size must be positive");
+        }
+        this.windowSize = windowSize;
+
+        boolean singleByteNewline = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII) || charset.equals(StandardCharsets.ISO_8859_1);
+        long fileSize = Files.size(path);
+        if (singleByteNewline && fileSize >= mappingThreshold) {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.size = fileSize;
+        } else {
+            this.reader = Files.newBufferedReader(path, charset);
+        }
+    }
+
+    /**
+     * Closes the underlying file. Mapped windows are released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer = null;
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes the given line, removing any trailing carriage return
+     *
+     * @param bytes The line's bytes
+     * @return The decoded line
+     */
+    private String decode(byte[] bytes) {
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, charset);
+    }
+
+    /**
+     * Reads ahead to the next line, if there is one
+     *
+     * @return True if there is another line
+     */
+    @Override
+    public boolean hasNext() {
+        if (nextLine != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            nextLine = (reader != null) ? reader.readLine() : readMappedLine();
+        } catch(IOException e) {
+            close();
+            throw new IllegalStateException(e);
+        }
+        if (nextLine == null) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next line
+     *
+     * @return The next line, without its terminator
+     */
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String line = nextLine;
+        nextLine = null;
+        return line;
+    }
+
+    /**
+     * Reads the next line from the mapped windows, mapping the next window when the
+     * current one is exhausted. A line that spans windows is accumulated across them.
+     *
+     * @return The next line, or null at the end of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    private String readMappedLine() throws IOException {
+        ByteArrayOutputStream pending = null;
+        while (true) {
+            if (buffer == null || !buffer.hasRemaining()) {
+                if (position >= size) {
+                    return (pending != null) ? decode(pending.toByteArray()) : null;
+                }
+                long length = Math.min(windowSize, size - position);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+            }
+            int start = buffer.position();
+            int limit = buffer.limit();
+            int end = start;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            byte[] bytes = new byte[end - start];
+            buffer.get(bytes);
+            if (end < limit) {
+                // Skip the newline itself
+                buffer.get();
+                if (pending == null) {
+                    return decode(bytes);
+                }
+                pending.write(bytes);
+                return decode(pending.toByteArray());
+            }
+            if (pending == null) {
+                pending = new ByteArrayOutputStream();
+            }
+            pending.write(bytes);
+        }
+    }
+}
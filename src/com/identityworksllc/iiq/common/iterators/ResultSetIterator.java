@@ -181,8 +181,8 @@ public final class ResultSetIterator implements Iterator<Object[]>, AutoCloseabl
 	 * Static implementation of deriveTypedValue so it can be reused elsewhere.
 	 *
 	 * Derived types take the form [type]:[optional argument], similar to AngularJS
-	 * filters. The valid types are 'xml', 'timestamp', boolean', 'object', or any
-	 * SailPointObject subclass name (e.g., Identity, Link).
+	 * filters. The valid types are 'xml', 'timestamp', boolean', 'long', 'integer',
+	 * 'double', 'decimal', 'object', or any SailPointObject subclass name (e.g., Identity, Link).
 	 *
 	 * Examples:
 	 *
@@ -215,6 +215,12 @@ public final class ResultSetIterator implements Iterator<Object[]>, AutoCloseabl
 	 *      to the strings 'true', '1', or 'yes'. If the value is a Number, it
 	 *      will be considered true if it is non-zero. All other values are false.
 	 *
+	 *  'long' or 'integer':
+	 *      The value will be converted to a Long. Strings will be trimmed and parsed.
+	 *
+	 *  'double' or 'decimal':
+	 *      The value will be converted to a Double. Strings will be trimmed and parsed.
+	 *
 	 *  'object':
 	 *      The value will be handled as a Java object of an arbitrary type. The
 	 *      argument will be used via Utilities.getProperty() to dot-walk to any
@@ -283,6 +289,18 @@ public final class ResultSetIterator implements Iterator<Object[]>, AutoCloseabl
 			} else {
 				output = false;
 			}
+		} else if (derivedType.equals("long") || derivedType.equals("integer")) {
+			if (output instanceof Number) {
+				output = ((Number) output).longValue();
+			} else if (output instanceof String && !((String) output).trim().isEmpty()) {
+				output = Long.parseLong(((String) output).trim());
+			}
+		} else if (derivedType.equals("double") || derivedType.equals("decimal")) {
+			if (output instanceof Number) {
+				output = ((Number) output).doubleValue();
+			} else if (output instanceof String && !((String) output).trim().isEmpty()) {
+				output = Double.parseDouble(((String) output).trim());
+			}
 		} else if (derivedType.equals("script")) {
 			if (Util.isNullOrEmpty(argument)) {
 				throw new IllegalArgumentException("Derived type 'script' must include one argument, the actual script text");
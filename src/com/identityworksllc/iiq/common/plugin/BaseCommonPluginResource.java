@@ -2,6 +2,7 @@ package com.identityworksllc.iiq.common.plugin;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.identityworksllc.iiq.common.*;
 import com.identityworksllc.iiq.common.logging.LogCapture;
 import com.identityworksllc.iiq.common.logging.LoggingConstants;
@@ -11,11 +12,12 @@ import com.identityworksllc.iiq.common.plugin.annotations.AuthorizeAll;
 import com.identityworksllc.iiq.common.plugin.annotations.AuthorizeAny;
 import com.identityworksllc.iiq.common.plugin.annotations.AuthorizedBy;
 import com.identityworksllc.iiq.common.plugin.annotations.NoReturnValue;
-import com.identityworksllc.iiq.common.plugin.annotations.ResponsesAllowed;
+import com.identityworksllc.iiq.common.plugin.audit.AuditPipeline;
+import com.identityworksllc.iiq.common.plugin.audit.AuditRecord;
+import com.identityworksllc.iiq.common.plugin.audit.SyslogAuditSink;
 import com.identityworksllc.iiq.common.plugin.vo.ExpandedDate;
 import com.identityworksllc.iiq.common.plugin.vo.RestObject;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.core.annotation.AnnotationUtils;
 import sailpoint.api.Matchmaker;
 import sailpoint.api.Meter;
 import sailpoint.api.ObjectUtil;
@@ -42,11 +44,13 @@ import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.container.ResourceInfo;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * This class is the common base class for all IIQCommon-compliant plugin REST
@@ -105,6 +109,16 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
 			FacesContext.setCurrentInstance(facesContext);
 		}
 	}
+	/**
+	 * The shared, thread-safe writer used to serialize audit records
+	 */
+	private static final ObjectWriter auditWriter = new ObjectMapper().writer();
+
+	/**
+	 * The default audit pipeline, which writes SyslogEvents in the background
+	 */
+	private static final AuditPipeline defaultAuditPipeline = new AuditPipeline(new SyslogAuditSink());
+
 	/**
 	 * If true, logs will be captured in handle() and appended to any error messages
 	 */
@@ -168,6 +182,22 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
 		this.constructedContext = new ThreadLocal<>();
 	}
 
+	/**
+	 * Generates a random identifier for a request, in the standard UUID format.
+	 *
+	 * {@link UUID#randomUUID()} draws from a shared {@link java.security.SecureRandom},
+	 * which is contended under load and is not needed for a log correlation ID, so
+	 * this uses {@link ThreadLocalRandom} instead.
+	 *
+	 * @return A new request ID
+	 */
+	/*package*/ static String newRequestId() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long msb = (random.nextLong() & ~0xF000L) | 0x4000L;
+		long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+		return new UUID(msb, lsb).toString();
+	}
+
 	/**
 	 * Transforms a date response into a known format
 	 *
@@ -188,61 +218,44 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
 	 *
 	 * If the logged in user is null, authorization silently succeeds.
 	 *
-	 * @param endpointClass The endpoint class from {@link ResourceInfo}
-	 * @param endpointMethod The endpoint method from {@link ResourceInfo}
+	 * The annotations are resolved once per endpoint and cached in the
+	 * {@link EndpointDescriptor} for the class and method from {@link ResourceInfo}.
+	 *
+	 * @param endpoint The cached descriptor of the endpoint being invoked
 	 * @throws UnauthorizedAccessException if authorization fails
 	 * @throws GeneralException if any other system failures occur during authorization
 	 */
-	private void authorize(Class<?> endpointClass, Method endpointMethod) throws UnauthorizedAccessException, GeneralException {
+	private void authorize(EndpointDescriptor endpoint) throws UnauthorizedAccessException, GeneralException {
 		Identity me = super.getLoggedInUser();
 		if (me == null) {
 			return;
 		}
 
-		// NOTE: The difference between get and find is that find searches up the class
-		// hierarchy and get searches only the local level.
-		AuthorizedBy authorizedBy = AnnotationUtils.getAnnotation(endpointMethod, AuthorizedBy.class);
-		AuthorizeAll authorizeAll = null;
-		AuthorizeAny authorizeAny = null;
-
-		if (authorizedBy == null) {
-			authorizeAll = AnnotationUtils.getAnnotation(endpointMethod, AuthorizeAll.class);
-			authorizeAny = AnnotationUtils.getAnnotation(endpointMethod, AuthorizeAny.class);
-		}
-
-		if (authorizedBy == null && authorizeAll == null && authorizeAny == null) {
-			authorizedBy = AnnotationUtils.findAnnotation(endpointClass, AuthorizedBy.class);
-
-			if (authorizedBy == null) {
-				authorizeAll = AnnotationUtils.findAnnotation(endpointClass, AuthorizeAll.class);
-				authorizeAny = AnnotationUtils.findAnnotation(endpointClass, AuthorizeAny.class);
-			}
-		}
-
-		if (authorizedBy != null) {
-			if (!isAuthorized(authorizedBy, me)) {
-				throw new UnauthorizedAccessException("User is not authorized to access this endpoint");
-			}
-		} else if (authorizeAll != null) {
-			if (authorizeAny != null) {
-				throw new GeneralException("BAD CONFIGURATION: Endpoint method " + endpointClass.getName() + "." + endpointMethod.getName() + " is attached to both @AuthorizeAll and @AuthorizeAny annotations");
-			}
-			for(AuthorizedBy ab : authorizeAll.value()) {
-				if (!isAuthorized(ab, me)) {
-					throw new UnauthorizedAccessException("User is not authorized to access this endpoint");
+		switch (endpoint.getAuthorizationMode()) {
+			case Single:
+			case All:
+				for(AuthorizedBy ab : endpoint.getAuthorizations()) {
+					if (!isAuthorized(ab, me)) {
+						throw new UnauthorizedAccessException("User is not authorized to access this endpoint");
+					}
 				}
-			}
-		} else if (authorizeAny != null) {
-			boolean match = false;
-			for(AuthorizedBy ab : authorizeAny.value()) {
-				if (isAuthorized(ab, me)) {
-					match = true;
-					break;
+				break;
+			case Any:
+				boolean match = false;
+				for(AuthorizedBy ab : endpoint.getAuthorizations()) {
+					if (isAuthorized(ab, me)) {
+						match = true;
+						break;
+					}
 				}
-			}
-			if (!match) {
-				throw new UnauthorizedAccessException("User is not authorized to access this endpoint");
-			}
+				if (!match) {
+					throw new UnauthorizedAccessException("User is not authorized to access this endpoint");
+				}
+				break;
+			case Misconfigured:
+				throw new GeneralException("BAD CONFIGURATION: Endpoint method " + endpoint.getEndpointClassName() + "." + endpoint.getEndpointMethodName() + " is attached to both @AuthorizeAll and @AuthorizeAny annotations");
+			default:
+				break;
 		}
 	}
 
@@ -358,6 +371,21 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
 		return new ExtendedPluginContextHelper(getPluginName(), getContext(), this, this::getConfigurationName).getConfigurationInt(settingName);
 	}
 	
+    /**
+     * Returns the pipeline to which API access audit records are submitted when
+     * {@link #shouldAudit(HttpServletRequest)} returns true. The request thread only
+     * enqueues the record; it is written in the background.
+     *
+     * By default, this is a shared pipeline that writes each record as a SyslogEvent.
+     * Subclasses can override this method to return a pipeline with other sinks,
+     * sampling, or rate limits, or null to only log the access.
+     *
+     * @return The audit pipeline, or null
+     */
+    protected AuditPipeline getAuditPipeline() {
+        return defaultAuditPipeline;
+    }
+
 	/**
 	 * Returns the name of the Configuration object for this plugin. It defaults to
 	 * `Plugin Configuration [plugin name]`, but a subclass may want to override it.
@@ -606,7 +634,7 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
 		boolean shouldMeter = shouldMeter(request);
         boolean shouldAudit = shouldAudit(request);
 
-        String requestId = UUID.randomUUID().toString();
+        String requestId = newRequestId();
         final MDC.MDCContext mdcContext = MDC.start(requestId, this::getIdentityLogName);
         String remoteIp = CommonPluginUtils.getClientIP(request).orElse("unknown");
 
@@ -655,26 +683,11 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
                             mdcContext.put(LoggingConstants.LOG_MDC_ENDPOINT_METHOD, endpointMethod.getName());
                         }
 
-						authorize(endpointClass, endpointMethod);
-						if (endpointClass.isAnnotationPresent(NoReturnValue.class) || endpointMethod.isAnnotationPresent(NoReturnValue.class)) {
-							hasReturnValue = false;
-						}
-						List<Class<?>> allowedClasses = new ArrayList<>();
-						if (endpointClass.isAnnotationPresent(ResponsesAllowed.class)) {
-							Class<?>[] data = endpointClass.getAnnotation(ResponsesAllowed.class).value();
-							if (data != null) {
-								allowedClasses.addAll(Arrays.asList(data));
-							}
-						}
-						if (endpointMethod.isAnnotationPresent(ResponsesAllowed.class)) {
-							Class<?>[] data = endpointMethod.getAnnotation(ResponsesAllowed.class).value();
-							if (data != null) {
-								allowedClasses.addAll(Arrays.asList(data));
-							}
-						}
-
-						if (!allowedClasses.isEmpty()) {
-							allowedReturnTypes = allowedClasses;
+						EndpointDescriptor endpoint = EndpointDescriptor.forEndpoint(endpointClass, endpointMethod);
+						authorize(endpoint);
+						hasReturnValue = endpoint.hasReturnValue();
+						if (endpoint.getAllowedReturnTypes() != null) {
+							allowedReturnTypes = endpoint.getAllowedReturnTypes();
 							if (log.isTraceEnabled()) {
 								log.trace("Allowed return value types: " + allowedReturnTypes);
 							}
@@ -697,10 +710,14 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
 
                     if (shouldAudit) {
                         customizeAuditMap(auditMap);
-                        com.fasterxml.jackson.databind.ObjectMapper mapper = new ObjectMapper();
-                        String auditJson = mapper.writeValueAsString(auditMap);
-                        log.info("API access: {0}", auditJson);
-                        Syslogger.logEvent(this.getClass(), auditJson, null, Syslogger.EVENT_LEVEL_WARN);
+                        AuditRecord auditRecord = AuditRecord.fromAuditMap(this.getClass(), Syslogger.EVENT_LEVEL_WARN, auditMap);
+                        if (log.isInfoEnabled()) {
+                            log.info("API access: {0}", auditRecord.toJson());
+                        }
+                        AuditPipeline auditPipeline = getAuditPipeline();
+                        if (auditPipeline != null) {
+                            auditPipeline.submit(auditRecord);
+                        }
                     }
 
 					Object actionResult = action.execute();
@@ -734,8 +751,7 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
 		} catch(UnauthorizedAccessException | SecurityException e) {
             if (shouldAudit) {
                 try {
-                    com.fasterxml.jackson.databind.ObjectMapper mapper = new ObjectMapper();
-                    String auditJson = mapper.writeValueAsString(auditMap);
+                    String auditJson = auditWriter.writeValueAsString(auditMap);
                     log.warn("Unauthorized access to API: {0}", auditJson);
                 } catch(JsonProcessingException e2) {
                     log.error("Caught a JSON exception attempting to audit a previous exception", e2);
@@ -806,6 +822,9 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
 	 * that. Response entities are processed via IIQ's {@link sailpoint.rest.jaxrs.JsonMessageBodyWriter},
 	 * which passes them through the Flexjson library.
 	 *
+	 * A {@link StreamingJsonResult} or an {@link Iterator} is instead written incrementally
+	 * as a JSON array, without materializing the rows in memory.
+	 *
 	 * @param hasReturnValue True unless the method specifies {@literal '@'}{@link NoReturnValue}
 	 * @param response The output returned from the body of the handle method
 	 * @return The resulting Response object
@@ -837,6 +856,10 @@ public abstract class BaseCommonPluginResource extends BasePluginResource implem
 				return Response.ok().entity(responseMap).build();
 			} else if (response instanceof RestObject) {
 				return Response.ok().entity(response).build();
+			} else if (response instanceof StreamingJsonResult) {
+				return Response.ok((StreamingJsonResult) response, MediaType.APPLICATION_JSON_TYPE).build();
+			} else if (response instanceof Iterator) {
+				return Response.ok(StreamingJsonResult.of((Iterator<?>) response), MediaType.APPLICATION_JSON_TYPE).build();
 			} else if (response instanceof Exception) {
 				return handleException((Exception) response);
 			}
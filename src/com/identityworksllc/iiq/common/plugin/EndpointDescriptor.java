@@ -0,0 +1,218 @@
+package com.identityworksllc.iiq.common.plugin;
+
+import com.identityworksllc.iiq.common.plugin.annotations.AuthorizeAll;
+import com.identityworksllc.iiq.common.plugin.annotations.AuthorizeAny;
+import com.identityworksllc.iiq.common.plugin.annotations.AuthorizedBy;
+import com.identityworksllc.iiq.common.plugin.annotations.NoReturnValue;
+import com.identityworksllc.iiq.common.plugin.annotations.ResponsesAllowed;
+import org.springframework.core.annotation.AnnotationUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The annotation-derived metadata for a single REST endpoint (a resource class and
+ * method pair), computed once and cached for the life of the class. This allows
+ * {@link BaseCommonPluginResource#handle(PluginAction)} to skip re-scanning the
+ * annotations on every request.
+ *
+ * The cache is keyed by a {@link ClassValue}, so entries for a plugin's classes are
+ * released along with the plugin's classloader when it is redeployed.
+ */
+/*package*/ final class EndpointDescriptor {
+
+    /**
+     * The way in which the {@link AuthorizedBy} annotations for an endpoint are combined
+     */
+    /*package*/ enum AuthorizationMode {
+        /**
+         * No annotation-based authorization applies
+         */
+        None,
+        /**
+         * A single {@link AuthorizedBy} annotation applies
+         */
+        Single,
+        /**
+         * All of the {@link AuthorizeAll} annotations must pass
+         */
+        All,
+        /**
+         * Any of the {@link AuthorizeAny} annotations must pass
+         */
+        Any,
+        /**
+         * Both {@link AuthorizeAll} and {@link AuthorizeAny} were present, which is an error
+         */
+        Misconfigured
+    }
+
+    /**
+     * The cached descriptors, by resource class and then endpoint method
+     */
+    private static final ClassValue<Map<Method, EndpointDescriptor>> descriptors = new ClassValue<Map<Method, EndpointDescriptor>>() {
+        @Override
+        protected Map<Method, EndpointDescriptor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * The allowed return types from {@link ResponsesAllowed}, or null if none are specified
+     */
+    private final List<Class<?>> allowedReturnTypes;
+
+    /**
+     * The authorization mode
+     */
+    private final AuthorizationMode authorizationMode;
+
+    /**
+     * The {@link AuthorizedBy} annotations to check, according to the mode
+     */
+    private final List<AuthorizedBy> authorizations;
+
+    /**
+     * The endpoint class name
+     */
+    private final String endpointClassName;
+
+    /**
+     * The endpoint method name
+     */
+    private final String endpointMethodName;
+
+    /**
+     * False if the endpoint is annotated with {@link NoReturnValue}
+     */
+    private final boolean hasReturnValue;
+
+    /**
+     * Resolves the descriptor for the given endpoint class and method
+     *
+     * @param endpointClass The endpoint class
+     * @param endpointMethod The endpoint method
+     */
+    private EndpointDescriptor(Class<?> endpointClass, Method endpointMethod) {
+        this.endpointClassName = endpointClass.getName();
+        this.endpointMethodName = endpointMethod.getName();
+
+        // NOTE: The difference between get and find is that find searches up the class
+        // hierarchy and get searches only the local level.
+        AuthorizedBy authorizedBy = AnnotationUtils.getAnnotation(endpointMethod, AuthorizedBy.class);
+        AuthorizeAll authorizeAll = null;
+        AuthorizeAny authorizeAny = null;
+
+        if (authorizedBy == null) {
+            authorizeAll = AnnotationUtils.getAnnotation(endpointMethod, AuthorizeAll.class);
+            authorizeAny = AnnotationUtils.getAnnotation(endpointMethod, AuthorizeAny.class);
+        }
+
+        if (authorizedBy == null && authorizeAll == null && authorizeAny == null) {
+            authorizedBy = AnnotationUtils.findAnnotation(endpointClass, AuthorizedBy.class);
+
+            if (authorizedBy == null) {
+                authorizeAll = AnnotationUtils.findAnnotation(endpointClass, AuthorizeAll.class);
+                authorizeAny = AnnotationUtils.findAnnotation(endpointClass, AuthorizeAny.class);
+            }
+        }
+
+        if (authorizedBy != null) {
+            this.authorizationMode = AuthorizationMode.Single;
+            this.authorizations = Collections.singletonList(authorizedBy);
+        } else if (authorizeAll != null && authorizeAny != null) {
+            this.authorizationMode = AuthorizationMode.Misconfigured;
+            this.authorizations = Collections.emptyList();
+        } else if (authorizeAll != null) {
+            this.authorizationMode = AuthorizationMode.All;
+            this.authorizations = Collections.unmodifiableList(Arrays.asList(authorizeAll.value()));
+        } else if (authorizeAny != null) {
+            this.authorizationMode = AuthorizationMode.Any;
+            this.authorizations = Collections.unmodifiableList(Arrays.asList(authorizeAny.value()));
+        } else {
+            this.authorizationMode = AuthorizationMode.None;
+            this.authorizations = Collections.emptyList();
+        }
+
+        this.hasReturnValue = !(endpointClass.isAnnotationPresent(NoReturnValue.class) || endpointMethod.isAnnotationPresent(NoReturnValue.class));
+
+        List<Class<?>> allowedClasses = new ArrayList<>();
+        if (endpointClass.isAnnotationPresent(ResponsesAllowed.class)) {
+            Class<?>[] data = endpointClass.getAnnotation(ResponsesAllowed.class).value();
+            if (data != null) {
+                allowedClasses.addAll(Arrays.asList(data));
+            }
+        }
+        if (endpointMethod.isAnnotationPresent(ResponsesAllowed.class)) {
+            Class<?>[] data = endpointMethod.getAnnotation(ResponsesAllowed.class).value();
+            if (data != null) {
+                allowedClasses.addAll(Arrays.asList(data));
+            }
+        }
+        this.allowedReturnTypes = allowedClasses.isEmpty() ? null : Collections.unmodifiableList(allowedClasses);
+    }
+
+    /**
+     * Gets the cached descriptor for the given endpoint, resolving it on first use
+     *
+     * @param endpointClass The endpoint class
+     * @param endpointMethod The endpoint method
+     * @return The descriptor
+     */
+    /*package*/ static EndpointDescriptor forEndpoint(Class<?> endpointClass, Method endpointMethod) {
+        return descriptors.get(endpointClass).computeIfAbsent(endpointMethod, m -> new EndpointDescriptor(endpointClass, m));
+    }
+
+    /**
+     * Gets the allowed return types
+     * @return The allowed return types, or null if none are specified
+     */
+    /*package*/ List<Class<?>> getAllowedReturnTypes() {
+        return allowedReturnTypes;
+    }
+
+    /**
+     * Gets the authorization mode
+     * @return The authorization mode
+     */
+    /*package*/ AuthorizationMode getAuthorizationMode() {
+        return authorizationMode;
+    }
+
+    /**
+     * Gets the {@link AuthorizedBy} annotations to check
+     * @return The annotations, never null
+     */
+    /*package*/ List<AuthorizedBy> getAuthorizations() {
+        return authorizations;
+    }
+
+    /**
+     * Gets the endpoint class name
+     * @return The class name
+     */
+    /*package*/ String getEndpointClassName() {
+        return endpointClassName;
+    }
+
+    /**
+     * Gets the endpoint method name
+     * @return The method name
+     */
+    /*package*/ String getEndpointMethodName() {
+        return endpointMethodName;
+    }
+
+    /**
+     * Returns false if the endpoint is annotated with {@link NoReturnValue}
+     * @return True if the endpoint has a return value
+     */
+    /*package*/ boolean hasReturnValue() {
+        return hasReturnValue;
+    }
+}
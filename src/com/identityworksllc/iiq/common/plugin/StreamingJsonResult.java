@@ -0,0 +1,483 @@
+package com.identityworksllc.iiq.common.plugin;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.identityworksllc.iiq.common.Functions;
+import com.identityworksllc.iiq.common.Utilities;
+import com.identityworksllc.iiq.common.query.QueryUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import sailpoint.api.IncrementalProjectionIterator;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.SailPointObject;
+import sailpoint.tools.CloseableIterator;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.Util;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * A plugin REST result that is written to the client incrementally as a JSON array,
+ * rather than materialized in memory and serialized in one shot. Return one of these
+ * (or a plain {@link Iterator}) from the action passed to
+ * {@link BaseCommonPluginResource#handle(BaseCommonPluginResource.PluginAction)}.
+ *
+ * Rows are written with Jackson's streaming generator as they are produced, and the
+ * output is flushed to the client every {@link #withFlushEvery(int)} rows. Writing
+ * stops after {@link #withMaxRows(int)} rows. Whether the output completes, fails, or
+ * the client disconnects, the source iterator is closed and any registered cleanup
+ * actions are run.
+ *
+ * Jersey writes the result after the action returns, so a query that must be run at
+ * write time should use {@link #ofQuery(Functions.FunctionWithError)} or
+ * {@link #ofProjection(Class, QueryOptions, List)}. These run in a private context that
+ * exists only while the output is being written.
+ *
+ * ```
+ * return handle(() -> {
+ *     QueryOptions qo = new QueryOptions();
+ *     qo.addFilter(Filter.eq("inactive", false));
+ *     return StreamingJsonResult.ofProjection(Identity.class, qo, Arrays.asList("id", "name", "displayName"))
+ *         .withMaxRows(50000)
+ *         .withEnvelope("data");
+ * });
+ * ```
+ */
+public final class StreamingJsonResult implements StreamingOutput {
+
+    /**
+     * Adapts the rows of a projection query into maps keyed by column name. Closing this
+     * iterator stops it reading from the projection, so that no further pages are queried
+     * when the output is truncated or abandoned. An IncrementalProjectionIterator reads
+     * each page in full and holds no cursor between pages, so there is nothing else to
+     * release; the private context is released after writing.
+     */
+    private static final class ProjectionIterator implements CloseableIterator<Map<String, Object>> {
+        /**
+         * True once closed
+         */
+        private boolean closed;
+
+        /**
+         * The projected column names, in row order
+         */
+        private final List<String> columns;
+
+        /**
+         * The projection rows
+         */
+        private final IncrementalProjectionIterator rows;
+
+        /**
+         * Constructs a new projection iterator
+         *
+         * @param rows The projection rows
+         * @param columns The projected column names, in row order
+         */
+        private ProjectionIterator(IncrementalProjectionIterator rows, List<String> columns) {
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !closed && rows.hasNext();
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (closed) {
+                throw new NoSuchElementException("The projection iterator is closed");
+            }
+            Object[] row = rows.next();
+            Map<String, Object> output = new LinkedHashMap<>();
+            for (int i = 0; i < columns.size(); i++) {
+                output.put(columns.get(i), row[i]);
+            }
+            return output;
+        }
+    }
+
+    /**
+     * Produces rows by pushing them to a {@link RowSink}, as an alternative to an iterator
+     */
+    @FunctionalInterface
+    public interface RowProducer {
+        /**
+         * Produces rows until there are none left or the sink returns false
+         *
+         * @param sink The sink to which rows should be pushed
+         * @throws Exception if any failures occur
+         */
+        void produce(RowSink sink) throws Exception;
+    }
+
+    /**
+     * Accepts rows from a {@link RowProducer}
+     */
+    @FunctionalInterface
+    public interface RowSink {
+        /**
+         * Writes a single row
+         *
+         * @param row The row
+         * @return False if the row cap has already been reached, in which case the row is not written and the producer should stop
+         * @throws IOException if the row cannot be written, e.g. because the client disconnected
+         */
+        boolean accept(Object row) throws IOException;
+    }
+
+    /**
+     * The default number of rows between flushes
+     */
+    public static final int DEFAULT_FLUSH_EVERY = 500;
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(StreamingJsonResult.class);
+
+    /**
+     * The shared object mapper, whose factory creates the generators
+     */
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Cleanup actions to run after writing
+     */
+    private final List<Runnable> cleanup;
+
+    /**
+     * The envelope field name, or null to write a bare array
+     */
+    private String envelopeField;
+
+    /**
+     * The number of rows between flushes
+     */
+    private int flushEvery;
+
+    /**
+     * The source iterator, if this result wraps one
+     */
+    private final Iterator<?> iterator;
+
+    /**
+     * The maximum number of rows to write, or zero for no limit
+     */
+    private int maxRows;
+
+    /**
+     * The row producer, if this result wraps one
+     */
+    private final RowProducer producer;
+
+    /**
+     * The query that produces the source iterator at write time, if this result wraps one
+     */
+    private final Functions.FunctionWithError<SailPointContext, Iterator<?>> query;
+
+    /**
+     * A transformation applied to each row before it is written
+     */
+    private Function<Object, Object> rowTransformer;
+
+    /**
+     * Constructs a new result from exactly one source
+     *
+     * @param iterator The iterator
+     * @param producer The producer
+     * @param query The query
+     */
+    private StreamingJsonResult(Iterator<?> iterator, RowProducer producer, Functions.FunctionWithError<SailPointContext, Iterator<?>> query) {
+        this.iterator = iterator;
+        this.producer = producer;
+        this.query = query;
+        this.cleanup = new ArrayList<>();
+        this.flushEvery = DEFAULT_FLUSH_EVERY;
+    }
+
+    /**
+     * Streams the rows of the given iterator. If the iterator is a {@link CloseableIterator}
+     * or {@link AutoCloseable}, it will be closed after writing.
+     *
+     * @param iterator The iterator
+     * @return The streaming result
+     */
+    public static StreamingJsonResult of(Iterator<?> iterator) {
+        return new StreamingJsonResult(Objects.requireNonNull(iterator), null, null);
+    }
+
+    /**
+     * Streams the rows pushed by the given producer
+     *
+     * @param producer The producer
+     * @return The streaming result
+     */
+    public static StreamingJsonResult of(RowProducer producer) {
+        return new StreamingJsonResult(null, Objects.requireNonNull(producer), null);
+    }
+
+    /**
+     * Streams a projection query. Each row is written as an object keyed by column name.
+     * The query runs in a private context at write time, using a copy of the given
+     * QueryOptions. Pages are queried only as rows are written, so a truncated or
+     * abandoned output does not read the rest of the query.
+     *
+     * @param type The object type to query
+     * @param qo The query options
+     * @param columns The columns to project
+     * @return The streaming result
+     */
+    public static StreamingJsonResult ofProjection(Class<? extends SailPointObject> type, QueryOptions qo, List<String> columns) {
+        Objects.requireNonNull(type);
+        Objects.requireNonNull(columns);
+        final List<String> columnList = new ArrayList<>(columns);
+        return ofQuery(context -> {
+            // Copied so that the caller's QueryOptions is not modified
+            QueryOptions options = QueryUtil.copyQueryOptions(qo);
+            options.setCacheResults(false);
+            return new ProjectionIterator(new IncrementalProjectionIterator(context, type, options, columnList), columnList);
+        });
+    }
+
+    /**
+     * Streams the rows of the iterator returned by the given query, which is invoked with
+     * a private context at write time. The context is released after writing.
+     *
+     * @param query The query
+     * @return The streaming result
+     */
+    public static StreamingJsonResult ofQuery(Functions.FunctionWithError<SailPointContext, Iterator<?>> query) {
+        return new StreamingJsonResult(null, null, Objects.requireNonNull(query));
+    }
+
+    /**
+     * Closes the iterator, if possible
+     * @param source The iterator
+     */
+    private static void closeIterator(Iterator<?> source) {
+        try {
+            if (source instanceof CloseableIterator) {
+                ((CloseableIterator<?>) source).close();
+            } else if (source instanceof AutoCloseable) {
+                ((AutoCloseable) source).close();
+            } else {
+                Util.flushIterator(source);
+            }
+        } catch(Exception e) {
+            log.warn("Unable to close streaming result iterator", e);
+        }
+    }
+
+    /**
+     * Adds an action to run after writing completes, fails, or is abandoned by the client
+     *
+     * @param action The cleanup action
+     * @return This object, for chaining
+     */
+    public StreamingJsonResult onClose(Runnable action) {
+        this.cleanup.add(Objects.requireNonNull(action));
+        return this;
+    }
+
+    /**
+     * Wraps the array in an object, with the rows in the given field, along with a
+     * "count" field and a "truncated" field indicating whether the row cap was reached
+     *
+     * @param dataField The name of the field holding the rows
+     * @return This object, for chaining
+     */
+    public StreamingJsonResult withEnvelope(String dataField) {
+        this.envelopeField = dataField;
+        return this;
+    }
+
+    /**
+     * Sets the number of rows between flushes to the client
+     *
+     * @param flushEvery The number of rows, at least 1
+     * @return This object, for chaining
+     */
+    public StreamingJsonResult withFlushEvery(int flushEvery) {
+        this.flushEvery = Math.max(1, flushEvery);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of rows to write. Further rows are not read from the source.
+     *
+     * @param maxRows The maximum, or zero or less for no limit
+     * @return This object, for chaining
+     */
+    public StreamingJsonResult withMaxRows(int maxRows) {
+        this.maxRows = Math.max(0, maxRows);
+        return this;
+    }
+
+    /**
+     * Sets a transformation applied to each row before it is serialized, e.g. to convert
+     * a SailPointObject into a VO
+     *
+     * @param rowTransformer The transformation
+     * @return This object, for chaining
+     */
+    public StreamingJsonResult withRowTransformer(Function<Object, Object> rowTransformer) {
+        this.rowTransformer = rowTransformer;
+        return this;
+    }
+
+    /**
+     * Writes the rows to the output stream as JSON, then closes the source and runs the
+     * cleanup actions
+     *
+     * @param output The response output stream
+     * @throws IOException if writing fails, including if the client disconnects
+     * @throws WebApplicationException if the source fails
+     */
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(output, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (query != null) {
+                try {
+                    Utilities.withPrivateContext((context) -> {
+                        writeIterator(generator, query.applyWithError(context));
+                    });
+                } catch(GeneralException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new WebApplicationException(e);
+                }
+            } else if (iterator != null) {
+                writeIterator(generator, iterator);
+            } else {
+                writeProduced(generator);
+            }
+        } finally {
+            for (Runnable action : cleanup) {
+                try {
+                    action.run();
+                } catch(RuntimeException e) {
+                    log.warn("Streaming result cleanup action failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the closing of the array and, if configured, the envelope fields
+     *
+     * @param generator The generator
+     * @param count The number of rows written
+     * @param truncated True if the row cap was reached with rows remaining
+     * @throws IOException if writing fails
+     */
+    private void writeEnd(JsonGenerator generator, int count, boolean truncated) throws IOException {
+        generator.writeEndArray();
+        if (envelopeField != null) {
+            generator.writeNumberField("count", count);
+            generator.writeBooleanField("truncated", truncated);
+            generator.writeEndObject();
+        }
+        generator.flush();
+        if (log.isDebugEnabled()) {
+            log.debug("Streamed " + count + " rows" + (truncated ? " (truncated)" : ""));
+        }
+    }
+
+    /**
+     * Writes the rows of the iterator, closing it afterward
+     *
+     * @param generator The generator
+     * @param source The iterator
+     * @throws IOException if writing fails
+     */
+    private void writeIterator(JsonGenerator generator, Iterator<?> source) throws IOException {
+        try {
+            writeStart(generator);
+            int count = 0;
+            while (source.hasNext() && (maxRows == 0 || count < maxRows)) {
+                writeRow(generator, source.next(), ++count);
+            }
+            writeEnd(generator, count, maxRows > 0 && count >= maxRows && source.hasNext());
+        } finally {
+            closeIterator(source);
+        }
+    }
+
+    /**
+     * Writes the rows pushed by the producer
+     *
+     * @param generator The generator
+     * @throws IOException if writing fails
+     */
+    private void writeProduced(JsonGenerator generator) throws IOException {
+        writeStart(generator);
+        final int[] count = new int[1];
+        final boolean[] truncated = new boolean[1];
+        try {
+            producer.produce(row -> {
+                if (maxRows > 0 && count[0] >= maxRows) {
+                    truncated[0] = true;
+                    return false;
+                }
+                writeRow(generator, row, ++count[0]);
+                return true;
+            });
+        } catch(IOException | RuntimeException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new WebApplicationException(e);
+        }
+        writeEnd(generator, count[0], truncated[0]);
+    }
+
+    /**
+     * Writes a single row, flushing if needed
+     *
+     * @param generator The generator
+     * @param row The row
+     * @param count The number of rows written including this one
+     * @throws IOException if writing fails
+     */
+    private void writeRow(JsonGenerator generator, Object row, int count) throws IOException {
+        generator.writeObject(rowTransformer != null ? rowTransformer.apply(row) : row);
+        if (count % flushEvery == 0) {
+            generator.flush();
+        }
+    }
+
+    /**
+     * Writes the opening of the envelope, if configured, and the array
+     *
+     * @param generator The generator
+     * @throws IOException if writing fails
+     */
+    private void writeStart(JsonGenerator generator) throws IOException {
+        if (envelopeField != null) {
+            generator.writeStartObject();
+            generator.writeFieldName(envelopeField);
+        }
+        generator.writeStartArray();
+    }
+}
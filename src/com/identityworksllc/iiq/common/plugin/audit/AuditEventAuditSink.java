@@ -0,0 +1,87 @@
+package com.identityworksllc.iiq.common.plugin.audit;
+
+import com.identityworksllc.iiq.common.Audit;
+import com.identityworksllc.iiq.common.Utilities;
+import com.identityworksllc.iiq.common.logging.LoggingConstants;
+import sailpoint.object.Attributes;
+import sailpoint.object.AuditEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link AuditSink} that writes each record as an {@link AuditEvent}, built with
+ * {@link Audit}. The whole batch is saved in a single private context and committed
+ * once, rather than once per event as {@link Audit#close()} would.
+ *
+ * The event's target is the endpoint, its source is the logged in user, and string1
+ * through string3 hold the URI, HTTP method, and request ID. All audit fields are
+ * also copied to the event's attributes.
+ */
+public class AuditEventAuditSink implements AuditSink {
+    /**
+     * The default audit action name
+     */
+    public static final String DEFAULT_ACTION = "pluginApiAccess";
+
+    /**
+     * The interface name recorded on each event
+     */
+    public static final String INTERFACE_NAME = "PluginAPI";
+
+    /**
+     * The audit action name
+     */
+    private final String action;
+
+    /**
+     * Constructs a new sink using {@link #DEFAULT_ACTION}
+     */
+    public AuditEventAuditSink() {
+        this(DEFAULT_ACTION);
+    }
+
+    /**
+     * Constructs a new sink using the given audit action
+     * @param action The audit action name
+     */
+    public AuditEventAuditSink(String action) {
+        this.action = action;
+    }
+
+    /**
+     * Builds the AuditEvent for a single record
+     * @param record The record
+     * @return The AuditEvent
+     */
+    protected AuditEvent toAuditEvent(AuditRecord record) {
+        Audit audit = new Audit(action, record.getEndpoint(), record.getUser());
+        audit.setClientHost(record.getClientIp());
+        audit.setInterface(INTERFACE_NAME);
+        audit.setString1(record.get(LoggingConstants.LOG_MDC_URI));
+        audit.setString2(record.get(LoggingConstants.LOG_HTTP_METHOD));
+        audit.setString3(record.get(LoggingConstants.LOG_CTX_ID));
+        audit.setAttributes(new Attributes<>(record.getFields()));
+        return audit.getAuditEvent();
+    }
+
+    /**
+     * Writes the batch as AuditEvents in one private transaction
+     *
+     * @param records The records to write
+     * @throws Exception if the private context or commit fails
+     */
+    @Override
+    public void write(List<AuditRecord> records) throws Exception {
+        List<AuditEvent> events = new ArrayList<>(records.size());
+        for (AuditRecord record : records) {
+            events.add(toAuditEvent(record));
+        }
+        Utilities.withPrivateContext((context) -> {
+            for (AuditEvent event : events) {
+                context.saveObject(event);
+            }
+            context.commitTransaction();
+        });
+    }
+}
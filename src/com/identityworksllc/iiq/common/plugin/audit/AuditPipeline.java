@@ -0,0 +1,472 @@
+package com.identityworksllc.iiq.common.plugin.audit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, asynchronous queue of {@link AuditRecord}s, drained by a single background
+ * writer thread into one or more {@link AuditSink}s in batches.
+ *
+ * The request thread only calls {@link #submit(AuditRecord)}, which never blocks. A
+ * record is dropped, and the matching counter incremented, if it is not sampled, if
+ * its endpoint has exceeded its rate limit, or if the queue is full.
+ *
+ * The writer thread waits up to the flush interval after the first queued record to
+ * coalesce more records into the same batch. It is started on demand and exits after
+ * it has been idle for a while, so that a pipeline held in a static field does not
+ * pin a plugin's classloader after the plugin is redeployed.
+ *
+ * ```
+ * AuditPipeline pipeline = new AuditPipeline(new SyslogAuditSink(), new RollingFileAuditSink(path));
+ * pipeline.setSampleRate(0.25);
+ * pipeline.setEndpointRateLimit(10);
+ * ...
+ * pipeline.submit(AuditRecord.fromAuditMap(getClass(), Syslogger.EVENT_LEVEL_WARN, auditMap));
+ * ```
+ */
+public class AuditPipeline {
+
+    /**
+     * A per-endpoint token bucket. The capacity is one second's worth of permits.
+     */
+    private static final class RateLimiter {
+        /**
+         * The time of the last refill, in nanoseconds
+         */
+        private long lastRefill;
+
+        /**
+         * The available permits
+         */
+        private double tokens;
+
+        /**
+         * Constructs a full bucket
+         * @param permitsPerSecond The rate
+         */
+        private RateLimiter(double permitsPerSecond) {
+            this.tokens = Math.max(permitsPerSecond, 1.0);
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * Refills the bucket for the elapsed time and takes a permit if one is available
+         *
+         * @param permitsPerSecond The rate
+         * @return True if a permit was taken
+         */
+        private synchronized boolean tryAcquire(double permitsPerSecond) {
+            long now = System.nanoTime();
+            tokens = Math.min(Math.max(permitsPerSecond, 1.0), tokens + (now - lastRefill) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            if (tokens >= 1.0) {
+                tokens -= 1.0;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The default maximum number of records per batch
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * The default queue capacity
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * The default time to wait for a batch to fill, in milliseconds
+     */
+    public static final long DEFAULT_FLUSH_MILLIS = 500;
+
+    /**
+     * The time after which an idle writer thread exits, in milliseconds
+     */
+    private static final long IDLE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Records accepted into the queue
+     */
+    private final AtomicLong accepted;
+
+    /**
+     * The maximum number of records per batch
+     */
+    private final int batchSize;
+
+    /**
+     * Records dropped because the queue was full
+     */
+    private final AtomicLong droppedQueueFull;
+
+    /**
+     * Records dropped by the per-endpoint rate limit
+     */
+    private final AtomicLong droppedRateLimited;
+
+    /**
+     * Records dropped by sampling
+     */
+    private final AtomicLong droppedSampled;
+
+    /**
+     * The per-endpoint rate limit in records per second, or zero for no limit
+     */
+    private volatile double endpointRateLimit;
+
+    /**
+     * Records that at least one sink failed to write
+     */
+    private final AtomicLong failed;
+
+    /**
+     * The time to wait for a batch to fill, in milliseconds
+     */
+    private final long flushMillis;
+
+    /**
+     * Logger
+     */
+    private final Log log;
+
+    /**
+     * The pending records
+     */
+    private final BlockingQueue<AuditRecord> queue;
+
+    /**
+     * The rate limiters, by endpoint
+     */
+    private final Map<String, RateLimiter> rateLimiters;
+
+    /**
+     * True while a writer thread is running
+     */
+    private final AtomicBoolean running;
+
+    /**
+     * The fraction of records to keep, from 0.0 to 1.0
+     */
+    private volatile double sampleRate;
+
+    /**
+     * True once the pipeline has been shut down
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * The sinks
+     */
+    private final List<AuditSink> sinks;
+
+    /**
+     * Records written successfully to every sink
+     */
+    private final AtomicLong written;
+
+    /**
+     * Constructs a new pipeline with the default capacity, batch size, and flush interval
+     * @param sinks The sinks to write to
+     */
+    public AuditPipeline(AuditSink... sinks) {
+        this(Arrays.asList(sinks), DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_MILLIS);
+    }
+
+    /**
+     * Constructs a new pipeline
+     *
+     * @param sinks The sinks to write to
+     * @param capacity The queue capacity
+     * @param batchSize The maximum number of records per batch
+     * @param flushMillis The time to wait for a batch to fill, in milliseconds
+     */
+    public AuditPipeline(List<AuditSink> sinks, int capacity, int batchSize, long flushMillis) {
+        if (sinks == null || sinks.isEmpty()) {
+            throw new IllegalArgumentException("At least one sink is required");
+        }
+        if (capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("capacity and batchSize must be positive");
+        }
+        this.sinks = Collections.unmodifiableList(new ArrayList<>(sinks));
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushMillis = Math.max(0, flushMillis);
+        this.rateLimiters = new ConcurrentHashMap<>();
+        this.running = new AtomicBoolean();
+        this.sampleRate = 1.0;
+
+        this.accepted = new AtomicLong();
+        this.droppedQueueFull = new AtomicLong();
+        this.droppedRateLimited = new AtomicLong();
+        this.droppedSampled = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.written = new AtomicLong();
+
+        this.log = LogFactory.getLog(AuditPipeline.class);
+    }
+
+    /**
+     * Collects the next batch, waiting up to the idle time for the first record and then
+     * up to the flush interval for the batch to fill
+     *
+     * @param batch The list to fill
+     * @throws InterruptedException if the writer thread is interrupted
+     */
+    private void collect(List<AuditRecord> batch) throws InterruptedException {
+        AuditRecord first = queue.poll(shutdown ? 0 : IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - batch.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        while (batch.size() < batchSize && !shutdown) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            AuditRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            queue.drainTo(batch, batchSize - batch.size());
+        }
+    }
+
+    /**
+     * Gets the number of records accepted into the queue
+     * @return The count
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * Gets all counters, suitable for reporting
+     * @return A map of counter name to value
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("accepted", getAccepted());
+        counters.put("written", getWritten());
+        counters.put("failed", getFailed());
+        counters.put("droppedQueueFull", getDroppedQueueFull());
+        counters.put("droppedRateLimited", getDroppedRateLimited());
+        counters.put("droppedSampled", getDroppedSampled());
+        counters.put("pending", (long) queue.size());
+        return counters;
+    }
+
+    /**
+     * Gets the number of records dropped because the queue was full
+     * @return The count
+     */
+    public long getDroppedQueueFull() {
+        return droppedQueueFull.get();
+    }
+
+    /**
+     * Gets the number of records dropped by the per-endpoint rate limit
+     * @return The count
+     */
+    public long getDroppedRateLimited() {
+        return droppedRateLimited.get();
+    }
+
+    /**
+     * Gets the number of records dropped by sampling
+     * @return The count
+     */
+    public long getDroppedSampled() {
+        return droppedSampled.get();
+    }
+
+    /**
+     * Gets the number of records that at least one sink failed to write. Each record
+     * is counted once, however many sinks failed.
+     * @return The count
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Gets the number of records written successfully to every sink. Each record is
+     * counted once, however many sinks there are.
+     * @return The count
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Sets the per-endpoint rate limit. Records for an endpoint beyond this rate are
+     * dropped. Bursts of up to one second's worth are allowed.
+     *
+     * @param permitsPerSecond The limit in records per second, or zero or less for no limit
+     */
+    public void setEndpointRateLimit(double permitsPerSecond) {
+        this.endpointRateLimit = Math.max(0, permitsPerSecond);
+        this.rateLimiters.clear();
+    }
+
+    /**
+     * Sets the fraction of records to keep. Sampling is random and independent per record.
+     * @param sampleRate The fraction, from 0.0 (drop all) to 1.0 (keep all)
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = Math.min(1.0, Math.max(0.0, sampleRate));
+    }
+
+    /**
+     * Stops accepting records, writes any that are pending, and closes the sinks. Waits
+     * up to the given time for the writer thread to finish.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while ((running.get() || !queue.isEmpty()) && System.nanoTime() < deadline) {
+            if (!running.get()) {
+                startWriter();
+            }
+            Thread.sleep(10);
+        }
+        for (AuditSink sink : sinks) {
+            try {
+                sink.close();
+            } catch(Exception e) {
+                log.warn("Unable to close audit sink " + sink.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Starts a writer thread if none is running
+     */
+    private void startWriter() {
+        if (running.compareAndSet(false, true)) {
+            Thread writer = new Thread(this::writerLoop, "IIQCommon audit writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Offers a record to the pipeline. This never blocks. The record may be dropped by
+     * sampling, by the endpoint's rate limit, or because the queue is full. Records
+     * submitted after {@link #shutdown(long, TimeUnit)} are counted as queue-full drops.
+     *
+     * @param record The record to submit
+     * @return True if the record was queued
+     */
+    public boolean submit(AuditRecord record) {
+        Objects.requireNonNull(record);
+        if (shutdown) {
+            droppedQueueFull.incrementAndGet();
+            return false;
+        }
+        double rate = sampleRate;
+        if (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            droppedSampled.incrementAndGet();
+            return false;
+        }
+        double limit = endpointRateLimit;
+        if (limit > 0) {
+            RateLimiter limiter = rateLimiters.computeIfAbsent(record.getEndpoint(), k -> new RateLimiter(limit));
+            if (!limiter.tryAcquire(limit)) {
+                droppedRateLimited.incrementAndGet();
+                return false;
+            }
+        }
+        if (!queue.offer(record)) {
+            droppedQueueFull.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        if (!running.get()) {
+            startWriter();
+        }
+        return true;
+    }
+
+    /**
+     * Writes a batch to each sink. The batch is counted once, as written if every sink
+     * wrote it and as failed otherwise.
+     *
+     * @param batch The batch to write
+     */
+    private void writeBatch(List<AuditRecord> batch) {
+        boolean anyFailed = false;
+        for (AuditSink sink : sinks) {
+            try {
+                sink.write(batch);
+            } catch(Exception e) {
+                anyFailed = true;
+                log.error("Audit sink " + sink.getClass().getName() + " failed to write " + batch.size() + " records", e);
+            }
+        }
+        if (anyFailed) {
+            failed.addAndGet(batch.size());
+        } else {
+            written.addAndGet(batch.size());
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Wrote a batch of " + batch.size() + " audit records");
+        }
+    }
+
+    /**
+     * The writer thread body. Writes batches until the queue has been idle for the idle
+     * time, then exits. A record queued while the thread is exiting restarts it.
+     */
+    private void writerLoop() {
+        List<AuditRecord> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.clear();
+                collect(batch);
+                if (batch.isEmpty()) {
+                    running.set(false);
+                    // A submit may have seen running == true just before we cleared it
+                    if (queue.isEmpty() || !running.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                writeBatch(batch);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+            }
+            running.set(false);
+        } catch(RuntimeException | Error e) {
+            running.set(false);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.identityworksllc.iiq.common.plugin.audit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.identityworksllc.iiq.common.logging.LoggingConstants;
+import sailpoint.tools.Util;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A single audited API access, captured on the request thread and written later by
+ * an {@link AuditPipeline}. The audit fields are copied on construction, so the
+ * caller may reuse or modify its map afterward.
+ *
+ * The JSON form of the fields is computed on first use and cached, so it is only
+ * serialized once no matter how many sinks consume the record.
+ */
+public final class AuditRecord {
+    /**
+     * The shared, thread-safe writer used to serialize audit fields
+     */
+    private static final ObjectWriter jsonWriter = new ObjectMapper().writer();
+
+    /**
+     * The endpoint key, used for rate limiting
+     */
+    private final String endpoint;
+
+    /**
+     * The event level, one of the Syslogger EVENT_LEVEL constants
+     */
+    private final String eventLevel;
+
+    /**
+     * The audit fields
+     */
+    private final Map<String, Object> fields;
+
+    /**
+     * The cached JSON form of the fields
+     */
+    private volatile String json;
+
+    /**
+     * The class that produced the record
+     */
+    private final Class<?> owningClass;
+
+    /**
+     * The name of the request thread that produced the record
+     */
+    private final String threadName;
+
+    /**
+     * The time the record was captured
+     */
+    private final Date timestamp;
+
+    /**
+     * Constructs a new audit record
+     *
+     * @param owningClass The class producing the record, optionally
+     * @param endpoint The endpoint key, used for rate limiting (not null)
+     * @param eventLevel The event level
+     * @param fields The audit fields, which will be copied
+     */
+    public AuditRecord(Class<?> owningClass, String endpoint, String eventLevel, Map<String, Object> fields) {
+        this.owningClass = owningClass;
+        this.endpoint = Objects.requireNonNull(endpoint);
+        this.eventLevel = eventLevel;
+        this.fields = (fields == null) ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(fields));
+        this.threadName = Thread.currentThread().getName();
+        this.timestamp = new Date();
+    }
+
+    /**
+     * Constructs a new audit record from an audit map built by the plugin resource, using
+     * the endpoint class and method (or the URI, if those are absent) as the endpoint key
+     *
+     * @param owningClass The class producing the record, optionally
+     * @param eventLevel The event level
+     * @param auditMap The audit map, keyed by {@link LoggingConstants} values
+     * @return The new record
+     */
+    public static AuditRecord fromAuditMap(Class<?> owningClass, String eventLevel, Map<String, Object> auditMap) {
+        String endpointClass = Util.otoa(auditMap.get(LoggingConstants.LOG_MDC_ENDPOINT_CLASS));
+        String endpointMethod = Util.otoa(auditMap.get(LoggingConstants.LOG_MDC_ENDPOINT_METHOD));
+        String endpoint;
+        if (Util.isNotNullOrEmpty(endpointClass) && Util.isNotNullOrEmpty(endpointMethod)) {
+            endpoint = endpointClass + "." + endpointMethod;
+        } else {
+            endpoint = Util.otoa(auditMap.get(LoggingConstants.LOG_MDC_URI));
+            if (endpoint == null) {
+                endpoint = "";
+            }
+        }
+        return new AuditRecord(owningClass, endpoint, eventLevel, auditMap);
+    }
+
+    /**
+     * Gets a single audit field as a string
+     * @param name The field name
+     * @return The string value, or null if the field is absent
+     */
+    public String get(String name) {
+        return Util.otoa(fields.get(name));
+    }
+
+    /**
+     * Gets the client IP address from the audit fields
+     * @return The client IP, or null
+     */
+    public String getClientIp() {
+        return get(LoggingConstants.LOG_CLIENT_IP);
+    }
+
+    /**
+     * Gets the endpoint key
+     * @return The endpoint key
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Gets the event level
+     * @return The event level
+     */
+    public String getEventLevel() {
+        return eventLevel;
+    }
+
+    /**
+     * Gets the (unmodifiable) audit fields
+     * @return The audit fields
+     */
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
+    /**
+     * Gets the class that produced the record
+     * @return The owning class, or null
+     */
+    public Class<?> getOwningClass() {
+        return owningClass;
+    }
+
+    /**
+     * Gets the name of the request thread that produced the record
+     * @return The thread name
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * Gets the time the record was captured
+     * @return The timestamp
+     */
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the logged in user name from the audit fields
+     * @return The user name, or null
+     */
+    public String getUser() {
+        return get(LoggingConstants.LOG_MDC_USER);
+    }
+
+    /**
+     * Gets the audit fields as a JSON object string, serializing them on first use
+     *
+     * @return The JSON string
+     * @throws JsonProcessingException if the fields cannot be serialized
+     */
+    public String toJson() throws JsonProcessingException {
+        String result = json;
+        if (result == null) {
+            result = jsonWriter.writeValueAsString(fields);
+            json = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,26 @@
+package com.identityworksllc.iiq.common.plugin.audit;
+
+import java.util.List;
+
+/**
+ * A destination for batches of {@link AuditRecord}s. Sinks are invoked only from the
+ * writer thread of an {@link AuditPipeline}, never from a request thread, and so do
+ * not need to be thread-safe unless shared between pipelines.
+ */
+public interface AuditSink {
+    /**
+     * Releases any resources held by the sink. The default does nothing.
+     */
+    default void close() {
+        // Nothing by default
+    }
+
+    /**
+     * Writes a batch of records. Implementations should write the batch in as few
+     * transactions or I/O operations as possible.
+     *
+     * @param records The records to write, never empty
+     * @throws Exception if the batch could not be written
+     */
+    void write(List<AuditRecord> records) throws Exception;
+}
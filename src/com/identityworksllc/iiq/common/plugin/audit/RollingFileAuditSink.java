@@ -0,0 +1,173 @@
+package com.identityworksllc.iiq.common.plugin.audit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+/**
+ * An {@link AuditSink} that appends each record as one line to a local file on this
+ * server. Each line is the record's timestamp, a tab, and the record's JSON form.
+ *
+ * When the active file exceeds the maximum size, it is renamed with the suffix ".1",
+ * any older files are shifted up by one, and files beyond the retained count are
+ * deleted. For example, with a base name of "api-audit.log", the files are
+ * "api-audit.log", "api-audit.log.1", "api-audit.log.2", and so on.
+ */
+public class RollingFileAuditSink implements AuditSink {
+    /**
+     * The default maximum size of the active file, 50 MB
+     */
+    public static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024;
+
+    /**
+     * The default number of rolled files to retain
+     */
+    public static final int DEFAULT_MAX_FILES = 10;
+
+    /**
+     * The active file
+     */
+    private final Path activeFile;
+
+    /**
+     * The number of bytes written to the active file
+     */
+    private long bytesWritten;
+
+    /**
+     * Logger
+     */
+    private final Log log;
+
+    /**
+     * The maximum size of the active file before it is rolled
+     */
+    private final long maxBytes;
+
+    /**
+     * The number of rolled files to retain
+     */
+    private final int maxFiles;
+
+    /**
+     * The writer for the active file, opened lazily
+     */
+    private BufferedWriter writer;
+
+    /**
+     * Constructs a new sink with the default size and retention
+     * @param activeFile The path to the active file
+     */
+    public RollingFileAuditSink(Path activeFile) {
+        this(activeFile, DEFAULT_MAX_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * Constructs a new sink
+     *
+     * @param activeFile The path to the active file
+     * @param maxBytes The maximum size of the active file before it is rolled
+     * @param maxFiles The number of rolled files to retain
+     */
+    public RollingFileAuditSink(Path activeFile, long maxBytes, int maxFiles) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.activeFile = activeFile;
+        this.maxBytes = maxBytes;
+        this.maxFiles = Math.max(0, maxFiles);
+        this.log = LogFactory.getLog(RollingFileAuditSink.class);
+    }
+
+    /**
+     * Closes the active file
+     */
+    @Override
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch(IOException e) {
+                log.warn("Unable to close audit file " + activeFile, e);
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Gets the path of a rolled file
+     * @param index The roll index, starting at 1
+     * @return The path
+     */
+    private Path rolledFile(int index) {
+        return activeFile.resolveSibling(activeFile.getFileName() + "." + index);
+    }
+
+    /**
+     * Closes the active file and shifts it and the retained files up by one
+     * @throws IOException if any file operation fails
+     */
+    private void roll() throws IOException {
+        close();
+        if (maxFiles == 0) {
+            Files.deleteIfExists(activeFile);
+        } else {
+            Files.deleteIfExists(rolledFile(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                Path from = rolledFile(i);
+                if (Files.exists(from)) {
+                    Files.move(from, rolledFile(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (Files.exists(activeFile)) {
+                Files.move(activeFile, rolledFile(1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Rolled audit file " + activeFile);
+        }
+    }
+
+    /**
+     * Appends the batch to the active file, rolling first if needed, and flushes once
+     *
+     * @param records The records to write
+     * @throws Exception if the file cannot be written
+     */
+    @Override
+    public synchronized void write(List<AuditRecord> records) throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        for (AuditRecord record : records) {
+            String line = format.format(record.getTimestamp()) + "\t" + record.toJson() + "\n";
+            if (writer == null) {
+                Files.createDirectories(activeFile.toAbsolutePath().getParent());
+                bytesWritten = Files.exists(activeFile) ? Files.size(activeFile) : 0;
+                if (bytesWritten >= maxBytes) {
+                    roll();
+                    bytesWritten = 0;
+                }
+                writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(activeFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8));
+            }
+            writer.write(line);
+            // Approximate for non-ASCII, which is fine for a rollover threshold
+            bytesWritten += line.length();
+            if (bytesWritten >= maxBytes) {
+                writer.flush();
+                roll();
+            }
+        }
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.identityworksllc.iiq.common.plugin.audit;
+
+import com.identityworksllc.iiq.common.Utilities;
+import sailpoint.object.SyslogEvent;
+import sailpoint.persistence.Sequencer;
+import sailpoint.tools.Util;
+
+import java.util.List;
+
+/**
+ * An {@link AuditSink} that writes each record as a {@link SyslogEvent}, matching the
+ * events previously produced by Syslogger for plugin API access. The whole batch is
+ * saved in a single private context and committed once.
+ */
+public class SyslogAuditSink implements AuditSink {
+    /**
+     * Writes the batch as SyslogEvents in one private transaction
+     *
+     * @param records The records to write
+     * @throws Exception if the private context or commit fails
+     */
+    @Override
+    public void write(List<AuditRecord> records) throws Exception {
+        final String server = Util.getHostName();
+        Utilities.withPrivateContext((context) -> {
+            Sequencer sequencer = new Sequencer();
+            for (AuditRecord record : records) {
+                SyslogEvent event = new SyslogEvent();
+                event.setQuickKey(sequencer.generateId(context, event));
+                event.setUsername(Util.isNotNullOrEmpty(record.getUser()) ? record.getUser() : "???");
+                event.setServer(server);
+                event.setEventLevel(record.getEventLevel());
+                event.setThread(record.getThreadName());
+                event.setMessage(record.toJson());
+                if (record.getOwningClass() != null) {
+                    event.setClassname(record.getOwningClass().getName());
+                }
+                context.saveObject(event);
+            }
+            context.commitTransaction();
+        });
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Asynchronous, batched audit logging for plugin REST API access
+ */
+package com.identityworksllc.iiq.common.plugin.audit;
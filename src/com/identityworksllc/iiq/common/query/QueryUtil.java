@@ -1,6 +1,7 @@
 package com.identityworksllc.iiq.common.query;
 
 import com.identityworksllc.iiq.common.iterators.ResultSetIterator;
+import com.identityworksllc.iiq.common.threads.ManagedWorkerPools;
 import com.identityworksllc.iiq.common.threads.PooledWorkerResults;
 import com.identityworksllc.iiq.common.threads.SailPointWorker;
 import com.identityworksllc.iiq.common.vo.Failure;
@@ -20,11 +21,12 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -68,6 +70,45 @@ public class QueryUtil<T> {
         U processResult(ResultSet result) throws GeneralException, SQLException;
     }
 
+    /**
+     * The maximum number of IDs in a single 'in' filter
+     */
+    public static final int MAX_IN_SIZE = 1000;
+
+    /**
+     * Copies the given QueryOptions, so that the copy can be modified (e.g., to disable
+     * result caching or add a paging filter) without affecting the caller's object. The
+     * filter, ordering, and group-by lists are copied, not shared.
+     *
+     * @param queryOptions The QueryOptions to copy, or null
+     * @return A new QueryOptions with the same settings, or an empty one if the input is null
+     */
+    public static QueryOptions copyQueryOptions(QueryOptions queryOptions) {
+        QueryOptions qo = new QueryOptions();
+        if (queryOptions == null) {
+            return qo;
+        }
+        if (queryOptions.getFilters() != null) {
+            qo.setFilters(new ArrayList<>(queryOptions.getFilters()));
+        }
+        if (queryOptions.getOrderings() != null) {
+            qo.setOrderings(new ArrayList<>(queryOptions.getOrderings()));
+        }
+        if (queryOptions.getGroupBys() != null) {
+            qo.setGroupBys(new ArrayList<>(queryOptions.getGroupBys()));
+        }
+        qo.setCacheResults(queryOptions.isCacheResults());
+        qo.setDirtyRead(queryOptions.isDirtyRead());
+        qo.setDistinct(queryOptions.isDistinct());
+        qo.setFirstRow(queryOptions.getFirstRow());
+        qo.setFlushBeforeQuery(queryOptions.isFlushBeforeQuery());
+        qo.setResultLimit(queryOptions.getResultLimit());
+        qo.setScopeResults(queryOptions.getScopeResults());
+        qo.setTransactionLock(queryOptions.isTransactionLock());
+        qo.setUnscopedGloballyAccessible(queryOptions.getUnscopedGloballyAccessible());
+        return qo;
+    }
+
     /**
      * Static helper method to retrieve the first value from the result set as a long
      *
@@ -119,6 +160,37 @@ public class QueryUtil<T> {
         return context.getObject(cls, id);
     }
 
+    /**
+     * Loads the objects with the given IDs, using a single 'in' query for each chunk of
+     * up to {@link #MAX_IN_SIZE} IDs. Duplicate IDs are queried only once, and IDs that
+     * do not exist are absent from the result.
+     *
+     * @param context The Sailpoint context to use to query
+     * @param cls The class of the objects
+     * @param ids The IDs of the objects
+     * @param <T> The type of the objects
+     * @return The loaded objects, keyed by ID
+     * @throws GeneralException if any query fails
+     */
+    public static <T extends SailPointObject> Map<String, T> getObjectsById(SailPointContext context, Class<T> cls, Collection<String> ids) throws GeneralException {
+        Map<String, T> objects = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return objects;
+        }
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        for (int start = 0; start < distinctIds.size(); start += MAX_IN_SIZE) {
+            QueryOptions qo = new QueryOptions();
+            qo.addFilter(Filter.in("id", distinctIds.subList(start, Math.min(distinctIds.size(), start + MAX_IN_SIZE))));
+            List<T> results = context.getObjects(cls, qo);
+            if (results != null) {
+                for (T object : results) {
+                    objects.put(object.getId(), object);
+                }
+            }
+        }
+        return objects;
+    }
+
     /**
      * Static helper method ot retrieve values from the query as a list of strings
      *
@@ -339,6 +411,10 @@ public class QueryUtil<T> {
      * should use the thread context provided and you should not access shared
      * resources without doing your own thread-safety stuff.)
      *
+     * The workers run in the node-wide {@link ManagedWorkerPools#BULKHEAD_QUERY} bulkhead,
+     * so at most 'threads' rows (capped by the bulkhead's per-caller limit) are processed
+     * at once, and no thread pool is created per call.
+     *
      * @param inputs The input options
      * @param threads The number of threads to use
      * @throws GeneralException if anything fails
@@ -346,8 +422,8 @@ public class QueryUtil<T> {
     public PooledWorkerResults<Map<String, Object>> parallelIterateQuery(IterateQueryOptions inputs, int threads) throws GeneralException {
         PooledWorkerResults<Map<String, Object>> resultContainer = new PooledWorkerResults<>();
 
-        ExecutorService executor = Executors.newWorkStealingPool(threads);
-        logger.info("Starting worker pool with " + threads + " threads");
+        ExecutorService executor = ManagedWorkerPools.lease(ManagedWorkerPools.BULKHEAD_QUERY, threads);
+        logger.info("Leasing up to " + threads + " threads from the shared query worker pool");
 
         try (Connection connection = inputs.openConnection()) {
             try (NamedParameterStatement stmt = new NamedParameterStatement(connection, inputs.getQuery())) {
@@ -362,7 +438,7 @@ public class QueryUtil<T> {
                         columns.add(rsmd.getColumnLabel(c));
                     }
                     ResultSetIterator rsi = new ResultSetIterator(results, columns, sailPointContext);
-                    while(rsi.hasNext() && Thread.currentThread().isInterrupted()) {
+                    while(rsi.hasNext() && !Thread.currentThread().isInterrupted()) {
                         final Map<String, Object> row = new HashMap<>(rsi.nextRow());
 
                         SailPointWorker worker = setupWorker(inputs, resultContainer, row);
@@ -1,8 +1,10 @@
 package com.identityworksllc.iiq.common.reporting;
 
 import com.identityworksllc.iiq.common.Utilities;
+import com.identityworksllc.iiq.common.query.QueryUtil;
 import net.sf.jasperreports.engine.JRException;
-import sailpoint.api.IncrementalObjectIterator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import sailpoint.api.ObjectUtil;
 import sailpoint.api.SailPointContext;
 import sailpoint.object.*;
@@ -12,6 +14,7 @@ import sailpoint.tools.GeneralException;
 import sailpoint.tools.Util;
 import sailpoint.tools.xml.AbstractXmlObject;
 
+import java.lang.reflect.Method;
 import java.util.*;
 
 /**
@@ -19,19 +22,200 @@ import java.util.*;
  * of attributes that are not available as a projection. You can do all of this with
  * the regular Filter data source, as long as you use a combination of subqueries and
  * scripts.
+ *
+ * At initialization, each column's property is analyzed. Properties that are simple,
+ * persistent, single-valued properties of the queried class (including searchable
+ * extended attributes) are retrieved with a projection query. Full objects are only
+ * loaded if some column requires dot-walking or has a renderer, and are then loaded
+ * one page at a time with a single query, and decached when the page is finished.
+ *
+ * Rows are read in pages of `pageSize` (default 500) rows, which may be specified as
+ * a report argument. If the report specifies no ordering or first row, pages are read
+ * by ID ranges; otherwise they are read by offset, with the ID as a tiebreaker. A result
+ * limit on the report's query options caps the total number of rows across all pages.
  */
 public class DotWalkFilterDataSource extends AbstractJavaDataSource {
+    /**
+     * A single row of the report
+     */
+    private static final class Row {
+        /**
+         * The full object, if objects are loaded
+         */
+        private SailPointObject object;
+
+        /**
+         * The projected values, in the order of {@link #projectedProperties}
+         */
+        private final Object[] values;
+
+        /**
+         * Constructs a new Row
+         *
+         * @param values The projected values
+         */
+        private Row(Object[] values) {
+            this.values = values;
+        }
+    }
+
+    /**
+     * The default number of rows per page
+     */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(DotWalkFilterDataSource.class);
+
+    /**
+     * The base query options, from the report's filter
+     */
+    private QueryOptions baseOptions;
     private DataSourceColumnHelper columnHelper;
-    private IncrementalObjectIterator<? extends SailPointObject> iterator;
-    private LiveReport report;
-    private SailPointObject currentRow;
+
+    /**
+     * The column configs, by field name, built once at initialization
+     */
+    private Map<String, ReportColumnConfig> columnsByField;
     private SailPointContext context;
+    private Row currentRow;
+
+    /**
+     * True once the last page has been read
+     */
+    private boolean exhausted;
+
+    /**
+     * The last ID read, when paging by ID
+     */
+    private String lastId;
+
+    /**
+     * True if full objects must be loaded for some column
+     */
+    private boolean needsObjects;
+
+    /**
+     * The offset of the next page, when paging by offset
+     */
+    private int offset;
+
+    /**
+     * The rows of the current page
+     */
+    private Iterator<Row> page;
+
+    /**
+     * The objects loaded for the current page, to be decached when it is finished
+     */
+    private List<SailPointObject> pageObjects;
+
+    /**
+     * The number of rows per page
+     */
+    private int pageSize;
+
+    /**
+     * True if pages are read by ID ranges rather than by offset
+     */
+    private boolean pageById;
+
+    /**
+     * The number of rows still to be read, or -1 if the report has no result limit
+     */
+    private int remaining;
+
+    /**
+     * The projected properties; the first is always the ID
+     */
+    private List<String> projectedProperties;
+
+    /**
+     * The index of each projected property in {@link #projectedProperties}
+     */
+    private Map<String, Integer> projectionIndex;
+    private Class<? extends SailPointObject> queryClass;
+    private LiveReport report;
+
+    /**
+     * Returns true if the given type can be retrieved directly as a projection column
+     *
+     * @param type The property type
+     * @return True if the type is a simple value type
+     */
+    private static boolean isSimpleType(Class<?> type) {
+        return type.isPrimitive() || String.class.equals(type) || Number.class.isAssignableFrom(type) || Boolean.class.equals(type) || Date.class.isAssignableFrom(type) || type.isEnum();
+    }
+
+    /**
+     * Analyzes the report columns, deciding which properties can be projected and whether
+     * full objects need to be loaded
+     */
+    private void analyzeColumns() {
+        ObjectConfig objectConfig = ObjectConfig.getObjectConfig(queryClass);
+        Set<String> candidates = new LinkedHashSet<>();
+        for (ReportColumnConfig column : columnsByField.values()) {
+            if (column.getRenderDef() != null) {
+                // Renderers receive the full object as 'item'
+                needsObjects = true;
+            }
+            String property = column.getProperty();
+            if (isProjectable(property, objectConfig)) {
+                candidates.add(property);
+            } else {
+                needsObjects = true;
+            }
+        }
+        candidates.remove("id");
+
+        List<String> projected = new ArrayList<>();
+        projected.add("id");
+        List<String> all = new ArrayList<>(projected);
+        all.addAll(candidates);
+        if (candidates.isEmpty() || isQueryable(all)) {
+            projected.addAll(candidates);
+        } else {
+            for (String candidate : candidates) {
+                if (isQueryable(Arrays.asList("id", candidate))) {
+                    projected.add(candidate);
+                } else {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Property " + candidate + " cannot be projected and will be read from the object");
+                    }
+                    needsObjects = true;
+                }
+            }
+        }
+
+        this.projectedProperties = projected;
+        this.projectionIndex = new HashMap<>();
+        for (int i = 0; i < projected.size(); i++) {
+            projectionIndex.put(projected.get(i), i);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Projecting " + projected + "; loading objects = " + needsObjects);
+        }
+    }
 
     @Override
     public void close() {
-        if (iterator != null) {
-            Util.flushIterator(iterator);
-        }
+        decachePage();
+        page = null;
+    }
+
+    /**
+     * Copies the report's base query options, for a single page or probe query. The
+     * paging fields (first row and result limit) are reset, to be set by the caller.
+     *
+     * @return The copied options
+     */
+    private QueryOptions copyBaseOptions() {
+        QueryOptions qo = QueryUtil.copyQueryOptions(baseOptions);
+        qo.setFirstRow(0);
+        qo.setResultLimit(0);
+        return qo;
     }
 
     /**
@@ -40,12 +224,23 @@ public class DotWalkFilterDataSource extends AbstractJavaDataSource {
      * @return The column for that field
      */
     protected ReportColumnConfig customGetColumnConfig(String field) {
-        for (ReportColumnConfig column : Util.safeIterable(report.getGridColumns())) {
-            if (column.getField().equals(field)) {
-                return column;
+        return columnsByField.get(field);
+    }
+
+    /**
+     * Decaches the objects loaded for the current page
+     */
+    private void decachePage() {
+        if (pageObjects != null) {
+            for (SailPointObject spo : pageObjects) {
+                try {
+                    context.decache(spo);
+                } catch (GeneralException e) {
+                    log.debug("Unable to decache " + spo.getId(), e);
+                }
             }
+            pageObjects = null;
         }
-        return null;
     }
 
     @Override
@@ -53,7 +248,15 @@ public class DotWalkFilterDataSource extends AbstractJavaDataSource {
         Object val = null;
         if (this.currentRow != null) {
             ReportColumnConfig col = this.customGetColumnConfig(field);
-            val = Utilities.getProperty(currentRow, col.getProperty());
+            if (col == null) {
+                return null;
+            }
+            Integer index = (col.getProperty() != null) ? projectionIndex.get(col.getProperty()) : null;
+            if (index != null) {
+                val = currentRow.values[index];
+            } else if (currentRow.object != null) {
+                val = Utilities.getProperty(currentRow.object, col.getProperty());
+            }
             if (val != null && col.getValueClass() != null && val instanceof String) {
                 String valueClass = col.getValueClass();
                 String strVal = (String)val;
@@ -73,7 +276,7 @@ public class DotWalkFilterDataSource extends AbstractJavaDataSource {
             }
             if (col.getRenderDef() != null) {
                 Map<String, Object> scriptArgs = new HashMap<>();
-                scriptArgs.put("item", currentRow);
+                scriptArgs.put("item", currentRow.object);
                 val = this.columnHelper.runColumnRenderer(context, col, val, scriptArgs);
             }
             if (val instanceof Date) {
@@ -85,15 +288,97 @@ public class DotWalkFilterDataSource extends AbstractJavaDataSource {
     }
 
     @Override
-    @SuppressWarnings("rawtypes")
+    @SuppressWarnings({"rawtypes", "unchecked"})
     public void initialize(SailPointContext sailPointContext, LiveReport liveReport, Attributes<String, Object> attributes, String s, List<Sort> list) throws GeneralException {
         ReportHelper reportHelper = new ReportHelper(sailPointContext, Locale.getDefault(), TimeZone.getDefault());
-        QueryOptions queryOptions = reportHelper.getFilterQueryOps(liveReport, attributes);
-        Class<? extends SailPointContext> queryClass = (Class<? extends SailPointContext>) liveReport.getDataSource().getObjectClass();
+        this.baseOptions = reportHelper.getFilterQueryOps(liveReport, attributes);
+        this.queryClass = (Class<? extends SailPointObject>) liveReport.getDataSource().getObjectClass();
         this.report = liveReport;
         this.context = sailPointContext;
         this.columnHelper = new DataSourceColumnHelper(Locale.getDefault(), TimeZone.getDefault());
-        this.iterator = new IncrementalObjectIterator(sailPointContext, queryClass, queryOptions);
+
+        this.columnsByField = new HashMap<>();
+        for (ReportColumnConfig column : Util.safeIterable(report.getGridColumns())) {
+            columnsByField.putIfAbsent(column.getField(), column);
+        }
+
+        this.pageSize = DEFAULT_PAGE_SIZE;
+        if (attributes != null && attributes.get("pageSize") != null) {
+            this.pageSize = Math.max(1, attributes.getInt("pageSize"));
+        }
+        this.pageById = Util.isEmpty(baseOptions.getOrderings()) && baseOptions.getFirstRow() <= 0;
+        this.offset = Math.max(0, baseOptions.getFirstRow());
+        this.remaining = (baseOptions.getResultLimit() > 0) ? baseOptions.getResultLimit() : -1;
+        this.page = Collections.emptyIterator();
+
+        analyzeColumns();
+    }
+
+    /**
+     * Returns true if the given property can be retrieved as a projection column. It must
+     * be a single, non-empty path segment, either a getter on the queried class returning
+     * a simple value type, or a searchable extended attribute.
+     *
+     * @param property The property
+     * @param objectConfig The object config for the queried class, if any
+     * @return True if the property may be projected
+     */
+    private boolean isProjectable(String property, ObjectConfig objectConfig) {
+        if (Util.isNullOrEmpty(property) || property.contains(".")) {
+            return false;
+        }
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (String prefix : Arrays.asList("get", "is")) {
+            try {
+                Method getter = queryClass.getMethod(prefix + suffix);
+                return isSimpleType(getter.getReturnType());
+            } catch (NoSuchMethodException e) {
+                /* Try the next prefix */
+            }
+        }
+        if (objectConfig != null) {
+            ObjectAttribute attribute = objectConfig.getObjectAttribute(property);
+            return attribute != null && !attribute.isMulti() && attribute.isSearchable();
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if a projection query for the given properties succeeds. Properties with
+     * getters that are not persistent will fail this check.
+     *
+     * @param properties The properties to project
+     * @return True if the query succeeds
+     */
+    private boolean isQueryable(List<String> properties) {
+        QueryOptions qo = copyBaseOptions();
+        qo.setResultLimit(1);
+        try {
+            Util.flushIterator(context.search(queryClass, qo, properties));
+            return true;
+        } catch (GeneralException | RuntimeException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Projection of " + properties + " failed", e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Loads the full objects for the given rows, in chunks, with 'in' queries
+     *
+     * @param rows The rows, keyed by ID
+     * @throws GeneralException if the query fails
+     */
+    private void loadObjects(Map<String, Row> rows) throws GeneralException {
+        Map<String, ? extends SailPointObject> objects = QueryUtil.getObjectsById(context, queryClass, rows.keySet());
+        for (Map.Entry<String, Row> entry : rows.entrySet()) {
+            SailPointObject spo = objects.get(entry.getKey());
+            if (spo != null) {
+                entry.getValue().object = spo;
+                pageObjects.add(spo);
+            }
+        }
     }
 
     /**
@@ -104,10 +389,74 @@ public class DotWalkFilterDataSource extends AbstractJavaDataSource {
      */
     @Override
     public boolean next() throws JRException {
-        if (iterator.hasNext()) {
-            currentRow = iterator.next();
-            return true;
+        while (!page.hasNext()) {
+            if (exhausted) {
+                currentRow = null;
+                decachePage();
+                return false;
+            }
+            try {
+                readPage();
+            } catch (GeneralException e) {
+                throw new JRException(e);
+            }
         }
-        return false;
+        currentRow = page.next();
+        return true;
+    }
+
+    /**
+     * Reads the next page of rows, with a projection query and, if needed, a query for the
+     * full objects. The objects of the previous page are decached first. The page is
+     * shortened if the report's result limit would otherwise be exceeded.
+     *
+     * @throws GeneralException if the queries fail
+     */
+    private void readPage() throws GeneralException {
+        decachePage();
+        int limit = (remaining >= 0) ? Math.min(pageSize, remaining) : pageSize;
+        if (limit == 0) {
+            exhausted = true;
+            page = Collections.emptyIterator();
+            return;
+        }
+        QueryOptions qo = copyBaseOptions();
+        if (pageById) {
+            if (lastId != null) {
+                qo.addFilter(Filter.gt("id", lastId));
+            }
+            qo.setOrderBy("id");
+            qo.setOrderAscending(true);
+        } else {
+            qo.addOrdering("id", true);
+            qo.setFirstRow(offset);
+        }
+        qo.setResultLimit(limit);
+
+        Map<String, Row> rows = new LinkedHashMap<>();
+        int count = 0;
+        Iterator<Object[]> results = context.search(queryClass, qo, projectedProperties);
+        try {
+            while (results.hasNext()) {
+                Object[] values = results.next();
+                count++;
+                String id = Util.otoa(values[0]);
+                rows.putIfAbsent(id, new Row(values));
+                lastId = id;
+            }
+        } finally {
+            Util.flushIterator(results);
+        }
+        offset += count;
+        if (remaining >= 0) {
+            remaining -= count;
+        }
+        exhausted = count < limit || remaining == 0;
+
+        if (needsObjects && !rows.isEmpty()) {
+            pageObjects = new ArrayList<>();
+            loadObjects(rows);
+        }
+        page = rows.values().iterator();
     }
 }
@@ -4,19 +4,30 @@ import com.identityworksllc.iiq.common.AccountUtilities;
 import com.identityworksllc.iiq.common.AggregationOutcome;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import com.identityworksllc.iiq.common.vo.OutcomeType;
 import sailpoint.api.Aggregator;
 import sailpoint.api.Identitizer;
+import sailpoint.api.ObjectUtil;
+import sailpoint.api.PersistenceManager;
 import sailpoint.api.SailPointContext;
 import sailpoint.object.Attributes;
+import sailpoint.object.Filter;
+import sailpoint.object.QueryOptions;
 import sailpoint.object.Request;
 import sailpoint.object.ResourceObject;
 import sailpoint.request.AbstractRequestExecutor;
 import sailpoint.request.RequestPermanentException;
 import sailpoint.request.RequestTemporaryException;
 import sailpoint.tools.GeneralException;
+import sailpoint.tools.Message;
+import sailpoint.tools.Pair;
 import sailpoint.tools.Util;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,8 +52,29 @@ import java.util.Map;
  * In all cases, you can supply a Map of 'aggregateOptions', which will be provided
  * to the Aggregator API. The arguments 'promoteAttributes' and 'noOptimizeReaggregation'
  * will always be provided and set to true.
+ *
+ * If 'coalesce' is true, either on the Request or its RequestDefinition, this executor
+ * will also claim up to 'maxBatchSize' (default {@link #DEFAULT_MAX_BATCH_SIZE}) other
+ * pending Requests of the same definition and application, and aggregate them all in
+ * one run via {@link AccountUtilities#aggregateAccounts(AccountUtilities.MultipleAggregateOptions)}.
+ * This shares one Application and Connector across the batch and aggregates a repeated
+ * account only once, which matters when a burst of events produces thousands of
+ * single-account Requests. Each claimed Request is marked completed, with a message
+ * describing its own outcome, and its 'coalescedInto' attribute set to the ID of the
+ * Request that processed it. If the batch fails, any claimed Requests that were not
+ * completed are released back to the queue to be run again.
  */
 public class AccountAggregationExecutor extends AbstractRequestExecutor {
+    /**
+     * The name of the Request attribute recording the Request that processed a claimed Request
+     */
+    public static final String ATTR_COALESCED_INTO = "coalescedInto";
+
+    /**
+     * The default maximum number of Requests to aggregate in one coalesced run
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+
     /**
      * The name of the Request input containing the account name. This is used
      * when the type is 'fetch'.
@@ -54,11 +86,21 @@ public class AccountAggregationExecutor extends AbstractRequestExecutor {
      */
     public static final String INPUT_APPLICATION_NAME = "application";
 
+    /**
+     * The name of the Request or RequestDefinition input enabling coalescing
+     */
+    public static final String INPUT_COALESCE = "coalesce";
+
     /**
      * The name of the Request input containing the Map of account data
      */
     public static final String INPUT_DATA = "data";
 
+    /**
+     * The name of the Request or RequestDefinition input limiting the coalesced batch size
+     */
+    public static final String INPUT_MAX_BATCH_SIZE = "maxBatchSize";
+
     /**
      * The name of the Request input containing a ResourceObject
      */
@@ -104,6 +146,213 @@ public class AccountAggregationExecutor extends AbstractRequestExecutor {
      * @throws RequestPermanentException if the aggregation fails for some reason
      */
     public static void aggregateRecord(SailPointContext context, Map<String, Object> requestOptions) throws RequestPermanentException {
+        AccountUtilities.AggregateOptions options = toAggregateOptions(requestOptions);
+
+        try {
+            AccountUtilities accountUtilities = new AccountUtilities(context);
+            try (AggregationOutcome outcome = accountUtilities.aggregateAccount(options)) {
+                if (log.isTraceEnabled()) {
+                    log.trace("Aggregation outcome: " + outcome.toString());
+                }
+            }
+        } catch(GeneralException e) {
+            log.error("Caught an error aggregating an account from application " + options.getApplicationName(), e);
+            throw new RequestPermanentException(e);
+        }
+    }
+
+    /**
+     * An API that can be used to aggregate a batch of records, each according to the contract
+     * imposed on Requests of this type. Records for the same application share a single
+     * Application and Connector, and repeated accounts are aggregated only once.
+     *
+     * The output list is parallel to the input list. A record that is invalid or whose
+     * aggregation fails produces a Failure outcome, rather than interrupting the batch.
+     *
+     * @param context The context
+     * @param requestOptionsList The request options for each record
+     * @return The outcome for each record, in input order
+     * @throws GeneralException if the batch cannot be run at all
+     */
+    public static List<AggregationOutcome> aggregateRecords(SailPointContext context, List<Map<String, Object>> requestOptionsList) throws GeneralException {
+        List<AccountUtilities.AggregateOptions> parsed = new ArrayList<>();
+        List<AggregationOutcome> outcomes = new ArrayList<>();
+        for (Map<String, Object> requestOptions : requestOptionsList) {
+            try {
+                parsed.add(toAggregateOptions(requestOptions));
+                outcomes.add(null);
+            } catch(RequestPermanentException e) {
+                parsed.add(null);
+                outcomes.add(new AggregationOutcome(Util.otoa(Util.get(requestOptions, INPUT_APPLICATION_NAME)), Util.otoa(Util.get(requestOptions, INPUT_ACCOUNT_NAME)), OutcomeType.Failure, e.getMessage()));
+            }
+        }
+
+        AccountUtilities.MultipleAggregateOptions multipleOptions = new AccountUtilities.MultipleAggregateOptions();
+        multipleOptions.setContinueOnError(true);
+        for (AccountUtilities.AggregateOptions options : parsed) {
+            if (options != null) {
+                multipleOptions.getAccountOptions().add(options);
+            }
+        }
+
+        if (multipleOptions.getAccountOptions().isEmpty()) {
+            return outcomes;
+        }
+
+        AccountUtilities accountUtilities = new AccountUtilities(context);
+        Map<Pair<String, String>, AggregationOutcome> results = accountUtilities.aggregateAccounts(multipleOptions);
+
+        for (int i = 0; i < parsed.size(); i++) {
+            AccountUtilities.AggregateOptions options = parsed.get(i);
+            if (options != null) {
+                // The batch fills in the account name of provided records, so repeated records share a key
+                AggregationOutcome outcome = results.get(Pair.make(options.getApplicationName(), options.getAccountName()));
+                if (outcome == null) {
+                    outcome = new AggregationOutcome(options.getApplicationName(), options.getAccountName(), OutcomeType.Skipped, "No aggregation outcome was recorded for this record");
+                }
+                if (log.isTraceEnabled()) {
+                    log.trace("Aggregation outcome: " + outcome.toString());
+                }
+                outcomes.set(i, outcome);
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Claims up to the given number of other pending Requests of the same definition and
+     * application as the given Request, so that this executor can process them in one run.
+     * Each candidate is locked and re-checked before being marked as launched on this host,
+     * so that the Request Processor or another executor does not also run it.
+     *
+     * @param context The context
+     * @param request The Request currently being executed
+     * @param applicationName The application name
+     * @param limit The maximum number of Requests to claim
+     * @param claimed The list to which each Request is added as soon as it is committed as launched, so that the caller can release them even if this method fails partway
+     * @throws GeneralException if the query or locking fails
+     */
+    private static void claimPendingRequests(SailPointContext context, Request request, String applicationName, int limit, List<Request> claimed) throws GeneralException {
+        if (limit < 1 || request.getDefinition() == null || Util.isNullOrEmpty(request.getId())) {
+            return;
+        }
+
+        QueryOptions qo = new QueryOptions();
+        qo.addFilter(Filter.eq("definition.id", request.getDefinition().getId()));
+        qo.addFilter(Filter.ne("id", request.getId()));
+        qo.addFilter(Filter.isnull("launched"));
+        qo.addFilter(Filter.isnull("completed"));
+        qo.addFilter(Filter.or(Filter.isnull("nextLaunch"), Filter.le("nextLaunch", new Date())));
+        qo.setOrderBy("created");
+        // Requests for other applications are in the same queue, so look a bit further
+        qo.setResultLimit(limit * 4);
+
+        List<String> candidateIds = new ArrayList<>();
+        Iterator<Object[]> results = context.search(Request.class, qo, "id");
+        while (results.hasNext()) {
+            candidateIds.add((String) results.next()[0]);
+        }
+
+        String hostName = Util.getHostName();
+        for (String candidateId : candidateIds) {
+            if (claimed.size() >= limit) {
+                break;
+            }
+            Request candidate = context.getObjectById(Request.class, candidateId);
+            if (candidate == null || !Util.nullSafeEq(Util.otoa(candidate.getAttribute(INPUT_APPLICATION_NAME)), applicationName)) {
+                continue;
+            }
+            candidate = ObjectUtil.lockObject(context, Request.class, candidateId, null, PersistenceManager.LOCK_TYPE_TRANSACTION);
+            if (candidate == null || candidate.getLaunched() != null || candidate.getCompleted() != null) {
+                // Picked up by someone else while we were looking; the commit below releases the lock
+                context.commitTransaction();
+                continue;
+            }
+            candidate.setLaunched(new Date());
+            candidate.setHost(hostName);
+            candidate.setAttribute(ATTR_COALESCED_INTO, request.getId());
+            context.saveObject(candidate);
+            context.commitTransaction();
+            claimed.add(candidate);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Claimed " + claimed.size() + " pending aggregation request(s) for application " + applicationName);
+        }
+    }
+
+    /**
+     * Marks a claimed Request as completed, recording its aggregation outcome as a message
+     *
+     * @param context The context
+     * @param claimedId The ID of the claimed Request
+     * @param outcome The outcome of its aggregation
+     * @throws GeneralException if the Request cannot be saved
+     */
+    private static void completeClaimedRequest(SailPointContext context, String claimedId, AggregationOutcome outcome) throws GeneralException {
+        Request claimed = context.getObjectById(Request.class, claimedId);
+        if (claimed == null) {
+            return;
+        }
+        claimed.addMessage(toMessage(outcome));
+        claimed.setCompleted(new Date());
+        context.saveObject(claimed);
+    }
+
+    /**
+     * Releases claimed Requests back to the queue after a failed batch, by clearing the
+     * launch data recorded when they were claimed. Any uncommitted work is rolled back
+     * first, and each Request is re-read, so that only Requests whose completion was not
+     * committed are released. Failures are logged rather than thrown, so that they do not
+     * mask the error that failed the batch.
+     *
+     * @param context The context
+     * @param claimed The claimed Requests
+     */
+    private static void releaseClaimedRequests(SailPointContext context, List<Request> claimed) {
+        if (claimed.isEmpty()) {
+            return;
+        }
+        List<String> released = new ArrayList<>();
+        try {
+            context.rollbackTransaction();
+            for (Request claimedRequest : claimed) {
+                // Discard any in-memory changes, such as a completion date that was never committed
+                context.decache(claimedRequest);
+                Request current = context.getObjectById(Request.class, claimedRequest.getId());
+                if (current == null || current.getCompleted() != null) {
+                    continue;
+                }
+                current.setLaunched(null);
+                current.setHost(null);
+                if (current.getAttributes() != null) {
+                    current.getAttributes().remove(ATTR_COALESCED_INTO);
+                }
+                context.saveObject(current);
+                released.add(current.getId());
+            }
+            context.commitTransaction();
+            if (!released.isEmpty()) {
+                log.warn("Released " + released.size() + " claimed aggregation request(s) after a batch failure: " + released);
+            }
+        } catch(GeneralException | RuntimeException e) {
+            List<String> claimedIds = new ArrayList<>();
+            for (Request claimedRequest : claimed) {
+                claimedIds.add(claimedRequest.getId());
+            }
+            log.error("Unable to release claimed aggregation requests after a batch failure; they must be reset manually: " + claimedIds, e);
+        }
+    }
+
+    /**
+     * Converts the request options into the aggregation options, according to the contract
+     * imposed on Requests of this type
+     *
+     * @param requestOptions The request options, as a Map
+     * @return The aggregation options
+     * @throws RequestPermanentException if the request options are invalid
+     */
+    private static AccountUtilities.AggregateOptions toAggregateOptions(Map<String, Object> requestOptions) throws RequestPermanentException {
         String applicationName = Util.otoa(Util.get(requestOptions, INPUT_APPLICATION_NAME));
         String type = Util.otoa(Util.get(requestOptions, INPUT_TYPE));
 
@@ -170,18 +419,20 @@ public class AccountAggregationExecutor extends AbstractRequestExecutor {
         aggOptions.put(Aggregator.ARG_NO_OPTIMIZE_REAGGREGATION, "true");
 
         options.setAggregateOptions(aggOptions);
+        return options;
+    }
 
-        try {
-            AccountUtilities accountUtilities = new AccountUtilities(context);
-            try (AggregationOutcome outcome = accountUtilities.aggregateAccount(options)) {
-                if (log.isTraceEnabled()) {
-                    log.trace("Aggregation outcome: " + outcome.toString());
-                }
-            }
-        } catch(GeneralException e) {
-            log.error("Caught an error aggregating an account from application " + applicationName, e);
-            throw new RequestPermanentException(e);
+    /**
+     * Describes an aggregation outcome as a Request message
+     * @param outcome The outcome
+     * @return The message, an error for failures and informational otherwise
+     */
+    private static Message toMessage(AggregationOutcome outcome) {
+        String text = "Aggregation of " + outcome.getApplicationName() + " account " + outcome.getNativeIdentity() + ": " + outcome.getStatus();
+        if (Util.isNotNullOrEmpty(outcome.getErrorMessage())) {
+            text = text + " (" + outcome.getErrorMessage() + ")";
         }
+        return new Message(outcome.getStatus() == OutcomeType.Failure ? Message.Type.Error : Message.Type.Info, text);
     }
 
     @Override
@@ -191,6 +442,61 @@ public class AccountAggregationExecutor extends AbstractRequestExecutor {
         }
         Map<String, Object> requestOptions = request.getAttributes();
 
-        aggregateRecord(context, requestOptions);
+        boolean coalesce = Util.otob(Util.get(requestOptions, INPUT_COALESCE)) || (attributes != null && attributes.getBoolean(INPUT_COALESCE));
+        if (!coalesce) {
+            aggregateRecord(context, requestOptions);
+            return;
+        }
+
+        String applicationName = Util.otoa(Util.get(requestOptions, INPUT_APPLICATION_NAME));
+        if (Util.isNullOrEmpty(applicationName)) {
+            throw new RequestPermanentException("Application name is required");
+        }
+
+        int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        if (Util.get(requestOptions, INPUT_MAX_BATCH_SIZE) != null) {
+            maxBatchSize = Util.otoi(Util.get(requestOptions, INPUT_MAX_BATCH_SIZE));
+        } else if (attributes != null && attributes.containsKey(INPUT_MAX_BATCH_SIZE)) {
+            maxBatchSize = attributes.getInt(INPUT_MAX_BATCH_SIZE);
+        }
+
+        AggregationOutcome ownOutcome;
+        List<Request> claimed = new ArrayList<>();
+        boolean batchCommitted = false;
+        try {
+            claimPendingRequests(context, request, applicationName, maxBatchSize - 1, claimed);
+
+            List<Map<String, Object>> batch = new ArrayList<>();
+            batch.add(requestOptions);
+            List<String> claimedIds = new ArrayList<>();
+            for (Request claimedRequest : claimed) {
+                batch.add(claimedRequest.getAttributes());
+                claimedIds.add(claimedRequest.getId());
+            }
+
+            List<AggregationOutcome> outcomes = aggregateRecords(context, batch);
+
+            for (int i = 0; i < claimedIds.size(); i++) {
+                completeClaimedRequest(context, claimedIds.get(i), outcomes.get(i + 1));
+            }
+            context.commitTransaction();
+            batchCommitted = true;
+
+            ownOutcome = outcomes.get(0);
+            if (claimedIds.size() > 0) {
+                request.addMessage(new Message(Message.Type.Info, "Aggregated " + batch.size() + " requests for application " + applicationName + " in one batch"));
+            }
+        } catch(GeneralException | RuntimeException e) {
+            log.error("Caught an error running a batch aggregation for application " + applicationName, e);
+            throw new RequestPermanentException(e);
+        } finally {
+            if (!batchCommitted) {
+                releaseClaimedRequests(context, claimed);
+            }
+        }
+
+        if (ownOutcome.getStatus() == OutcomeType.Failure) {
+            throw new RequestPermanentException(ownOutcome.getErrorMessage());
+        }
     }
 }
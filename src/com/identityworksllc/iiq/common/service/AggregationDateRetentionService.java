@@ -3,7 +3,7 @@ package com.identityworksllc.iiq.common.service;
 import com.identityworksllc.iiq.common.Utilities;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import sailpoint.api.IncrementalObjectIterator;
+import sailpoint.api.IncrementalProjectionIterator;
 import sailpoint.api.SailPointContext;
 import sailpoint.object.Application;
 import sailpoint.object.Custom;
@@ -18,10 +18,18 @@ import sailpoint.server.ServicerUtil;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.Util;
 
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -57,6 +65,13 @@ import java.util.concurrent.atomic.AtomicLong;
  *
  * Three of the four are millisecond timestamps, while deltaAggregation often
  * contains metadata, like cookies from Azure.
+ *
+ * To keep each run cheap, the service first projects only the id and modified date
+ * of every Application. Only Applications that are new or have been modified since
+ * the previous successful run are evicted from this node's Hibernate second-level
+ * cache and loaded in full. Once an hour, every Application is loaded and checked
+ * regardless. If the cache entries cannot be evicted individually, the whole cache
+ * is cleared instead, but only when something has changed.
  */
 public class AggregationDateRetentionService extends Service {
 
@@ -85,9 +100,34 @@ public class AggregationDateRetentionService extends Service {
      */
     public static final String LAST_AGGREGATION_DATE = "lastAggregationDate";
 
+    /**
+     * The interval after which every Application is checked, even if unchanged
+     */
+    private static final long FULL_CHECK_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
     private static final Log log = LogFactory.getLog(AggregationDateRetentionService.class);
 
-    private final AtomicLong lastEviction = new AtomicLong(0);
+    /**
+     * The reflective method used to evict a single entity from the second-level cache,
+     * resolved on first use, or null if it could not be found
+     */
+    private static volatile Method evictMethod;
+
+    /**
+     * True once the eviction method lookup has been attempted
+     */
+    private static volatile boolean evictMethodResolved;
+
+    /**
+     * The time of the last full check of all Applications
+     */
+    private final AtomicLong lastFullCheck = new AtomicLong(0);
+
+    /**
+     * The modified (or created) timestamp of each Application as of the last successful run, by ID
+     */
+    private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+
     private final AtomicLong startup = new AtomicLong(0);
 
     /**
@@ -128,55 +168,199 @@ public class AggregationDateRetentionService extends Service {
                 log.info("Service " + self.getName() + " first run on host " + hostname + " at " + startup.get());
             }
 
-            boolean withinTenMinutesOfStartup = System.currentTimeMillis() - startup.get() < 600000;
-            boolean lastClearedOverThreeMinutesAgo = lastEviction.get() == 0 || System.currentTimeMillis() - lastEviction.get() > (60 * 3 * 1000);
+            long now = System.currentTimeMillis();
+            boolean fullCheck = now - lastFullCheck.get() >= FULL_CHECK_INTERVAL;
 
-            // Within ten minutes of startup, evict on every run (every minute). This handles the
-            // post-deploy case when a new Application object is very likely to be inserted.
-            // Otherwise, evict every three minutes.
-            // There is still a weird overlap period where incremental aggregations may fail.
-            // This is not avoidable using this method.
-            if (withinTenMinutesOfStartup || lastClearedOverThreeMinutesAgo) {
-                HibernatePersistenceManager.getHibernatePersistenceManager(context).clearHighLevelCache();
-                lastEviction.set(System.currentTimeMillis());
+            Map<String, Long> current = new HashMap<>();
+            List<String> changed = findChangedApplications(context, current);
+
+            // Applications modified elsewhere (e.g., by a deployment on another node) may be
+            // stale in this node's cache, so evict them before loading. This replaces the
+            // periodic clearing of the entire cache.
+            if (!changed.isEmpty()) {
+                evict(context, changed);
             }
 
-            Utilities.withPrivateContext((privateContext) -> {
-                PersistenceOptions po = new PersistenceOptions();
-                po.setExplicitSaveMode(true);
+            final List<String> toCheck = fullCheck ? new ArrayList<>(current.keySet()) : changed;
+            if (!toCheck.isEmpty()) {
+                Utilities.withPrivateContext((privateContext) -> {
+                    PersistenceOptions po = new PersistenceOptions();
+                    po.setExplicitSaveMode(true);
+
+                    privateContext.setPersistenceOptions(po);
+
+                    implementation(privateContext, toCheck);
+                });
+            }
+
+            // Only remember what we have seen once the run succeeds, so that a failed
+            // run is retried on the next execution
+            lastSeen.keySet().retainAll(current.keySet());
+            lastSeen.putAll(current);
+            if (fullCheck) {
+                lastFullCheck.set(now);
+            }
+        }
+    }
+
+    /**
+     * Evicts the given Applications from this node's Hibernate second-level cache. If
+     * per-entity eviction is not available in this IIQ version, the entire cache is
+     * cleared instead.
+     *
+     * @param context The IIQ context
+     * @param applicationIds The IDs of the Applications to evict
+     * @throws GeneralException if clearing the cache fails
+     */
+    private void evict(SailPointContext context, List<String> applicationIds) throws GeneralException {
+        HibernatePersistenceManager manager = HibernatePersistenceManager.getHibernatePersistenceManager(context);
+        Object[] evictor = resolveEvictor(manager);
+        if (evictor != null) {
+            try {
+                for (String id : applicationIds) {
+                    evictMethod.invoke(evictor[0], Application.class, id);
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Evicted " + applicationIds.size() + " changed Application(s) from the second-level cache");
+                }
+                return;
+            } catch(Exception e) {
+                log.warn("Unable to evict individual Applications from the second-level cache; clearing the whole cache", e);
+            }
+        }
+        manager.clearHighLevelCache();
+    }
+
+    /**
+     * Projects the ID and modified date of every Application, returning the IDs of those
+     * that are new or have changed since the last successful run
+     *
+     * @param context The IIQ context
+     * @param current Populated with the timestamp of every Application, by ID
+     * @return The IDs of the changed Applications
+     * @throws GeneralException if the query fails
+     */
+    private List<String> findChangedApplications(SailPointContext context, Map<String, Long> current) throws GeneralException {
+        QueryOptions qo = new QueryOptions();
+        qo.setCacheResults(false);
+        qo.setDirtyRead(false);
 
-                privateContext.setPersistenceOptions(po);
+        List<String> changed = new ArrayList<>();
+        IncrementalProjectionIterator rows = new IncrementalProjectionIterator(context, Application.class, qo, Arrays.asList("id", "created", "modified"));
+        while (rows.hasNext()) {
+            Object[] row = rows.next();
+            String id = (String) row[0];
+            Date timestamp = (row[2] != null) ? (Date) row[2] : (Date) row[1];
+            long value = (timestamp != null) ? timestamp.getTime() : 0L;
+            current.put(id, value);
 
-                implementation(privateContext);
-            });
+            Long previous = lastSeen.get(id);
+            if (previous == null || previous != value) {
+                changed.add(id);
+            }
         }
+        if (log.isDebugEnabled()) {
+            log.debug("Found " + changed.size() + " new or modified Application(s) out of " + current.size());
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the Hibernate second-level cache and its single-entity eviction method via
+     * reflection, since the Hibernate API is not exposed through IIQ's public API. The
+     * method lookup is cached; the cache object is looked up each time, since the
+     * session factory can be rebuilt.
+     *
+     * @param manager The IIQ persistence manager
+     * @return A single-element array containing the cache, or null if unavailable
+     */
+    private static Object[] resolveEvictor(HibernatePersistenceManager manager) {
+        try {
+            Object sessionFactory = null;
+            for (Class<?> type = manager.getClass(); type != null && sessionFactory == null; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (isSessionFactory(field.getType())) {
+                        field.setAccessible(true);
+                        sessionFactory = field.get(Modifier.isStatic(field.getModifiers()) ? null : manager);
+                        if (sessionFactory != null) {
+                            break;
+                        }
+                    }
+                }
+            }
+            if (sessionFactory == null) {
+                return null;
+            }
+            Object cache = sessionFactory.getClass().getMethod("getCache").invoke(sessionFactory);
+            if (cache == null) {
+                return null;
+            }
+            if (!evictMethodResolved) {
+                Method method = null;
+                // Hibernate 5.3+ renamed evictEntity to evictEntityData
+                for (String name : new String[] {"evictEntityData", "evictEntity"}) {
+                    try {
+                        method = cache.getClass().getMethod(name, Class.class, Serializable.class);
+                        break;
+                    } catch(NoSuchMethodException e) {
+                        // Try the next one
+                    }
+                }
+                evictMethod = method;
+                evictMethodResolved = true;
+            }
+            return (evictMethod != null) ? new Object[] { cache } : null;
+        } catch(Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to locate the Hibernate second-level cache", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the type is, or implements, Hibernate's SessionFactory
+     * @param type The type to check
+     * @return True if the type is a SessionFactory
+     */
+    private static boolean isSessionFactory(Class<?> type) {
+        if (type.getName().equals("org.hibernate.SessionFactory")) {
+            return true;
+        }
+        for (Class<?> iface : type.getInterfaces()) {
+            if (isSessionFactory(iface)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Main method for the service, invoked if we are the alphabetically lowest host.
      *
-     * Queries each application's last aggregation timestamps. If the application's
+     * Queries each given application's last aggregation timestamps. If the application's
      * data is missing or outdated, and there is a retained value, this method restores
      * the retained value to the Application. If there is no retained value, or if the
      * retained data is older than the Application data, the retention Custom is updated.
      *
      * @param context IIQ context
+     * @param applicationIds The IDs of the Applications to check
      * @throws GeneralException if any failures occur
      */
-    private void implementation(SailPointContext context) throws GeneralException {
+    private void implementation(SailPointContext context, List<String> applicationIds) throws GeneralException {
         Custom custom = context.getObjectByName(Custom.class, CUSTOM_NAME);
         if (custom == null) {
             custom = new Custom();
             custom.setName(CUSTOM_NAME);
         }
 
-        QueryOptions qo = new QueryOptions();
-        qo.addOrdering("name", true);
-
-        IncrementalObjectIterator<Application> iterator = new IncrementalObjectIterator<>(context, Application.class, qo);
+        boolean customChanged = false;
 
-        while(iterator.hasNext()) {
-            Application application = iterator.next();
+        for(String applicationId : applicationIds) {
+            Application application = context.getObjectById(Application.class, applicationId);
+            if (application == null) {
+                continue;
+            }
 
             boolean updateCustom = false;
             boolean updateApplication = false;
@@ -187,9 +371,9 @@ public class AggregationDateRetentionService extends Service {
             if (lastAggregationEnd != null) {
                 if (existingRecord != null) {
                     Date existingLastRunEnd = (Date) existingRecord.get(ACCT_AGGREGATION_END);
-                    if (existingLastRunEnd.before(lastAggregationEnd)) {
+                    if (existingLastRunEnd == null || existingLastRunEnd.before(lastAggregationEnd)) {
                         updateCustom = true;
-                    } else {
+                    } else if (lastAggregationEnd.before(existingLastRunEnd)) {
                         updateApplication = true;
                     }
                 } else {
@@ -209,6 +393,7 @@ public class AggregationDateRetentionService extends Service {
                 appData.put(DELTA_AGGREGATION, application.getAttributeValue(DELTA_AGGREGATION));
                 appData.put(LAST_AGGREGATION_DATE, application.getAttributeValue(LAST_AGGREGATION_DATE));
                 custom.put(application.getName(), appData);
+                customChanged = true;
             }
 
             if (updateApplication) {
@@ -223,7 +408,9 @@ public class AggregationDateRetentionService extends Service {
             }
         }
 
-        context.saveObject(custom);
+        if (customChanged || custom.getId() == null) {
+            context.saveObject(custom);
+        }
 
         context.commitTransaction();
     }
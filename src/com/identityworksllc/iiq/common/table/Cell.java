@@ -4,6 +4,7 @@ import org.apache.commons.lang.StringEscapeUtils;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.Util;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -91,18 +92,41 @@ public class Cell extends Element implements StyleTarget {
     }
 
     /**
-     * Figures out how to append the string contents, whether HTML or not
-     * @param builder The builder being used to construct the string
-     * @param value The value
+     * Appends the given cell content, escaping it unless it is HTML. String content is
+     * written as-is or escaped; Collection content has each String element escaped and
+     * followed by a line break. Anything else is ignored.
+     *
+     * @param out The output to write to
+     * @param content The content
+     * @param html True if String content should be written without escaping
+     * @throws IOException if the output cannot be written
      */
-    private void appendStringContents(StringBuilder builder, String value) {
-        if (this.html) {
-            builder.append(value);
-        } else {
-            builder.append(StringEscapeUtils.escapeHtml(value));
+    /*package*/ static void appendContent(Appendable out, Object content, boolean html) throws IOException {
+        if (content instanceof String) {
+            if (html) {
+                out.append((String) content);
+            } else {
+                out.append(StringEscapeUtils.escapeHtml((String) content));
+            }
+        } else if (content instanceof Collection) {
+            for(Object o : (Collection<?>)content) {
+                if (o instanceof String) {
+                    out.append(StringEscapeUtils.escapeHtml((String)o));
+                    out.append("<br/>");
+                }
+            }
         }
     }
 
+    /**
+     * Builds the closing tag for this cell
+     * @param parentHeader True if the parent row is a header row
+     * @return The closing tag
+     */
+    /*package*/ String endTag(boolean parentHeader) {
+        return (this.isHeader() || parentHeader) ? "</th>" : "</td>";
+    }
+
     public int getColspan() {
         return colspan;
     }
@@ -123,48 +147,28 @@ public class Cell extends Element implements StyleTarget {
         return html;
     }
 
+    /**
+     * Renders this cell to HTML, writing it to the given output
+     * @param out The output to write to
+     * @param parent The row containing this cell
+     * @throws IOException if the output cannot be written
+     */
+    public void render(Appendable out, Row parent) throws IOException {
+        out.append(startTag(parent.isHeader()));
+        appendContent(out, this.content, this.html);
+        out.append(endTag(parent.isHeader()));
+    }
+
     /**
      * Renders this cell to HTML, inserting it into the builder
      */
     public void render(StringBuilder builder, Row parent) {
-        String tag = "td";
-        if (this.isHeader() || parent.isHeader()) {
-            tag = "th";
-        }
-        builder.append("<").append(tag);
-        if (!this.getCssClasses().isEmpty()) {
-            builder.append(" class=\"").append(getEscapedCssClassAttr()).append("\"");
-        }
-        if (Util.isNotNullOrEmpty(getStyle())) {
-            builder.append(" style=\"").append(getEscapedStyle()).append("\"");
-        }
-        if (this.colspan > 1) {
-            builder.append(" colspan=\"").append(colspan).append("\"");
-        }
-        if (this.rowspan > 1) {
-            builder.append(" rowspan=\"").append(rowspan).append("\"");
-        }
-        if (this.isHeader() || parent.isHeader()) {
-            if (parent.isHeader()) {
-                builder.append(" scope=\"col\"");
-            } else if (this.isHeader()) {
-                builder.append(" scope=\"row\"");
-            }
+        try {
+            render((Appendable) builder, parent);
+        } catch(IOException e) {
+            // StringBuilder does not throw IOException
+            throw new IllegalStateException(e);
         }
-        builder.append(">");
-
-        if (this.content instanceof String) {
-            appendStringContents(builder, (String)this.content);
-        } else if (this.content instanceof Collection) {
-            for(Object o : (Collection<?>)this.content) {
-                if (o instanceof String) {
-                    builder.append(StringEscapeUtils.escapeHtml((String)o));
-                    builder.append("<br/>");
-                }
-            }
-        }
-
-        builder.append("</").append(tag).append(">");
     }
 
     public void setColspan(int colspan) {
@@ -187,4 +191,40 @@ public class Cell extends Element implements StyleTarget {
         this.rowspan = rowspan;
     }
 
+    /**
+     * Builds the opening tag for this cell, with its classes, style, and spans. The
+     * tag does not depend on the content, so it can be built once and reused for
+     * every cell with the same options.
+     *
+     * @param parentHeader True if the parent row is a header row
+     * @return The opening tag
+     */
+    /*package*/ String startTag(boolean parentHeader) {
+        StringBuilder builder = new StringBuilder();
+        String tag = "td";
+        if (this.isHeader() || parentHeader) {
+            tag = "th";
+        }
+        builder.append("<").append(tag);
+        if (!this.getCssClasses().isEmpty()) {
+            builder.append(" class=\"").append(getEscapedCssClassAttr()).append("\"");
+        }
+        if (Util.isNotNullOrEmpty(getStyle())) {
+            builder.append(" style=\"").append(getEscapedStyle()).append("\"");
+        }
+        if (this.colspan > 1) {
+            builder.append(" colspan=\"").append(colspan).append("\"");
+        }
+        if (this.rowspan > 1) {
+            builder.append(" rowspan=\"").append(rowspan).append("\"");
+        }
+        if (parentHeader) {
+            builder.append(" scope=\"col\"");
+        } else if (this.isHeader()) {
+            builder.append(" scope=\"row\"");
+        }
+        builder.append(">");
+        return builder.toString();
+    }
+
 }
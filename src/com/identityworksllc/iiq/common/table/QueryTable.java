@@ -8,11 +8,13 @@ import sailpoint.tools.GeneralException;
 import sailpoint.tools.JdbcUtil;
 import sailpoint.tools.Util;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -23,6 +25,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Connection (or way of getting one) and a list of column specs.
  *
  * The meat of the querying takes place in {@link ResultSetIterator}.
+ *
+ * For large results, {@link #renderQuery(String, Map, Appendable)} writes the HTML
+ * directly to an output as the results are read, using a {@link StreamingTableWriter},
+ * without building the table in memory. In that mode, the column options, column styles,
+ * and header row options must be set before the query is run.
  */
 public class QueryTable implements AutoCloseable, StyleTarget {
     /**
@@ -31,6 +38,12 @@ public class QueryTable implements AutoCloseable, StyleTarget {
      * ReportColumnConfig objects.
      */
     private final List<Object> columns;
+
+    /**
+     * Column options recorded for {@link #renderQuery(String, Map, Appendable)}, in the order they were set
+     */
+    private final Map<Integer, List<CellOption>> columnOptions;
+
     /**
      * The connection, which is assumed open until close() is invoked
      */
@@ -45,6 +58,16 @@ public class QueryTable implements AutoCloseable, StyleTarget {
      */
     private final AtomicBoolean frozen;
 
+    /**
+     * Header row options recorded for {@link #renderQuery(String, Map, Appendable)}
+     */
+    private final List<CellOption> headerOptions;
+
+    /**
+     * The maximum number of rows written by {@link #renderQuery(String, Map, Appendable)}, or -1 for no limit
+     */
+    private int maxRows;
+
     /**
      * The Table to be populated by the query output
      */
@@ -70,6 +93,9 @@ public class QueryTable implements AutoCloseable, StyleTarget {
         this.table = new Table();
         this.columns = new ArrayList<>(columns);
         this.frozen = new AtomicBoolean();
+        this.columnOptions = new HashMap<>();
+        this.headerOptions = new ArrayList<>();
+        this.maxRows = -1;
     }
 
     /**
@@ -215,11 +241,83 @@ public class QueryTable implements AutoCloseable, StyleTarget {
         return this.table.render();
     }
 
+    /**
+     * Renders the results of the given query as an HTML table, writing each row to the
+     * output as it is read from the ResultSet. No Table is built, so memory use does not
+     * grow with the number of rows. If a maximum row count is set, reading stops once it
+     * is reached and a truncation footer is written.
+     *
+     * The query will be run via {@link NamedParameterStatement}, so the arguments must be
+     * of a type recognized by that class. This does not populate the table used by
+     * {@link #render()}.
+     *
+     * @param queryString The query string, which must not be null or empty
+     * @param arguments The list of arguments, if any
+     * @param out The output to write to, such as a Writer
+     * @return The number of data rows written
+     * @throws SQLException if any SQL failures occur
+     * @throws GeneralException if any IIQ failures occur
+     * @throws IOException if the output cannot be written
+     */
+    public int renderQuery(String queryString, Map<String, Object> arguments, Appendable out) throws SQLException, GeneralException, IOException {
+        if (Util.isNullOrEmpty(queryString)) {
+            throw new IllegalArgumentException("The query passed to renderQuery() must not be null");
+        }
+        StreamingTableWriter writer = new StreamingTableWriter(out);
+        writer.setCssClasses(new ArrayList<>(table.getCssClasses()));
+        writer.setStyle(table.getStyle());
+        writer.setMaxRows(maxRows);
+        for(Map.Entry<Integer, List<CellOption>> entry : columnOptions.entrySet()) {
+            writer.setColumnCellOptions(entry.getKey(), entry.getValue().toArray(new CellOption[0]));
+        }
+        writer.withHeaderRow(headerOptions.toArray(new CellOption[0]));
+
+        try (NamedParameterStatement statement = new NamedParameterStatement(connection, queryString)) {
+            statement.setParameters(arguments);
+            try (ResultSet results = statement.executeQuery()) {
+                ResultSetIterator rsi = new ResultSetIterator(results, this.columns, context);
+
+                // This is a ListOrderedMap, so the keys ought to be in order
+                Map<String, String> fieldHeaderMap = rsi.getFieldHeaderMap();
+                List<String> keys = new ArrayList<>(fieldHeaderMap.keySet());
+                List<Object> headers = new ArrayList<>();
+                for(String key : keys) {
+                    headers.add(fieldHeaderMap.get(key));
+                }
+                writer.start(headers);
+
+                List<Object> values = new ArrayList<>(keys.size());
+                boolean more = true;
+                while(more && rsi.hasNext()) {
+                    Map<String, Object> nextRow = rsi.nextRow();
+                    values.clear();
+                    for(String key : keys) {
+                        Object value = nextRow.get(key);
+                        if (value == null) {
+                            values.add("");
+                        } else if (value instanceof List) {
+                            values.add(value);
+                        } else {
+                            values.add(Util.otoa(value));
+                        }
+                    }
+                    more = writer.row(values);
+                }
+            }
+        }
+
+        writer.finish();
+        return writer.getRowsWritten();
+    }
+
     /**
      * @see Table#setColumnCellOptions(int, CellOption...) 
      */
     public QueryTable setColumnCellOptions(int column, CellOption... options) throws GeneralException {
         table.setColumnCellOptions(column, options);
+        if (options != null) {
+            columnOptions.computeIfAbsent(column, k -> new ArrayList<>()).addAll(Arrays.asList(options));
+        }
         return this;
     }
 
@@ -228,6 +326,7 @@ public class QueryTable implements AutoCloseable, StyleTarget {
      */
     public QueryTable setColumnStyle(int column, String style) {
         table.setColumnStyle(column, style);
+        columnOptions.computeIfAbsent(column, k -> new ArrayList<>()).add(CellOptions.style(style));
         return this;
     }
 
@@ -243,6 +342,17 @@ public class QueryTable implements AutoCloseable, StyleTarget {
      */
     public QueryTable setExtraColumnStyle(int column, String style) {
         table.setExtraColumnStyle(column, style);
+        columnOptions.computeIfAbsent(column, k -> new ArrayList<>()).add((cell) -> cell.setStyle(cell.getStyle() + " " + style));
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of rows written by {@link #renderQuery(String, Map, Appendable)}
+     * @param maxRows The maximum number of rows, or a negative number for no limit
+     * @return This object, for call chaining
+     */
+    public QueryTable setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
         return this;
     }
 
@@ -282,6 +392,9 @@ public class QueryTable implements AutoCloseable, StyleTarget {
      */
     public QueryTable withHeaderRow(CellOption... options) throws GeneralException {
         table.withHeaderRow(options);
+        if (options != null) {
+            headerOptions.addAll(Arrays.asList(options));
+        }
         return this;
     }
 
@@ -3,6 +3,7 @@ package com.identityworksllc.iiq.common.table;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.Util;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -61,26 +62,33 @@ public class Row extends Element implements StyleTarget {
     }
 
     /**
-     * Renders this row (and all of its Cells) to HTML, writing to the provided StringBuilder
-     * @param builder The StringBuilder to write to
+     * Renders this row (and all of its Cells) to HTML, writing to the provided output
+     * @param out The output to write to
+     * @throws IOException if the output cannot be written
      */
-    public void render(StringBuilder builder) {
-        builder.append("<tr");
-        if (!this.cssClasses.isEmpty()) {
-            builder.append(" class=\"").append(getEscapedCssClassAttr()).append("\"");
-        }
-        if (Util.isNotNullOrEmpty(style)) {
-            builder.append(" style=\"").append(getEscapedStyle()).append("\"");
-        }
-        builder.append(">");
+    public void render(Appendable out) throws IOException {
+        out.append(startTag());
 
         for(Cell c : cells) {
             if (c != null) {
-                c.render(builder, this);
+                c.render(out, this);
             }
         }
 
-        builder.append("</tr>");
+        out.append("</tr>");
+    }
+
+    /**
+     * Renders this row (and all of its Cells) to HTML, writing to the provided StringBuilder
+     * @param builder The StringBuilder to write to
+     */
+    public void render(StringBuilder builder) {
+        try {
+            render((Appendable) builder);
+        } catch(IOException e) {
+            // StringBuilder does not throw IOException
+            throw new IllegalStateException(e);
+        }
     }
 
     public void setCells(List<Cell> cells) {
@@ -94,4 +102,21 @@ public class Row extends Element implements StyleTarget {
     public void setOptions(List<CellOption> options) {
         this.options = options;
     }
+
+    /**
+     * Builds the opening tag for this row, with its classes and style
+     * @return The opening tag
+     */
+    /*package*/ String startTag() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<tr");
+        if (!this.cssClasses.isEmpty()) {
+            builder.append(" class=\"").append(getEscapedCssClassAttr()).append("\"");
+        }
+        if (Util.isNotNullOrEmpty(style)) {
+            builder.append(" style=\"").append(getEscapedStyle()).append("\"");
+        }
+        builder.append(">");
+        return builder.toString();
+    }
 }
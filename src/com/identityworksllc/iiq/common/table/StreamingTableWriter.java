@@ -0,0 +1,389 @@
+package com.identityworksllc.iiq.common.table;
+
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.Util;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes an HTML table directly to an output, such as a Writer, one row at a time.
+ * Unlike {@link Table}, no Row or Cell objects are retained, so memory use does not
+ * grow with the number of rows. This is intended for large tables, such as email or
+ * report bodies built from a query. The output is the same markup that {@link Table}
+ * would produce for the same data and options.
+ *
+ * Column options and styles must be configured before {@link #start(List)} is called.
+ * They are applied once per column to a template cell, and the resulting tags are
+ * reused for every row. Options should therefore not depend on the cell's content.
+ *
+ * If a maximum row count is set, rows beyond it are dropped and a footer row containing
+ * the truncation message is written when the table is finished.
+ *
+ * ```
+ * try (Writer writer = ...) {
+ *     StreamingTableWriter table = new StreamingTableWriter(writer);
+ *     table.setColumnCellOptions(0, CellOptions.style("font-weight: bold"));
+ *     table.setMaxRows(1000);
+ *     table.start(headers);
+ *     while(iterator.hasNext() && table.row(iterator.next())) {
+ *         // Keep going until the input is done or the table is full
+ *     }
+ *     table.finish();
+ * }
+ * ```
+ */
+public class StreamingTableWriter extends Element implements StyleTarget {
+    /**
+     * The default truncation footer, where {0} is the number of rows shown
+     */
+    public static final String DEFAULT_TRUNCATED_MESSAGE = "Only the first {0} rows are shown";
+
+    /**
+     * The closing tag for each data column
+     */
+    private final List<String> closeTags;
+
+    /**
+     * Options applied to the cells of each column, in the order they were added
+     */
+    private final Map<Integer, List<CellOption>> columnOptions;
+
+    /**
+     * The number of header columns
+     */
+    private int columnCount;
+
+    /**
+     * True after {@link #finish()}
+     */
+    private boolean finished;
+
+    /**
+     * Options applied to each header cell, after any column options
+     */
+    private final List<CellOption> headerOptions;
+
+    /**
+     * Whether the content of each data column is HTML
+     */
+    private final List<Boolean> htmlColumns;
+
+    /**
+     * The maximum number of data rows to write, or a negative number for no limit
+     */
+    private int maxRows;
+
+    /**
+     * The opening tag for each data column
+     */
+    private final List<String> openTags;
+
+    /**
+     * The output
+     */
+    private final Appendable out;
+
+    /**
+     * The number of data rows written
+     */
+    private int rowsWritten;
+
+    /**
+     * True after {@link #start(List)}
+     */
+    private boolean started;
+
+    /**
+     * True if at least one row was dropped because of the maximum row count
+     */
+    private boolean truncated;
+
+    /**
+     * The truncation footer message
+     */
+    private String truncatedMessage;
+
+    /**
+     * Constructs a new writer for the given output
+     * @param out The output, such as a Writer or StringBuilder
+     */
+    public StreamingTableWriter(Appendable out) {
+        super();
+        this.out = out;
+        this.closeTags = new ArrayList<>();
+        this.columnOptions = new HashMap<>();
+        this.headerOptions = new ArrayList<>();
+        this.htmlColumns = new ArrayList<>();
+        this.maxRows = -1;
+        this.openTags = new ArrayList<>();
+        this.truncatedMessage = DEFAULT_TRUNCATED_MESSAGE;
+    }
+
+    /**
+     * Adds the given options to the given column, to be applied to every cell in it
+     * @param column The column index
+     * @param options The cell options
+     */
+    private void addColumnOptions(int column, List<CellOption> options) {
+        requireNotStarted();
+        columnOptions.computeIfAbsent(column, k -> new ArrayList<>()).addAll(options);
+    }
+
+    /**
+     * Builds the template cell for the given column, with all of its options applied
+     * @param column The column index
+     * @param header True if this is a header cell
+     * @return The template cell
+     * @throws GeneralException if any of the options fail
+     */
+    private Cell columnTemplate(int column, boolean header) throws GeneralException {
+        Cell template = new Cell();
+        template.setHeader(header);
+        for(CellOption option : Util.safeIterable(columnOptions.get(column))) {
+            option.accept(template);
+        }
+        if (header) {
+            for(CellOption option : headerOptions) {
+                option.accept(template);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Writes the end of the table, including the truncation footer if any rows were
+     * dropped. The output is not closed.
+     *
+     * @throws IOException if the output cannot be written
+     */
+    public void finish() throws IOException {
+        if (!started) {
+            throw new IllegalStateException("Call start() before finish()");
+        }
+        if (finished) {
+            return;
+        }
+        finished = true;
+        out.append("</tbody>");
+        if (truncated) {
+            out.append("<tfoot><tr><td class=\"truncated\"");
+            if (columnCount > 1) {
+                out.append(" colspan=\"").append(String.valueOf(columnCount)).append("\"");
+            }
+            out.append(">");
+            Cell.appendContent(out, MessageFormat.format(truncatedMessage, rowsWritten), false);
+            out.append("</td></tr></tfoot>");
+        }
+        out.append("</table>");
+    }
+
+    /**
+     * Gets the number of data rows written so far
+     * @return The number of rows written
+     */
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Returns true if any rows have been dropped because of the maximum row count
+     * @return True if the table is truncated
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Throws an exception if the table has already been started
+     */
+    private void requireNotStarted() {
+        if (started) {
+            throw new IllegalStateException("Column and table options must be set before start()");
+        }
+    }
+
+    /**
+     * Resolves the data cell tags for the given column, which may be beyond the header
+     * columns if a row is wider than the header
+     *
+     * @param column The column index
+     * @throws GeneralException if any of the column's options fail
+     */
+    private void resolveColumn(int column) throws GeneralException {
+        while (openTags.size() <= column) {
+            Cell template = columnTemplate(openTags.size(), false);
+            openTags.add(template.startTag(false));
+            closeTags.add(template.endTag(false));
+            htmlColumns.add(template.isHtml());
+        }
+    }
+
+    /**
+     * Writes a data row. If the maximum row count has been reached, the row is dropped,
+     * the table is marked as truncated, and false is returned, so that the caller can
+     * stop reading its input.
+     *
+     * Each value must be a String, a Collection of Strings, or null, as with {@link Table#cell(Object, CellOption...)}.
+     * Other values are written using their toString() form.
+     *
+     * @param values The row values
+     * @return True if the row was written, false if it was dropped
+     * @throws GeneralException if any of the column options fail
+     * @throws IOException if the output cannot be written
+     */
+    public boolean row(List<?> values) throws GeneralException, IOException {
+        if (!started || finished) {
+            throw new IllegalStateException("Rows can only be written between start() and finish()");
+        }
+        if (maxRows >= 0 && rowsWritten >= maxRows) {
+            truncated = true;
+            return false;
+        }
+        out.append("<tr>");
+        int column = 0;
+        for(Object value : Util.safeIterable(values)) {
+            resolveColumn(column);
+            Object content = value;
+            if (content != null && !(content instanceof String || content instanceof Collection)) {
+                content = String.valueOf(content);
+            }
+            out.append(openTags.get(column));
+            Cell.appendContent(out, content, htmlColumns.get(column));
+            out.append(closeTags.get(column));
+            column++;
+        }
+        out.append("</tr>");
+        rowsWritten++;
+        return true;
+    }
+
+    /**
+     * Applies the given options to every cell in the given column, including the header
+     * @param column The column index
+     * @param options The cell options
+     * @return This object, for call chaining
+     */
+    public StreamingTableWriter setColumnCellOptions(int column, CellOption... options) {
+        if (options != null) {
+            addColumnOptions(column, Arrays.asList(options));
+        }
+        return this;
+    }
+
+    /**
+     * Sets the style of every cell in the given column, including the header
+     * @param column The column index
+     * @param style The style
+     * @return This object, for call chaining
+     */
+    public StreamingTableWriter setColumnStyle(int column, String style) {
+        addColumnOptions(column, Collections.singletonList(CellOptions.style(style)));
+        return this;
+    }
+
+    /**
+     * Appends the given style to every cell in the given column, including the header
+     * @param column The column index
+     * @param style The style
+     * @return This object, for call chaining
+     */
+    public StreamingTableWriter setExtraColumnStyle(int column, String style) {
+        addColumnOptions(column, Collections.singletonList((cell) -> cell.setStyle(cell.getStyle() + " " + style)));
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of data rows to write
+     * @param maxRows The maximum number of rows, or a negative number for no limit
+     * @return This object, for call chaining
+     */
+    public StreamingTableWriter setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    /**
+     * Sets the footer message written when rows are dropped. The message is a
+     * {@link MessageFormat} pattern, where {0} is the number of rows shown.
+     *
+     * @param truncatedMessage The message pattern
+     * @return This object, for call chaining
+     */
+    public StreamingTableWriter setTruncatedMessage(String truncatedMessage) {
+        this.truncatedMessage = truncatedMessage;
+        return this;
+    }
+
+    /**
+     * Writes the start of the table and the header row. After this, column options
+     * can no longer be changed.
+     *
+     * @param headers The header values, or null or empty for no header row
+     * @throws GeneralException if any of the column options fail
+     * @throws IOException if the output cannot be written
+     */
+    public void start(List<?> headers) throws GeneralException, IOException {
+        requireNotStarted();
+        started = true;
+
+        out.append("<table");
+        if (!this.cssClasses.isEmpty()) {
+            out.append(" class=\"").append(getEscapedCssClassAttr()).append("\"");
+        }
+        if (Util.isNotNullOrEmpty(this.style)) {
+            out.append(" style=\"").append(getEscapedStyle()).append("\"");
+        }
+        out.append(">");
+
+        if (headers != null && !headers.isEmpty()) {
+            columnCount = headers.size();
+            out.append("<thead><tr>");
+            int column = 0;
+            for(Object header : headers) {
+                Cell template = columnTemplate(column++, true);
+                out.append(template.startTag(true));
+                Cell.appendContent(out, header == null ? "" : header, template.isHtml());
+                out.append(template.endTag(true));
+            }
+            out.append("</tr></thead>");
+        }
+
+        out.append("<tbody>");
+
+        if (columnCount > 0) {
+            resolveColumn(columnCount - 1);
+        }
+    }
+
+    /**
+     * Adds the given CSS classes to the table element
+     * @param cssClasses The CSS classes
+     * @return This object, for call chaining
+     */
+    public StreamingTableWriter withClass(String... cssClasses) {
+        requireNotStarted();
+        this.cssClasses.addAll(Arrays.asList(cssClasses));
+        return this;
+    }
+
+    /**
+     * Applies the given options to every header cell, after any column options
+     * @param options The cell options
+     * @return This object, for call chaining
+     */
+    public StreamingTableWriter withHeaderRow(CellOption... options) {
+        requireNotStarted();
+        if (options != null) {
+            headerOptions.addAll(Arrays.asList(options));
+        }
+        return this;
+    }
+}
@@ -9,6 +9,7 @@ import sailpoint.object.Link;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.Util;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -347,32 +348,51 @@ public class Table extends Element {
      */
     public String render() {
         StringBuilder html = new StringBuilder();
-        html.append("<table");
+        try {
+            render(html);
+        } catch(IOException e) {
+            // StringBuilder does not throw IOException
+            throw new IllegalStateException(e);
+        }
+        return html.toString();
+    }
+
+    /**
+     * Renders the table as HTML, writing it to the given output (such as a Writer)
+     * row by row, rather than building the whole document as a String first.
+     *
+     * To avoid holding the rows in memory at all, such as for large query results,
+     * see {@link StreamingTableWriter}.
+     *
+     * @param out The output to write to
+     * @throws IOException if the output cannot be written
+     */
+    public void render(Appendable out) throws IOException {
+        out.append("<table");
         if (!this.cssClasses.isEmpty()) {
-            html.append(" class=\"").append(getEscapedCssClassAttr()).append("\"");
+            out.append(" class=\"").append(getEscapedCssClassAttr()).append("\"");
         }
         if (Util.isNotNullOrEmpty(this.style)) {
-            html.append(" style=\"").append(getEscapedStyle()).append("\"");
+            out.append(" style=\"").append(getEscapedStyle()).append("\"");
         }
         if (width > 0) {
-            html.append(" width=\"").append(width).append("%\"");
+            out.append(" width=\"").append(String.valueOf(width)).append("%\"");
         }
-        html.append(">");
+        out.append(">");
 
         boolean inHeader = false;
         for(Row row : this.rows) {
             if (row.isHeader() && !inHeader) {
-                html.append("<thead>");
+                out.append("<thead>");
                 inHeader = true;
             } else if (!row.isHeader() && inHeader) {
-                html.append("</thead><tbody>");
+                out.append("</thead><tbody>");
                 inHeader = false;
             }
-            row.render(html);
+            row.render(out);
         }
 
-        html.append("</tbody></table>");
-        return html.toString();
+        out.append("</tbody></table>");
     }
 
     /**
@@ -4,6 +4,7 @@ import com.identityworksllc.iiq.common.CommonConstants;
 import com.identityworksllc.iiq.common.Functions;
 import com.identityworksllc.iiq.common.iterators.BatchingIterator;
 import com.identityworksllc.iiq.common.iterators.TransformingIterator;
+import com.identityworksllc.iiq.common.threads.ManagedWorkerPools;
 import com.identityworksllc.iiq.common.threads.SailPointWorker;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -87,7 +88,7 @@ public abstract class AbstractThreadedTask<T> extends AbstractTaskExecutor imple
 
         @Override
         public void afterBatch(SailPointContext threadContext) throws GeneralException {
-            AbstractThreadedTask.this.beforeBatch(threadContext);
+            AbstractThreadedTask.this.afterBatch(threadContext);
         }
 
         @Override
@@ -133,6 +134,10 @@ public abstract class AbstractThreadedTask<T> extends AbstractTaskExecutor imple
      * a testing hook.
      */
     protected BiConsumer<Thread, Object> beforeExecutionHook;
+    /**
+     * The name of the shared {@link ManagedWorkerPools} bulkhead to run in, if any
+     */
+    protected String bulkhead;
     /**
      * The parent SailPoint context
      */
@@ -193,6 +198,9 @@ public abstract class AbstractThreadedTask<T> extends AbstractTaskExecutor imple
         this.successCounter = new AtomicInteger(0);
         this.failureCounter = new AtomicInteger(0);
         this.terminationHandlers = new ArrayList<>();
+        this.failureMarker = this::markFailure;
+        this.successMarker = this::markSuccess;
+        this.log = LogFactory.getLog(this.getClass());
     }
 
     /**
@@ -261,6 +269,18 @@ public abstract class AbstractThreadedTask<T> extends AbstractTaskExecutor imple
         return batchingIterator;
     }
 
+    /**
+     * Creates the listener passed to each worker, which relays the worker's batch and
+     * item callbacks to this task (e.g., {@link #beforeBatch(SailPointContext)} and
+     * {@link #afterBatch(SailPointContext)}).
+     *
+     * @param taskResult The task result to which worker exceptions are added
+     * @return The listener
+     */
+    protected ThreadedTaskListener<T> createTaskListener(TaskResult taskResult) {
+        return new DefaultThreadedTaskListener(taskResult);
+    }
+
     /**
      * The main method of this task executor, which invokes the appropriate hook methods.
      */
@@ -388,6 +408,7 @@ public abstract class AbstractThreadedTask<T> extends AbstractTaskExecutor imple
         }
 
         this.batchSize = args.getInt("batchSize", 0);
+        this.bulkhead = args.getString("bulkhead");
     }
 
     /**
@@ -395,13 +416,21 @@ public abstract class AbstractThreadedTask<T> extends AbstractTaskExecutor imple
      * a fixed-size executor service, but subclasses may override this behavior with
      * their own implementations.
      *
+     * If the task argument 'bulkhead' is set, the task instead leases up to {@link #threadCount}
+     * threads from that shared {@link ManagedWorkerPools} bulkhead, so that tasks running on the
+     * same node share one bounded pool rather than each creating their own.
+     *
      * After this method is finished, the {@link #executor} attribute should be set
      * to an {@link ExecutorService} that can accept new inputs.
      *
      * @throws GeneralException if any failures occur
      */
     protected void prepareExecutor() throws GeneralException {
-        executor = Executors.newFixedThreadPool(threadCount);
+        if (Util.isNotNullOrEmpty(bulkhead)) {
+            executor = ManagedWorkerPools.lease(bulkhead, threadCount);
+        } else {
+            executor = Executors.newFixedThreadPool(threadCount);
+        }
     }
 
     /**
@@ -479,7 +508,7 @@ public abstract class AbstractThreadedTask<T> extends AbstractTaskExecutor imple
 
         // Default listener allowing individual worker state to be propagated up
         // through the various callbacks, hooks, and listeners on this task.
-        ThreadedTaskListener<T> taskContext = new DefaultThreadedTaskListener(taskResult);
+        ThreadedTaskListener<T> taskContext = createTaskListener(taskResult);
         try {
             prepareExecutor();
             AtomicInteger totalCount = new AtomicInteger();
@@ -0,0 +1,217 @@
+package com.identityworksllc.iiq.common.task;
+
+import org.apache.commons.logging.Log;
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes pre-formatted lines (e.g., JSON documents) to a Log from a single background
+ * thread. Producers format their own output in parallel and hand it off via a bounded
+ * queue, so a slow appender applies back-pressure rather than consuming unlimited memory,
+ * and producer threads never contend on the appender's lock.
+ *
+ * The writer thread drains up to {@link #batchSize} lines at a time from the queue.
+ *
+ * {@link #flush()} blocks until every line submitted before the call has been written,
+ * which allows callers to safely record a checkpoint for the data they have submitted.
+ */
+public final class AsyncBatchedLogWriter implements AutoCloseable {
+    /**
+     * The default batch size
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * The default queue depth
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 10000;
+
+    /**
+     * The maximum number of lines written per drain of the queue
+     */
+    private final int batchSize;
+
+    /**
+     * True once {@link #close()} has been invoked
+     */
+    private volatile boolean closed;
+
+    /**
+     * Any failure encountered by the writer thread
+     */
+    private final AtomicReference<Throwable> failure;
+
+    /**
+     * The Log to which lines will be written
+     */
+    private final Log output;
+
+    /**
+     * The queue of lines waiting to be written
+     */
+    private final BlockingQueue<String> queue;
+
+    /**
+     * The number of lines submitted; guarded by this object's monitor
+     */
+    private long submitted;
+
+    /**
+     * The number of lines written (or discarded after a failure); guarded by this object's monitor
+     */
+    private long written;
+
+    /**
+     * The background writer thread
+     */
+    private final Thread writerThread;
+
+    /**
+     * Constructs a new writer and starts its background thread
+     *
+     * @param output The Log to which lines will be written at INFO level
+     * @param queueDepth The maximum number of lines that may be waiting to be written
+     * @param batchSize The maximum number of lines to drain at once
+     * @param threadName The name of the background thread
+     */
+    public AsyncBatchedLogWriter(Log output, int queueDepth, int batchSize, String threadName) {
+        this.output = output;
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+        this.failure = new AtomicReference<>();
+        this.writerThread = new Thread(this::writeLoop, threadName);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Throws an exception if the writer thread has failed
+     * @throws GeneralException if the writer thread has failed
+     */
+    private void checkFailure() throws GeneralException {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new GeneralException("The output writer has failed", t);
+        }
+    }
+
+    /**
+     * Flushes all remaining lines and stops the writer thread
+     *
+     * @throws GeneralException if the writer failed or was interrupted
+     */
+    @Override
+    public void close() throws GeneralException {
+        if (closed) {
+            return;
+        }
+        flush();
+        // The writer thread will exit the next time it finds the queue empty
+        closed = true;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralException(e);
+        }
+    }
+
+    /**
+     * Blocks until all lines submitted before this call have been written
+     *
+     * @throws GeneralException if the writer failed or the calling thread was interrupted
+     */
+    public void flush() throws GeneralException {
+        synchronized (this) {
+            long target = submitted;
+            try {
+                while (written < target && failure.get() == null) {
+                    this.wait(1000L);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeneralException(e);
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Gets the number of lines written so far
+     * @return The number of lines written
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    /**
+     * Queues the given line for writing, blocking if the queue is full
+     *
+     * @param line The line to write
+     * @throws GeneralException if the writer has failed or is closed, or the calling thread was interrupted
+     */
+    public void submit(String line) throws GeneralException {
+        checkFailure();
+        if (closed) {
+            throw new GeneralException("The output writer has been closed");
+        }
+        synchronized (this) {
+            submitted++;
+        }
+        try {
+            while (!queue.offer(line, 1, TimeUnit.SECONDS)) {
+                checkFailure();
+            }
+        } catch(InterruptedException e) {
+            synchronized (this) {
+                submitted--;
+                this.notifyAll();
+            }
+            Thread.currentThread().interrupt();
+            throw new GeneralException(e);
+        }
+    }
+
+    /**
+     * The writer thread's main loop
+     */
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                String first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    if (closed) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+            } catch(InterruptedException e) {
+                if (queue.isEmpty()) {
+                    break;
+                }
+                queue.drainTo(batch, batchSize);
+            }
+            try {
+                for(String line : batch) {
+                    output.info(line);
+                }
+            } catch(RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+            synchronized (this) {
+                written += batch.size();
+                this.notifyAll();
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.identityworksllc.iiq.common.task;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.identityworksllc.iiq.common.HybridObjectMatcher;
+import com.identityworksllc.iiq.common.Utilities;
+import com.identityworksllc.iiq.common.logging.SLogger;
+import com.identityworksllc.iiq.common.threads.SailPointWorker;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.logging.Log;
+import sailpoint.api.IncrementalObjectIterator;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.*;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.Util;
+import sailpoint.tools.xml.AbstractXmlObject;
+import sailpoint.tools.xml.XMLObjectFactory;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single time slice of an {@link AuditEventExportTask} run. Each partition exports
+ * the AuditEvents created in the half-open interval [sliceStart, sliceEnd), in order
+ * of creation date, in its own thread and private context.
+ *
+ * Progress is recorded in a NamedTimestamp (the watermark) after each checkpoint, once
+ * all events submitted so far have been written to the output. If the task is interrupted,
+ * the next run will resume each partition from its watermark. Events created in the same
+ * millisecond as the watermark may be exported twice, but no events will be missed. When
+ * the partition finishes, its watermark is set to the end of its slice.
+ *
+ * To avoid repeated work, the partition keeps a bounded LRU cache of source and target
+ * identity data and compiles its in-memory filter only once.
+ */
+@Getter
+@Setter
+public class AuditEventExportPartition extends SailPointWorker {
+    /**
+     * The default number of events between checkpoints
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    /**
+     * The default number of identities whose data will be cached in each partition
+     */
+    public static final int DEFAULT_IDENTITY_CACHE_SIZE = 5000;
+
+    /**
+     * Shared across threads; ObjectMapper is thread-safe once configured
+     */
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /**
+     * Logger for this class, for internal logging events
+     */
+    private static final SLogger log = new SLogger(AuditEventExportPartition.class);
+
+    /**
+     * The number of events between checkpoints
+     */
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    /**
+     * The optional in-memory filter applied to each event
+     */
+    private String commonFilter;
+
+    /**
+     * The output date format
+     */
+    private String dateFormat;
+
+    /**
+     * Shared counter of exported events
+     */
+    private transient AtomicInteger exportedCounter;
+
+    /**
+     * The name of the optional filter rule
+     */
+    private String filterRuleName;
+
+    /**
+     * The optional filter script source, which will be copied for each partition
+     */
+    private transient Object filterScriptSource;
+
+    /**
+     * The database filters; an event matching any of them will be considered
+     */
+    private List<String> filters;
+
+    /**
+     * The identity attributes to include in the source and target identity data
+     */
+    private List<String> identityFields;
+
+    /**
+     * The maximum number of identities whose data will be cached
+     */
+    private int identityCacheSize = DEFAULT_IDENTITY_CACHE_SIZE;
+
+    /**
+     * The output writer shared by all partitions
+     */
+    private transient AsyncBatchedLogWriter output;
+
+    /**
+     * Shared counter of skipped events
+     */
+    private transient AtomicInteger skippedCounter;
+
+    /**
+     * The end of this slice, exclusive, in epoch milliseconds
+     */
+    private final long sliceEnd;
+
+    /**
+     * The start of this slice, inclusive, in epoch milliseconds
+     */
+    private final long sliceStart;
+
+    /**
+     * Shared counter of all processed events
+     */
+    private transient AtomicInteger totalCounter;
+
+    /**
+     * The name of the NamedTimestamp recording this partition's progress
+     */
+    private final String watermarkName;
+
+    /**
+     * Constructs a new partition for the given slice
+     *
+     * @param watermarkName The name of the NamedTimestamp used to record progress
+     * @param sliceStart The start of the slice, inclusive, in epoch milliseconds
+     * @param sliceEnd The end of the slice, exclusive, in epoch milliseconds
+     */
+    public AuditEventExportPartition(String watermarkName, long sliceStart, long sliceEnd) {
+        super(watermarkName);
+        this.watermarkName = watermarkName;
+        this.sliceStart = sliceStart;
+        this.sliceEnd = sliceEnd;
+    }
+
+    /**
+     * Returns a copy of the given attribute value that can be safely modified. Maps and
+     * collections are copied recursively and immutable values are returned as-is. Only
+     * values of other types, which are rare in audit events, fall back to an XML clone.
+     *
+     * This avoids serializing and re-parsing the whole Attributes map for every event.
+     *
+     * @param context The context, used to resolve references for XML clones
+     * @param value The value to copy
+     * @return The copied value
+     */
+    public static Object copyAttributeValue(SailPointContext context, Object value) {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+            return value;
+        } else if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        } else if (value instanceof Map) {
+            Map<?, ?> source = (Map<?, ?>) value;
+            Map<Object, Object> copy = (value instanceof Attributes) ? new Attributes<>() : new HashMap<>();
+            for(Map.Entry<?, ?> entry : source.entrySet()) {
+                copy.put(entry.getKey(), copyAttributeValue(context, entry.getValue()));
+            }
+            return copy;
+        } else if (value instanceof Collection) {
+            Collection<?> source = (Collection<?>) value;
+            Collection<Object> copy = (value instanceof Set) ? new LinkedHashSet<>() : new ArrayList<>(source.size());
+            for(Object item : source) {
+                copy.add(copyAttributeValue(context, item));
+            }
+            return copy;
+        } else if (value instanceof AbstractXmlObject) {
+            try {
+                return XMLObjectFactory.getInstance().clone(value, context);
+            } catch(Exception e) {
+                log.debug("Unable to clone attribute value of type {0}: {1}", value.getClass().getName(), e);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Helper method to create a map of identity data based on the specified fields. This is used
+     * to create the sourceIdentity and targetIdentity maps in the exported event data.
+     *
+     * @param identity the identity to extract data from
+     * @param identityFields the list of identity attribute names to include in the map
+     * @return a map containing the identity's id, displayName, and specified attributes
+     */
+    private static Map<String, Object> createIdentityDataMap(Identity identity, List<String> identityFields) {
+        Map<String, Object> identityData = new HashMap<>();
+        identityData.put("id", identity.getId());
+        identityData.put("displayName", identity.getDisplayName());
+        for (String field : Util.safeIterable(identityFields)) {
+            var value = Util.otoa(identity.getAttribute(field));
+            if (value != null) {
+                identityData.put(field, value);
+            }
+        }
+        return identityData;
+    }
+
+    /**
+     * Loads the filter rule, if one is configured. This is invoked again after every
+     * checkpoint, since the checkpoint decaches the context and would otherwise leave
+     * the rule detached from the session.
+     *
+     * @param context The private context for this partition
+     * @return The filter rule, or null if none is configured
+     * @throws GeneralException if the rule does not exist
+     */
+    private Rule loadFilterRule(SailPointContext context) throws GeneralException {
+        if (Util.isNullOrEmpty(filterRuleName)) {
+            return null;
+        }
+        Rule filterRule = context.getObjectByName(Rule.class, filterRuleName);
+        if (filterRule == null) {
+            throw new GeneralException("Filter rule not found: " + filterRuleName);
+        }
+        return filterRule;
+    }
+
+    /**
+     * Helper method to put a key-value pair into a map if the value is not null. This is used to
+     * build the eventData map for each exported event.
+     *
+     * @param map the map to put the key-value pair into
+     * @param key the key to use for the map entry
+     * @param value the value to put in the map; if null, the key-value pair will not be added to the map
+     */
+    private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+
+    /**
+     * Waits for the output to catch up, then records the given watermark. The context is
+     * decached afterwards, so any objects loaded before the checkpoint must be reloaded.
+     *
+     * @param context The private context for this partition
+     * @param watermark The watermark to record
+     * @throws GeneralException if the output has failed or the save fails
+     */
+    private void checkpoint(SailPointContext context, long watermark) throws GeneralException {
+        output.flush();
+        NamedTimestamp timestamp = context.getObjectByName(NamedTimestamp.class, watermarkName);
+        if (timestamp == null) {
+            timestamp = new NamedTimestamp();
+            timestamp.setName(watermarkName);
+        }
+        timestamp.setTimestamp(new Date(watermark));
+        context.saveObject(timestamp);
+        context.commitTransaction();
+        context.decache();
+    }
+
+    /**
+     * Exports the events in this slice, starting at the previous watermark if there is one
+     *
+     * @param context The private context to use for this thread worker
+     * @param logger The log attached to this Worker
+     * @return The number of events processed by this partition
+     * @throws Exception if anything goes wrong
+     */
+    @Override
+    public Object execute(SailPointContext context, Log logger) throws Exception {
+        long from = sliceStart;
+        NamedTimestamp previous = context.getObjectByName(NamedTimestamp.class, watermarkName);
+        if (previous != null && previous.getTimestamp() != null) {
+            from = Math.max(from, previous.getTimestamp().getTime());
+        }
+        if (from >= sliceEnd) {
+            log.debug("Partition {0} was completed by a previous run", watermarkName);
+            return 0;
+        }
+        if (from > sliceStart) {
+            log.info("Resuming partition {0} from {1}", watermarkName, Instant.ofEpochMilli(from));
+        }
+
+        List<Filter> databaseFilters = new ArrayList<>();
+        for(String filterString : Util.safeIterable(filters)) {
+            databaseFilters.add(Filter.compile(filterString));
+        }
+        Filter combined = (databaseFilters.size() == 1) ? databaseFilters.get(0) : Filter.or(databaseFilters);
+
+        QueryOptions qo = new QueryOptions();
+        qo.addFilter(Filter.and(combined, Filter.ge("created", new Date(from)), Filter.lt("created", new Date(sliceEnd))));
+        qo.setOrderBy("created");
+        qo.setOrderAscending(true);
+
+        // Each of these is created once per partition rather than once per event
+        HybridObjectMatcher matcher = Util.isNotNullOrEmpty(commonFilter) ? new HybridObjectMatcher(context, Filter.compile(commonFilter)) : null;
+        Script filterScript = Utilities.getAsScript(filterScriptSource);
+        Rule filterRule = loadFilterRule(context);
+        SimpleDateFormat dateFormatter = new SimpleDateFormat(dateFormat);
+        Map<String, Map<String, Object>> identityCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+                return size() > identityCacheSize;
+            }
+        };
+
+        int processed = 0;
+        int sinceCheckpoint = 0;
+        long watermark = from;
+        IncrementalObjectIterator<AuditEvent> iterator = new IncrementalObjectIterator<>(context, AuditEvent.class, qo);
+        try {
+            while (iterator.hasNext()) {
+                if (isTerminated()) {
+                    log.warn("Partition {0} was terminated, stopping processing", watermarkName);
+                    break;
+                }
+
+                AuditEvent ae = iterator.next();
+                long created = ae.getCreated().getTime();
+                if (created > watermark && sinceCheckpoint >= checkpointInterval) {
+                    // Every event before 'created' has now been submitted
+                    checkpoint(context, created);
+                    filterRule = loadFilterRule(context);
+                    sinceCheckpoint = 0;
+                }
+                watermark = created;
+
+                totalCounter.incrementAndGet();
+                processed++;
+                sinceCheckpoint++;
+                try {
+                    exportEvent(context, ae, matcher, filterScript, filterRule, dateFormatter, identityCache);
+                } catch(GeneralException e) {
+                    log.error("Error processing audit event " + ae.getId(), e);
+                }
+            }
+        } finally {
+            Util.flushIterator(iterator);
+        }
+
+        if (!isTerminated()) {
+            checkpoint(context, sliceEnd);
+        } else {
+            // Don't advance past the last event, since it may have been the one interrupted
+            checkpoint(context, watermark);
+        }
+        return processed;
+    }
+
+    /**
+     * Filters and exports a single event
+     *
+     * @param context The private context for this partition
+     * @param ae The audit event
+     * @param matcher The compiled in-memory filter, or null
+     * @param filterScript The filter script, or null
+     * @param filterRule The filter rule, or null
+     * @param dateFormatter The date formatter for this partition
+     * @param identityCache The identity data cache for this partition
+     * @throws GeneralException if any failures occur
+     */
+    private void exportEvent(SailPointContext context, AuditEvent ae, HybridObjectMatcher matcher, Script filterScript, Rule filterRule, SimpleDateFormat dateFormatter, Map<String, Map<String, Object>> identityCache) throws GeneralException {
+        if (matcher != null && !matcher.matches(ae)) {
+            log.debug("Skipping event {0} based on in-memory filter", ae.getId());
+            skippedCounter.incrementAndGet();
+            return;
+        }
+
+        boolean likelySecret = false;
+        var attributeName = ae.getAttributeName();
+        if (Util.isNotNullOrEmpty(attributeName)) {
+            String lowerAttrName = attributeName.toLowerCase(Locale.ROOT);
+            for(String token : Utilities.LIKELY_PASSWORD_TOKENS) {
+                if (lowerAttrName.contains(token) && !lowerAttrName.contains("xpir")) {
+                    likelySecret = true;
+                    break;
+                }
+            }
+        }
+
+        final Map<String, Object> eventData = new HashMap<>();
+        putIfNotNull(eventData, "id", ae.getId());
+        putIfNotNull(eventData, "timestamp", dateFormatter.format(ae.getCreated()));
+        putIfNotNull(eventData, "timestampMillis", ae.getCreated().getTime());
+        putIfNotNull(eventData, "action", ae.getAction());
+        putIfNotNull(eventData, "application", ae.getApplication());
+        putIfNotNull(eventData, "accountName", ae.getAccountName());
+        putIfNotNull(eventData, "attributeName", ae.getAttributeName());
+        putIfNotNull(eventData, "attributeValue", likelySecret ? Utilities.MASKED_SECRET : ae.getAttributeValue());
+        putIfNotNull(eventData, "serverHost", ae.getServerHost());
+        putIfNotNull(eventData, "clientHost", ae.getClientHost());
+        putIfNotNull(eventData, "string1", ae.getString1());
+        putIfNotNull(eventData, "string2", ae.getString2());
+        putIfNotNull(eventData, "string3", ae.getString3());
+        putIfNotNull(eventData, "string4", ae.getString4());
+        putIfNotNull(eventData, "source", ae.getSource());
+        putIfNotNull(eventData, "target", ae.getTarget());
+
+        var eventAttributes = ae.getAttributes();
+        if (eventAttributes != null) {
+            // Copy the attributes so that masking doesn't modify the original object.
+            // IIQ likes to sometimes auto-save objects in memory, and we want AuditEvents
+            // to be static.
+            @SuppressWarnings("unchecked")
+            Map<String, Object> copy = (Map<String, Object>) copyAttributeValue(context, eventAttributes);
+            Utilities.heuristicMaskSecretAttributes(copy);
+            eventData.put("attributes", copy);
+        }
+
+        putIfNotNull(eventData, "sourceIdentity", getIdentityData(context, ae.getSource(), identityCache));
+        putIfNotNull(eventData, "targetIdentity", getIdentityData(context, ae.getTarget(), identityCache));
+
+        if (filterScript != null || filterRule != null) {
+            // Scripts and rules may want the real objects, so we only load them in this case
+            Identity sourceIdentity = Util.isNotNullOrEmpty(ae.getSource()) ? context.getObjectByName(Identity.class, ae.getSource()) : null;
+            Identity targetIdentity = Util.isNotNullOrEmpty(ae.getTarget()) ? context.getObjectByName(Identity.class, ae.getTarget()) : null;
+            try {
+                Map<String, Object> bindings = new HashMap<>();
+                bindings.put("event", ae);
+                bindings.put("sourceIdentity", sourceIdentity);
+                bindings.put("targetIdentity", targetIdentity);
+                bindings.put("eventData", eventData);
+
+                if (filterScript != null) {
+                    Boolean includeEvent = (Boolean) context.runScript(filterScript, bindings);
+                    if (includeEvent == null || !includeEvent) {
+                        log.debug("Skipping event {0} based on filter script", ae.getId());
+                        skippedCounter.incrementAndGet();
+                        return;
+                    }
+                }
+
+                if (filterRule != null) {
+                    Boolean includeEvent = (Boolean) context.runRule(filterRule, bindings);
+                    if (includeEvent == null || !includeEvent) {
+                        log.debug("Skipping event {0} based on filter rule {1}", ae.getId(), filterRuleName);
+                        skippedCounter.incrementAndGet();
+                        return;
+                    }
+                }
+            } finally {
+                if (sourceIdentity != null) {
+                    context.decache(sourceIdentity);
+                }
+                if (targetIdentity != null) {
+                    context.decache(targetIdentity);
+                }
+            }
+        }
+
+        try {
+            output.submit(JSON.writeValueAsString(eventData));
+        } catch(JsonProcessingException e) {
+            throw new GeneralException(e);
+        }
+        exportedCounter.incrementAndGet();
+    }
+
+    /**
+     * Gets the exported data for the named identity, using the cache if possible
+     *
+     * @param context The private context for this partition
+     * @param name The identity name, which may be null
+     * @param identityCache The identity data cache
+     * @return The identity data, or null if there is no such identity
+     * @throws GeneralException if the lookup fails
+     */
+    private Map<String, Object> getIdentityData(SailPointContext context, String name, Map<String, Map<String, Object>> identityCache) throws GeneralException {
+        if (Util.isNullOrEmpty(name)) {
+            return null;
+        }
+        Map<String, Object> data = identityCache.get(name);
+        if (data == null) {
+            Identity identity = context.getObjectByName(Identity.class, name);
+            if (identity != null) {
+                data = createIdentityDataMap(identity, identityFields);
+                context.decache(identity);
+            } else {
+                // Sources like "Scheduler" are not identities; remember that too
+                data = Collections.emptyMap();
+            }
+            identityCache.put(name, data);
+        }
+        // Copy, since scripts and rules receive the event data and may modify it
+        return data.isEmpty() ? null : new HashMap<>(data);
+    }
+}
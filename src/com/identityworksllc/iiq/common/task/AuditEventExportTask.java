@@ -1,11 +1,9 @@
 package com.identityworksllc.iiq.common.task;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.identityworksllc.iiq.common.HybridObjectMatcher;
 import com.identityworksllc.iiq.common.TaskUtil;
-import com.identityworksllc.iiq.common.Utilities;
 import com.identityworksllc.iiq.common.logging.SLogger;
-import sailpoint.api.IncrementalObjectIterator;
+import com.identityworksllc.iiq.common.threads.ManagedWorkerPools;
+import com.identityworksllc.iiq.common.threads.SailPointWorker;
 import sailpoint.api.SailPointContext;
 import sailpoint.object.*;
 import sailpoint.task.AbstractTaskExecutor;
@@ -13,10 +11,10 @@ import sailpoint.task.TaskMonitor;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.Message;
 import sailpoint.tools.Util;
-import sailpoint.tools.xml.XMLObjectFactory;
 
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -29,8 +27,25 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * The task keeps track of the last start time using a NamedTimestamp object, and will only export
  * events that were created after the last start time to avoid duplicates.
+ *
+ * The interval since the last run is split into time slices ('partitions', default 8), which are
+ * exported in parallel on up to 'threads' (default 4) threads, leased from the worker pool
+ * bulkhead named by 'bulkhead' (default {@link ManagedWorkerPools#BULKHEAD_REPORTS}). Each partition records a resumable
+ * watermark, so a long catch-up run that is interrupted will continue where it left off. Events
+ * are not guaranteed to be written in order across partitions; consumers should use the
+ * 'timestampMillis' field for ordering.
  */
 public class AuditEventExportTask extends AbstractTaskExecutor {
+    /**
+     * The default number of time slices
+     */
+    public static final int DEFAULT_PARTITIONS = 8;
+
+    /**
+     * The default number of partitions to run at once
+     */
+    public static final int DEFAULT_THREADS = 4;
+
     /**
      * The output key for the number of events exported
      */
@@ -52,61 +67,134 @@ public class AuditEventExportTask extends AbstractTaskExecutor {
     private static final SLogger log = new SLogger(AuditEventExportTask.class);
 
     /**
-     * Helper method to create a map of identity data based on the specified fields. This is used
-     * to create the sourceIdentity and targetIdentity maps in the exported event data.
+     * Indicates that the task has been terminated
+     */
+    private final AtomicBoolean terminated;
+
+    /**
+     * Constructor invoked by IIQ
+     */
+    public AuditEventExportTask() {
+        this.terminated = new AtomicBoolean();
+    }
+
+    /**
+     * Splits the interval [low, high) into up to the given number of contiguous slices of
+     * roughly equal duration
      *
-     * @param sourceIdentity the identity to extract data from
-     * @param identityFields the list of identity attribute names to include in the map
-     * @return a map containing the identity's id, displayName, and specified attributes
+     * @param low The start of the interval, inclusive
+     * @param high The end of the interval, exclusive
+     * @param partitions The desired number of slices
+     * @return A list of two-element arrays containing the start and end of each slice
      */
-    private static Map<String, Object> createIdentityDataMap(Identity sourceIdentity, List<String> identityFields) {
-        Map<String, Object> identityData = new HashMap<>();
-        identityData.put("id", sourceIdentity.getId());
-        identityData.put("displayName", sourceIdentity.getDisplayName());
-        for (String field : Util.safeIterable(identityFields)) {
-            var value = Util.otoa(sourceIdentity.getAttribute(field));
-            if (value != null) {
-                identityData.put(field, value);
-            }
+    public static List<long[]> createSlices(long low, long high, int partitions) {
+        List<long[]> slices = new ArrayList<>();
+        if (high <= low) {
+            return slices;
         }
-        return identityData;
+        long range = high - low;
+        int count = (int) Math.max(1, Math.min(partitions, range));
+        long sliceStart = low;
+        for(int i = 1; i <= count; i++) {
+            long sliceEnd = (i == count) ? high : low + (range * i) / count;
+            slices.add(new long[] { sliceStart, sliceEnd });
+            sliceStart = sliceEnd;
+        }
+        return slices;
     }
 
     /**
-     * Helper method to put a key-value pair into a map if the value is not null. This is used to
-     * build the eventData map for each exported event.
+     * Deletes the run bounds and partition watermarks left by the previous run
      *
-     * @param map the map to put the key-value pair into
-     * @param key the key to use for the map entry
-     * @param value the value to put in the map; if null, the key-value pair will not be added to the map
+     * @param context The IIQ context
+     * @param prefix The prefix shared by all of the run state NamedTimestamps
+     * @throws GeneralException if the deletion fails
      */
-    private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
-        if (value != null) {
-            map.put(key, value);
+    private static void deleteRunState(SailPointContext context, String prefix) throws GeneralException {
+        QueryOptions qo = new QueryOptions();
+        qo.addFilter(Filter.like("name", prefix, Filter.MatchMode.START));
+        List<String> ids = new ArrayList<>();
+        Iterator<Object[]> results = context.search(NamedTimestamp.class, qo, "id");
+        try {
+            while (results.hasNext()) {
+                ids.add((String) results.next()[0]);
+            }
+        } finally {
+            Util.flushIterator(results);
         }
+        for(String id : ids) {
+            NamedTimestamp runState = context.getObjectById(NamedTimestamp.class, id);
+            if (runState != null) {
+                context.removeObject(runState);
+            }
+        }
+        context.commitTransaction();
     }
 
     /**
-     * Indicates that the task has been terminated
+     * Finds the creation date of the oldest AuditEvent at or after the given date
+     *
+     * @param context The IIQ context
+     * @param after The earliest date to consider
+     * @return The creation date of the oldest event, or null if there are none
+     * @throws GeneralException if the query fails
      */
-    private final AtomicBoolean terminated;
+    private static Date findOldestEvent(SailPointContext context, Date after) throws GeneralException {
+        QueryOptions qo = new QueryOptions();
+        qo.addFilter(Filter.ge("created", after));
+        qo.setOrderBy("created");
+        qo.setOrderAscending(true);
+        qo.setResultLimit(1);
+        Iterator<Object[]> results = context.search(AuditEvent.class, qo, "created");
+        try {
+            if (results.hasNext()) {
+                return (Date) results.next()[0];
+            }
+        } finally {
+            Util.flushIterator(results);
+        }
+        return null;
+    }
 
     /**
-     * Constructor invoked by IIQ
+     * Returns the value of the named run bound NamedTimestamp, creating it with the default
+     * value if it does not exist. The bounds of an interrupted run are reused by the next
+     * run so that the partitions, and thus their watermarks, line up.
+     *
+     * @param context The IIQ context
+     * @param name The name of the NamedTimestamp
+     * @param defaultValue The value to store if the NamedTimestamp does not exist
+     * @return The stored value
+     * @throws GeneralException if the save fails
      */
-    public AuditEventExportTask() {
-        this.terminated = new AtomicBoolean();
+    private static long getOrCreateRunBound(SailPointContext context, String name, long defaultValue) throws GeneralException {
+        NamedTimestamp bound = context.getObjectByName(NamedTimestamp.class, name);
+        if (bound != null && bound.getTimestamp() != null) {
+            log.info("Resuming interrupted run with {0} = {1}", name, bound.getTimestamp());
+            return bound.getTimestamp().getTime();
+        }
+        bound = new NamedTimestamp();
+        bound.setName(name);
+        bound.setTimestamp(new Date(defaultValue));
+        context.saveObject(bound);
+        context.commitTransaction();
+        return defaultValue;
     }
 
     /**
-     * The main task execution method invoked by IIQ. This method retrieves audit events based on the
-     * specified filters, applies in-memory filtering and optional script/rule-based filtering,
-     * and exports the resulting events.
+     * The main task execution method invoked by IIQ. The interval since the last run is split
+     * into time slices, which are exported in parallel by {@link AuditEventExportPartition}
+     * workers. Each partition applies the in-memory filtering and optional script/rule-based
+     * filtering, then hands the JSON output to a single asynchronous writer.
+     *
+     * Each partition records its progress in its own watermark. If the task is interrupted,
+     * the next run reuses the same interval and slices, resuming each partition where it
+     * left off. The main timestamp is only advanced once every partition has finished.
      *
      * @param context the IIQ context
      * @param taskSchedule the task schedule
      * @param taskResult the task result
-     * @param attributes the task attributes, which can include
+     * @param attributes the task attributes
      * @throws Exception if anything goes wrong during execution
      */
     @Override
@@ -115,6 +203,7 @@ public class AuditEventExportTask extends AbstractTaskExecutor {
         if (Util.isNullOrEmpty(timestampName)) {
             timestampName = this.getClass().getSimpleName();
         }
+        final String runStatePrefix = timestampName + ":";
 
         long previousRunTime = 0L;
         NamedTimestamp timestamp = context.getObjectByName(NamedTimestamp.class, timestampName);
@@ -130,19 +219,22 @@ public class AuditEventExportTask extends AbstractTaskExecutor {
         var identityFields = Util.otol(attributes.get("identityFields"));
         var commonFilterString = Util.otoa(attributes.get("commonFilter"));
         var dateFormatString = Util.otoa(attributes.get("dateFormat"));
-        var filterScript = Utilities.getAsScript(attributes.get("filterScript"));
+        var filterScriptSource = attributes.get("filterScript");
         var filterRuleName = Util.otoa(attributes.get("filterRuleName"));
         if (Util.isNullOrEmpty(dateFormatString)) {
             dateFormatString = "yyyy-MM-dd'T'HH:mm:ssZ";
         }
 
-        var dateFormatter = new SimpleDateFormat(dateFormatString);
+        int threads = attributes.getInt("threads", DEFAULT_THREADS);
+        String bulkhead = Util.isNotNullOrEmpty(attributes.getString("bulkhead")) ? attributes.getString("bulkhead") : ManagedWorkerPools.BULKHEAD_REPORTS;
+        int partitions = attributes.getInt("partitions", DEFAULT_PARTITIONS);
+        int identityCacheSize = attributes.getInt("identityCacheSize", AuditEventExportPartition.DEFAULT_IDENTITY_CACHE_SIZE);
+        int checkpointInterval = attributes.getInt("checkpointInterval", AuditEventExportPartition.DEFAULT_CHECKPOINT_INTERVAL);
 
         var outputLog = Util.isNullOrEmpty(loggerName) ? log : new SLogger(loggerName);
 
-        Rule filterRule = null;
         if (Util.isNotNullOrEmpty(filterRuleName)) {
-            filterRule = context.getObjectByName(Rule.class, filterRuleName);
+            Rule filterRule = context.getObjectByName(Rule.class, filterRuleName);
             if (filterRule == null) {
                 throw new GeneralException("Filter rule not found: " + filterRuleName);
             }
@@ -167,203 +259,104 @@ public class AuditEventExportTask extends AbstractTaskExecutor {
             throw new GeneralException("At least one filter must be specified");
         }
 
-        final Date start = new Date();
-
-        final List<Filter> filters = new ArrayList<>();
+        // Fail fast on syntax errors, rather than once per partition
         for (String filterString : finalFilters) {
-            var filter = Filter.compile(filterString);
-            var datedFilter = Filter.and(
-                    filter,
-                    Filter.gt("created", new Date(previousRunTime)),
-                    // Events may be generated continuously during this run.
-                    // We also need to filter the max time to avoid duplicates on the next run.
-                    Filter.lt("created", start)
-            );
-            filters.add(datedFilter);
+            Filter.compile(filterString);
+        }
+        if (Util.isNotNullOrEmpty(commonFilterString)) {
+            Filter.compile(commonFilterString);
         }
 
-        final Filter inMemoryFilter = Util.isNotNullOrEmpty(commonFilterString) ? Filter.compile(commonFilterString) : null;
+        // Events may be generated continuously during this run. We also need to filter
+        // the max time to avoid duplicates on the next run. If a previous run was interrupted,
+        // its bounds are reused so that the partition watermarks still apply.
+        final long end = getOrCreateRunBound(context, runStatePrefix + "run end", System.currentTimeMillis());
+        long start = previousRunTime;
+        if (start <= 0L) {
+            // Don't divide the interval since 1970 into partitions
+            Date oldest = findOldestEvent(context, new Date(0L));
+            start = (oldest != null) ? oldest.getTime() : end;
+        }
+        start = getOrCreateRunBound(context, runStatePrefix + "run start", start);
 
         final AtomicInteger totalEvents = new AtomicInteger();
         final AtomicInteger skippedEvents = new AtomicInteger();
         final AtomicInteger exportedEvents = new AtomicInteger();
-        final ObjectMapper mapper = new ObjectMapper();
+        final AtomicInteger failedPartitions = new AtomicInteger();
 
-        for(final Filter filter : filters) {
-            if (this.terminated.get()) {
-                log.warn("Task was terminated, stopping processing");
-                break;
+        List<long[]> slices = createSlices(start, end, partitions);
+        log.info("Exporting audit events from {0} to {1} in {2} partitions", new Date(start), new Date(end), slices.size());
+        TaskUtil.withLockedMasterResult(monitor, (tr) -> {
+            for (String filterString : finalFilters) {
+                tr.addMessage(Message.info("Executing audit event filter: " + filterString));
             }
+        });
 
-            log.info("Executing audit event filter: {0}", filter.getExpression(true));
-            TaskUtil.withLockedMasterResult(monitor, (tr) -> {
-                tr.addMessage(Message.info("Executing audit event filter: " + filter.getExpression(true)));
-            });
-            var qo = new QueryOptions();
-            qo.addFilter(filter);
-            IncrementalObjectIterator<AuditEvent> iterator = new IncrementalObjectIterator<>(context, AuditEvent.class, qo);
-            log.debug("Filter found {0} events", iterator.getCount());
-            while (iterator.hasNext()) {
+        List<AuditEventExportPartition> workers = new ArrayList<>();
+        AsyncBatchedLogWriter writer = new AsyncBatchedLogWriter(outputLog, AsyncBatchedLogWriter.DEFAULT_QUEUE_DEPTH, AsyncBatchedLogWriter.DEFAULT_BATCH_SIZE, "AuditEventExportTask writer");
+        int maxPerCaller = ManagedWorkerPools.getMaxPerCaller(bulkhead);
+        if (threads > maxPerCaller) {
+            log.warn("Requested {0} threads, but bulkhead {1} allows at most {2} per caller", threads, bulkhead, maxPerCaller);
+        }
+        ExecutorService executor = ManagedWorkerPools.lease(bulkhead, Math.max(1, threads));
+        try {
+            for (long[] slice : slices) {
+                AuditEventExportPartition worker = new AuditEventExportPartition(runStatePrefix + "slice " + slice[0] + "-" + slice[1], slice[0], slice[1]);
+                worker.setFilters(finalFilters);
+                worker.setCommonFilter(commonFilterString);
+                worker.setIdentityFields(identityFields);
+                worker.setDateFormat(dateFormatString);
+                worker.setFilterScriptSource(filterScriptSource);
+                worker.setFilterRuleName(filterRuleName);
+                worker.setIdentityCacheSize(identityCacheSize);
+                worker.setCheckpointInterval(checkpointInterval);
+                worker.setOutput(writer);
+                worker.setTotalCounter(totalEvents);
+                worker.setSkippedCounter(skippedEvents);
+                worker.setExportedCounter(exportedEvents);
+                worker.setFailedCounter(failedPartitions);
+                worker.setMonitor(monitor);
+                workers.add(worker);
+                executor.submit(worker.runnable());
+            }
+            executor.shutdown();
+
+            // Progress is reported from here on a timer, rather than by the workers on every event
+            while (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
                 if (this.terminated.get()) {
                     log.warn("Task was terminated, stopping processing");
-                    break;
-                }
-
-                var totalCount = totalEvents.incrementAndGet();
-
-
-                if (totalCount % 200 == 0) {
-                    log.debug("Processed {0} events so far (exported {1}, skipped {2})", totalCount, exportedEvents.get(), skippedEvents.get());
-                    TaskUtil.withLockedMasterResult(monitor, (tr) -> {
-                        tr.setInt(OUTPUT_TOTAL_EVENTS, totalEvents.get());
-                        tr.setInt(OUTPUT_SKIPPED_EVENTS, skippedEvents.get());
-                        tr.setInt(OUTPUT_EXPORTED_EVENTS, exportedEvents.get());
-                    });
-                }
-
-                final AuditEvent ae = iterator.next();
-                try {
-
-                    if (inMemoryFilter != null) {
-                        HybridObjectMatcher matcher = new HybridObjectMatcher(context, inMemoryFilter);
-                        if (!matcher.matches(ae)) {
-                            log.debug("Skipping event {0} based on in-memory filter", ae.getId());
-                            skippedEvents.incrementAndGet();
-                            continue;
-                        }
-                    }
-
-                    var source = ae.getSource();
-                    Identity sourceIdentity = null;
-                    if (Util.isNotNullOrEmpty(source)) {
-                        sourceIdentity = context.getObjectByName(Identity.class, source);
-                    }
-
-                    Identity targetIdentity = null;
-                    var target = ae.getTarget();
-                    if (Util.isNotNullOrEmpty(target)) {
-                        targetIdentity = context.getObjectByName(Identity.class, target);
-                    }
-
-                    boolean likelySecret = false;
-                    var attributeName = ae.getAttributeName();
-                    if (Util.isNotNullOrEmpty(attributeName)) {
-                        String lowerAttrName = attributeName.toLowerCase(Locale.ROOT);
-                        for(String token : Utilities.LIKELY_PASSWORD_TOKENS) {
-                            if (lowerAttrName.contains(token) && !lowerAttrName.contains("xpir")) {
-                                likelySecret = true;
-                                break;
-                            }
-                        }
-                    }
-
-                    final Map<String, Object> eventData = new HashMap<>();
-                    putIfNotNull(eventData, "id", ae.getId());
-                    putIfNotNull(eventData, "timestamp", dateFormatter.format(ae.getCreated()));
-                    putIfNotNull(eventData, "timestampMillis", ae.getCreated().getTime());
-                    putIfNotNull(eventData, "action", ae.getAction());
-                    putIfNotNull(eventData, "application", ae.getApplication());
-                    putIfNotNull(eventData, "accountName", ae.getAccountName());
-                    putIfNotNull(eventData, "attributeName", ae.getAttributeName());
-                    putIfNotNull(eventData, "attributeValue", likelySecret ? Utilities.MASKED_SECRET : ae.getAttributeValue());
-                    putIfNotNull(eventData, "serverHost", ae.getServerHost());
-                    putIfNotNull(eventData, "clientHost", ae.getClientHost());
-                    putIfNotNull(eventData, "string1", ae.getString1());
-                    putIfNotNull(eventData, "string2", ae.getString2());
-                    putIfNotNull(eventData, "string3", ae.getString3());
-                    putIfNotNull(eventData, "string4", ae.getString4());
-                    putIfNotNull(eventData, "source", ae.getSource());
-                    putIfNotNull(eventData, "target", ae.getTarget());
-
-                    // TODO: Do we need to filter these attributes at all?
-                    var eventAttributes = ae.getAttributes();
-                    if (eventAttributes != null) {
-                        // Deep-copy the attributes object so that we can safely modify it without
-                        // affecting the original object. IIQ likes to sometimes auto-save
-                        // objects in memory, and we want AuditEvents to be static.
-                        XMLObjectFactory factory = XMLObjectFactory.getInstance();
-                        var xml = factory.toXml(eventAttributes);
-                        @SuppressWarnings("unchecked")
-                        Attributes<String, Object> copy = (Attributes<String, Object>) factory.parseXml(context, xml, false);
-                        if (copy != null) {
-                            Utilities.heuristicMaskSecretAttributes(copy);
-                            eventData.put("attributes", copy);
-                        } else {
-                            eventData.put("attributes", eventAttributes);
-                        }
-                    }
-
-                    if (sourceIdentity != null) {
-                        Map<String, Object> sourceData = createIdentityDataMap(sourceIdentity, identityFields);
-                        putIfNotNull(eventData, "sourceIdentity", sourceData);
-                    }
-                    if (targetIdentity != null) {
-                        Map<String, Object> targetData = createIdentityDataMap(targetIdentity, identityFields);
-                        putIfNotNull(eventData, "targetIdentity", targetData);
-                    }
-
-                    if (filterScript != null) {
-                        Map<String, Object> scriptBindings = new HashMap<>();
-                        scriptBindings.put("event", ae);
-                        scriptBindings.put("sourceIdentity", sourceIdentity);
-                        scriptBindings.put("targetIdentity", targetIdentity);
-                        scriptBindings.put("eventData", eventData);
-
-                        Boolean includeEvent = (Boolean) context.runScript(filterScript, scriptBindings);
-                        if (includeEvent == null || !includeEvent) {
-                            log.debug("Skipping event {0} based on filter script", ae.getId());
-                            skippedEvents.incrementAndGet();
-                            continue;
-                        }
-                    }
-
-                    if (filterRule != null) {
-                        Map<String, Object> ruleBindings = new HashMap<>();
-                        ruleBindings.put("event", ae);
-                        ruleBindings.put("sourceIdentity", sourceIdentity);
-                        ruleBindings.put("targetIdentity", targetIdentity);
-                        ruleBindings.put("eventData", eventData);
-
-                        Boolean includeEvent = (Boolean) context.runRule(filterRule, ruleBindings);
-                        if (includeEvent == null || !includeEvent) {
-                            log.debug("Skipping event {0} based on filter rule {1}", ae.getId(), filterRuleName);
-                            skippedEvents.incrementAndGet();
-                            continue;
-                        }
-                    }
-
-                    var count = exportedEvents.incrementAndGet();
-                    monitor.updateProgress("Exporting " + count + ": " + ae.getId());
-
-                    String json = mapper.writeValueAsString(eventData);
-                    outputLog.info(json);
-
-                    // Clean up after ourselves
-                    if (sourceIdentity != null) {
-                        context.decache(sourceIdentity);
-                    }
-                    if (targetIdentity != null) {
-                        context.decache(targetIdentity);
-                    }
-                } catch(GeneralException e) {
-                    // TODO: do we want some sort of fallback (DB table?) so that these are output next time?
-                    log.error("Error processing audit event " + ae.getId(), e);
+                    workers.forEach(SailPointWorker::terminate);
                 }
+                monitor.updateProgress("Exported " + exportedEvents.get() + " of " + totalEvents.get() + " events");
+                TaskUtil.withLockedMasterResult(monitor, (tr) -> {
+                    tr.setInt(OUTPUT_TOTAL_EVENTS, totalEvents.get());
+                    tr.setInt(OUTPUT_SKIPPED_EVENTS, skippedEvents.get());
+                    tr.setInt(OUTPUT_EXPORTED_EVENTS, exportedEvents.get());
+                });
             }
+        } finally {
+            executor.shutdownNow();
+            writer.close();
         }
 
-        // If we've gotten this far without an exception, then we can update the Timestamp
-        // object to the current time. If the task fails or is aborted, we will have duplicate
-        // events on the next run but we won't miss anything.
-        if (!this.terminated.get()) {
+        // If every partition has finished, we can update the Timestamp object to the end of
+        // this run and discard the watermarks. Otherwise, they are kept so that the next run
+        // resumes where this one left off, without duplicating or missing anything.
+        if (!this.terminated.get() && failedPartitions.get() == 0) {
+            timestamp = context.getObjectByName(NamedTimestamp.class, timestampName);
             if (timestamp == null) {
                 timestamp = new NamedTimestamp();
                 timestamp.setName(timestampName);
             }
-            log.info("Updating last run time to {0} ({1})", start, start.getTime());
-            timestamp.setTimestamp(start);
+            log.info("Updating last run time to {0} ({1})", new Date(end), end);
+            timestamp.setTimestamp(new Date(end));
             context.saveObject(timestamp);
             context.commitTransaction();
+            deleteRunState(context, runStatePrefix);
+        } else if (failedPartitions.get() > 0) {
+            TaskUtil.withLockedMasterResult(monitor, (tr) -> {
+                tr.addMessage(Message.error(failedPartitions.get() + " partitions failed; the next run will resume them"));
+            });
         }
 
         TaskUtil.withLockedMasterResult(monitor, (tr) -> {
@@ -1,8 +1,11 @@
 package com.identityworksllc.iiq.common.task;
 
 import com.identityworksllc.iiq.common.Functions;
+import com.identityworksllc.iiq.common.Utilities;
+import com.identityworksllc.iiq.common.iterators.FileLineIterator;
 import com.identityworksllc.iiq.common.iterators.TransformingIterator;
 import com.identityworksllc.iiq.common.query.ContextConnectionWrapper;
+import com.identityworksllc.iiq.common.query.QueryUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import sailpoint.api.IncrementalObjectIterator;
@@ -17,11 +20,9 @@ import sailpoint.tools.GeneralException;
 import sailpoint.tools.RFC4180LineParser;
 import sailpoint.tools.Util;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -32,7 +33,12 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -53,6 +59,13 @@ import java.util.function.Function;
  *  - retrievalScript: The source of a Script that will produce an Iterator over the desired objects
  *  - retrievalFilter: A Filter string combined with retrievalFilterClass to do a search in SailPoint
  *  - retrievalFilterClass: The class name to search with the retrievalFilter
+ *  - retrievalChunkSize: For 'file' and 'sql' with a class, the number of objects to load with each query (default 100)
+ *  - retrievalPrefetch: For 'file' and 'sql' with a class, if true, load the next chunk on a background thread
+ *
+ * Input files are read lazily, and very large files are memory-mapped, so the whole file
+ * is never held in memory. When a class is given for 'file' or 'sql' retrieval, objects
+ * are loaded by ID in chunks, with one query per chunk. Values that are not IDs (e.g., names)
+ * fall back to an individual lookup.
  *
  * You are expected to provide a {@link TransformingIterator} supplier that will convert
  * from the output type listed below to the desired type. If your TransformingIterator
@@ -94,6 +107,197 @@ import java.util.function.Function;
  * @author Instrumental Identity
  */
 public class BasicObjectRetriever<ItemType> implements ObjectRetriever<ItemType> {
+    /**
+     * Loads objects by ID in chunks, with a single query per chunk, returning them
+     * in input order. Values not found by ID are looked up individually, which allows
+     * names to be used as well. Missing objects are returned as null.
+     *
+     * If prefetch is enabled, the next chunk is loaded on a background thread in a
+     * private context while the current chunk is being consumed. Objects loaded this
+     * way are detached, just like objects handed to worker threads.
+     */
+    private static final class ChunkedObjectIterator implements Iterator<Object>, AutoCloseable {
+        /**
+         * The default chunk size
+         */
+        private static final int DEFAULT_CHUNK_SIZE = 100;
+
+        /**
+         * The number of IDs in each chunk
+         */
+        private final int chunkSize;
+
+        /**
+         * The context used for loading when not prefetching
+         */
+        private final SailPointContext context;
+
+        /**
+         * The current chunk
+         */
+        private Iterator<Object> current;
+
+        /**
+         * The input IDs
+         */
+        private final Iterator<String> ids;
+
+        /**
+         * The class of the objects
+         */
+        private final Class<? extends SailPointObject> objectClass;
+
+        /**
+         * The background loader, if prefetch is enabled
+         */
+        private ExecutorService prefetcher;
+
+        /**
+         * The chunk being loaded in the background
+         */
+        private Future<List<Object>> prefetched;
+
+        /**
+         * Constructs a new ChunkedObjectIterator
+         *
+         * @param context The context to use when not prefetching
+         * @param objectClass The class of the objects
+         * @param ids The IDs (or names) of the objects
+         * @param chunkSize The number of objects to load with each query
+         * @param prefetch True if the next chunk should be loaded on a background thread
+         */
+        private ChunkedObjectIterator(SailPointContext context, Class<? extends SailPointObject> objectClass, Iterator<String> ids, int chunkSize, boolean prefetch) {
+            this.context = context;
+            this.objectClass = objectClass;
+            this.ids = ids;
+            this.chunkSize = Math.max(1, chunkSize);
+            this.current = Collections.emptyIterator();
+            if (prefetch) {
+                this.prefetcher = Executors.newSingleThreadExecutor((runnable) -> {
+                    Thread thread = new Thread(runnable, "BasicObjectRetriever prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+
+        /**
+         * Stops any prefetching
+         */
+        @Override
+        public void close() {
+            if (prefetcher != null) {
+                prefetcher.shutdownNow();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                try {
+                    List<Object> chunk = nextChunk();
+                    if (chunk == null) {
+                        close();
+                        return false;
+                    }
+                    current = chunk.iterator();
+                } catch(GeneralException e) {
+                    close();
+                    throw new IllegalStateException(e);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Loads the given chunk of IDs, in input order
+         *
+         * @param loadContext The context to use
+         * @param chunk The IDs
+         * @return The objects, or nulls for IDs that do not exist
+         * @throws GeneralException if the query fails
+         */
+        private List<Object> load(SailPointContext loadContext, List<String> chunk) throws GeneralException {
+            Map<String, ? extends SailPointObject> byId = QueryUtil.getObjectsById(loadContext, objectClass, chunk);
+            List<Object> objects = new ArrayList<>(chunk.size());
+            for(String id : chunk) {
+                SailPointObject spo = byId.get(id);
+                if (spo == null) {
+                    spo = loadContext.getObject(objectClass, id);
+                }
+                objects.add(spo);
+            }
+            return objects;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /**
+         * Returns the next chunk of objects, starting the load of the one after it
+         * if prefetching is enabled
+         *
+         * @return The next chunk, or null if the input is exhausted
+         * @throws GeneralException if loading fails
+         */
+        private List<Object> nextChunk() throws GeneralException {
+            if (prefetcher == null) {
+                List<String> chunk = readChunk();
+                return chunk.isEmpty() ? null : load(context, chunk);
+            }
+            if (prefetched == null) {
+                prefetched = submit(readChunk());
+            }
+            if (prefetched == null) {
+                return null;
+            }
+            List<Object> result;
+            try {
+                result = prefetched.get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeneralException(e);
+            } catch(ExecutionException e) {
+                throw new GeneralException(e.getCause());
+            }
+            prefetched = submit(readChunk());
+            return result;
+        }
+
+        /**
+         * Reads the next chunk of non-empty IDs from the input
+         * @return The IDs, which will be empty if the input is exhausted
+         */
+        private List<String> readChunk() {
+            List<String> chunk = new ArrayList<>(chunkSize);
+            while (chunk.size() < chunkSize && ids.hasNext()) {
+                String id = ids.next();
+                if (Util.isNotNullOrEmpty(id)) {
+                    chunk.add(id);
+                }
+            }
+            return chunk;
+        }
+
+        /**
+         * Starts loading the given chunk in the background
+         *
+         * @param chunk The IDs
+         * @return The pending load, or null if the chunk is empty
+         */
+        private Future<List<Object>> submit(List<String> chunk) {
+            if (chunk.isEmpty()) {
+                return null;
+            }
+            return prefetcher.submit(() -> Utilities.withPrivateContext((privateContext) -> load(privateContext, chunk)));
+        }
+    }
+
     /**
      * The list of retrieval types
      */
@@ -115,6 +319,10 @@ public class BasicObjectRetriever<ItemType> implements ObjectRetriever<ItemType>
      * The list of provided values
      */
     private List<String> providedValues;
+    /**
+     * The number of objects loaded by each query, for file and SQL retrieval with a class
+     */
+    private int retrievalChunkSize;
     /**
      * The application used to retrieve any inputs
      */
@@ -139,6 +347,10 @@ public class BasicObjectRetriever<ItemType> implements ObjectRetriever<ItemType>
      * The class to retrieve, assuming the default retriever is used
      */
     private Class<? extends SailPointObject> retrievalFilterClass;
+    /**
+     * If true, the next chunk of objects will be loaded on a background thread
+     */
+    private boolean retrievalPrefetch;
     /**
      * A rule that returns objects to be iterated over in parallel
      */
@@ -196,34 +408,45 @@ public class BasicObjectRetriever<ItemType> implements ObjectRetriever<ItemType>
 
 
     /**
-     * Retrieves the contents of an input file
+     * Retrieves the contents of an input file. The file is read lazily, one line at a time,
+     * so that very large input files do not need to fit into memory. Blank lines are skipped.
+     *
      * @return An iterator over the contents of the file
-     * @throws IOException if there is an error reading the file
-     * @throws GeneralException if there is an error doing anything Sailpoint-y
+     * @throws IOException if there is an error opening the file
      */
-    private Iterator<List<String>> getFileContents() throws IOException, GeneralException {
-        Iterator<List<String>> items;
-        List<List<String>> itemList = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(retrievalFile)))) {
-            RFC4180LineParser parser = null;
-            if (Util.isNotNullOrEmpty(retrievalFileDelimiter)) {
-                parser = new RFC4180LineParser(retrievalFileDelimiter);
-            }
-            String line;
-            while((line = reader.readLine()) != null) {
-                if (Util.isNotNullOrEmpty(line.trim())) {
-                    if (parser != null) {
-                        List<String> item = parser.parseLine(line);
-                        itemList.add(item);
-                    } else {
-                        List<String> lineList = Collections.singletonList(line);
-                        itemList.add(lineList);
-                    }
-                }
+    private Iterator<List<String>> getFileContents() throws IOException {
+        FileLineIterator lines = new FileLineIterator(retrievalFile.toPath(), Charset.defaultCharset(), FileLineIterator.DEFAULT_MAPPING_THRESHOLD, FileLineIterator.DEFAULT_MAPPING_WINDOW);
+        if (terminationRegistrar != null) {
+            terminationRegistrar.accept((terminationContext) -> lines.close());
+        }
+        final RFC4180LineParser parser = Util.isNotNullOrEmpty(retrievalFileDelimiter) ? new RFC4180LineParser(retrievalFileDelimiter) : null;
+        return new TransformingIterator<String, List<String>>(lines, (line) -> {
+            if (Util.isNullOrEmpty(line.trim())) {
+                return null;
             }
+            if (parser != null) {
+                return parser.parseLine(line);
+            } else {
+                return Collections.singletonList(line);
+            }
+        }).ignoreNulls().setFinalizer(lines::close);
+    }
+
+    /**
+     * Wraps the given iterator over IDs in a {@link ChunkedObjectIterator}, registering
+     * a termination handler to stop any prefetching
+     *
+     * @param context The context to use for loading
+     * @param objectClass The class of the objects
+     * @param ids The IDs (or names) to load
+     * @return An iterator over the loaded objects
+     */
+    private Iterator<Object> loadInChunks(SailPointContext context, Class<? extends SailPointObject> objectClass, Iterator<String> ids) {
+        ChunkedObjectIterator objects = new ChunkedObjectIterator(context, objectClass, ids, retrievalChunkSize, retrievalPrefetch);
+        if (terminationRegistrar != null) {
+            terminationRegistrar.accept((terminationContext) -> objects.close());
         }
-        items = itemList.iterator();
-        return items;
+        return objects;
     }
 
     /**
@@ -290,7 +513,8 @@ public class BasicObjectRetriever<ItemType> implements ObjectRetriever<ItemType>
             try {
                 Iterator<List<String>> fileContents = getFileContents();
                 if (retrievalFileClass != null) {
-                    items = transformerConstructor.apply(new TransformingIterator<>(fileContents, (id) -> Util.isEmpty(id) ? null : (ItemType) context.getObject(retrievalFileClass, Util.otoa(id.get(0)))));
+                    Iterator<String> ids = new TransformingIterator<List<String>, String>(fileContents, (row) -> Util.isEmpty(row) ? null : Util.otoa(row.get(0))).ignoreNulls();
+                    items = transformerConstructor.apply(loadInChunks(context, retrievalFileClass, ids));
                 } else {
                     items = transformerConstructor.apply(fileContents);
                 }
@@ -316,7 +540,7 @@ public class BasicObjectRetriever<ItemType> implements ObjectRetriever<ItemType>
                 throw new GeneralException(e);
             }
             if (retrievalSqlClass != null) {
-                items = transformerConstructor.apply(new TransformingIterator<>(objectNames.iterator(), (id) -> (ItemType) context.getObject(retrievalSqlClass, id)));
+                items = transformerConstructor.apply(loadInChunks(context, retrievalSqlClass, objectNames.iterator()));
             } else {
                 items = transformerConstructor.apply(objectNames.iterator());
             }
@@ -378,6 +602,8 @@ public class BasicObjectRetriever<ItemType> implements ObjectRetriever<ItemType>
     @SuppressWarnings("unchecked")
     private void initialize(SailPointContext context, Attributes<String, Object> args) throws GeneralException {
         this.retrievalType = RetrievalType.valueOf(args.getString("retrievalType"));
+        this.retrievalChunkSize = Math.max(1, args.getInt("retrievalChunkSize", ChunkedObjectIterator.DEFAULT_CHUNK_SIZE));
+        this.retrievalPrefetch = args.getBoolean("retrievalPrefetch", false);
 
         if (retrievalType == RetrievalType.provided) {
             List<String> values = args.getStringList("values");
@@ -1,20 +1,22 @@
 package com.identityworksllc.iiq.common.task;
 
-import com.identityworksllc.iiq.common.HybridObjectMatcher;
 import com.identityworksllc.iiq.common.TaskUtil;
-import com.identityworksllc.iiq.common.iterators.FilteringIterator;
 import com.identityworksllc.iiq.common.logging.SLogger;
-import sailpoint.api.IncrementalObjectIterator;
 import sailpoint.api.ObjectUtil;
 import sailpoint.api.SailPointContext;
-import sailpoint.api.Terminator;
 import sailpoint.object.*;
 import sailpoint.task.AbstractTaskExecutor;
 import sailpoint.task.TaskMonitor;
 import sailpoint.tools.GeneralException;
+import sailpoint.tools.Message;
 import sailpoint.tools.Util;
 
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -26,6 +28,14 @@ import java.util.concurrent.atomic.AtomicInteger;
  * - Supports in-memory filtering using HybridObjectMatcher.
  * - Can run in simulation mode to log objects that would be deleted without actually deleting them.
  * - Tracks progress and supports early termination.
+ * - Deletes in parallel, in chunks of IDs, using {@link PurgeObjectsWorker}s.
+ * - Uses a single bulk delete per chunk for types with no dependent objects, such as AuditEvent.
+ * - Records a checkpoint, so that a terminated or failed run can resume without re-reading objects
+ *   it has already handled.
+ *
+ * IDs are read in ascending order, a page at a time, using a projection query. The checkpoint is
+ * the highest ID below which every chunk has completed successfully. It is stored in a Custom
+ * object and is discarded when the purge completes or when the object type or filter changes.
  *
  * ## Attributes
  * - `objectType` (String): The SailPoint object type to purge (required).
@@ -33,9 +43,34 @@ import java.util.concurrent.atomic.AtomicInteger;
  * - `filter` (String): A SailPoint filter string to select objects to delete (required if deleteAll is false).
  * - `inMemoryFilter` (Boolean): If true, applies the filter in memory (default: false).
  * - `simulate` (Boolean): If true, only logs objects that would be deleted (default: true).
+ * - `threads` (Integer): The number of deletion threads (default: 4).
+ * - `batchSize` (Integer): The number of IDs in each chunk (default: 500).
+ * - `bulkDelete` (Boolean): If true, use a bulk delete for the types in `bulkDeleteTypes` (default: true).
+ * - `bulkDeleteTypes` (List): The types with no dependent objects that may be bulk deleted (default: AuditEvent, SyslogEvent, ProvisioningTransaction).
+ * - `checkpointName` (String): The name of the checkpoint Custom object (default: derived from the task definition name).
  *
  */
 public class PurgeObjectsTask extends AbstractTaskExecutor {
+    /**
+     * The default chunk size
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * The types that have no dependent objects and can safely be deleted with a bulk query
+     */
+    public static final List<String> DEFAULT_BULK_DELETE_TYPES = Collections.unmodifiableList(Arrays.asList("AuditEvent", "SyslogEvent", "ProvisioningTransaction"));
+
+    /**
+     * The default number of deletion threads
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * The interval between progress updates and checkpoints
+     */
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000L;
+
     /**
      * Atomic flag to indicate if the task has been terminated early.
      */
@@ -46,6 +81,69 @@ public class PurgeObjectsTask extends AbstractTaskExecutor {
      */
     private final SLogger logger = new SLogger(PurgeObjectsTask.class);
 
+    /**
+     * The timestamp of the last progress update
+     */
+    private long lastProgress;
+
+    /**
+     * Removes completed chunks from the head of the in-flight queue, returning the new
+     * checkpoint ID. The checkpoint only advances past chunks that succeeded, so a failed
+     * chunk will be retried by the next run.
+     *
+     * @param inFlight The in-flight chunks, in order of their IDs
+     * @param checkpoint The current checkpoint ID
+     * @param blocked Set to true once a chunk has failed
+     * @return The new checkpoint ID
+     */
+    private static String advanceCheckpoint(Deque<Map.Entry<PurgeObjectsWorker, Future<?>>> inFlight, String checkpoint, AtomicBoolean blocked) {
+        while (!inFlight.isEmpty() && inFlight.peekFirst().getValue().isDone()) {
+            PurgeObjectsWorker worker = inFlight.removeFirst().getKey();
+            if (!worker.isSucceeded()) {
+                blocked.set(true);
+            }
+            if (!blocked.get()) {
+                checkpoint = worker.getLastId();
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Reads the next page of IDs, in ascending order, after the given ID. The whole page is
+     * read before returning, so that no database cursor is held open while workers run.
+     *
+     * @param context The IIQ context
+     * @param objectClass The object type
+     * @param filter The database filter, or null
+     * @param afterId The ID after which to start, or null to start at the beginning
+     * @param pageSize The maximum number of IDs to read
+     * @return The IDs
+     * @throws GeneralException if the query fails
+     */
+    private static List<String> readIdPage(SailPointContext context, Class<? extends SailPointObject> objectClass, Filter filter, String afterId, int pageSize) throws GeneralException {
+        QueryOptions qo = new QueryOptions();
+        if (filter != null) {
+            qo.addFilter(filter);
+        }
+        if (afterId != null) {
+            qo.addFilter(Filter.gt("id", afterId));
+        }
+        qo.setOrderBy("id");
+        qo.setOrderAscending(true);
+        qo.setResultLimit(pageSize);
+        List<String> ids = new ArrayList<>();
+        Iterator<Object[]> results = context.search(objectClass, qo, "id");
+        try {
+            while (results.hasNext()) {
+                ids.add((String) results.next()[0]);
+            }
+        } finally {
+            Util.flushIterator(results);
+        }
+        return ids;
+    }
+
     /**
      * Executes the purge task, deleting or simulating deletion of objects.
      *
@@ -77,69 +175,197 @@ public class PurgeObjectsTask extends AbstractTaskExecutor {
 
         boolean simulate = attributes.getBoolean("simulate", true);
 
+        int threads = Math.max(1, attributes.getInt("threads", DEFAULT_THREADS));
+        int batchSize = Math.max(1, attributes.getInt("batchSize", DEFAULT_BATCH_SIZE));
+
+        List<String> bulkDeleteTypes = Util.otol(attributes.get("bulkDeleteTypes"));
+        if (bulkDeleteTypes == null) {
+            bulkDeleteTypes = DEFAULT_BULK_DELETE_TYPES;
+        }
+        boolean bulkDelete = attributes.getBoolean("bulkDelete", true) && !inMemoryFilter && (bulkDeleteTypes.contains(objectType) || bulkDeleteTypes.contains(objectClass.getSimpleName()));
+
         if (logger.isInfoEnabled()) {
             logger.info("Starting purge of objects of type '" + objectType + "'"
                     + (deleteAll ? " (deleting all objects)" : " with filter: " + filter)
                     + (inMemoryFilter ? " using in-memory filtering" : "")
+                    + (bulkDelete ? " using bulk deletes" : "")
                     + (simulate ? " [DRY RUN MODE]" : ""));
         }
 
-        Filter compiledFilter = null;
-        if (Util.isNotNullOrEmpty(filter)) {
-            compiledFilter = Filter.compile(filter);
-        }
-
-        Iterator<? extends SailPointObject> objectsIterator;
-
-        if (deleteAll) {
-            QueryOptions qo = new QueryOptions();
-            objectsIterator = new IncrementalObjectIterator<>(context, objectClass, qo);
-        } else {
+        Filter databaseFilter = null;
+        String workerFilter = null;
+        if (!deleteAll && Util.isNotNullOrEmpty(filter)) {
+            // Compile now to fail fast on syntax errors
+            Filter compiledFilter = Filter.compile(filter);
             if (inMemoryFilter) {
-                QueryOptions qo = new QueryOptions();
-                HybridObjectMatcher matcher = new HybridObjectMatcher(context, compiledFilter);
-                Iterator<? extends SailPointObject> tempIterator = new IncrementalObjectIterator<>(context, objectClass, qo);
-                objectsIterator = new FilteringIterator<>(tempIterator, (spo) -> {
-                    try {
-                        return matcher.matches(spo);
-                    } catch (GeneralException e) {
-                        logger.error("Error applying in-memory filter to object of type " + objectType + ": " + e.getMessage(), e);
-                        return false;
-                    }
-                });
+                workerFilter = filter;
             } else {
-                QueryOptions qo = new QueryOptions();
-                qo.addFilter(compiledFilter);
-                objectsIterator = new IncrementalObjectIterator<>(context, objectClass, qo);
+                databaseFilter = compiledFilter;
             }
         }
 
-        Terminator terminator = new Terminator(context);
+        String checkpointName = attributes.getString("checkpointName");
+        if (Util.isNullOrEmpty(checkpointName)) {
+            String baseName = (taskResult.getDefinition() != null) ? taskResult.getDefinition().getName() : objectType;
+            checkpointName = "PurgeObjectsTask checkpoint: " + baseName;
+        }
+        String checkpointKey = objectType + "|" + (deleteAll ? "*" : filter) + "|" + inMemoryFilter;
+        String checkpoint = simulate ? null : loadCheckpoint(context, checkpointName, checkpointKey);
+        if (checkpoint != null) {
+            logger.info("Resuming purge after checkpoint ID " + checkpoint);
+        }
 
         AtomicInteger deleteCount = new AtomicInteger();
-        while (objectsIterator.hasNext()) {
-            if (terminated.get()) {
-                logger.warn("PurgeObjectsTask terminated early after deleting " + deleteCount.get() + " objects.");
-                return;
+        AtomicInteger failedCount = new AtomicInteger();
+        AtomicInteger submittedCount = new AtomicInteger();
+        AtomicBoolean checkpointBlocked = new AtomicBoolean();
+        Deque<Map.Entry<PurgeObjectsWorker, Future<?>>> inFlight = new ArrayDeque<>();
+        int maxInFlight = threads * 4;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            String lastRead = checkpoint;
+            boolean more = true;
+            while (more && !terminated.get()) {
+                List<String> page = readIdPage(context, objectClass, databaseFilter, lastRead, batchSize * threads * 2);
+                more = page.size() == batchSize * threads * 2;
+                if (!page.isEmpty()) {
+                    lastRead = page.get(page.size() - 1);
+                }
+                for (int start = 0; start < page.size() && !terminated.get(); start += batchSize) {
+                    List<String> chunk = page.subList(start, Math.min(page.size(), start + batchSize));
+                    PurgeObjectsWorker worker = new PurgeObjectsWorker(objectClass, chunk, workerFilter, bulkDelete, simulate);
+                    worker.setDeletedCounter(deleteCount);
+                    worker.setFailedCounter(failedCount);
+                    worker.setMonitor(monitor);
+                    inFlight.addLast(new AbstractMap.SimpleEntry<>(worker, executor.submit(worker.runnable())));
+                    submittedCount.addAndGet(chunk.size());
+
+                    // Keep a bounded amount of work queued, rather than all of the IDs at once
+                    while (inFlight.size() >= maxInFlight && !terminated.get()) {
+                        try {
+                            inFlight.peekFirst().getValue().get(1, TimeUnit.SECONDS);
+                        } catch(TimeoutException e) {
+                            /* Ignore this; we'll just check again */
+                        }
+                        checkpoint = advanceCheckpoint(inFlight, checkpoint, checkpointBlocked);
+                        reportProgress(context, monitor, checkpointName, checkpointKey, checkpoint, simulate, deleteCount, submittedCount);
+                    }
+                }
+                context.decache();
             }
-            monitor.updateProgress("Deleting object " + (deleteCount.get() + 1));
-            SailPointObject spo = objectsIterator.next();
-            if (!simulate) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Deleting object : " + spo.getId() + " " + spo.getName());
+
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (terminated.get()) {
+                    for (Map.Entry<PurgeObjectsWorker, Future<?>> entry : inFlight) {
+                        entry.getKey().terminate();
+                    }
                 }
-                terminator.deleteObject(objectsIterator.next());
+                checkpoint = advanceCheckpoint(inFlight, checkpoint, checkpointBlocked);
+                reportProgress(context, monitor, checkpointName, checkpointKey, checkpoint, simulate, deleteCount, submittedCount);
+            }
+            checkpoint = advanceCheckpoint(inFlight, checkpoint, checkpointBlocked);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (terminated.get()) {
+            logger.warn("PurgeObjectsTask terminated early after deleting " + deleteCount.get() + " objects.");
+        }
+
+        if (!simulate) {
+            if (!terminated.get() && failedCount.get() == 0) {
+                // Finished; the next run should start from the beginning
+                saveCheckpoint(context, checkpointName, checkpointKey, null);
             } else {
-                logger.warn("DRY RUN: Would delete object: " + spo.getId() + " " + spo.getName());
+                saveCheckpoint(context, checkpointName, checkpointKey, checkpoint);
             }
-            deleteCount.incrementAndGet();
         }
 
+        final String finalCheckpoint = checkpoint;
         TaskUtil.withLockedMasterResult(monitor, tr -> {
-            taskResult.setAttribute("deleted", deleteCount);
+            tr.setAttribute("deleted", deleteCount.get());
+            if (failedCount.get() > 0) {
+                tr.addMessage(Message.error(failedCount.get() + " chunks failed to delete; the next run will resume after ID " + finalCheckpoint));
+            }
         });
     }
 
+    /**
+     * Loads the checkpoint ID, if one exists for the same object type and filter
+     *
+     * @param context The IIQ context
+     * @param checkpointName The name of the checkpoint Custom object
+     * @param checkpointKey The key describing the object type and filter
+     * @return The checkpoint ID, or null to start from the beginning
+     * @throws GeneralException if the load fails
+     */
+    private String loadCheckpoint(SailPointContext context, String checkpointName, String checkpointKey) throws GeneralException {
+        Custom custom = context.getObjectByName(Custom.class, checkpointName);
+        if (custom == null) {
+            return null;
+        }
+        if (!Util.nullSafeEq(checkpointKey, custom.getString("key"))) {
+            logger.info("Ignoring checkpoint " + checkpointName + " because the object type or filter has changed");
+            return null;
+        }
+        return custom.getString("lastId");
+    }
+
+    /**
+     * Updates the task progress and saves the checkpoint, no more often than every few seconds
+     *
+     * @param context The IIQ context
+     * @param monitor The task monitor
+     * @param checkpointName The name of the checkpoint Custom object
+     * @param checkpointKey The key describing the object type and filter
+     * @param checkpoint The current checkpoint ID, or null if there is none yet
+     * @param simulate True if this is a dry run, in which case no checkpoint is saved
+     * @param deleteCount The number of objects deleted
+     * @param submittedCount The number of IDs read
+     * @throws GeneralException if the update fails
+     */
+    private void reportProgress(SailPointContext context, TaskMonitor monitor, String checkpointName, String checkpointKey, String checkpoint, boolean simulate, AtomicInteger deleteCount, AtomicInteger submittedCount) throws GeneralException {
+        long now = System.currentTimeMillis();
+        if (now - lastProgress < PROGRESS_INTERVAL_MILLIS) {
+            return;
+        }
+        lastProgress = now;
+        monitor.updateProgress((simulate ? "Matched " : "Deleted ") + deleteCount.get() + " of " + submittedCount.get() + " objects read");
+        if (!simulate && checkpoint != null) {
+            saveCheckpoint(context, checkpointName, checkpointKey, checkpoint);
+        }
+    }
+
+    /**
+     * Saves the checkpoint ID, or removes the checkpoint if the ID is null
+     *
+     * @param context The IIQ context
+     * @param checkpointName The name of the checkpoint Custom object
+     * @param checkpointKey The key describing the object type and filter
+     * @param lastId The checkpoint ID, or null to remove the checkpoint
+     * @throws GeneralException if the save fails
+     */
+    private void saveCheckpoint(SailPointContext context, String checkpointName, String checkpointKey, String lastId) throws GeneralException {
+        Custom custom = context.getObjectByName(Custom.class, checkpointName);
+        if (lastId == null) {
+            if (custom != null) {
+                context.removeObject(custom);
+                context.commitTransaction();
+            }
+            return;
+        }
+        if (custom == null) {
+            custom = new Custom();
+            custom.setName(checkpointName);
+        }
+        custom.put("key", checkpointKey);
+        custom.put("lastId", lastId);
+        context.saveObject(custom);
+        context.commitTransaction();
+    }
+
     /**
      * Terminates the purge task early.
      *
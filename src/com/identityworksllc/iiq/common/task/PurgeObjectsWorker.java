@@ -0,0 +1,162 @@
+package com.identityworksllc.iiq.common.task;
+
+import com.identityworksllc.iiq.common.HybridObjectMatcher;
+import com.identityworksllc.iiq.common.logging.SLogger;
+import com.identityworksllc.iiq.common.threads.SailPointWorker;
+import org.apache.commons.logging.Log;
+import sailpoint.api.SailPointContext;
+import sailpoint.api.Terminator;
+import sailpoint.object.Filter;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.SailPointObject;
+import sailpoint.tools.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A worker used by {@link PurgeObjectsTask} to delete one chunk of objects by ID.
+ *
+ * If bulk deletion is enabled, which the task only does for types with no dependent
+ * objects, the whole chunk is removed with a single call to
+ * {@link SailPointContext#removeObjects(Class, QueryOptions)}. The chunk is counted
+ * before and after, so that IDs already deleted elsewhere are not counted. Otherwise, each
+ * object is loaded, optionally checked against an in-memory filter, and deleted with
+ * the {@link Terminator}, in the same way as {@link com.identityworksllc.iiq.common.threads.TerminatorWorker}.
+ */
+public class PurgeObjectsWorker extends SailPointWorker {
+    /**
+     * Logger for this class
+     */
+    private static final SLogger log = new SLogger(PurgeObjectsWorker.class);
+
+    /**
+     * True if the chunk should be removed with a single bulk delete
+     */
+    private final boolean bulkDelete;
+
+    /**
+     * Shared counter of deleted (or, in simulation mode, matched) objects
+     */
+    private transient AtomicInteger deletedCounter;
+
+    /**
+     * The optional in-memory filter, compiled once per worker
+     */
+    private final String filter;
+
+    /**
+     * The IDs of the objects to delete
+     */
+    private final List<String> ids;
+
+    /**
+     * The type of object to delete
+     */
+    private final Class<? extends SailPointObject> objectClass;
+
+    /**
+     * If true, matching objects are only logged
+     */
+    private final boolean simulate;
+
+    /**
+     * Set once the whole chunk has been processed successfully
+     */
+    private volatile boolean succeeded;
+
+    /**
+     * Constructs a new worker for the given chunk of IDs
+     *
+     * @param objectClass The type of object to delete
+     * @param ids The IDs of the objects to delete
+     * @param filter The in-memory filter, or null to delete every object in the chunk
+     * @param bulkDelete True if the chunk should be removed with a single bulk delete
+     * @param simulate If true, matching objects are only logged
+     */
+    public PurgeObjectsWorker(Class<? extends SailPointObject> objectClass, List<String> ids, String filter, boolean bulkDelete, boolean simulate) {
+        this.objectClass = objectClass;
+        this.ids = new ArrayList<>(ids);
+        this.filter = filter;
+        this.bulkDelete = bulkDelete;
+        this.simulate = simulate;
+    }
+
+    /**
+     * Deletes the objects in this chunk
+     *
+     * @param context The private context to use for this thread worker
+     * @param logger The log attached to this Worker
+     * @return The number of objects deleted
+     * @throws Exception if any failures occur
+     */
+    @Override
+    public Object execute(SailPointContext context, Log logger) throws Exception {
+        int deleted = 0;
+        if (bulkDelete && !simulate) {
+            QueryOptions qo = new QueryOptions();
+            qo.addFilter(Filter.in("id", ids));
+            // Some of the IDs may already have been deleted since the chunk was read
+            int present = context.countObjects(objectClass, qo);
+            if (present > 0) {
+                context.removeObjects(objectClass, qo);
+                context.commitTransaction();
+                deleted = present - context.countObjects(objectClass, qo);
+            }
+        } else {
+            HybridObjectMatcher matcher = Util.isNotNullOrEmpty(filter) ? new HybridObjectMatcher(context, Filter.compile(filter)) : null;
+            Terminator terminator = new Terminator(context);
+            for(String id : ids) {
+                checkCancel();
+                SailPointObject spo = context.getObjectById(objectClass, id);
+                if (spo == null) {
+                    continue;
+                }
+                if (matcher != null && !matcher.matches(spo)) {
+                    context.decache(spo);
+                    continue;
+                }
+                if (simulate) {
+                    log.warn("DRY RUN: Would delete object: " + spo.getId() + " " + spo.getName());
+                    context.decache(spo);
+                } else {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Deleting object : " + spo.getId() + " " + spo.getName());
+                    }
+                    terminator.deleteObject(spo);
+                }
+                deleted++;
+            }
+        }
+        if (deletedCounter != null) {
+            deletedCounter.addAndGet(deleted);
+        }
+        succeeded = true;
+        return deleted;
+    }
+
+    /**
+     * Gets the last ID in this chunk, which is the highest, since the task reads IDs in order
+     * @return The last ID in this chunk
+     */
+    public String getLastId() {
+        return ids.get(ids.size() - 1);
+    }
+
+    /**
+     * Returns true if the whole chunk has been processed successfully
+     * @return True if the chunk succeeded
+     */
+    public boolean isSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Sets the shared counter of deleted objects
+     * @param deletedCounter The counter
+     */
+    public void setDeletedCounter(AtomicInteger deletedCounter) {
+        this.deletedCounter = deletedCounter;
+    }
+}
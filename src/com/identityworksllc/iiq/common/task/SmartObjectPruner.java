@@ -2,6 +2,9 @@ package com.identityworksllc.iiq.common.task;
 
 import com.identityworksllc.iiq.common.Ref;
 import com.identityworksllc.iiq.common.Utilities;
+import com.identityworksllc.iiq.common.query.QueryUtil;
+import com.identityworksllc.iiq.common.threads.SailPointWorker;
+import org.apache.commons.logging.Log;
 import sailpoint.api.ObjectUtil;
 import sailpoint.api.SailPointContext;
 import sailpoint.api.Terminator;
@@ -11,6 +14,10 @@ import sailpoint.tools.Message;
 import sailpoint.tools.Util;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A class that can prune a subset of Sailpoint objects in a more granular
@@ -22,8 +29,306 @@ import java.util.*;
  *
  * If a filter is used, the {@link TimeTokenizer} class allows for dynamic time
  * based filtering (e.g. older than five days ago).
+ *
+ * Selection is lazy. The selectors are evaluated in turn as the worker threads consume
+ * their output, with filter and 'all' selectors reading pages of IDs as needed, so that
+ * deletion begins immediately. A bounded number of batches is queued at once, so memory
+ * use does not grow with the number of objects to prune. Post-selector scripts run on the
+ * worker threads, against each batch of objects loaded with a single query.
  */
 public class SmartObjectPruner extends AbstractThreadedTask<Reference> {
+    /**
+     * A single configured selector
+     */
+    private static final class Selector {
+        /**
+         * The selector's configuration map
+         */
+        private final Map<String, Object> objectConfig;
+
+        /**
+         * The object type name
+         */
+        private final String objectType;
+
+        /**
+         * The selector (a filter string or script), depending on the type
+         */
+        private final Object selector;
+
+        /**
+         * The selector type: all, filter, or script
+         */
+        private final String selectorType;
+
+        /**
+         * The object type class
+         */
+        private final Class<? extends SailPointObject> spClass;
+
+        /**
+         * Constructs a new Selector
+         */
+        private Selector(String objectType, Class<? extends SailPointObject> spClass, String selectorType, Object selector, Map<String, Object> objectConfig) {
+            this.objectType = objectType;
+            this.spClass = spClass;
+            this.selectorType = selectorType;
+            this.selector = selector;
+            this.objectConfig = objectConfig;
+        }
+    }
+
+    /**
+     * Lazily produces the References selected by each Selector in turn
+     */
+    private final class SelectionIterator implements Iterator<Reference> {
+        /**
+         * The output of the current selector
+         */
+        private Iterator<Reference> current;
+
+        /**
+         * The task arguments, passed to selector scripts
+         */
+        private final Attributes<String, Object> attributes;
+
+        /**
+         * The parent task context
+         */
+        private final SailPointContext context;
+
+        /**
+         * The selectors not yet started
+         */
+        private final Deque<Selector> remaining;
+
+        /**
+         * Constructs a new SelectionIterator
+         */
+        private SelectionIterator(SailPointContext context, Attributes<String, Object> attributes, List<Selector> selectors) {
+            this.context = context;
+            this.attributes = attributes;
+            this.remaining = new ArrayDeque<>(selectors);
+            this.current = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (!current.hasNext()) {
+                    if (remaining.isEmpty() || terminated.get()) {
+                        return false;
+                    }
+                    current = select(context, attributes, remaining.removeFirst());
+                }
+                return true;
+            } catch(GeneralException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Reference next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+
+    /**
+     * Reads the IDs of the objects matching a filter in ascending order, one page at a
+     * time. Each page is read fully before it is returned, so no database cursor is held
+     * open on the parent context while workers are running.
+     */
+    private static final class IdPageIterator implements Iterator<Reference> {
+        /**
+         * The parent task context
+         */
+        private final SailPointContext context;
+
+        /**
+         * True when the last page has been read
+         */
+        private boolean exhausted;
+
+        /**
+         * The database filter, or null for all objects
+         */
+        private final Filter filter;
+
+        /**
+         * The last ID read
+         */
+        private String lastId;
+
+        /**
+         * The current page
+         */
+        private Iterator<String> page;
+
+        /**
+         * The object type
+         */
+        private final Class<? extends SailPointObject> spClass;
+
+        /**
+         * Constructs a new IdPageIterator
+         */
+        private IdPageIterator(SailPointContext context, Class<? extends SailPointObject> spClass, Filter filter) {
+            this.context = context;
+            this.spClass = spClass;
+            this.filter = filter;
+            this.page = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !exhausted) {
+                try {
+                    readPage();
+                } catch(GeneralException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public Reference next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return Ref.of(spClass, page.next());
+        }
+
+        /**
+         * Reads the next page of IDs
+         * @throws GeneralException if the query fails
+         */
+        private void readPage() throws GeneralException {
+            QueryOptions qo = new QueryOptions();
+            if (filter != null) {
+                qo.addFilter(filter);
+            }
+            if (lastId != null) {
+                qo.addFilter(Filter.gt("id", lastId));
+            }
+            qo.setOrderBy("id");
+            qo.setOrderAscending(true);
+            qo.setResultLimit(ID_PAGE_SIZE);
+            List<String> ids = new ArrayList<>();
+            Iterator<Object[]> results = context.search(spClass, qo, "id");
+            try {
+                while (results.hasNext()) {
+                    ids.add(Util.otoa(results.next()[0]));
+                }
+            } finally {
+                Util.flushIterator(results);
+            }
+            exhausted = ids.size() < ID_PAGE_SIZE;
+            if (!ids.isEmpty()) {
+                lastId = ids.get(ids.size() - 1);
+            }
+            page = ids.iterator();
+        }
+    }
+
+    /**
+     * Deletes a batch of References, loading the objects of each type with a single query
+     * and applying that type's post-selector script, if any
+     */
+    private final class PruneBatchWorker extends SailPointWorker {
+        /**
+         * The References to delete
+         */
+        private final Iterable<Reference> objects;
+
+        /**
+         * The task listener, used to check status and record outcomes
+         */
+        private final ThreadedTaskListener<Reference> taskListener;
+
+        /**
+         * Constructs a new PruneBatchWorker, corresponding to {@link ThreadWorkerCreator}
+         */
+        private PruneBatchWorker(Iterable<Reference> objects, ThreadedTaskListener<Reference> taskListener) {
+            this.objects = objects;
+            this.taskListener = taskListener;
+        }
+
+        /**
+         * Loads, filters, and deletes the objects in this batch
+         *
+         * @param threadContext The private context to use for this thread worker
+         * @param logger The log attached to this Worker
+         * @return always null
+         * @throws Exception if the batch cannot be processed
+         */
+        @Override
+        public Object execute(SailPointContext threadContext, Log logger) throws Exception {
+            if (taskListener.isTerminated()) {
+                return null;
+            }
+            try {
+                taskListener.beforeBatch(threadContext);
+            } catch(GeneralException e) {
+                logger.error("Caught an error invoking beforeBatch; skipping batch", e);
+                return null;
+            }
+
+            try {
+                Map<String, List<Reference>> byClass = new LinkedHashMap<>();
+                for(Reference ref : objects) {
+                    byClass.computeIfAbsent(ref.getClassName(), k -> new ArrayList<>()).add(ref);
+                }
+
+                for(Map.Entry<String, List<Reference>> entry : byClass.entrySet()) {
+                    @SuppressWarnings("unchecked")
+                    Class<? extends SailPointObject> spClass = (Class<? extends SailPointObject>) Class.forName(entry.getKey());
+                    Script postSelectorScript = Utilities.getAsScript(postSelectorScripts.get(entry.getKey()));
+                    Map<String, SailPointObject> loaded = loadObjects(threadContext, spClass, entry.getValue());
+                    for(Reference ref : entry.getValue()) {
+                        taskListener.beforeExecution(Thread.currentThread(), ref);
+                        if (Thread.interrupted() || taskListener.isTerminated()) {
+                            throw new InterruptedException("Thread interrupted");
+                        }
+                        try {
+                            SailPointObject spo = loaded.get(ref.getId());
+                            if (spo != null && isSelected(threadContext, spo, postSelectorScript)) {
+                                deleteObject(threadContext, spo);
+                            }
+                            taskListener.handleSuccess(ref);
+                            threadContext.commitTransaction();
+                        } catch(Exception e) {
+                            taskListener.handleException(e);
+                            taskListener.handleFailure(ref);
+                        }
+                    }
+                    threadContext.decache();
+                }
+            } finally {
+                // The batch is closed even if the thread is interrupted partway through it
+                try {
+                    taskListener.afterBatch(threadContext);
+                } catch (GeneralException e) {
+                    logger.error("Caught an error invoking afterBatch", e);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The default number of objects passed to each worker, if no batch size is given
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * The number of IDs read by each selection query
+     */
+    private static final int ID_PAGE_SIZE = 1000;
+
     /**
      * The allowed list of object types for deletion
      */
@@ -43,7 +348,42 @@ public class SmartObjectPruner extends AbstractThreadedTask<Reference> {
     );
 
     /**
-     * Gets the list of objects to prune
+     * The post-selector script source for each configured class name, which will be copied
+     * by each worker
+     */
+    private final Map<String, Object> postSelectorScripts = new HashMap<>();
+
+    /**
+     * Deletes the given object, unless it is a protected Identity
+     *
+     * @param threadContext The private context for this thread
+     * @param spo The object to delete
+     * @throws GeneralException if a failure occurs deleting the object
+     */
+    private void deleteObject(SailPointContext threadContext, SailPointObject spo) throws GeneralException {
+        if (spo instanceof Identity && ((Identity) spo).isProtected()) {
+            log.warn("Filter returned Identity " + ((Identity) spo).getDisplayableName() + " but it is protected; ignoring it");
+            return;
+        }
+        Terminator terminator = new Terminator(threadContext);
+        terminator.deleteObject(spo);
+    }
+
+    /**
+     * Gets the batch size for this task. Unlike most threaded tasks, this one always batches,
+     * since objects are loaded one batch at a time.
+     *
+     * @return The batch size for each thread
+     */
+    @Override
+    public int getBatchSize() {
+        int batchSize = super.getBatchSize();
+        return (batchSize > 1) ? batchSize : DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Gets the list of objects to prune. The configuration is read and validated
+     * immediately, but the selectors are not evaluated until their output is needed.
      */
     @Override
     protected Iterator<? extends Reference> getObjectIterator(SailPointContext context, Attributes<String, Object> attributes) throws GeneralException {
@@ -58,12 +398,10 @@ public class SmartObjectPruner extends AbstractThreadedTask<Reference> {
             return null;
         }
 
-        List<Reference> toDelete = new ArrayList<>();
+        postSelectorScripts.clear();
+        List<Selector> selectors = new ArrayList<>();
 
         for(String objectType : OBJECT_TYPES) {
-            if (terminated.get()) {
-                break;
-            }
             if (!smartPrunerConfiguration.containsKey(objectType)) {
                 continue;
             }
@@ -77,100 +415,146 @@ public class SmartObjectPruner extends AbstractThreadedTask<Reference> {
                 if (Util.isNullOrEmpty(selectorType)) {
                     throw new IllegalArgumentException("A selector 'type' must be specified for class " + objectType);
                 }
+                if (!(selectorType.equalsIgnoreCase("all") || selectorType.equalsIgnoreCase("filter") || selectorType.equalsIgnoreCase("script"))) {
+                    throw new IllegalArgumentException("Invalid selector type: " + selectorType);
+                }
 
                 Object selector = objectConfig.get("selector");
-                Script postSelectorScript = Utilities.getAsScript(objectConfig.get("postSelectorScript"));
-                List<String> props = new ArrayList<>();
-                props.add("id");
-                if (selectorType.equalsIgnoreCase("all")) {
-                    QueryOptions qo = new QueryOptions();
-                    Iterator<Object[]> objects = context.search(spClass, qo, props);
-                    while(objects.hasNext()) {
-                        Object[] result = objects.next();
-                        String id = Util.otoa(result[0]);
-                        maybeAdd(context, toDelete, spClass, id, postSelectorScript);
-                    }
-                } else if (selectorType.equalsIgnoreCase("filter")) {
-                    String filterString = Util.otoa(selector);
-                    if (Util.isNullOrEmpty(filterString)) {
-                        throw new IllegalArgumentException("For object type " + objectType + " with selector type filter, the filter string is null or empty");
-                    }
-                    String modifiedFilterString = TimeTokenizer.parseTimeComponents(taskSchedule, filterString, null);
-                    Filter objectFilter = Filter.compile(modifiedFilterString);
-                    QueryOptions qo = new QueryOptions();
-                    qo.addFilter(objectFilter);
-                    Iterator<Object[]> objects = context.search(spClass, qo, props);
-                    while(objects.hasNext()) {
-                        Object[] result = objects.next();
-                        String id = Util.otoa(result[0]);
-                        maybeAdd(context, toDelete, spClass, id, postSelectorScript);
-                    }
-                } else if (selectorType.equalsIgnoreCase("script")) {
-                    Script scriptSelector = Utilities.getAsScript(selector);
-                    if (scriptSelector != null) {
-                        Map<String, Object> params = new HashMap<>();
-                        params.put("type", objectType);
-                        params.put("typeClass", spClass);
-                        params.put("environment", attributes);
-                        params.put("configuration", objectConfig);
-
-                        Object output = context.runScript(scriptSelector, params);
-                        if (output instanceof List) {
-                            List<Object> objectList = (List<Object>)output;
-                            for(Object obj : objectList) {
-                                if (obj != null) {
-                                    if (obj instanceof String) {
-                                        toDelete.add(Ref.of(spClass, (String) obj));
-                                    } else if (obj instanceof SailPointObject) {
-                                        SailPointObject spo = (SailPointObject) obj;
-                                        toDelete.add(Ref.of(spo));
-
-                                        context.decache(spo);
-                                    } else {
-                                        throw new IllegalStateException("Illegal output list element from selector script for object type " + objectType + ": " + obj.getClass().getName());
-                                    }
-                                }
-                            }
-                        } else if (output != null) {
-                            throw new IllegalStateException("Illegal output type from selector script for object type " + objectType + ": " + output.getClass().getName());
-                        }
-                    }
-                } else {
-                    throw new IllegalArgumentException("Invalid selector type: " + selectorType);
+                if (selectorType.equalsIgnoreCase("filter") && Util.isNullOrEmpty(Util.otoa(selector))) {
+                    throw new IllegalArgumentException("For object type " + objectType + " with selector type filter, the filter string is null or empty");
                 }
+
+                if (!selectorType.equalsIgnoreCase("script") && objectConfig.get("postSelectorScript") != null) {
+                    postSelectorScripts.put(spClass.getName(), objectConfig.get("postSelectorScript"));
+                }
+
+                selectors.add(new Selector(objectType, spClass, selectorType, selector, objectConfig));
             }
         }
-        return Util.safeIterable(toDelete).iterator();
+        return new SelectionIterator(context, attributes, selectors);
     }
 
     /**
-     * Executes the post-selector script if one exists. If the script returns true,
-     * adds the item to the list.
-     *
-     * If no post-selector script is defined, adds the item to the list.
+     * Returns true if the object should be deleted, according to the post-selector
+     * script. If there is no script, all objects are selected.
      *
-     * @param context The context to use for the script execution
-     * @param toDelete The list to which the objects should be added on deletion
-     * @param spClass The queried class
-     * @param objectId The object ID to check
+     * @param threadContext The private context for this thread
+     * @param spo The object to check
      * @param postSelectorScript The script, which may be null
+     * @return True if the object should be deleted
      * @throws GeneralException if a script failure occurs
      */
-    private void maybeAdd(SailPointContext context, List<Reference> toDelete, Class<? extends SailPointObject> spClass, String objectId, Script postSelectorScript) throws GeneralException {
-        if (postSelectorScript != null) {
-            SailPointObject spo = context.getObjectById(spClass, objectId);
-            Map<String, Object> params = new HashMap<>();
-            params.put("object", spo);
-            params.put("context", context);
-            boolean shouldAdd = Util.otob(context.runScript(postSelectorScript, params));
-            if (shouldAdd) {
-                toDelete.add(Ref.of(spo.getClass(), spo.getId()));
+    private boolean isSelected(SailPointContext threadContext, SailPointObject spo, Script postSelectorScript) throws GeneralException {
+        if (postSelectorScript == null) {
+            return true;
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("object", spo);
+        params.put("context", threadContext);
+        return Util.otob(threadContext.runScript(postSelectorScript, params));
+    }
+
+    /**
+     * Loads the objects for the given References with as few queries as possible
+     *
+     * @param threadContext The private context for this thread
+     * @param spClass The type of the objects
+     * @param refs The References, all of the given type
+     * @return The loaded objects by ID; objects that no longer exist are absent
+     * @throws GeneralException if the query fails
+     */
+    private Map<String, SailPointObject> loadObjects(SailPointContext threadContext, Class<? extends SailPointObject> spClass, List<Reference> refs) throws GeneralException {
+        List<String> ids = new ArrayList<>();
+        for(Reference ref : refs) {
+            ids.add(ref.getId());
+        }
+        return new HashMap<>(QueryUtil.getObjectsById(threadContext, spClass, ids));
+    }
+
+    /**
+     * Installs the batch worker after parsing the usual arguments
+     *
+     * @param args The task arguments
+     * @throws Exception if any failures occur parsing arguments
+     */
+    @Override
+    protected void parseArgs(Attributes<String, Object> args) throws Exception {
+        super.parseArgs(args);
+        setWorkerCreator((objects, consumer, taskListener) -> new PruneBatchWorker(objects, taskListener));
+    }
+
+    /**
+     * Prepares a thread pool with a bounded queue. When the queue is full, submission
+     * blocks, so the selectors are only read as fast as objects are deleted.
+     *
+     * @throws GeneralException if any failures occur
+     */
+    @Override
+    protected void prepareExecutor() throws GeneralException {
+        ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(threadCount * 2);
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, queue, (runnable, pool) -> {
+            try {
+                while (!pool.isShutdown()) {
+                    if (queue.offer(runnable, 1, TimeUnit.SECONDS)) {
+                        return;
+                    }
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            throw new RejectedExecutionException("The pruner has been terminated");
+        });
+    }
 
-            context.decache(spo);
-        } else {
-            toDelete.add(Ref.of(spClass, objectId));
+    /**
+     * Starts the given selector, returning a lazy iterator over its output
+     *
+     * @param context The parent task context
+     * @param attributes The task arguments
+     * @param selector The selector
+     * @return The selected References
+     * @throws GeneralException if the selector fails
+     */
+    private Iterator<Reference> select(SailPointContext context, Attributes<String, Object> attributes, Selector selector) throws GeneralException {
+        if (selector.selectorType.equalsIgnoreCase("all")) {
+            return new IdPageIterator(context, selector.spClass, null);
+        } else if (selector.selectorType.equalsIgnoreCase("filter")) {
+            String modifiedFilterString = TimeTokenizer.parseTimeComponents(taskSchedule, Util.otoa(selector.selector), null);
+            Filter objectFilter = Filter.compile(modifiedFilterString);
+            return new IdPageIterator(context, selector.spClass, objectFilter);
         }
+
+        List<Reference> toDelete = new ArrayList<>();
+        Script scriptSelector = Utilities.getAsScript(selector.selector);
+        if (scriptSelector != null) {
+            Map<String, Object> params = new HashMap<>();
+            params.put("type", selector.objectType);
+            params.put("typeClass", selector.spClass);
+            params.put("environment", attributes);
+            params.put("configuration", selector.objectConfig);
+
+            Object output = context.runScript(scriptSelector, params);
+            if (output instanceof List) {
+                List<Object> objectList = (List<Object>)output;
+                for(Object obj : objectList) {
+                    if (obj != null) {
+                        if (obj instanceof String) {
+                            toDelete.add(Ref.of(selector.spClass, (String) obj));
+                        } else if (obj instanceof SailPointObject) {
+                            SailPointObject spo = (SailPointObject) obj;
+                            toDelete.add(Ref.of(spo));
+
+                            context.decache(spo);
+                        } else {
+                            throw new IllegalStateException("Illegal output list element from selector script for object type " + selector.objectType + ": " + obj.getClass().getName());
+                        }
+                    }
+                }
+            } else if (output != null) {
+                throw new IllegalStateException("Illegal output type from selector script for object type " + selector.objectType + ": " + output.getClass().getName());
+            }
+        }
+        return toDelete.iterator();
     }
 
     /**
@@ -184,13 +568,8 @@ public class SmartObjectPruner extends AbstractThreadedTask<Reference> {
     @Override
     public Object threadExecute(SailPointContext threadContext, Map<String, Object> parameters, Reference ref) throws GeneralException {
         SailPointObject spo = ref.resolve(threadContext);
-        if (spo != null) {
-            if (spo instanceof Identity && ((Identity) spo).isProtected()) {
-                log.warn("Filter returned Identity " + ((Identity) spo).getDisplayableName() + " but it is protected; ignoring it");
-                return null;
-            }
-            Terminator terminator = new Terminator(threadContext);
-            terminator.deleteObject(spo);
+        if (spo != null && isSelected(threadContext, spo, Utilities.getAsScript(postSelectorScripts.get(ref.getClassName())))) {
+            deleteObject(threadContext, spo);
         }
         return null;
     }
@@ -0,0 +1,684 @@
+package com.identityworksllc.iiq.common.task;
+
+import com.identityworksllc.iiq.common.BetterDifferencer;
+import com.identityworksllc.iiq.common.NamedTimestampUtils;
+import com.identityworksllc.iiq.common.query.NamedParameterStatement;
+import com.identityworksllc.iiq.common.task.export.ExportConnectionInfo;
+import com.identityworksllc.iiq.common.task.export.ExportPartition;
+import sailpoint.api.IncrementalProjectionIterator;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Attributes;
+import sailpoint.object.Difference;
+import sailpoint.object.Filter;
+import sailpoint.object.IdentitySnapshot;
+import sailpoint.object.PermissionDifference;
+import sailpoint.object.QueryOptions;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.JdbcUtil;
+import sailpoint.tools.Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A threaded task that computes the differences between each pair of consecutive
+ * {@link IdentitySnapshot}s for every Identity and writes them to a table in an
+ * external database.
+ *
+ * The main task thread reads the distinct names of Identities having new snapshots
+ * via a projection query. Each worker thread then reads the ID and creation date of
+ * that Identity's snapshots (again via projection), loads them one at a time in date
+ * order, and diffs each against its predecessor using a {@link BetterDifferencer}.
+ * Only two snapshots are in memory at any given time per thread.
+ *
+ * The differencer and the JDBC statement are created once per worker batch, in
+ * {@link #beforeBatch(SailPointContext)}, and reused for every Identity in that batch.
+ * Rows are written using {@link NamedParameterStatement#addBatch()} and flushed every
+ * 'insertBatchSize' rows, then committed in {@link #afterBatch(SailPointContext)}.
+ *
+ * The task is incremental. On successful completion, the task start time is stored
+ * as a named timestamp (see {@link NamedTimestampUtils}). On the next run, only
+ * snapshots created after that time will produce rows, though the most recent older
+ * snapshot for each Identity is still loaded as the 'before' side of the first pair.
+ * If any Identity fails, or the task is terminated, the timestamp is not advanced.
+ * Set 'fullExport' to true to ignore the stored timestamp.
+ *
+ * Because batches are committed as they finish, a failed or terminated run may leave
+ * rows for some Identities in the target table. Before writing an Identity's rows, the
+ * task therefore deletes that Identity's existing rows in the range being exported
+ * (rows with an after_date later than the resume timestamp, or all rows for a full
+ * export), in the same transaction as the inserts. A rerun replaces, rather than
+ * duplicates, the rows of a partial run. An index on (identity_name, after_date) is
+ * recommended.
+ *
+ * Task arguments:
+ *
+ * - url, username, password, driver: The connection to the target database; the password must be encrypted
+ * - exportTable: The target table name, default 'iiqc_snapshot_differences'
+ * - insertBatchSize: The number of rows to send to the database at once, default 500
+ * - snapshotFilter: An optional filter string to further restrict the IdentitySnapshots considered
+ * - timestampName: The name of the stored resume timestamp, default derived from the task name
+ * - fullExport: If true, ignore the stored resume timestamp
+ * - includePermissions: If true, also export permission differences (default true)
+ *
+ * The target table must have the following columns:
+ *
+ * ```
+ * identity_name, before_id, after_id, before_date, after_date, diff_type, context,
+ * attribute, old_value, new_value, added_values, removed_values, de_timestamp
+ * ```
+ */
+public class SnapshotDifferenceExportTask extends AbstractThreadedTask<String> {
+
+    /**
+     * The per-thread state, created in {@link #beforeBatch(SailPointContext)} and
+     * discarded in {@link #afterBatch(SailPointContext)}
+     */
+    private static final class BatchState {
+        /**
+         * The open connection to the target database
+         */
+        private final Connection connection;
+
+        /**
+         * The statement deleting an Identity's previously exported rows in the export range
+         */
+        private final NamedParameterStatement delete;
+
+        /**
+         * The differencer, which is bound to the thread context
+         */
+        private final BetterDifferencer differencer;
+
+        /**
+         * The insert statement
+         */
+        private final NamedParameterStatement insert;
+
+        /**
+         * The number of rows added to the statement since the last flush
+         */
+        private int pending;
+
+        /**
+         * Constructs a new batch state
+         * @param connection The open connection
+         * @param differencer The differencer
+         * @param delete The delete statement
+         * @param insert The insert statement
+         */
+        private BatchState(Connection connection, BetterDifferencer differencer, NamedParameterStatement delete, NamedParameterStatement insert) {
+            this.connection = connection;
+            this.differencer = differencer;
+            this.delete = delete;
+            this.insert = insert;
+        }
+    }
+
+    /**
+     * A single output row, buffered until all snapshot pairs for an Identity have
+     * been diffed successfully
+     */
+    private static final class DifferenceRow {
+        /**
+         * The added values, newline-separated
+         */
+        private String addedValues;
+
+        /**
+         * The attribute name, or the permission target
+         */
+        private String attribute;
+
+        /**
+         * The creation date of the 'after' snapshot
+         */
+        private Date afterDate;
+
+        /**
+         * The ID of the 'after' snapshot
+         */
+        private String afterId;
+
+        /**
+         * The creation date of the 'before' snapshot
+         */
+        private Date beforeDate;
+
+        /**
+         * The ID of the 'before' snapshot
+         */
+        private String beforeId;
+
+        /**
+         * The difference context, usually the application name
+         */
+        private String context;
+
+        /**
+         * The difference type, either attribute or permission
+         */
+        private String diffType;
+
+        /**
+         * The new single value
+         */
+        private String newValue;
+
+        /**
+         * The old single value
+         */
+        private String oldValue;
+
+        /**
+         * The removed values, newline-separated
+         */
+        private String removedValues;
+    }
+
+    /**
+     * The default target table
+     */
+    public static final String DEFAULT_EXPORT_TABLE = "iiqc_snapshot_differences";
+
+    /**
+     * The difference type recorded for attribute, link, and role differences
+     */
+    public static final String DIFF_TYPE_ATTRIBUTE = "attribute";
+
+    /**
+     * The difference type recorded for permission differences
+     */
+    public static final String DIFF_TYPE_PERMISSION = "permission";
+
+    /**
+     * The pattern that the target table name must match, since it is concatenated into the SQL
+     */
+    private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    /**
+     * The per-thread batch state
+     */
+    private final ThreadLocal<BatchState> batchState;
+
+    /**
+     * Every batch state not yet closed by {@link #afterBatch(SailPointContext)}, so that
+     * batches abandoned by interrupted workers can be closed on termination
+     */
+    private final Set<BatchState> openBatches;
+
+    /**
+     * The connection info for the target database
+     */
+    private ExportConnectionInfo connectionInfo;
+
+    /**
+     * The delete SQL for an Identity's rows in the export range, built from the table name
+     */
+    private String deleteSql;
+
+    /**
+     * The insert SQL, built from the table name
+     */
+    private String insertSql;
+
+    /**
+     * True if permission differences should be exported
+     */
+    private boolean includePermissions;
+
+    /**
+     * The number of rows to add before flushing the JDBC batch
+     */
+    private int insertBatchSize;
+
+    /**
+     * The lower bound (exclusive) on snapshot creation dates, or null for a full export
+     */
+    private Date resumeDate;
+
+    /**
+     * The start time of this run, used as the upper bound on snapshot creation dates
+     * and stored as the resume timestamp on success
+     */
+    private Date runDate;
+
+    /**
+     * An optional additional filter on IdentitySnapshots
+     */
+    private Filter snapshotFilter;
+
+    /**
+     * The name of the resume timestamp
+     */
+    private String timestampName;
+
+    /**
+     * Constructs a new snapshot difference export task
+     */
+    public SnapshotDifferenceExportTask() {
+        this.batchState = new ThreadLocal<>();
+        this.openBatches = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Flushes and commits any rows added by this thread, then closes the connection
+     *
+     * @param threadContext The context for this thread
+     * @throws GeneralException if the flush or commit fails
+     */
+    @Override
+    public void afterBatch(SailPointContext threadContext) throws GeneralException {
+        BatchState state = batchState.get();
+        batchState.remove();
+        if (state == null) {
+            return;
+        }
+        openBatches.remove(state);
+        try {
+            if (state.pending > 0) {
+                state.insert.executeBatch();
+            }
+            state.connection.commit();
+        } catch(SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            closeStatements(state);
+            try {
+                state.connection.close();
+            } catch(SQLException e) {
+                log.debug("Caught an error closing the connection", e);
+            }
+        }
+    }
+
+    /**
+     * Opens the connection and creates the differencer for this worker batch
+     *
+     * @param threadContext The context for this thread
+     * @throws GeneralException if the connection cannot be opened
+     */
+    @Override
+    public void beforeBatch(SailPointContext threadContext) throws GeneralException {
+        Connection connection = ExportPartition.openConnection(threadContext, connectionInfo);
+        try {
+            if (JdbcUtil.isMySQL(connection)) {
+                connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            }
+            connection.setAutoCommit(false);
+            NamedParameterStatement delete = new NamedParameterStatement(connection, deleteSql);
+            NamedParameterStatement insert = new NamedParameterStatement(connection, insertSql);
+            BatchState state = new BatchState(connection, new BetterDifferencer(threadContext), delete, insert);
+            batchState.set(state);
+            openBatches.add(state);
+        } catch(SQLException e) {
+            try {
+                connection.close();
+            } catch(SQLException e2) {
+                log.debug("Caught an error closing the connection", e2);
+            }
+            throw new GeneralException(e);
+        }
+    }
+
+    /**
+     * Builds the base QueryOptions for IdentitySnapshots, bounded above by the run date
+     * and restricted by the optional snapshot filter
+     *
+     * @return The query options
+     */
+    private QueryOptions baseQueryOptions() {
+        QueryOptions qo = new QueryOptions();
+        qo.addFilter(Filter.le("created", runDate));
+        if (snapshotFilter != null) {
+            qo.addFilter(snapshotFilter);
+        }
+        qo.setCacheResults(false);
+        qo.setTransactionLock(false);
+        return qo;
+    }
+
+    /**
+     * Rolls back and closes any batch whose worker never reached {@link #afterBatch(SailPointContext)},
+     * which happens when a worker is interrupted by task termination
+     */
+    private void closeOpenBatches() {
+        for(BatchState state : new ArrayList<>(openBatches)) {
+            openBatches.remove(state);
+            try {
+                state.connection.rollback();
+            } catch(SQLException e) {
+                log.debug("Caught an error rolling back an abandoned batch", e);
+            }
+            closeStatements(state);
+            try {
+                state.connection.close();
+            } catch(SQLException e) {
+                log.debug("Caught an error closing the connection", e);
+            }
+        }
+    }
+
+    /**
+     * Closes the statements of the given batch, logging any errors
+     *
+     * @param state The batch state
+     */
+    private void closeStatements(BatchState state) {
+        try {
+            state.insert.close();
+        } catch(SQLException e) {
+            log.debug("Caught an error closing the insert statement", e);
+        }
+        try {
+            state.delete.close();
+        } catch(SQLException e) {
+            log.debug("Caught an error closing the delete statement", e);
+        }
+    }
+
+    /**
+     * Diffs the two snapshots, adding a row for each difference to the output list.
+     * Each new row is tagged with the IDs and dates of both snapshots.
+     *
+     * @param differencer The differencer
+     * @param before The before snapshot
+     * @param after The after snapshot
+     * @param rows The output list
+     * @throws GeneralException if the diff fails
+     */
+    private void diffPair(BetterDifferencer differencer, IdentitySnapshot before, IdentitySnapshot after, List<DifferenceRow> rows) throws GeneralException {
+        int offset = rows.size();
+        differencer.diff(before, after, (difference) -> rows.add(toRow(difference)), includePermissions ? (permission) -> rows.add(toRow(permission)) : null);
+        for(int r = offset; r < rows.size(); r++) {
+            DifferenceRow row = rows.get(r);
+            row.beforeId = before.getId();
+            row.beforeDate = before.getCreated();
+            row.afterId = after.getId();
+            row.afterDate = after.getCreated();
+        }
+    }
+
+    /**
+     * Returns the distinct names of Identities having at least one snapshot created
+     * since the resume date. The names are read fully before returning so that the
+     * Hibernate cursor is not held open while worker threads commit.
+     *
+     * @param context The top-level task Sailpoint context
+     * @param args The task arguments
+     * @return An iterator over the identity names
+     * @throws GeneralException if the query fails
+     */
+    @Override
+    protected Iterator<? extends String> getObjectIterator(SailPointContext context, Attributes<String, Object> args) throws GeneralException {
+        QueryOptions qo = baseQueryOptions();
+        if (resumeDate != null) {
+            qo.addFilter(Filter.gt("created", resumeDate));
+        }
+        qo.setDistinct(true);
+        qo.addOrdering("identityName", true);
+
+        List<String> fields = new ArrayList<>();
+        fields.add("identityName");
+
+        Set<String> names = new LinkedHashSet<>();
+        IncrementalProjectionIterator results = new IncrementalProjectionIterator(context, IdentitySnapshot.class, qo, fields);
+        while(results.hasNext()) {
+            if (terminated.get()) {
+                break;
+            }
+            String name = Util.otoa(results.next()[0]);
+            if (Util.isNotNullOrEmpty(name)) {
+                names.add(name);
+            }
+        }
+
+        log.info("Found " + names.size() + " identities with snapshots to diff");
+        return names.iterator();
+    }
+
+    /**
+     * Parses the task arguments and loads the resume timestamp
+     *
+     * @param args The task arguments
+     * @throws Exception if any arguments are invalid
+     */
+    @Override
+    protected void parseArgs(Attributes<String, Object> args) throws Exception {
+        super.parseArgs(args);
+
+        this.connectionInfo = new ExportConnectionInfo(args.getString("url"), args.getString("username"), args.getString("password"));
+        this.connectionInfo.setDriver(args.getString("driver"));
+
+        String table = Util.otoa(args.get("exportTable"));
+        if (Util.isNullOrEmpty(table)) {
+            table = DEFAULT_EXPORT_TABLE;
+        }
+        if (!TABLE_NAME_PATTERN.matcher(table).matches()) {
+            throw new GeneralException("Invalid export table name: " + table);
+        }
+        this.insertSql = "insert into " + table +
+                " ( identity_name, before_id, after_id, before_date, after_date, diff_type, context, attribute, old_value, new_value, added_values, removed_values, de_timestamp ) " +
+                "values ( :identityName, :beforeId, :afterId, :beforeDate, :afterDate, :diffType, :context, :attribute, :oldValue, :newValue, :addedValues, :removedValues, :now )";
+
+        this.insertBatchSize = args.getInt("insertBatchSize", 500);
+        if (this.insertBatchSize < 1) {
+            this.insertBatchSize = 500;
+        }
+        this.includePermissions = args.getBoolean("includePermissions", true);
+
+        String filterString = args.getString("snapshotFilter");
+        this.snapshotFilter = Util.isNotNullOrEmpty(filterString) ? Filter.compile(filterString) : null;
+
+        this.timestampName = args.getString("timestampName");
+        if (Util.isNullOrEmpty(this.timestampName)) {
+            String taskName = (taskResult.getDefinition() != null) ? taskResult.getDefinition().getName() : taskResult.getName();
+            this.timestampName = "SnapshotDifferenceExport: " + taskName;
+        }
+
+        this.runDate = new Date();
+        this.resumeDate = null;
+        if (!args.getBoolean("fullExport")) {
+            Optional<Instant> stored = new NamedTimestampUtils(context).get(timestampName);
+            if (stored.isPresent()) {
+                this.resumeDate = Date.from(stored.get());
+                log.info("Resuming from snapshots created after " + stored.get());
+            }
+        }
+        this.deleteSql = "delete from " + table + " where identity_name = :identityName";
+        if (this.resumeDate != null) {
+            this.deleteSql += " and after_date > :resumeDate";
+        }
+
+        final Date completedRunDate = this.runDate;
+        addTerminationHandler((ctx) -> {
+            if (failureCounter.get() == 0 && !terminated.get()) {
+                new NamedTimestampUtils(ctx).put(timestampName, completedRunDate.getTime());
+            } else if (terminated.get()) {
+                log.warn("Not advancing resume timestamp " + timestampName + " because the task was terminated");
+            } else {
+                log.warn("Not advancing resume timestamp " + timestampName + " because " + failureCounter.get() + " identities failed");
+            }
+        });
+        addTerminationHandler((ctx) -> closeOpenBatches());
+    }
+
+    /**
+     * Diffs each consecutive pair of snapshots for the given Identity and adds the
+     * results to this thread's insert batch. All rows for the Identity are buffered
+     * until every pair has been diffed, so a failure part way through does not leave
+     * a partial history in the target table.
+     *
+     * @param threadContext A private IIQ context for the current JVM thread
+     * @param parameters Any additional parameters that may have been passed in
+     * @param identityName The name of the Identity whose snapshots should be diffed
+     * @return Always null
+     * @throws GeneralException if any failures occur
+     */
+    @Override
+    public Object threadExecute(SailPointContext threadContext, Map<String, Object> parameters, String identityName) throws GeneralException {
+        BatchState state = batchState.get();
+        if (state == null) {
+            throw new GeneralException("No batch state for this thread; beforeBatch was not invoked");
+        }
+
+        QueryOptions qo = baseQueryOptions();
+        qo.addFilter(Filter.eq("identityName", identityName));
+        qo.addOrdering("created", true);
+
+        List<String> fields = new ArrayList<>();
+        fields.add("id");
+        fields.add("created");
+
+        List<String> ids = new ArrayList<>();
+        List<Date> dates = new ArrayList<>();
+        IncrementalProjectionIterator results = new IncrementalProjectionIterator(threadContext, IdentitySnapshot.class, qo, fields);
+        while(results.hasNext()) {
+            Object[] row = results.next();
+            ids.add(Util.otoa(row[0]));
+            dates.add((Date) row[1]);
+        }
+
+        // The first pair begins with the newest snapshot already processed, if any
+        int start = 0;
+        if (resumeDate != null) {
+            for(int i = 0; i < dates.size(); i++) {
+                if (dates.get(i) != null && !dates.get(i).after(resumeDate)) {
+                    start = i;
+                }
+            }
+        }
+
+        if (ids.size() - start < 2) {
+            if (log.isTraceEnabled()) {
+                log.trace("Identity " + identityName + " has no new snapshot pairs");
+            }
+            return null;
+        }
+
+        List<DifferenceRow> identityRows = new ArrayList<>();
+
+        IdentitySnapshot before = threadContext.getObjectById(IdentitySnapshot.class, ids.get(start));
+        for(int i = start + 1; i < ids.size(); i++) {
+            if (terminated.get()) {
+                throw new GeneralException("Task was terminated");
+            }
+            IdentitySnapshot after = threadContext.getObjectById(IdentitySnapshot.class, ids.get(i));
+            if (after == null) {
+                continue;
+            }
+            if (before != null) {
+                diffPair(state.differencer, before, after, identityRows);
+                threadContext.decache(before);
+            }
+            before = after;
+        }
+        if (before != null) {
+            threadContext.decache(before);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Identity " + identityName + " has " + identityRows.size() + " differences across " + (ids.size() - start - 1) + " snapshot pairs");
+        }
+
+        Timestamp now = new Timestamp(runDate.getTime());
+        try {
+            // Replaces any rows left in this range by an earlier partial run
+            state.delete.setString("identityName", identityName);
+            if (resumeDate != null) {
+                state.delete.setTimestamp("resumeDate", new Timestamp(resumeDate.getTime()));
+            }
+            state.delete.executeUpdate();
+
+            NamedParameterStatement insert = state.insert;
+            for(DifferenceRow row : identityRows) {
+                insert.setString("identityName", identityName);
+                insert.setString("beforeId", row.beforeId);
+                insert.setString("afterId", row.afterId);
+                insert.setTimestamp("beforeDate", toTimestamp(row.beforeDate));
+                insert.setTimestamp("afterDate", toTimestamp(row.afterDate));
+                insert.setString("diffType", row.diffType);
+                insert.setString("context", row.context);
+                insert.setString("attribute", row.attribute);
+                insert.setString("oldValue", row.oldValue);
+                insert.setString("newValue", row.newValue);
+                insert.setString("addedValues", row.addedValues);
+                insert.setString("removedValues", row.removedValues);
+                insert.setTimestamp("now", now);
+                insert.addBatch();
+
+                state.pending++;
+                if (state.pending >= insertBatchSize) {
+                    insert.executeBatch();
+                    state.pending = 0;
+                }
+            }
+        } catch(SQLException e) {
+            throw new GeneralException(e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Converts a date to a JDBC timestamp, keeping the time of day
+     * @param date The date, which may be null
+     * @return The timestamp, or null
+     */
+    private static Timestamp toTimestamp(Date date) {
+        return (date != null) ? new Timestamp(date.getTime()) : null;
+    }
+
+    /**
+     * Converts an attribute, link, or role difference to an output row
+     * @param difference The difference
+     * @return The output row
+     */
+    private static DifferenceRow toRow(Difference difference) {
+        DifferenceRow row = new DifferenceRow();
+        row.diffType = DIFF_TYPE_ATTRIBUTE;
+        row.context = difference.getContext();
+        row.attribute = difference.getAttribute();
+        row.oldValue = difference.getOldValue();
+        row.newValue = difference.getNewValue();
+        if (!Util.isEmpty(difference.getAddedValues())) {
+            row.addedValues = String.join("\n", difference.getAddedValues());
+        }
+        if (!Util.isEmpty(difference.getRemovedValues())) {
+            row.removedValues = String.join("\n", difference.getRemovedValues());
+        }
+        return row;
+    }
+
+    /**
+     * Converts a permission difference to an output row. The target is stored as the
+     * attribute and the rights as the added or removed value.
+     *
+     * @param difference The permission difference
+     * @return The output row
+     */
+    private static DifferenceRow toRow(PermissionDifference difference) {
+        DifferenceRow row = new DifferenceRow();
+        row.diffType = DIFF_TYPE_PERMISSION;
+        row.context = difference.getApplication();
+        row.attribute = difference.getTarget();
+        if (difference.isRemoved()) {
+            row.removedValues = difference.getRights();
+        } else {
+            row.addedValues = difference.getRights();
+        }
+        return row;
+    }
+}
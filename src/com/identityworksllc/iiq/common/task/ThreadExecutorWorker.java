@@ -63,45 +63,48 @@ public class ThreadExecutorWorker<T> extends SailPointWorker {
     public Object execute(SailPointContext threadContext, Log logger) throws InterruptedException {
         SLogger slogger = new SLogger(logger);
         boolean skip = false;
-        if (!taskListener.isTerminated()) {
-            try {
-                taskListener.beforeBatch(threadContext);
-            } catch(GeneralException e) {
-                skip = true;
-                logger.error("Caught an error invoking beforeBatch; skipping batch", e);
-            }
-            if (!skip) {
-                for (T in : objects) {
-                    taskListener.beforeExecution(Thread.currentThread(), in);
+        try {
+            if (!taskListener.isTerminated()) {
+                try {
+                    taskListener.beforeBatch(threadContext);
+                } catch(GeneralException e) {
+                    skip = true;
+                    logger.error("Caught an error invoking beforeBatch; skipping batch", e);
+                }
+                if (!skip) {
+                    for (T in : objects) {
+                        taskListener.beforeExecution(Thread.currentThread(), in);
 
-                    if (Thread.interrupted() || taskListener.isTerminated()) {
-                        throw new InterruptedException("Thread interrupted");
-                    }
-                    Map<String, Object> args = new HashMap<>();
-                    args.put("context", threadContext);
-                    args.put("log", slogger);
-                    args.put("logger", slogger);
-                    args.put("object", in);
-                    args.put("worker", this);
-                    args.put("taskListener", this.taskListener);
-                    args.put("monitor", this.monitor);
-                    try {
-                        consumer.threadExecute(threadContext, args, in);
-                        taskListener.handleSuccess(in);
-                        threadContext.commitTransaction();
-                    } catch (Exception e) {
-                        taskListener.handleException(e);
-                        taskListener.handleFailure(in);
+                        if (Thread.interrupted() || taskListener.isTerminated()) {
+                            throw new InterruptedException("Thread interrupted");
+                        }
+                        Map<String, Object> args = new HashMap<>();
+                        args.put("context", threadContext);
+                        args.put("log", slogger);
+                        args.put("logger", slogger);
+                        args.put("object", in);
+                        args.put("worker", this);
+                        args.put("taskListener", this.taskListener);
+                        args.put("monitor", this.monitor);
+                        try {
+                            consumer.threadExecute(threadContext, args, in);
+                            taskListener.handleSuccess(in);
+                            threadContext.commitTransaction();
+                        } catch (Exception e) {
+                            taskListener.handleException(e);
+                            taskListener.handleFailure(in);
+                        }
                     }
                 }
             }
-        }
-
-        if (!skip) {
-            try {
-                taskListener.afterBatch(threadContext);
-            } catch (GeneralException e) {
-                logger.error("Caught an error invoking afterBatch", e);
+        } finally {
+            // The batch is closed even if the thread is interrupted partway through it
+            if (!skip) {
+                try {
+                    taskListener.afterBatch(threadContext);
+                } catch (GeneralException e) {
+                    logger.error("Caught an error invoking afterBatch", e);
+                }
             }
         }
         return null;
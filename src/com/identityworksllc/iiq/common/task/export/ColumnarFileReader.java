@@ -0,0 +1,292 @@
+package com.identityworksllc.iiq.common.task.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a file produced by {@link ColumnarFileWriter}, one row group at a time.
+ * Only a single decoded row group is held in memory.
+ *
+ * Values are returned as String, Long, Double, Boolean, or {@link Date}, depending
+ * on the column type. Missing values are returned as null.
+ */
+public final class ColumnarFileReader implements Closeable {
+
+    /**
+     * The input channel
+     */
+    private final FileChannel channel;
+
+    /**
+     * The columns in this file
+     */
+    private final List<ColumnarFileWriter.Column> columns;
+
+    /**
+     * True once the footer has been read
+     */
+    private boolean finished;
+
+    /**
+     * The number of row groups, read from the footer
+     */
+    private int rowGroupCount;
+
+    /**
+     * The total number of rows, read from the footer
+     */
+    private long totalRows;
+
+    /**
+     * Opens the given columnar file and reads its header
+     *
+     * @param path The file path
+     * @throws IOException if the file cannot be read or is not a columnar file
+     */
+    public ColumnarFileReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            byte[] magic = readBytes(ColumnarFileWriter.MAGIC.length);
+            if (!Arrays.equals(magic, ColumnarFileWriter.MAGIC)) {
+                throw new IOException("Not a columnar export file: " + path);
+            }
+            int columnCount = readBuffer(4).getInt();
+            List<ColumnarFileWriter.Column> cols = new ArrayList<>();
+            ColumnarFileWriter.ColumnType[] types = ColumnarFileWriter.ColumnType.values();
+            for(int c = 0; c < columnCount; c++) {
+                int nameLength = Short.toUnsignedInt(readBuffer(2).getShort());
+                ByteBuffer nameAndType = readBuffer(nameLength + 1);
+                byte[] nameBytes = new byte[nameLength];
+                nameAndType.get(nameBytes);
+                int type = nameAndType.get();
+                if (type < 0 || type >= types.length) {
+                    throw new IOException("Unrecognized column type " + type + " in " + path);
+                }
+                cols.add(new ColumnarFileWriter.Column(decodeModifiedUtf8(nameBytes), types[type]));
+            }
+            this.columns = Collections.unmodifiableList(cols);
+        } catch(IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the file
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Decodes the bytes written by {@link java.io.DataOutputStream#writeUTF(String)},
+     * minus the length prefix
+     *
+     * @param bytes The bytes
+     * @return The decoded string
+     * @throws IOException if the bytes are malformed
+     */
+    private static String decodeModifiedUtf8(byte[] bytes) throws IOException {
+        byte[] prefixed = new byte[bytes.length + 2];
+        prefixed[0] = (byte) ((bytes.length >>> 8) & 0xFF);
+        prefixed[1] = (byte) (bytes.length & 0xFF);
+        System.arraycopy(bytes, 0, prefixed, 2, bytes.length);
+        return new DataInputStream(new ByteArrayInputStream(prefixed)).readUTF();
+    }
+
+    /**
+     * Invokes the consumer for each remaining row in the file. The array passed to
+     * the consumer is reused between rows, so it must be copied if retained.
+     *
+     * @param consumer The row consumer
+     * @throws IOException if reading fails
+     */
+    public void forEachRow(Consumer<Object[]> consumer) throws IOException {
+        Object[] row = new Object[columns.size()];
+        Object[][] group;
+        while((group = readRowGroup()) != null) {
+            int rows = group.length == 0 ? 0 : group[0].length;
+            for(int r = 0; r < rows; r++) {
+                for(int c = 0; c < row.length; c++) {
+                    row[c] = group[c][r];
+                }
+                consumer.accept(row);
+            }
+        }
+    }
+
+    /**
+     * Gets the columns in this file
+     * @return The columns
+     */
+    public List<ColumnarFileWriter.Column> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Gets the number of row groups in the file. Only valid after all row groups have been read.
+     * @return The row group count
+     */
+    public int getRowGroupCount() {
+        return rowGroupCount;
+    }
+
+    /**
+     * Gets the total number of rows in the file. Only valid after all row groups have been read.
+     * @return The total row count
+     */
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    /**
+     * Reads exactly the given number of bytes from the channel
+     *
+     * @param length The number of bytes to read
+     * @return A buffer, flipped for reading
+     * @throws IOException if the end of the file is reached first
+     */
+    private ByteBuffer readBuffer(int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of columnar file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads exactly the given number of bytes from the channel
+     *
+     * @param length The number of bytes to read
+     * @return The bytes
+     * @throws IOException if the end of the file is reached first
+     */
+    private byte[] readBytes(int length) throws IOException {
+        return readBuffer(length).array();
+    }
+
+    /**
+     * Reads a single column chunk from the decompressed row group
+     *
+     * @param in The decompressed input
+     * @param column The column
+     * @param rows The number of rows in the row group
+     * @return The values in this chunk
+     * @throws IOException if reading fails
+     */
+    private static Object[] readColumnChunk(DataInputStream in, ColumnarFileWriter.Column column, int rows) throws IOException {
+        Object[] values = new Object[rows];
+        byte encoding = in.readByte();
+        byte[] presence = new byte[(rows + 7) / 8];
+        in.readFully(presence);
+
+        if (encoding == ColumnarFileWriter.ENCODING_DICTIONARY) {
+            String[] dictionary = new String[in.readInt()];
+            for(int d = 0; d < dictionary.length; d++) {
+                dictionary[d] = readString(in);
+            }
+            for(int r = 0; r < rows; r++) {
+                if ((presence[r >> 3] & (1 << (r & 7))) != 0) {
+                    int index;
+                    if (dictionary.length <= 256) {
+                        index = in.readUnsignedByte();
+                    } else if (dictionary.length <= 65536) {
+                        index = in.readUnsignedShort();
+                    } else {
+                        index = in.readInt();
+                    }
+                    values[r] = dictionary[index];
+                }
+            }
+            return values;
+        } else if (encoding != ColumnarFileWriter.ENCODING_PLAIN) {
+            throw new IOException("Unrecognized encoding " + encoding + " for column " + column.getName());
+        }
+
+        for(int r = 0; r < rows; r++) {
+            if ((presence[r >> 3] & (1 << (r & 7))) == 0) {
+                continue;
+            }
+            switch (column.getType()) {
+                case LONG:
+                    values[r] = in.readLong();
+                    break;
+                case TIMESTAMP:
+                    values[r] = new Date(in.readLong());
+                    break;
+                case DOUBLE:
+                    values[r] = in.readDouble();
+                    break;
+                case BOOLEAN:
+                    values[r] = in.readBoolean();
+                    break;
+                default:
+                    values[r] = readString(in);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads the next row group, returning its values indexed by column then row.
+     * Returns null when the footer is reached.
+     *
+     * @return The row group values, or null if there are no more row groups
+     * @throws IOException if reading fails
+     */
+    public Object[][] readRowGroup() throws IOException {
+        if (finished) {
+            return null;
+        }
+        int rows = readBuffer(4).getInt();
+        if (rows == 0) {
+            ByteBuffer footer = readBuffer(12);
+            this.totalRows = footer.getLong();
+            this.rowGroupCount = footer.getInt();
+            this.finished = true;
+            return null;
+        }
+        int length = readBuffer(4).getInt();
+        byte[] payload = readBytes(length);
+
+        Object[][] group = new Object[columns.size()][];
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(payload), 65536))) {
+            for(int c = 0; c < columns.size(); c++) {
+                group[c] = readColumnChunk(in, columns.get(c), rows);
+            }
+        }
+        return group;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string
+     * @param in The input stream
+     * @return The string
+     * @throws IOException if reading fails
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
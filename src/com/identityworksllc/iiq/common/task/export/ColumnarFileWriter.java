@@ -0,0 +1,606 @@
+package com.identityworksllc.iiq.common.task.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes tabular data to a compressed, columnar file. Rows are buffered in memory
+ * until a row group is full, at which point the row group is encoded column by
+ * column, GZIP-compressed, and appended to the file via a {@link FileChannel}.
+ * Memory use is therefore bounded by the row group size, regardless of the total
+ * number of rows written.
+ *
+ * String columns are dictionary-encoded within each row group when the number of
+ * distinct values is small relative to the number of rows, which is typical for
+ * report output (application names, statuses, certification decisions, etc).
+ * Otherwise, they are written as plain length-prefixed UTF-8.
+ *
+ * The file layout is as follows. All integers are big-endian.
+ *
+ * ```
+ * header:    magic "IIQCCOL1", int columnCount, (UTF name, byte type) * columnCount
+ * rowGroup:  int rowCount (> 0), int compressedLength, byte[compressedLength] gzip(columns)
+ * footer:    int 0, long totalRows, int rowGroupCount
+ *
+ * column:    byte encoding, byte[ceil(rowCount / 8)] presence bitmap, values for present rows
+ * values:    STRING plain:      (int length, UTF-8 bytes) per value
+ *            STRING dictionary: int dictSize, (int length, UTF-8 bytes) * dictSize, then one
+ *                               index per value as a byte, short, or int depending on dictSize
+ *            LONG, TIMESTAMP:   long per value (TIMESTAMP is epoch milliseconds)
+ *            DOUBLE:            double per value
+ *            BOOLEAN:           byte per value
+ * ```
+ *
+ * Use {@link ColumnarFileReader} to read the output.
+ */
+public final class ColumnarFileWriter implements Closeable {
+
+    /**
+     * A column in a columnar file
+     */
+    public static final class Column {
+        /**
+         * The SimpleDateFormat pattern used to parse String values of a TIMESTAMP column, or null
+         */
+        private final String dateFormat;
+
+        /**
+         * The column name
+         */
+        private final String name;
+
+        /**
+         * The column type
+         */
+        private final ColumnType type;
+
+        /**
+         * Constructs a new column
+         * @param name The column name
+         * @param type The column type
+         */
+        public Column(String name, ColumnType type) {
+            this(name, type, null);
+        }
+
+        /**
+         * Constructs a new column. String values of a TIMESTAMP column are parsed using the
+         * given SimpleDateFormat pattern; without a pattern, they must be epoch milliseconds.
+         *
+         * @param name The column name
+         * @param type The column type
+         * @param dateFormat The date format for String values of a TIMESTAMP column, or null
+         */
+        public Column(String name, ColumnType type, String dateFormat) {
+            this.name = Objects.requireNonNull(name, "name");
+            this.type = Objects.requireNonNull(type, "type");
+            this.dateFormat = dateFormat;
+        }
+
+        /**
+         * Gets the date format used to parse String values of a TIMESTAMP column
+         * @return The date format, or null
+         */
+        public String getDateFormat() {
+            return dateFormat;
+        }
+
+        /**
+         * Gets the column name
+         * @return The column name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the column type
+         * @return The column type
+         */
+        public ColumnType getType() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + type;
+        }
+    }
+
+    /**
+     * The types of columns that can be stored
+     */
+    public enum ColumnType {
+        STRING,
+        LONG,
+        DOUBLE,
+        BOOLEAN,
+        TIMESTAMP
+    }
+
+    /**
+     * The default maximum number of distinct values in a row group dictionary
+     */
+    public static final int DEFAULT_MAX_DICTIONARY_SIZE = 65536;
+
+    /**
+     * The default number of rows per row group
+     */
+    public static final int DEFAULT_ROW_GROUP_SIZE = 10000;
+
+    /**
+     * The dictionary encoding marker
+     */
+    /*package*/ static final byte ENCODING_DICTIONARY = 1;
+
+    /**
+     * The plain encoding marker
+     */
+    /*package*/ static final byte ENCODING_PLAIN = 0;
+
+    /**
+     * The magic bytes at the start of every columnar file
+     */
+    /*package*/ static final byte[] MAGIC = "IIQCCOL1".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The buffered values for the current row group, indexed by column then row
+     */
+    private final Object[][] buffer;
+
+    /**
+     * The number of rows in the current row group
+     */
+    private int bufferedRows;
+
+    /**
+     * The output channel
+     */
+    private final FileChannel channel;
+
+    /**
+     * True if this writer has been closed
+     */
+    private boolean closed;
+
+    /**
+     * The columns in this file
+     */
+    private final List<Column> columns;
+
+    /**
+     * A map from column name to column index
+     */
+    private final Map<String, Integer> columnIndexes;
+
+    /**
+     * The parsers for String values of each TIMESTAMP column with a date format, or null
+     */
+    private final SimpleDateFormat[] dateFormats;
+
+    /**
+     * The maximum number of distinct values in a row group dictionary
+     */
+    private final int maxDictionarySize;
+
+    /**
+     * The number of row groups written so far
+     */
+    private int rowGroupCount;
+
+    /**
+     * The number of rows per row group
+     */
+    private final int rowGroupSize;
+
+    /**
+     * The total number of rows written so far
+     */
+    private long totalRows;
+
+    /**
+     * Opens a new columnar file with the default row group size. Any existing file
+     * at the given path will be replaced.
+     *
+     * @param path The output path
+     * @param columns The columns in the file
+     * @throws IOException if the file cannot be opened
+     */
+    public ColumnarFileWriter(Path path, List<Column> columns) throws IOException {
+        this(path, columns, DEFAULT_ROW_GROUP_SIZE, DEFAULT_MAX_DICTIONARY_SIZE);
+    }
+
+    /**
+     * Opens a new columnar file. Any existing file at the given path will be replaced.
+     *
+     * @param path The output path
+     * @param columns The columns in the file
+     * @param rowGroupSize The number of rows to buffer before writing a row group
+     * @param maxDictionarySize The maximum number of distinct values in a dictionary-encoded column chunk
+     * @throws IOException if the file cannot be opened
+     */
+    public ColumnarFileWriter(Path path, List<Column> columns, int rowGroupSize, int maxDictionarySize) throws IOException {
+        Objects.requireNonNull(path, "path");
+        if (columns == null || columns.isEmpty()) {
+            throw new IllegalArgumentException("At least one column is required");
+        }
+        if (rowGroupSize < 1) {
+            throw new IllegalArgumentException("Row group size must be positive");
+        }
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        this.columnIndexes = new HashMap<>();
+        for(int c = 0; c < this.columns.size(); c++) {
+            if (this.columnIndexes.put(this.columns.get(c).getName(), c) != null) {
+                throw new IllegalArgumentException("Duplicate column name: " + this.columns.get(c).getName());
+            }
+        }
+        this.rowGroupSize = rowGroupSize;
+        this.maxDictionarySize = Math.max(1, maxDictionarySize);
+        this.buffer = new Object[this.columns.size()][rowGroupSize];
+        this.dateFormats = new SimpleDateFormat[this.columns.size()];
+        for(int c = 0; c < this.columns.size(); c++) {
+            Column column = this.columns.get(c);
+            if (column.getType() == ColumnType.TIMESTAMP && column.getDateFormat() != null) {
+                this.dateFormats[c] = new SimpleDateFormat(column.getDateFormat());
+                this.dateFormats[c].setLenient(false);
+            }
+        }
+
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeHeader();
+        } catch(IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the file without writing any buffered rows or the footer. The resulting
+     * file is incomplete and will be rejected by {@link ColumnarFileReader}, so callers
+     * will typically delete it afterward. Does nothing if the writer is already closed.
+     *
+     * @throws IOException if closing the channel fails
+     */
+    public void abort() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        channel.close();
+    }
+
+    /**
+     * Writes any buffered rows and the footer, then closes the file
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeLong(totalRows);
+            out.writeInt(rowGroupCount);
+            out.flush();
+            writeFully(bytes.toByteArray());
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Converts the input value to the Java type stored for the column type
+     *
+     * @param column The column
+     * @param dateFormat The parser for String values of a TIMESTAMP column, or null
+     * @param value The input value
+     * @return The converted value, or null
+     * @throws IllegalArgumentException if the value cannot be converted
+     */
+    private static Object convert(Column column, SimpleDateFormat dateFormat, Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            switch (column.getType()) {
+                case LONG:
+                    if (value instanceof Number) {
+                        return ((Number) value).longValue();
+                    }
+                    return Long.parseLong(value.toString().trim());
+                case DOUBLE:
+                    if (value instanceof Number) {
+                        return ((Number) value).doubleValue();
+                    }
+                    return Double.parseDouble(value.toString().trim());
+                case BOOLEAN:
+                    if (value instanceof Boolean) {
+                        return value;
+                    } else if (value instanceof Number) {
+                        return ((Number) value).longValue() != 0;
+                    }
+                    String str = value.toString().trim();
+                    return str.equalsIgnoreCase("true") || str.equals("1") || str.equalsIgnoreCase("yes");
+                case TIMESTAMP:
+                    if (value instanceof Date) {
+                        return ((Date) value).getTime();
+                    } else if (value instanceof Instant) {
+                        return ((Instant) value).toEpochMilli();
+                    } else if (value instanceof Number) {
+                        return ((Number) value).longValue();
+                    } else if (dateFormat != null) {
+                        return dateFormat.parse(value.toString().trim()).getTime();
+                    }
+                    return Long.parseLong(value.toString().trim());
+                default:
+                    return value.toString();
+            }
+        } catch(NumberFormatException | ParseException e) {
+            throw new IllegalArgumentException("Value for column " + column.getName() + " cannot be converted to " + column.getType() + ": " + value, e);
+        }
+    }
+
+    /**
+     * Writes the current row group, if any rows are buffered
+     *
+     * @throws IOException if writing fails
+     */
+    public void flush() throws IOException {
+        if (bufferedRows == 0) {
+            return;
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(compressed, 65536))) {
+            for(int c = 0; c < columns.size(); c++) {
+                writeColumnChunk(out, columns.get(c), buffer[c], bufferedRows);
+            }
+        }
+
+        byte[] payload = compressed.toByteArray();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(bufferedRows);
+        header.putInt(payload.length);
+        header.flip();
+        writeFully(header);
+        writeFully(payload);
+
+        for(Object[] values : buffer) {
+            Arrays.fill(values, 0, bufferedRows, null);
+        }
+        totalRows += bufferedRows;
+        rowGroupCount++;
+        bufferedRows = 0;
+    }
+
+    /**
+     * Gets the columns in this file
+     * @return The columns
+     */
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Gets the total number of rows written, including any buffered rows
+     * @return The row count
+     */
+    public long getRowCount() {
+        return totalRows + bufferedRows;
+    }
+
+    /**
+     * Records that a row has been added to the buffer, writing the row group if it is full
+     * @throws IOException if writing fails
+     */
+    private void rowAdded() throws IOException {
+        bufferedRows++;
+        if (bufferedRows >= rowGroupSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes a row, given as a list of values in column order. Missing trailing
+     * values are treated as null.
+     *
+     * @param values The row values
+     * @throws IOException if a row group needs to be written and writing fails
+     * @throws IllegalArgumentException if a value cannot be converted to its column type
+     */
+    public void write(List<?> values) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        if (values.size() > columns.size()) {
+            throw new IllegalArgumentException("Row has " + values.size() + " values but the file has " + columns.size() + " columns");
+        }
+        for(int c = 0; c < columns.size(); c++) {
+            buffer[c][bufferedRows] = (c < values.size()) ? convert(columns.get(c), dateFormats[c], values.get(c)) : null;
+        }
+        rowAdded();
+    }
+
+    /**
+     * Writes a row, given as a map from column name to value. Columns not present
+     * in the map are treated as null. Keys not matching a column are ignored.
+     *
+     * @param row The row values
+     * @throws IOException if a row group needs to be written and writing fails
+     * @throws IllegalArgumentException if a value cannot be converted to its column type
+     */
+    public void write(Map<String, ?> row) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        for(Object[] values : buffer) {
+            values[bufferedRows] = null;
+        }
+        for(Map.Entry<String, ?> entry : row.entrySet()) {
+            Integer c = columnIndexes.get(entry.getKey());
+            if (c != null) {
+                buffer[c][bufferedRows] = convert(columns.get(c), dateFormats[c], entry.getValue());
+            }
+        }
+        rowAdded();
+    }
+
+    /**
+     * Writes the given column chunk to the output
+     *
+     * @param out The output stream
+     * @param column The column
+     * @param values The values, of which the first 'rows' are valid
+     * @param rows The number of rows in the chunk
+     * @throws IOException if writing fails
+     */
+    private void writeColumnChunk(DataOutputStream out, Column column, Object[] values, int rows) throws IOException {
+        byte[] presence = new byte[(rows + 7) / 8];
+        int present = 0;
+        for(int r = 0; r < rows; r++) {
+            if (values[r] != null) {
+                presence[r >> 3] |= (byte) (1 << (r & 7));
+                present++;
+            }
+        }
+
+        Map<String, Integer> dictionary = null;
+        if (column.getType() == ColumnType.STRING && present > 1) {
+            int limit = Math.min(maxDictionarySize, present / 2);
+            dictionary = new HashMap<>();
+            for(int r = 0; r < rows && dictionary != null; r++) {
+                if (values[r] != null) {
+                    dictionary.putIfAbsent((String) values[r], dictionary.size());
+                    if (dictionary.size() > limit) {
+                        dictionary = null;
+                    }
+                }
+            }
+        }
+
+        out.writeByte(dictionary != null ? ENCODING_DICTIONARY : ENCODING_PLAIN);
+        out.write(presence);
+
+        if (dictionary != null) {
+            String[] entries = new String[dictionary.size()];
+            for(Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+                entries[entry.getValue()] = entry.getKey();
+            }
+            out.writeInt(entries.length);
+            for(String entry : entries) {
+                writeString(out, entry);
+            }
+            for(int r = 0; r < rows; r++) {
+                if (values[r] != null) {
+                    int index = dictionary.get((String) values[r]);
+                    if (entries.length <= 256) {
+                        out.writeByte(index);
+                    } else if (entries.length <= 65536) {
+                        out.writeShort(index);
+                    } else {
+                        out.writeInt(index);
+                    }
+                }
+            }
+            return;
+        }
+
+        for(int r = 0; r < rows; r++) {
+            Object value = values[r];
+            if (value == null) {
+                continue;
+            }
+            switch (column.getType()) {
+                case LONG:
+                case TIMESTAMP:
+                    out.writeLong((Long) value);
+                    break;
+                case DOUBLE:
+                    out.writeDouble((Double) value);
+                    break;
+                case BOOLEAN:
+                    out.writeBoolean((Boolean) value);
+                    break;
+                default:
+                    writeString(out, (String) value);
+            }
+        }
+    }
+
+    /**
+     * Writes the entire buffer to the channel
+     * @param buffer The buffer to write
+     * @throws IOException if writing fails
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the entire byte array to the channel
+     * @param bytes The bytes to write
+     * @throws IOException if writing fails
+     */
+    private void writeFully(byte[] bytes) throws IOException {
+        writeFully(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Writes the file header
+     * @throws IOException if writing fails
+     */
+    private void writeHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(columns.size());
+        for(Column column : columns) {
+            out.writeUTF(column.getName());
+            out.writeByte(column.getType().ordinal());
+        }
+        out.flush();
+        writeFully(bytes.toByteArray());
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string
+     * @param out The output stream
+     * @param value The string value
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,347 @@
+package com.identityworksllc.iiq.common.task.export;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import sailpoint.tools.GeneralException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Inserts the cells of a single report run into the report export table on a dedicated
+ * writer thread, so that parsing the report output and database round trips overlap.
+ *
+ * Cells added with {@link #add(int, String, String)} are handed in chunks through a
+ * bounded queue to the writer thread, which inserts them in JDBC batches and commits
+ * every few batches. The bounded queue keeps memory use flat if the database is slower
+ * than the caller.
+ *
+ * Call {@link #finish()} once every cell has been added. If the writer is closed without
+ * finishing, e.g. because parsing failed or the task was terminated, or if the writer
+ * thread fails, the run is abandoned: uncommitted rows are rolled back and the rows
+ * already committed for the run UUID are deleted, so that the table never holds a
+ * partial run.
+ *
+ * ```
+ * try (ReportDataWriter writer = new ReportDataWriter(connection, reportName, uuid, timestamp, 1000, 10, 16)) {
+ *     writer.start();
+ *     writer.add(0, "name", "jdoe");
+ *     writer.finish();
+ * }
+ * ```
+ */
+public class ReportDataWriter implements AutoCloseable {
+
+    /**
+     * The queue marker telling the writer thread to abandon the run
+     */
+    private static final List<Object[]> ABANDON = new ArrayList<>(0);
+
+    /**
+     * The SQL used to remove the rows of an abandoned run
+     */
+    private static final String DELETE_SQL = "delete from de_report_data where run_uuid = ?";
+
+    /**
+     * The queue marker telling the writer thread that every cell has been added
+     */
+    private static final List<Object[]> END_OF_INPUT = new ArrayList<>(0);
+
+    /**
+     * The SQL used to insert a single cell
+     */
+    private static final String INSERT_SQL = "insert into de_report_data ( report_name, run_uuid, row_index, attribute, value, insert_date ) values (?, ?, ?, ?, ?, ?)";
+
+    /**
+     * The number of JDBC batches between commits
+     */
+    private final int commitInterval;
+
+    /**
+     * The target connection, used only by the writer thread once started
+     */
+    private final Connection connection;
+
+    /**
+     * True once {@link #finish()} or {@link #close()} has been called
+     */
+    private boolean done;
+
+    /**
+     * The failure of the writer thread, if any
+     */
+    private final AtomicReference<Throwable> error;
+
+    /**
+     * The number of cells per JDBC batch, and per chunk handed to the writer
+     */
+    private final int insertBatchSize;
+
+    /**
+     * The insert date stored with every row
+     */
+    private final Timestamp insertDate;
+
+    /**
+     * Logger
+     */
+    private final Log log;
+
+    /**
+     * The chunk being filled by the caller
+     */
+    private List<Object[]> pending;
+
+    /**
+     * The chunks waiting for the writer thread
+     */
+    private final BlockingQueue<List<Object[]>> queue;
+
+    /**
+     * The report name stored with every row
+     */
+    private final String reportName;
+
+    /**
+     * The run UUID stored with every row
+     */
+    private final String runUuid;
+
+    /**
+     * The writer thread, once started
+     */
+    private Thread writer;
+
+    /**
+     * Constructs a new report data writer. The connection's auto-commit is disabled when
+     * the writer is started.
+     *
+     * @param connection The target connection
+     * @param reportName The report name
+     * @param runUuid The run UUID
+     * @param insertDate The insert date stored with every row
+     * @param insertBatchSize The number of rows inserted per JDBC batch
+     * @param commitInterval The number of JDBC batches between commits
+     * @param queueDepth The number of chunks that may wait for the writer thread
+     */
+    public ReportDataWriter(Connection connection, String reportName, String runUuid, Timestamp insertDate, int insertBatchSize, int commitInterval, int queueDepth) {
+        if (insertBatchSize < 1 || commitInterval < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("insertBatchSize, commitInterval, and queueDepth must be positive");
+        }
+        this.connection = connection;
+        this.reportName = reportName;
+        this.runUuid = runUuid;
+        this.insertDate = insertDate;
+        this.insertBatchSize = insertBatchSize;
+        this.commitInterval = commitInterval;
+        this.queue = new ArrayBlockingQueue<>(queueDepth);
+        this.error = new AtomicReference<>();
+        this.pending = new ArrayList<>(insertBatchSize);
+        this.log = LogFactory.getLog(ReportDataWriter.class);
+    }
+
+    /**
+     * Adds a single cell, handing the current chunk to the writer thread once it is full.
+     * Waits while the queue to the writer is full.
+     *
+     * @param rowIndex The row index
+     * @param attribute The column name
+     * @param value The value
+     * @throws GeneralException if the writer has failed or the wait is interrupted
+     */
+    public void add(int rowIndex, String attribute, String value) throws GeneralException {
+        if (writer == null || done) {
+            throw new IllegalStateException("The report data writer is not running");
+        }
+        pending.add(new Object[] { rowIndex, attribute, value });
+        if (pending.size() >= insertBatchSize) {
+            enqueue(pending);
+            pending = new ArrayList<>(insertBatchSize);
+        }
+    }
+
+    /**
+     * Abandons the run if it has not been finished, rolling back and deleting its rows,
+     * and waits for the writer thread to exit
+     *
+     * @throws GeneralException if the wait is interrupted
+     */
+    @Override
+    public void close() throws GeneralException {
+        if (done) {
+            return;
+        }
+        done = true;
+        if (writer != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Abandoning the export of report " + reportName + " (run " + runUuid + ")");
+            }
+            stopWriter(ABANDON);
+        }
+    }
+
+    /**
+     * Deletes the rows already committed for the run. Failures are logged, since the
+     * run UUID still identifies the rows for manual cleanup.
+     */
+    private void deleteRun() {
+        try (PreparedStatement delete = connection.prepareStatement(DELETE_SQL)) {
+            delete.setString(1, runUuid);
+            int deleted = delete.executeUpdate();
+            connection.commit();
+            log.warn("Removed " + deleted + " committed rows of the abandoned export of report " + reportName + " (run " + runUuid + ")");
+        } catch(SQLException e) {
+            log.error("Unable to remove the partial export of report " + reportName + "; delete the rows with run_uuid = " + runUuid, e);
+        }
+    }
+
+    /**
+     * Hands a chunk to the writer thread, waiting while the queue is full. Gives up if
+     * the writer has failed.
+     *
+     * @param chunk The chunk of cells
+     * @throws GeneralException if the writer has failed or the wait is interrupted
+     */
+    private void enqueue(List<Object[]> chunk) throws GeneralException {
+        try {
+            while (!queue.offer(chunk, 1, TimeUnit.SECONDS)) {
+                if (error.get() != null || !writer.isAlive()) {
+                    break;
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralException("Interrupted while exporting report " + reportName, e);
+        }
+        if (error.get() != null) {
+            throw new GeneralException("Export of report " + reportName + " failed", error.get());
+        }
+    }
+
+    /**
+     * Writes any pending cells, commits the run, and waits for the writer thread to exit
+     *
+     * @throws GeneralException if the writer failed, in which case the run was abandoned
+     */
+    public void finish() throws GeneralException {
+        if (writer == null || done) {
+            throw new IllegalStateException("The report data writer is not running");
+        }
+        try {
+            if (!pending.isEmpty()) {
+                enqueue(pending);
+                pending = new ArrayList<>(0);
+            }
+        } finally {
+            done = true;
+            stopWriter(END_OF_INPUT);
+        }
+        Throwable failure = error.get();
+        if (failure instanceof GeneralException) {
+            throw (GeneralException) failure;
+        } else if (failure != null) {
+            throw new GeneralException("Export of report " + reportName + " failed", failure);
+        }
+    }
+
+    /**
+     * Starts the writer thread
+     *
+     * @throws GeneralException if auto-commit cannot be disabled
+     */
+    public void start() throws GeneralException {
+        if (writer != null) {
+            throw new IllegalStateException("The report data writer has already been started");
+        }
+        try {
+            connection.setAutoCommit(false);
+        } catch(SQLException e) {
+            throw new GeneralException(e);
+        }
+        writer = new Thread(this::writeAll, "ReportExporter-writer-" + reportName);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Sends the marker to the writer thread, if it is still running, and waits for it to exit
+     *
+     * @param marker The end of input or abandon marker
+     * @throws GeneralException if the wait is interrupted
+     */
+    private void stopWriter(List<Object[]> marker) throws GeneralException {
+        try {
+            // The writer may be gone already, in which case nobody is taking from the queue
+            while (writer.isAlive() && !queue.offer(marker, 1, TimeUnit.SECONDS)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Waiting for the writer to accept the end of input for " + reportName);
+                }
+            }
+            writer.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralException("Interrupted while exporting report " + reportName, e);
+        }
+    }
+
+    /**
+     * The writer thread body. Inserts the queued chunks until the end of input, then
+     * commits. If the run is abandoned or any insert fails, rolls back and deletes the
+     * rows already committed for the run.
+     */
+    private void writeAll() {
+        boolean committed = false;
+        try (PreparedStatement rowInsert = connection.prepareStatement(INSERT_SQL)) {
+            rowInsert.setString(1, reportName);
+            rowInsert.setString(2, runUuid);
+            rowInsert.setTimestamp(6, insertDate);
+            int batchCount = 0;
+            int uncommittedBatches = 0;
+            List<Object[]> chunk;
+            while ((chunk = queue.take()) != END_OF_INPUT) {
+                if (chunk == ABANDON) {
+                    throw new GeneralException("The export of report " + reportName + " was abandoned before it completed");
+                }
+                for (Object[] cell : chunk) {
+                    rowInsert.setInt(3, (Integer) cell[0]);
+                    rowInsert.setString(4, (String) cell[1]);
+                    rowInsert.setString(5, (String) cell[2]);
+                    rowInsert.addBatch();
+                    if (++batchCount >= insertBatchSize) {
+                        rowInsert.executeBatch();
+                        batchCount = 0;
+                        if (++uncommittedBatches >= commitInterval) {
+                            connection.commit();
+                            committed = true;
+                            uncommittedBatches = 0;
+                        }
+                    }
+                }
+            }
+            if (batchCount > 0) {
+                rowInsert.executeBatch();
+            }
+            connection.commit();
+        } catch(Throwable t) {
+            error.set(t);
+            try {
+                connection.rollback();
+            } catch(SQLException e) {
+                log.debug("Unable to roll back report export", e);
+            }
+            if (committed) {
+                deleteRun();
+            }
+            // Unblock the caller, if it is waiting on a full queue
+            queue.clear();
+        }
+    }
+}
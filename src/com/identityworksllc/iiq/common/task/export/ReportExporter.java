@@ -3,6 +3,10 @@ package com.identityworksllc.iiq.common.task.export;
 import com.identityworksllc.iiq.common.TaskUtil;
 import com.identityworksllc.iiq.common.Utilities;
 import com.identityworksllc.iiq.common.annotation.Experimental;
+import com.identityworksllc.iiq.common.iterators.ColumnConfig;
+import com.identityworksllc.iiq.common.iterators.ColumnToken;
+import com.identityworksllc.iiq.common.iterators.ResultSetIterator;
+import com.identityworksllc.iiq.common.threads.ManagedWorkerPools;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import sailpoint.api.SailPointContext;
@@ -24,31 +28,257 @@ import sailpoint.tools.RFC4180LineParser;
 import sailpoint.tools.Util;
 
 import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Runs a series of IIQ report tasks, then exports the contents of their CSV output
  * to a database table.
  *
+ * If the 'outputFormat' argument is 'columnar', the output will instead be streamed
+ * to a compressed columnar file per report in 'outputDirectory', using a
+ * {@link ColumnarFileWriter}. Memory use is bounded by the row group size ('rowGroupSize',
+ * default {@link ColumnarFileWriter#DEFAULT_ROW_GROUP_SIZE}). Column types are derived
+ * from the optional 'columns' argument, a list of column tokens (see {@link ColumnConfig}),
+ * using the same type tokens as {@link ResultSetIterator}. CSV columns without a
+ * matching token are stored as strings.
+ *
+ * Up to 'reportConcurrency' reports (default {@link #DEFAULT_REPORT_CONCURRENCY}) are
+ * run and exported at once, each with a private context, on threads leased from the
+ * {@link ManagedWorkerPools} bulkhead named by 'bulkhead' (default
+ * {@link ManagedWorkerPools#BULKHEAD_REPORTS}). For JDBC output, the CSV parser hands
+ * cells to a {@link ReportDataWriter}, whose writer thread is joined to the parser by
+ * a bounded queue of 'queueDepth' chunks. Rows are inserted in batches of
+ * 'insertBatchSize' and committed every 'commitInterval' batches. If an export fails
+ * or the task is terminated, the rows of that run are rolled back and deleted, and a
+ * partial columnar file is deleted, so that no truncated export is left behind.
+ *
+ * Row counts, timings, and rows per second for each report are added to the task
+ * result as messages and in the 'reportStatistics' attribute.
+ *
  * TODO: make an ad hoc copy of the report to force CSV output and suppress emails
  */
 @Experimental
 public class ReportExporter extends AbstractTaskExecutor {
+
+    /**
+     * Receives the header and rows parsed from a report CSV file
+     */
+    private interface CsvRowHandler {
+        /**
+         * Invoked once with the header row
+         * @param headers The column headers
+         * @throws Exception if any failures occur
+         */
+        void header(List<String> headers) throws Exception;
+
+        /**
+         * Invoked once for each data row
+         * @param rowIndex The ordinal row index
+         * @param values The values, in header order
+         * @throws Exception if any failures occur
+         */
+        void row(int rowIndex, List<String> values) throws Exception;
+    }
+
+    /**
+     * Timing and volume statistics for the export of a single report
+     */
+    private static final class ReportStats {
+        /**
+         * The number of non-empty cells exported
+         */
+        private final AtomicLong cells = new AtomicLong();
+
+        /**
+         * The time spent exporting the report output, in milliseconds
+         */
+        private long exportMillis;
+
+        /**
+         * The report name
+         */
+        private final String reportName;
+
+        /**
+         * The time spent running the report itself, in milliseconds
+         */
+        private long reportMillis;
+
+        /**
+         * The number of rows exported
+         */
+        private final AtomicLong rows = new AtomicLong();
+
+        /**
+         * The time at which this report was started
+         */
+        private final long started = System.currentTimeMillis();
+
+        /**
+         * Constructs a new statistics object
+         * @param reportName The report name
+         */
+        private ReportStats(String reportName) {
+            this.reportName = reportName;
+        }
+
+        /**
+         * Gets the export throughput in rows per second
+         * @return The rows per second
+         */
+        private long rowsPerSecond() {
+            return exportMillis > 0 ? (rows.get() * 1000L) / exportMillis : rows.get();
+        }
+
+        /**
+         * Returns these statistics as a Map, for storage in the task result
+         * @return The statistics
+         */
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("report", reportName);
+            map.put("rows", rows.get());
+            map.put("cells", cells.get());
+            map.put("reportMillis", reportMillis);
+            map.put("exportMillis", exportMillis);
+            map.put("rowsPerSecond", rowsPerSecond());
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return "exported " + rows.get() + " rows (" + cells.get() + " values) in " + (exportMillis / 1000.0) + " seconds, " + rowsPerSecond() + " rows/sec; report ran for " + (reportMillis / 1000.0) + " seconds";
+        }
+    }
+
+    /**
+     * The default number of JDBC batches between commits
+     */
+    public static final int DEFAULT_COMMIT_INTERVAL = 10;
+
+    /**
+     * The default number of rows inserted per JDBC batch
+     */
+    public static final int DEFAULT_INSERT_BATCH_SIZE = 1000;
+
+    /**
+     * The default number of parsed chunks that may wait for the database writer
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    /**
+     * The default number of reports to run at once
+     */
+    public static final int DEFAULT_REPORT_CONCURRENCY = 4;
+
+    /**
+     * The 'outputFormat' value for the columnar file output
+     */
+    public static final String OUTPUT_FORMAT_COLUMNAR = "columnar";
+
+    /**
+     * The 'outputFormat' value for the default JDBC output
+     */
+    public static final String OUTPUT_FORMAT_JDBC = "jdbc";
+
+    /**
+     * Column tokens by field name, used to type columnar output
+     */
+    private Map<String, ColumnToken> columnTokens;
+
+    /**
+     * The number of JDBC batches between commits
+     */
+    private int commitInterval;
+
+    /**
+     * The number of rows inserted per JDBC batch
+     */
+    private int insertBatchSize;
+
     private final Log log;
+
+    /**
+     * Messages from the worker threads, copied to the task result by the main thread
+     */
+    private final Queue<Message> messages;
+
+    /**
+     * The output directory for columnar files
+     */
+    private Path outputDirectory;
+
+    /**
+     * The output format
+     */
+    private String outputFormat;
+
+    /**
+     * The number of parsed chunks that may wait for the database writer
+     */
+    private int queueDepth;
+
+    /**
+     * The row group size for columnar files
+     */
+    private int rowGroupSize;
+
     private final AtomicBoolean terminated;
 
     public ReportExporter() {
         this.terminated = new AtomicBoolean();
+        this.messages = new ConcurrentLinkedQueue<>();
         this.log = LogFactory.getLog(ReportExporter.class);
     }
 
+    /**
+     * Adds a message to the queue, to be copied to the task result by the main thread
+     * @param message The message
+     */
+    private void addMessage(Message message) {
+        messages.add(message);
+    }
+
+    /**
+     * Adds an informational message to the queue, prefixed with a timestamp and the report name
+     * @param reportName The report name
+     * @param text The message text
+     */
+    private void addMessage(String reportName, String text) {
+        addMessage(new Message(Message.Type.Info, Utilities.timestamp() + " " + reportName + ": " + text));
+    }
+
+    /**
+     * Copies any queued messages to the task result
+     * @param monitor The task monitor
+     * @throws GeneralException if the task result cannot be updated
+     */
+    private void drainMessages(TaskMonitor monitor) throws GeneralException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        TaskUtil.withLockedMasterResult(monitor, (tr) -> {
+            Message message;
+            while ((message = messages.poll()) != null) {
+                tr.addMessage(message);
+            }
+        });
+    }
+
     @Override
     public void execute(SailPointContext context, TaskSchedule taskSchedule, TaskResult taskResult, Attributes<String, Object> attributes) throws Exception {
         List<String> reportTaskDefNames = attributes.getStringList("reports");
@@ -57,128 +287,129 @@ public class ReportExporter extends AbstractTaskExecutor {
         String username = attributes.getString("username");
         String password = attributes.getString("password");
 
-        ExportConnectionInfo connectionInfo = new ExportConnectionInfo(url, username, password);
-        connectionInfo.setDriver(driver);
+        this.outputFormat = Util.isNotNullOrEmpty(attributes.getString("outputFormat")) ? attributes.getString("outputFormat") : OUTPUT_FORMAT_JDBC;
+        this.rowGroupSize = attributes.getInt("rowGroupSize", ColumnarFileWriter.DEFAULT_ROW_GROUP_SIZE);
+        this.insertBatchSize = Math.max(1, attributes.getInt("insertBatchSize", DEFAULT_INSERT_BATCH_SIZE));
+        this.commitInterval = Math.max(1, attributes.getInt("commitInterval", DEFAULT_COMMIT_INTERVAL));
+        this.queueDepth = Math.max(1, attributes.getInt("queueDepth", DEFAULT_QUEUE_DEPTH));
+        this.columnTokens = new HashMap<>();
+        for(Object column : Util.safeIterable(attributes.getList("columns"))) {
+            ColumnConfig columnConfig = new ColumnConfig(column);
+            this.columnTokens.put(columnConfig.getField(), columnConfig.getColumnToken());
+        }
+
+        ExportConnectionInfo connectionInfo = null;
+        if (OUTPUT_FORMAT_COLUMNAR.equals(outputFormat)) {
+            String directory = attributes.getString("outputDirectory");
+            if (Util.isNullOrEmpty(directory)) {
+                throw new GeneralException("The 'outputDirectory' argument is required for columnar output");
+            }
+            this.outputDirectory = Paths.get(directory);
+            Files.createDirectories(this.outputDirectory);
+        } else if (OUTPUT_FORMAT_JDBC.equals(outputFormat)) {
+            connectionInfo = new ExportConnectionInfo(url, username, password);
+            connectionInfo.setDriver(driver);
+        } else {
+            throw new GeneralException("Unrecognized output format: " + outputFormat);
+        }
 
         TaskMonitor monitor = new TaskMonitor(context, taskResult);
 
         Timestamp taskTimestamp = new Timestamp(System.currentTimeMillis());
 
-        for(String reportIdOrName : reportTaskDefNames) {
-            if (terminated.get()) {
-                break;
-            }
-
+        List<String> reportNames = new ArrayList<>();
+        for(String reportIdOrName : Util.safeIterable(reportTaskDefNames)) {
             TaskDefinition report = context.getObjectByName(TaskDefinition.class, reportIdOrName);
             if (report == null) {
                 TaskUtil.withLockedMasterResult(monitor, (tr) -> {
                     tr.addMessage(Message.error("Unable to find report: {0}", reportIdOrName));
                 });
-                break;
+            } else {
+                reportNames.add(report.getName());
+                context.decache(report);
             }
+        }
 
-            String reportName = report.getName();
+        if (reportNames.isEmpty()) {
+            return;
+        }
 
-            monitor.forceProgress("Executing: " + reportName);
+        // Each report runs and exports on its own worker thread, so the wall-clock time
+        // is roughly that of the slowest report when enough threads are allowed
+        final int concurrency = Math.max(1, Math.min(reportNames.size(), attributes.getInt("reportConcurrency", DEFAULT_REPORT_CONCURRENCY)));
+        final ExportConnectionInfo finalConnectionInfo = connectionInfo;
+        String bulkhead = Util.isNotNullOrEmpty(attributes.getString("bulkhead")) ? attributes.getString("bulkhead") : ManagedWorkerPools.BULKHEAD_REPORTS;
+        int maxPerCaller = ManagedWorkerPools.getMaxPerCaller(bulkhead);
+        if (concurrency > maxPerCaller) {
+            log.warn("Requested " + concurrency + " concurrent reports, but bulkhead " + bulkhead + " allows at most " + maxPerCaller + " per caller");
+        }
+        ExecutorService executor = ManagedWorkerPools.lease(bulkhead, concurrency);
+        Map<String, Future<Map<String, Object>>> futures = new LinkedHashMap<>();
+        try {
+            for (String reportName : reportNames) {
+                futures.put(reportName, executor.submit(() -> exportReport(reportName, finalConnectionInfo, taskTimestamp)));
+            }
+            executor.shutdown();
 
             TaskUtil.withLockedMasterResult(monitor, (tr) -> {
-                tr.addMessage(Utilities.timestamp() + " " + reportName + ": Executing report task");
+                tr.addMessage(Utilities.timestamp() + " Running " + reportNames.size() + " report(s), up to " + Math.min(concurrency, maxPerCaller) + " at a time");
             });
 
-            TaskManager taskManager = new TaskManager(context);
-            TaskSchedule reportTask = taskManager.run(report, new HashMap<>());
-
-            TaskResult reportOutput = null;
-
-            boolean finished = false;
-            while (reportOutput == null && !terminated.get()) {
-                try {
-                    reportOutput = taskManager.awaitTask(reportTask, 60);
-                } catch(GeneralException e) {
-                    if (e.toString().contains("Timeout waiting")) {
-                        log.debug("Still waiting for task " + reportTask.getName());
-                    } else {
-                        throw e;
-                    }
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                drainMessages(monitor);
+                long done = futures.values().stream().filter(Future::isDone).count();
+                monitor.updateProgress("Completed " + done + " of " + futures.size() + " reports");
+                if (terminated.get()) {
+                    executor.shutdownNow();
                 }
             }
+        } finally {
+            executor.shutdownNow();
+        }
 
-            if (terminated.get()) {
-                break;
-            }
-
-            TaskUtil.withLockedMasterResult(monitor, (tr) -> {
-                tr.addMessage(Utilities.timestamp() + " " + reportName + ": Finished running report");
-            });
-
-            if (reportOutput != null) {
-                if (reportOutput.isError()) {
-                    TaskUtil.withLockedMasterResult(monitor, (tr) -> {
-                        tr.addMessage(Message.warn(Utilities.timestamp() + " " + reportName + ": Error running report {0}", tr.getErrors()));
-                    });
-                    continue;
+        List<Map<String, Object>> statistics = new ArrayList<>();
+        for (Map.Entry<String, Future<Map<String, Object>>> entry : futures.entrySet()) {
+            try {
+                Map<String, Object> stats = entry.getValue().get();
+                if (stats != null) {
+                    statistics.add(stats);
                 }
-
-                JasperResult jasperResult = reportOutput.getReport();
-
-                if (jasperResult != null) {
-                    List<PersistedFile> fileList = jasperResult.getFiles();
-                    if (fileList != null) {
-                        Optional<PersistedFile> csvFileMaybe = Utilities.safeStream(fileList).filter(PersistedFile::isCsv).findFirst();
-                        if (csvFileMaybe.isPresent()) {
-                            monitor.forceProgress("Exporting: " + reportName);
-                            PersistedFile csvFile = csvFileMaybe.get();
-                            TaskUtil.withLockedMasterResult(monitor, (tr) -> {
-                                tr.addMessage(Utilities.timestamp() + " " + reportName + ": exporting CSV file " + csvFile.getName());
-                            });
-                            String uuid = UUID.randomUUID().toString();
-                            writeCsvContents(context, connectionInfo, taskTimestamp, uuid, report, csvFile);
-                        } else {
-                            log.warn("Report output did not contain a CSV file");
-                            TaskUtil.withLockedMasterResult(monitor, (tr) -> {
-                                tr.addMessage(Message.warn(Utilities.timestamp() + " " + reportName + ": report output did not contain a CSV file. Is it configured to produce one?"));
-                            });
-                        }
-                    } else {
-                        log.warn("Report output did not contain a list of files; do you need to check CSV on the list?");
-                        TaskUtil.withLockedMasterResult(monitor, (tr) -> {
-                            tr.addMessage(Message.warn(Utilities.timestamp() + " " + reportName + ": report output did not contain any files. Is it configured to produce one?"));
-                        });
-                    }
+            } catch(ExecutionException e) {
+                if (terminated.get()) {
+                    addMessage(new Message(Message.Type.Warn, Utilities.timestamp() + " " + entry.getKey() + ": export was terminated before it completed; its partial output was removed"));
                 } else {
-                    log.warn("TaskResult did not contain a report object");
-                    TaskUtil.withLockedMasterResult(monitor, (tr) -> {
-                        tr.addMessage(Message.warn(Utilities.timestamp() + " " + reportName + ": report task result does not appear to contain a Jasper report result"));
-                    });
+                    log.error("Failed to export report " + entry.getKey(), e.getCause());
+                    addMessage(new Message(Message.Type.Error, Utilities.timestamp() + " " + entry.getKey() + ": export failed: " + e.getCause()));
                 }
-            } else {
-                log.warn("TaskResult did not contain a report object for task: " + reportName);
+            } catch(CancellationException e) {
+                addMessage(new Message(Message.Type.Warn, Utilities.timestamp() + " " + entry.getKey() + ": export was canceled"));
             }
         }
+        drainMessages(monitor);
+        TaskUtil.withLockedMasterResult(monitor, (tr) -> {
+            tr.setAttribute("reportStatistics", statistics);
+        });
     }
 
     /**
-     * Stores the row to the databaes
-     * @param rowInsert The insert prepared statement
-     * @param report The report being invoked
-     * @param rowIndex The ordinal row index
-     * @param row The actual row data from the report
+     * Runs and exports a single report in a private context. This is invoked on a worker
+     * thread for each report, so that several reports can run and export at once.
+     *
+     * @param reportName The report task definition name
+     * @param connectionInfo The connection info, for JDBC output
      * @param taskTimestamp The task timestamp
-     * @throws SQLException if inserting the row fails
+     * @return The export statistics, or null if nothing was exported
+     * @throws Exception if any failures occur
      */
-    private void exportRow(PreparedStatement rowInsert, TaskDefinition report, int rowIndex, Map<String, String> row, Timestamp taskTimestamp, String uuid) throws SQLException {
-        rowInsert.setString(1, report.getName());
-        rowInsert.setString(2, uuid);
-        rowInsert.setInt(3, rowIndex);
-        rowInsert.setTimestamp(6, taskTimestamp);
-
-        for(String key : row.keySet()) {
-            String val = row.get(key);
-            rowInsert.setString(4, key);
-            rowInsert.setString(5, val);
-
-            rowInsert.addBatch();
+    protected Map<String, Object> exportReport(String reportName, ExportConnectionInfo connectionInfo, Timestamp taskTimestamp) throws Exception {
+        ReportStats stats = Utilities.withPrivateContext((privateContext) -> {
+            return runAndExport(privateContext, reportName, connectionInfo, taskTimestamp);
+        });
+        if (stats == null) {
+            return null;
         }
+        addMessage(reportName, stats.toString());
+        return stats.toMap();
     }
 
     /**
@@ -200,63 +431,298 @@ public class ReportExporter extends AbstractTaskExecutor {
     }
 
     /**
-     * Writes the CSV contents from a report into the report export table
+     * Derives the columnar column for the given CSV column from its column token, if any.
+     * Only the type tokens that produce a fixed Java type are mapped; everything else is
+     * stored as a string. Numeric type tokens ('long', 'integer', 'double', 'decimal') map
+     * to LONG or DOUBLE.
+     *
+     * Report CSV output contains dates as formatted text, so a 'timestamp' token maps to a
+     * TIMESTAMP column only if it has a format argument, which is then used to parse the
+     * report's values. A 'timestamp' token without a format is stored as a string.
+     *
+     * @param name The column name in the columnar file
+     * @param header The CSV column header
+     * @return The column
+     */
+    private ColumnarFileWriter.Column columnarColumn(String name, String header) {
+        ColumnToken token = columnTokens.get(header);
+        if (token == null || token.getTypeToken() == null) {
+            return new ColumnarFileWriter.Column(name, ColumnarFileWriter.ColumnType.STRING);
+        }
+        String type = token.getTypeToken();
+        if (type.startsWith("timestamp")) {
+            String format = token.getTypeParameter(0);
+            if (Util.isNotNullOrEmpty(format)) {
+                return new ColumnarFileWriter.Column(name, ColumnarFileWriter.ColumnType.TIMESTAMP, format);
+            }
+        } else if (type.startsWith("boolean")) {
+            return new ColumnarFileWriter.Column(name, ColumnarFileWriter.ColumnType.BOOLEAN);
+        } else if (type.equals("long") || type.equals("integer")) {
+            return new ColumnarFileWriter.Column(name, ColumnarFileWriter.ColumnType.LONG);
+        } else if (type.equals("double") || type.equals("decimal")) {
+            return new ColumnarFileWriter.Column(name, ColumnarFileWriter.ColumnType.DOUBLE);
+        }
+        return new ColumnarFileWriter.Column(name, ColumnarFileWriter.ColumnType.STRING);
+    }
+
+    /**
+     * Reads the CSV output of a report, passing the header and each row to the handler.
+     * If the task is terminated before the whole file is read, this fails.
+     *
+     * @param context The IIQ context
+     * @param csvFile The CSV file report output
+     * @param handler The row handler
+     * @throws Exception if any failures occur
+     */
+    private void readCsvContents(SailPointContext context, PersistedFile csvFile, CsvRowHandler handler) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new PersistedFileInputStream(context, csvFile)))) {
+            RFC4180LineIterator lineIterator = new RFC4180LineIterator(reader);
+            RFC4180LineParser parser = new RFC4180LineParser(',');
+            try {
+                String header = lineIterator.readLine();
+                if (header == null) {
+                    // File is empty
+                    log.info("File " + csvFile.getName() + " is empty");
+                } else {
+                    handler.header(new ArrayList<>(parser.parseLine(header)));
+                    String line;
+                    int rowIndex = 0;
+
+                    while ((line = lineIterator.readLine()) != null) {
+                        if (terminated.get()) {
+                            // Fail rather than stop quietly, so that the partial output is discarded
+                            throw new GeneralException("Report export was terminated after " + rowIndex + " rows");
+                        }
+                        handler.row(rowIndex, parser.parseLine(line));
+                        rowIndex++;
+                    }
+                }
+            } finally {
+                lineIterator.close();
+            }
+        }
+    }
+
+    /**
+     * Runs a single report, waits for it to complete, and exports its CSV output. This
+     * is invoked on a worker thread, so that several reports can run and export at once.
+     * Messages are queued for the main thread to copy to the task result.
+     *
+     * @param context The private context for this worker thread
+     * @param reportName The report task definition name
+     * @param connectionInfo The connection info, for JDBC output
+     * @param taskTimestamp The task timestamp
+     * @return The export statistics, or null if nothing was exported
+     * @throws Exception if any failures occur
+     */
+    private ReportStats runAndExport(SailPointContext context, String reportName, ExportConnectionInfo connectionInfo, Timestamp taskTimestamp) throws Exception {
+        if (terminated.get()) {
+            return null;
+        }
+        TaskDefinition report = context.getObjectByName(TaskDefinition.class, reportName);
+        if (report == null) {
+            addMessage(Message.error("Unable to find report: {0}", reportName));
+            return null;
+        }
+
+        ReportStats stats = new ReportStats(reportName);
+
+        addMessage(reportName, "Executing report task");
+
+        TaskManager taskManager = new TaskManager(context);
+        TaskSchedule reportTask = taskManager.run(report, new HashMap<>());
+
+        TaskResult reportOutput = null;
+
+        while (reportOutput == null && !terminated.get()) {
+            try {
+                reportOutput = taskManager.awaitTask(reportTask, 60);
+            } catch(GeneralException e) {
+                if (e.toString().contains("Timeout waiting")) {
+                    log.debug("Still waiting for task " + reportTask.getName());
+                } else {
+                    throw e;
+                }
+            }
+        }
+
+        if (terminated.get()) {
+            return null;
+        }
+
+        stats.reportMillis = System.currentTimeMillis() - stats.started;
+        addMessage(reportName, "Finished running report");
+
+        if (reportOutput == null) {
+            log.warn("TaskResult did not contain a report object for task: " + reportName);
+            return null;
+        }
+
+        if (reportOutput.isError()) {
+            addMessage(Message.warn(Utilities.timestamp() + " " + reportName + ": Error running report {0}", reportOutput.getErrors()));
+            return null;
+        }
+
+        JasperResult jasperResult = reportOutput.getReport();
+
+        if (jasperResult == null) {
+            log.warn("TaskResult did not contain a report object");
+            addMessage(Message.warn(Utilities.timestamp() + " " + reportName + ": report task result does not appear to contain a Jasper report result"));
+            return null;
+        }
+
+        List<PersistedFile> fileList = jasperResult.getFiles();
+        if (fileList == null) {
+            log.warn("Report output did not contain a list of files; do you need to check CSV on the list?");
+            addMessage(Message.warn(Utilities.timestamp() + " " + reportName + ": report output did not contain any files. Is it configured to produce one?"));
+            return null;
+        }
+
+        Optional<PersistedFile> csvFileMaybe = Utilities.safeStream(fileList).filter(PersistedFile::isCsv).findFirst();
+        if (!csvFileMaybe.isPresent()) {
+            log.warn("Report output did not contain a CSV file");
+            addMessage(Message.warn(Utilities.timestamp() + " " + reportName + ": report output did not contain a CSV file. Is it configured to produce one?"));
+            return null;
+        }
+
+        PersistedFile csvFile = csvFileMaybe.get();
+        addMessage(reportName, "exporting CSV file " + csvFile.getName());
+        String uuid = UUID.randomUUID().toString();
+        long exportStart = System.currentTimeMillis();
+        if (OUTPUT_FORMAT_COLUMNAR.equals(outputFormat)) {
+            Path outputFile = writeColumnarContents(context, uuid, report, csvFile, stats);
+            addMessage(reportName, "wrote " + outputFile);
+        } else {
+            writeCsvContents(context, connectionInfo, taskTimestamp, uuid, report, csvFile, stats);
+        }
+        stats.exportMillis = System.currentTimeMillis() - exportStart;
+        return stats;
+    }
+
+    /**
+     * Streams the CSV contents from a report into a columnar file in the output
+     * directory. Values are converted using the column tokens provided in the
+     * 'columns' argument, if any.
+     *
+     * @param context The IIQ context
+     * @param uuid The run UUID, used in the file name
+     * @param report The report taskdef
+     * @param csvFile The CSV file report output
+     * @param stats The statistics to update
+     * @return The path to the output file
+     * @throws Exception if any failures occur
+     */
+    private Path writeColumnarContents(SailPointContext context, String uuid, TaskDefinition report, PersistedFile csvFile, ReportStats stats) throws Exception {
+        String safeName = report.getName().replaceAll("[^A-Za-z0-9._-]+", "_");
+        Path outputFile = outputDirectory.resolve(safeName + "-" + uuid + ".iiqcol");
+
+        List<ColumnToken> tokens = new ArrayList<>();
+        List<Object> converted = new ArrayList<>();
+        ColumnarFileWriter[] writer = new ColumnarFileWriter[1];
+        boolean success = false;
+        try {
+            readCsvContents(context, csvFile, new CsvRowHandler() {
+                @Override
+                public void header(List<String> headers) throws Exception {
+                    List<ColumnarFileWriter.Column> columns = new ArrayList<>();
+                    Set<String> seen = new HashSet<>();
+                    for (String header : headers) {
+                        String name = header;
+                        for (int suffix = 2; !seen.add(name); suffix++) {
+                            name = header + "_" + suffix;
+                        }
+                        columns.add(columnarColumn(name, header));
+                        tokens.add(columnTokens.get(header));
+                    }
+                    writer[0] = new ColumnarFileWriter(outputFile, columns, rowGroupSize, ColumnarFileWriter.DEFAULT_MAX_DICTIONARY_SIZE);
+                }
+
+                @Override
+                public void row(int rowIndex, List<String> values) throws Exception {
+                    converted.clear();
+                    for (int i = 0; i < values.size() && i < tokens.size(); i++) {
+                        String value = values.get(i);
+                        ColumnToken token = tokens.get(i);
+                        if (Util.isNullOrEmpty(value)) {
+                            converted.add(null);
+                        } else if (token != null && token.getTypeToken() != null && !token.getTypeToken().startsWith("timestamp")) {
+                            converted.add(ResultSetIterator.deriveTypedValue(context, value, token));
+                        } else {
+                            // Formatted dates are parsed by the writer, using the column's date format
+                            converted.add(value);
+                        }
+                    }
+                    writer[0].write(converted);
+                    stats.rows.incrementAndGet();
+                    stats.cells.addAndGet(converted.size());
+                }
+            });
+            if (writer[0] != null) {
+                writer[0].close();
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                // Don't leave a well-formed but truncated file behind for a failed export
+                if (writer[0] != null) {
+                    writer[0].abort();
+                }
+                Files.deleteIfExists(outputFile);
+            }
+        }
+
+        if (writer[0] != null) {
+            log.info("Wrote " + writer[0].getRowCount() + " rows from report " + report.getName() + " to " + outputFile);
+        }
+        return outputFile;
+    }
+
+    /**
+     * Writes the CSV contents from a report into the report export table.
+     *
+     * The CSV is parsed on this thread, which hands the cells to a {@link ReportDataWriter}.
+     * Its writer thread inserts them in JDBC batches of 'insertBatchSize' and commits every
+     * 'commitInterval' batches, so that parsing and database round trips overlap. If
+     * parsing fails or the task is terminated, the writer is closed without finishing,
+     * which removes the rows of this run.
+     *
      * @param context The IIQ context
      * @param connectionInfo The connection info
      * @param taskTimestamp The task timestamp (set at start)
+     * @param uuid The run UUID
      * @param report The report taskdef
      * @param csvFile The CSV file report output
-     * @throws SQLException if any DB failures occur
-     * @throws IOException if any file read failures occur
-     * @throws GeneralException if any IIQ failures occur
+     * @param stats The statistics to update
+     * @throws Exception if any failures occur
      */
-    private void writeCsvContents(SailPointContext context, ExportConnectionInfo connectionInfo, Timestamp taskTimestamp, String uuid, TaskDefinition report, PersistedFile csvFile) throws SQLException, IOException, GeneralException {
-        try (Connection connection = openConnection(context, connectionInfo); PreparedStatement rowInsert = connection.prepareStatement("insert into de_report_data ( report_name, run_uuid, row_index, attribute, value, insert_date ) values (?, ?, ?, ?, ?)")) {
-            int batchCount = 0;
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new PersistedFileInputStream(context, csvFile)))) {
-                RFC4180LineIterator lineIterator = new RFC4180LineIterator(reader);
-                RFC4180LineParser parser = new RFC4180LineParser(',');
-                try {
-                    String header = lineIterator.readLine();
-                    if (header == null) {
-                        // File is empty
-                        log.info("File " + csvFile.getName() + " is empty");
-                    } else {
-                        List<String> headerElements = new ArrayList<>(parser.parseLine(header));
-                        String line;
-                        int rowIndex = 0;
-
-                        while ((line = lineIterator.readLine()) != null && !terminated.get()) {
-                            Map<String, String> row = new HashMap<>();
-                            List<String> csvElements = parser.parseLine(line);
-                            for (int i = 0; i < csvElements.size() && i < headerElements.size(); i++) {
-                                String col = headerElements.get(i);
-                                String val = csvElements.get(i);
-                                if (Util.isNotNullOrEmpty(val)) {
-                                    row.put(col, val);
-                                }
-                            }
-
-                            if (!row.isEmpty()) {
-                                exportRow(rowInsert, report, rowIndex, row, taskTimestamp, uuid);
-                                batchCount++;
-                            }
-
-                            rowIndex++;
-
-                            if (batchCount > 50) {
-                                rowInsert.executeBatch();
-                                batchCount = 0;
-                            }
+    private void writeCsvContents(SailPointContext context, ExportConnectionInfo connectionInfo, Timestamp taskTimestamp, String uuid, TaskDefinition report, PersistedFile csvFile, ReportStats stats) throws Exception {
+        try (Connection connection = openConnection(context, connectionInfo);
+             ReportDataWriter writer = new ReportDataWriter(connection, report.getName(), uuid, taskTimestamp, insertBatchSize, commitInterval, queueDepth)) {
+            writer.start();
+            List<String> headerElements = new ArrayList<>();
+            readCsvContents(context, csvFile, new CsvRowHandler() {
+                @Override
+                public void header(List<String> headers) {
+                    headerElements.addAll(headers);
+                }
 
+                @Override
+                public void row(int rowIndex, List<String> csvElements) throws Exception {
+                    int cells = 0;
+                    for (int i = 0; i < csvElements.size() && i < headerElements.size(); i++) {
+                        String val = csvElements.get(i);
+                        if (Util.isNotNullOrEmpty(val)) {
+                            writer.add(rowIndex, headerElements.get(i), val);
+                            cells++;
                         }
-
-                        rowInsert.executeBatch();
                     }
-                } finally {
-                    lineIterator.close();
+                    if (cells > 0) {
+                        stats.rows.incrementAndGet();
+                        stats.cells.addAndGet(cells);
+                    }
                 }
-            }
+            });
+            writer.finish();
         }
     }
 }
@@ -0,0 +1,502 @@
+package com.identityworksllc.iiq.common.threads;
+
+import com.identityworksllc.iiq.common.Utilities;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import sailpoint.object.Configuration;
+import sailpoint.server.CustomGlobal;
+import sailpoint.tools.Util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-wide, long-lived worker pools, divided into named bulkheads, so that short and
+ * frequent parallel operations (e.g., from rules) do not create and destroy a thread
+ * pool on every call, and so that the total number of worker threads on a node is
+ * bounded.
+ *
+ * Each bulkhead is a fixed-size pool with a bounded queue. Callers do not submit to the
+ * pool directly. Instead, each caller obtains its own {@link ExecutorService} lease via
+ * {@link #lease(String, int)}. A lease runs at most its requested parallelism (capped
+ * by the bulkhead's per-caller limit) at once and holds the rest of its work locally,
+ * so that one large caller cannot fill the shared queue ahead of everyone else. If the
+ * shared queue is full, the lease retries as soon as any task in the bulkhead finishes.
+ * Submitting to a lease blocks once it holds more than the bulkhead's queue bound, which
+ * provides back-pressure. Shutting down a lease does not affect the bulkhead.
+ *
+ * Like {@link Utilities#getSharedBackgroundPool()}, the pools are stored in {@link CustomGlobal},
+ * so they are shared across plugin classloaders. Only JDK types are stored there.
+ *
+ * Bulkheads are configured in the SystemConfiguration key `commonWorkerPoolBulkheads`, a
+ * Map from bulkhead name to a Map with the keys `size`, `queue`, and `maxPerCaller`. The
+ * configuration is read when a bulkhead is first used; later changes require a restart.
+ *
+ * ```
+ * ExecutorService executor = ManagedWorkerPools.lease(ManagedWorkerPools.BULKHEAD_QUERY, 4);
+ * executor.submit(worker.runnable());
+ * executor.shutdown();
+ * executor.awaitTermination(1, TimeUnit.MINUTES);
+ * ```
+ */
+public final class ManagedWorkerPools {
+    /**
+     * A single caller's view of a bulkhead
+     */
+    private static final class Lease extends AbstractExecutorService {
+        /**
+         * A task submitted to the bulkhead on behalf of this lease, which notifies the
+         * lease when it completes or is cancelled
+         */
+        private final class Tracked extends FutureTask<Void> {
+            /**
+             * Constructs a new tracked task
+             * @param task The caller's task
+             */
+            private Tracked(Runnable task) {
+                super(task, null);
+            }
+
+            @Override
+            protected void done() {
+                finished(this);
+            }
+        }
+
+        /**
+         * The bulkhead's count of active leases
+         */
+        private final AtomicInteger callers;
+
+        /**
+         * The maximum number of this lease's tasks in the bulkhead at once
+         */
+        private final int limit;
+
+        /**
+         * The maximum number of tasks held locally before submission blocks
+         */
+        private final int maxPending;
+
+        /**
+         * Tasks not yet submitted to the bulkhead
+         */
+        private final Queue<Runnable> pending;
+
+        /**
+         * The bulkhead's pool
+         */
+        private final ThreadPoolExecutor pool;
+
+        /**
+         * The bulkhead's count of rejected submissions
+         */
+        private final AtomicLong rejected;
+
+        /**
+         * True if this lease is registered in the bulkhead's waiting queue
+         */
+        private boolean registeredWaiting;
+
+        /**
+         * The callback used to retry submission after a rejection
+         */
+        private final Runnable retry;
+
+        /**
+         * This lease's tasks currently in the bulkhead
+         */
+        private final Set<Tracked> running;
+
+        /**
+         * True once the lease has been shut down
+         */
+        private boolean shutdown;
+
+        /**
+         * The bulkhead's queue of leases waiting to retry after a rejection
+         */
+        private final Queue<Runnable> waiting;
+
+        /**
+         * Constructs a new lease
+         *
+         * @param bulkhead The bulkhead's state
+         * @param limit The maximum parallelism of this lease
+         * @param maxPending The maximum number of tasks held locally
+         */
+        private Lease(Map<String, Object> bulkhead, int limit, int maxPending) {
+            this.pool = (ThreadPoolExecutor) bulkhead.get(KEY_EXECUTOR);
+            this.rejected = (AtomicLong) bulkhead.get(KEY_REJECTED);
+            this.callers = (AtomicInteger) bulkhead.get(KEY_CALLERS);
+            @SuppressWarnings("unchecked")
+            Queue<Runnable> waitingQueue = (Queue<Runnable>) bulkhead.get(KEY_WAITING);
+            this.waiting = waitingQueue;
+            this.limit = limit;
+            this.maxPending = maxPending;
+            this.pending = new ArrayDeque<>();
+            this.running = new HashSet<>();
+            this.retry = this::retry;
+            this.callers.incrementAndGet();
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                dispatch();
+                this.wait(Math.max(1L, Math.min(TimeUnit.NANOSECONDS.toMillis(remaining), 100L)));
+            }
+            return true;
+        }
+
+        /**
+         * Submits pending tasks to the bulkhead, up to this lease's limit. If the bulkhead
+         * rejects a task, this lease registers itself to be retried. Must be called while
+         * holding this lease's monitor.
+         */
+        private void dispatch() {
+            while (running.size() < limit && !pending.isEmpty()) {
+                Tracked task = new Tracked(pending.peek());
+                running.add(task);
+                try {
+                    pool.execute(task);
+                } catch (RejectedExecutionException e) {
+                    running.remove(task);
+                    rejected.incrementAndGet();
+                    if (!registeredWaiting) {
+                        registeredWaiting = true;
+                        waiting.add(retry);
+                    }
+                    return;
+                }
+                pending.poll();
+            }
+            if (isTerminated()) {
+                this.notifyAll();
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                if (shutdown) {
+                    throw new RejectedExecutionException("This worker pool lease has been shut down");
+                }
+                try {
+                    while (pending.size() >= maxPending) {
+                        dispatch();
+                        if (pending.size() < maxPending) {
+                            break;
+                        }
+                        this.wait(50L);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+                pending.add(command);
+                dispatch();
+            }
+        }
+
+        /**
+         * Invoked when one of this lease's tasks completes or is cancelled. Submits more
+         * of this lease's work, then gives one waiting lease a chance to retry.
+         *
+         * @param task The completed task
+         */
+        private void finished(Tracked task) {
+            synchronized (this) {
+                running.remove(task);
+                dispatch();
+                this.notifyAll();
+            }
+            Runnable next = waiting.poll();
+            if (next != null) {
+                next.run();
+            }
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && running.isEmpty() && pending.isEmpty();
+        }
+
+        /**
+         * Retries submission after a rejection
+         */
+        private void retry() {
+            synchronized (this) {
+                registeredWaiting = false;
+                dispatch();
+            }
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            if (!shutdown) {
+                shutdown = true;
+                callers.decrementAndGet();
+            }
+            dispatch();
+        }
+
+        @Override
+        public synchronized List<Runnable> shutdownNow() {
+            shutdown();
+            List<Runnable> dropped = new ArrayList<>(pending);
+            pending.clear();
+            for (Tracked task : new ArrayList<>(running)) {
+                pool.remove(task);
+                task.cancel(true);
+            }
+            this.notifyAll();
+            return dropped;
+        }
+    }
+
+    /**
+     * The bulkhead used by {@link ParallelProvisioner}
+     */
+    public static final String BULKHEAD_PROVISIONING = "provisioning";
+
+    /**
+     * The bulkhead used by {@link com.identityworksllc.iiq.common.query.QueryUtil#parallelIterateQuery}
+     */
+    public static final String BULKHEAD_QUERY = "query";
+
+    /**
+     * The bulkhead used by long-running export tasks, such as {@link com.identityworksllc.iiq.common.task.export.ReportExporter}
+     * and {@link com.identityworksllc.iiq.common.task.AuditEventExportTask}
+     */
+    public static final String BULKHEAD_REPORTS = "reports";
+
+    /**
+     * The SystemConfiguration key for bulkhead configuration
+     */
+    public static final String CONFIG_BULKHEADS = "commonWorkerPoolBulkheads";
+
+    /**
+     * The default queue bound of a bulkhead
+     */
+    public static final int DEFAULT_QUEUE = 1000;
+
+    /**
+     * The default number of threads in a bulkhead
+     */
+    public static final int DEFAULT_SIZE = 8;
+
+    /**
+     * The name of the bulkhead registry in CustomGlobal
+     */
+    public static final String IDW_WORKER_POOL_BULKHEADS = Utilities.IDW_WORKER_POOL + ".bulkheads";
+
+    /**
+     * Bulkhead state key: the count of active leases
+     */
+    private static final String KEY_CALLERS = "callers";
+
+    /**
+     * Bulkhead state key: the pool
+     */
+    private static final String KEY_EXECUTOR = "executor";
+
+    /**
+     * Bulkhead state key: the maximum parallelism per lease
+     */
+    private static final String KEY_MAX_PER_CALLER = "maxPerCaller";
+
+    /**
+     * Bulkhead state key: the queue bound
+     */
+    private static final String KEY_QUEUE = "queue";
+
+    /**
+     * Bulkhead state key: the count of rejected submissions
+     */
+    private static final String KEY_REJECTED = "rejected";
+
+    /**
+     * Bulkhead state key: the queue of leases waiting to retry
+     */
+    private static final String KEY_WAITING = "waiting";
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(ManagedWorkerPools.class);
+
+    /**
+     * Private utility constructor
+     */
+    private ManagedWorkerPools() {
+
+    }
+
+    /**
+     * Creates the state for a new bulkhead, reading its configuration from SystemConfiguration
+     *
+     * @param name The bulkhead name
+     * @return The bulkhead state
+     */
+    private static Map<String, Object> createBulkhead(String name) {
+        int size = DEFAULT_SIZE;
+        int queue = DEFAULT_QUEUE;
+        int maxPerCaller = 0;
+        Configuration systemConfig = Configuration.getSystemConfig();
+        if (systemConfig != null) {
+            Integer parallelism = systemConfig.getInteger("commonThreadPoolParallelism");
+            if (parallelism != null && parallelism > 1) {
+                size = parallelism;
+            }
+            Object bulkheads = systemConfig.get(CONFIG_BULKHEADS);
+            if (bulkheads instanceof Map && ((Map<?, ?>) bulkheads).get(name) instanceof Map) {
+                Map<?, ?> config = (Map<?, ?>) ((Map<?, ?>) bulkheads).get(name);
+                if (config.get("size") != null) {
+                    size = Math.max(1, Util.otoi(config.get("size")));
+                }
+                if (config.get("queue") != null) {
+                    queue = Math.max(1, Util.otoi(config.get("queue")));
+                }
+                if (config.get("maxPerCaller") != null) {
+                    maxPerCaller = Util.otoi(config.get("maxPerCaller"));
+                }
+            }
+        }
+        if (maxPerCaller < 1 || maxPerCaller > size) {
+            maxPerCaller = size;
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue));
+        executor.allowCoreThreadTimeOut(true);
+
+        log.info("Creating worker pool bulkhead " + name + " with size = " + size + ", queue = " + queue + ", maxPerCaller = " + maxPerCaller);
+
+        Map<String, Object> bulkhead = new ConcurrentHashMap<>();
+        bulkhead.put(KEY_EXECUTOR, executor);
+        bulkhead.put(KEY_QUEUE, queue);
+        bulkhead.put(KEY_MAX_PER_CALLER, maxPerCaller);
+        bulkhead.put(KEY_REJECTED, new AtomicLong());
+        bulkhead.put(KEY_CALLERS, new AtomicInteger());
+        bulkhead.put(KEY_WAITING, new ConcurrentLinkedQueue<Runnable>());
+        return bulkhead;
+    }
+
+    /**
+     * Gets the state of the named bulkhead, creating it if needed
+     *
+     * @param name The bulkhead name
+     * @return The bulkhead state
+     */
+    private static Map<String, Object> getBulkhead(String name) {
+        return getRegistry().computeIfAbsent(name, ManagedWorkerPools::createBulkhead);
+    }
+
+    /**
+     * Returns the per-caller limit of the named bulkhead, creating the bulkhead if needed.
+     * A lease requesting more parallelism than this will be capped at this value.
+     *
+     * @param bulkhead The bulkhead name
+     * @return The maximum parallelism of a single lease
+     */
+    public static int getMaxPerCaller(String bulkhead) {
+        if (Util.isNullOrEmpty(bulkhead)) {
+            throw new IllegalArgumentException("A bulkhead name is required");
+        }
+        return (Integer) getBulkhead(bulkhead).get(KEY_MAX_PER_CALLER);
+    }
+
+    /**
+     * Returns live metrics for every bulkhead created on this node: the pool size, the
+     * number of threads, active tasks, queued tasks, completed tasks, rejected submissions,
+     * and active leases.
+     *
+     * @return The metrics, by bulkhead name
+     */
+    public static Map<String, Map<String, Object>> getMetrics() {
+        Map<String, Map<String, Object>> metrics = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : getRegistry().entrySet()) {
+            Map<String, Object> bulkhead = entry.getValue();
+            ThreadPoolExecutor executor = (ThreadPoolExecutor) bulkhead.get(KEY_EXECUTOR);
+            Map<String, Object> values = new HashMap<>();
+            values.put("size", executor.getMaximumPoolSize());
+            values.put("threads", executor.getPoolSize());
+            values.put("active", executor.getActiveCount());
+            values.put("queued", executor.getQueue().size());
+            values.put("completed", executor.getCompletedTaskCount());
+            values.put("rejected", ((AtomicLong) bulkhead.get(KEY_REJECTED)).get());
+            values.put("callers", ((AtomicInteger) bulkhead.get(KEY_CALLERS)).get());
+            values.put("maxPerCaller", bulkhead.get(KEY_MAX_PER_CALLER));
+            metrics.put(entry.getKey(), values);
+        }
+        return metrics;
+    }
+
+    /**
+     * Gets the bulkhead registry from CustomGlobal, creating it if needed
+     *
+     * @return The registry
+     */
+    @SuppressWarnings("unchecked")
+    private static ConcurrentMap<String, Map<String, Object>> getRegistry() {
+        ConcurrentMap<String, Map<String, Object>> registry = (ConcurrentMap<String, Map<String, Object>>) CustomGlobal.get(IDW_WORKER_POOL_BULKHEADS);
+        if (registry == null) {
+            synchronized (CustomGlobal.class) {
+                registry = (ConcurrentMap<String, Map<String, Object>>) CustomGlobal.get(IDW_WORKER_POOL_BULKHEADS);
+                if (registry == null) {
+                    registry = new ConcurrentHashMap<>();
+                    CustomGlobal.put(IDW_WORKER_POOL_BULKHEADS, registry);
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Obtains a new lease on the named bulkhead, which can be used like any other
+     * ExecutorService. The caller must shut down the lease when it has submitted all of
+     * its work; this does not affect the bulkhead or any other lease.
+     *
+     * @param bulkhead The bulkhead name
+     * @param parallelism The maximum number of this caller's tasks to run at once, which will be capped at the bulkhead's per-caller limit
+     * @return A new lease
+     */
+    public static ExecutorService lease(String bulkhead, int parallelism) {
+        if (Util.isNullOrEmpty(bulkhead)) {
+            throw new IllegalArgumentException("A bulkhead name is required");
+        }
+        Map<String, Object> state = getBulkhead(bulkhead);
+        int maxPerCaller = (Integer) state.get(KEY_MAX_PER_CALLER);
+        int limit = Math.max(1, Math.min(parallelism, maxPerCaller));
+        return new Lease(state, limit, (Integer) state.get(KEY_QUEUE));
+    }
+}
@@ -189,20 +189,25 @@ public class ParallelProvisioner {
     }
 
     /**
-     * Provisions the given set of plans in the thread pool.
+     * Provisions the given set of plans in the node-wide {@link ManagedWorkerPools#BULKHEAD_PROVISIONING}
+     * bulkhead, running at most the configured number of plans at once.
      *
      * @param plans The plans to provision
      * @return A set of {@link ParallelProvisioningTask} objects, each representing the (future) outcome of one plan execution
      */
     public List<ParallelProvisioningTask> provisionPlans(List<ProvisioningPlan> plans) {
         if (log.isDebugEnabled()) {
-            log.debug("Submitting " + plans.size() + " plans to a thread pool of size " + threads);
+            log.debug("Submitting " + plans.size() + " plans to the shared provisioning worker pool with parallelism " + threads);
         }
 
         List<ParallelProvisioningTask> futures = new ArrayList<>();
 
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 180, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
-        executor.allowCoreThreadTimeOut(true);
+        int maxPerCaller = ManagedWorkerPools.getMaxPerCaller(ManagedWorkerPools.BULKHEAD_PROVISIONING);
+        if (threads > maxPerCaller) {
+            log.warn("Requested parallelism " + threads + " exceeds the per-caller limit of the " + ManagedWorkerPools.BULKHEAD_PROVISIONING + " worker pool bulkhead; at most " + maxPerCaller + " plans will run at once");
+        }
+
+        ExecutorService executor = ManagedWorkerPools.lease(ManagedWorkerPools.BULKHEAD_PROVISIONING, threads);
 
         for(ProvisioningPlan plan : plans) {
             Future<Maybe<ProvisioningProject>> future = executor.submit(
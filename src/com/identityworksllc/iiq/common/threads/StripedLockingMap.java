@@ -0,0 +1,618 @@
+package com.identityworksllc.iiq.common.threads;
+
+import bsh.This;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A keyed companion to {@link LockingObjectReference}, for shared state (e.g., a lookup
+ * map or an accumulator) used by many threads at once. Rather than one lock for the whole
+ * structure, each key is guarded by one of a fixed number of fair lock stripes, chosen by
+ * the key's hash, so threads working on different keys rarely wait for each other.
+ *
+ * Values are modified via {@link #lockAndAct(Object, KeyedLockedAction)}, which locks the
+ * key's stripe, passes the current value to the action, and stores the value it returns.
+ * Returning null removes the key. As with LockingObjectReference, threads wait forever,
+ * emitting an INFO message every 30 seconds while waiting. Use
+ * {@link #tryLockAndAct(Object, long, TimeUnit, KeyedLockedAction)} to give up after a
+ * timeout instead.
+ *
+ * If constructed with read/write separation, {@link #readAndAct(Object, LockingObjectReference.LockedObjectAction)}
+ * takes a shared read lock, so that readers of a stripe do not block each other. Otherwise,
+ * reads take the same exclusive lock as writes.
+ *
+ * Each stripe records the number of acquisitions, how many of those had to wait, the
+ * total and maximum wait and hold times, timeouts, and the current and maximum number
+ * of waiting threads. These are available from {@link #getMetrics()}, so that hot spots
+ * are visible.
+ *
+ * Counters and appenders do not need a lock at all. The methods {@link #add(Object, long)},
+ * {@link #increment(Object)}, and {@link #append(Object, Object)} use a {@link LongAdder}
+ * or a concurrent queue per key and never block. These are stored separately from the
+ * locked values.
+ *
+ * ```
+ * StripedLockingMap<String, Map<String, Object>> cache = new StripedLockingMap<>(64, true);
+ * cache.lockAndAct(identityName, (key, existing) -> {
+ *     Map<String, Object> value = (existing != null) ? existing : new HashMap<>();
+ *     value.put("seen", true);
+ *     return value;
+ * });
+ * cache.increment("processed");
+ * ```
+ *
+ * From Beanshell, pass 'this' and the name of a method taking the key and the current
+ * value and returning the new value:
+ *
+ * ```
+ * stripedMap.lockAndAct(key, this, "beanshellMethodName");
+ * ```
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public final class StripedLockingMap<K, V> {
+    /**
+     * The interface to be implemented by any keyed locked actions
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    @FunctionalInterface
+    public interface KeyedLockedAction<K, V> {
+        /**
+         * The action to take while the key's stripe is locked
+         * @param key The key
+         * @param value The current value, or null if there is none
+         * @return The new value, or null to remove the key
+         * @throws GeneralException if any failures occur
+         */
+        V apply(K key, V value) throws GeneralException;
+    }
+
+    /**
+     * A special instance of KeyedLockedAction for Beanshell execution purposes
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    private static class BeanshellKeyedLockedAction<K, V> implements KeyedLockedAction<K, V> {
+
+        private final String methodName;
+        private final This thisObject;
+
+        public BeanshellKeyedLockedAction(bsh.This thisObject, String methodName) {
+            this.thisObject = thisObject;
+            this.methodName = methodName;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V apply(K key, V value) throws GeneralException {
+            try {
+                Object[] inputs = new Object[] { key, value };
+                return (V) thisObject.invokeMethod(methodName, inputs);
+            } catch(Exception e) {
+                throw new GeneralException(e);
+            }
+        }
+    }
+
+    /**
+     * One lock stripe and its contention metrics
+     */
+    private static final class Stripe {
+        /**
+         * The number of lock acquisitions
+         */
+        private final LongAdder acquisitions;
+
+        /**
+         * The number of lock acquisitions that had to wait
+         */
+        private final LongAdder contended;
+
+        /**
+         * The exclusive lock, if read/write separation is not in use
+         */
+        private final ReentrantLock exclusive;
+
+        /**
+         * The longest time the lock has been held, in nanoseconds
+         */
+        private final AtomicLong maxHoldNanos;
+
+        /**
+         * The largest number of threads observed waiting for the lock
+         */
+        private final AtomicLong maxQueueLength;
+
+        /**
+         * The longest time a thread has waited for the lock, in nanoseconds
+         */
+        private final AtomicLong maxWaitNanos;
+
+        /**
+         * The read/write lock, if read/write separation is in use
+         */
+        private final ReentrantReadWriteLock readWrite;
+
+        /**
+         * The number of acquisitions that gave up after a timeout
+         */
+        private final LongAdder timeouts;
+
+        /**
+         * The total time the lock has been held, in nanoseconds
+         */
+        private final LongAdder totalHoldNanos;
+
+        /**
+         * The total time threads have waited for the lock, in nanoseconds
+         */
+        private final LongAdder totalWaitNanos;
+
+        /**
+         * Constructs a new stripe
+         * @param separateReads True if a read/write lock should be used
+         */
+        private Stripe(boolean separateReads) {
+            this.exclusive = separateReads ? null : new ReentrantLock(true);
+            this.readWrite = separateReads ? new ReentrantReadWriteLock(true) : null;
+            this.acquisitions = new LongAdder();
+            this.contended = new LongAdder();
+            this.timeouts = new LongAdder();
+            this.totalHoldNanos = new LongAdder();
+            this.totalWaitNanos = new LongAdder();
+            this.maxHoldNanos = new AtomicLong();
+            this.maxQueueLength = new AtomicLong();
+            this.maxWaitNanos = new AtomicLong();
+        }
+
+        /**
+         * Returns the lock to use for the given kind of access
+         * @param shared True for read access
+         * @return The lock
+         */
+        private Lock lock(boolean shared) {
+            if (readWrite == null) {
+                return exclusive;
+            }
+            return shared ? readWrite.readLock() : readWrite.writeLock();
+        }
+
+        /**
+         * Returns the number of threads currently waiting for this stripe
+         * @return The estimated queue length
+         */
+        private int queueLength() {
+            return (readWrite == null) ? exclusive.getQueueLength() : readWrite.getQueueLength();
+        }
+
+        /**
+         * Records a completed hold of the lock
+         * @param nanos The hold time
+         */
+        private void recordHold(long nanos) {
+            totalHoldNanos.add(nanos);
+            maxHoldNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        /**
+         * Records a wait for the lock
+         * @param nanos The wait time
+         * @param acquired True if the lock was acquired, false on timeout
+         */
+        private void recordWait(long nanos, boolean acquired) {
+            totalWaitNanos.add(nanos);
+            maxWaitNanos.accumulateAndGet(nanos, Math::max);
+            if (acquired) {
+                acquisitions.increment();
+            } else {
+                timeouts.increment();
+            }
+        }
+
+        /**
+         * Returns a snapshot of this stripe's metrics
+         * @param index The stripe index
+         * @return The metrics
+         */
+        private Map<String, Object> snapshot(int index) {
+            Map<String, Object> values = new HashMap<>();
+            values.put("stripe", index);
+            values.put("acquisitions", acquisitions.sum());
+            values.put("contended", contended.sum());
+            values.put("timeouts", timeouts.sum());
+            values.put("totalWaitMillis", TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum()));
+            values.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+            values.put("totalHoldMillis", TimeUnit.NANOSECONDS.toMillis(totalHoldNanos.sum()));
+            values.put("maxHoldMillis", TimeUnit.NANOSECONDS.toMillis(maxHoldNanos.get()));
+            values.put("queueLength", queueLength());
+            values.put("maxQueueLength", maxQueueLength.get());
+            return values;
+        }
+    }
+
+    /**
+     * The default number of stripes
+     */
+    public static final int DEFAULT_STRIPES = 32;
+
+    /**
+     * The lock-free appenders, by key
+     */
+    private final ConcurrentHashMap<K, Queue<Object>> appenders;
+
+    /**
+     * The lock-free counters, by key
+     */
+    private final ConcurrentHashMap<K, LongAdder> counters;
+
+    private final Log log;
+
+    /**
+     * The mask used to choose a stripe from a hash
+     */
+    private final int mask;
+
+    /**
+     * The lock stripes
+     */
+    private final Stripe[] stripes;
+
+    private final String uuid;
+
+    /**
+     * The locked values, by key
+     */
+    private final ConcurrentHashMap<K, V> values;
+
+    /**
+     * Constructs a new map with the default number of stripes and no read/write separation
+     */
+    public StripedLockingMap() {
+        this(DEFAULT_STRIPES, false);
+    }
+
+    /**
+     * Constructs a new map
+     * @param stripeCount The number of stripes, which will be rounded up to a power of two
+     * @param separateReads True if reads should take a shared lock rather than an exclusive one
+     */
+    public StripedLockingMap(int stripeCount, boolean separateReads) {
+        int size = 1;
+        while (size < stripeCount && size < (1 << 16)) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe(separateReads);
+        }
+        this.mask = size - 1;
+        this.values = new ConcurrentHashMap<>();
+        this.counters = new ConcurrentHashMap<>();
+        this.appenders = new ConcurrentHashMap<>();
+        this.log = LogFactory.getLog(this.getClass());
+        this.uuid = UUID.randomUUID().toString();
+    }
+
+    /**
+     * Atomically adds the given amount to the key's counter, without locking
+     * @param key The counter key
+     * @param amount The amount to add
+     */
+    public void add(K key, long amount) {
+        counters.computeIfAbsent(requireKey(key), k -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Appends the given value to the key's list, without locking
+     * @param key The list key
+     * @param value The value to append
+     */
+    public void append(K key, Object value) {
+        appenders.computeIfAbsent(requireKey(key), k -> new ConcurrentLinkedQueue<>()).add(value);
+    }
+
+    /**
+     * Acquires the given lock, waiting forever if necessary and logging periodically
+     * @param stripe The stripe being locked
+     * @param lock The lock to acquire
+     * @throws GeneralException if the thread is interrupted while waiting
+     */
+    private void acquire(Stripe stripe, Lock lock) throws GeneralException {
+        final long startTime = System.nanoTime();
+        long lastNotification = startTime;
+        try {
+            // A zero timeout, unlike tryLock(), honors the fairness policy
+            if (lock.tryLock(0, TimeUnit.NANOSECONDS)) {
+                stripe.recordWait(0L, true);
+                return;
+            }
+            stripe.contended.increment();
+            stripe.maxQueueLength.accumulateAndGet(stripe.queueLength() + 1, Math::max);
+            boolean locked = false;
+            while (!locked) {
+                locked = lock.tryLock(10, TimeUnit.SECONDS);
+                if (!locked) {
+                    long now = System.nanoTime();
+                    if (now - lastNotification > TimeUnit.SECONDS.toNanos(30)) {
+                        lastNotification = now;
+                        if (log.isInfoEnabled()) {
+                            log.info("Thread " + Thread.currentThread().getName() + " has been waiting " + TimeUnit.NANOSECONDS.toSeconds(now - startTime) + " seconds for stripe " + stripeIndex(stripe) + " of lock " + uuid);
+                        }
+                    }
+                }
+            }
+            stripe.recordWait(System.nanoTime() - startTime, true);
+            if (log.isDebugEnabled()) {
+                log.debug("Thread " + Thread.currentThread().getName() + " acquired stripe " + stripeIndex(stripe) + " of lock " + uuid);
+            }
+        } catch(InterruptedException e) {
+            stripe.recordWait(System.nanoTime() - startTime, false);
+            throw new GeneralException(e);
+        }
+    }
+
+    /**
+     * Removes all locked values, counters, and appended values. Metrics are not reset.
+     */
+    public void clear() {
+        values.clear();
+        counters.clear();
+        appenders.clear();
+    }
+
+    /**
+     * Returns the current locked value for the key, without locking. The value may be
+     * in the middle of modification by another thread, so this is only suitable for
+     * immutable values or for monitoring.
+     *
+     * @param key The key
+     * @return The current value, or null
+     */
+    public V get(K key) {
+        return values.get(requireKey(key));
+    }
+
+    /**
+     * Returns a copy of the values appended to the given key, in the order appended
+     * @param key The list key
+     * @return The appended values, or an empty list
+     */
+    public List<Object> getAppended(K key) {
+        Queue<Object> queue = appenders.get(requireKey(key));
+        if (queue == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(queue);
+    }
+
+    /**
+     * Returns the current total of the given counter
+     * @param key The counter key
+     * @return The counter's total, or zero if it has never been incremented
+     */
+    public long getCount(K key) {
+        LongAdder adder = counters.get(requireKey(key));
+        return (adder == null) ? 0L : adder.sum();
+    }
+
+    /**
+     * Returns a snapshot of the totals of every counter
+     * @return The counter totals, by key
+     */
+    public Map<K, Long> getCounts() {
+        Map<K, Long> result = new HashMap<>();
+        for (Map.Entry<K, LongAdder> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the contention metrics for every stripe, in stripe order. Times are in
+     * milliseconds. The 'queueLength' value is the current number of waiting threads.
+     *
+     * @return The metrics of each stripe
+     */
+    public List<Map<String, Object>> getMetrics() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int i = 0; i < stripes.length; i++) {
+            result.add(stripes[i].snapshot(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of lock stripes
+     * @return The number of stripes
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Atomically increments the key's counter, without locking
+     * @param key The counter key
+     */
+    public void increment(K key) {
+        add(key, 1L);
+    }
+
+    /**
+     * Locks the key's stripe exclusively (waiting forever if necessary), then passes
+     * the key and its current value to the action, storing the value it returns.
+     *
+     * @param key The key
+     * @param action The action to invoke while the stripe is locked
+     * @return The new value
+     * @throws GeneralException if any failures occur
+     */
+    public V lockAndAct(K key, KeyedLockedAction<K, V> action) throws GeneralException {
+        Stripe stripe = stripeFor(key);
+        Lock lock = stripe.lock(false);
+        acquire(stripe, lock);
+        return runLocked(stripe, lock, key, action);
+    }
+
+    /**
+     * Locks the key's stripe exclusively, then passes the key and its current value to
+     * the given Beanshell method, storing the value it returns.
+     *
+     * @param key The key
+     * @param beanshell The Beanshell context ('this' in a script)
+     * @param methodName The name of a Beanshell method in the current 'this' context or a parent
+     * @return The new value
+     * @throws GeneralException if any failures occur
+     */
+    public V lockAndAct(K key, bsh.This beanshell, String methodName) throws GeneralException {
+        return lockAndAct(key, new BeanshellKeyedLockedAction<>(beanshell, methodName));
+    }
+
+    /**
+     * Locks the key's stripe for reading (waiting forever if necessary), then passes
+     * the current value to the action. The action must not modify the value, and must
+     * not call {@link #lockAndAct(Object, KeyedLockedAction)}, since a read lock cannot
+     * be upgraded. If this map does not separate reads, the stripe is locked exclusively.
+     *
+     * @param key The key
+     * @param action The action to invoke while the stripe is locked
+     * @throws GeneralException if any failures occur
+     */
+    public void readAndAct(K key, LockingObjectReference.LockedObjectAction<V> action) throws GeneralException {
+        Stripe stripe = stripeFor(key);
+        Lock lock = stripe.lock(true);
+        acquire(stripe, lock);
+        final long acquired = System.nanoTime();
+        try {
+            action.accept(values.get(key));
+        } finally {
+            stripe.recordHold(System.nanoTime() - acquired);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Throws an exception if the key is null
+     * @param key The key
+     * @return The key
+     */
+    private K requireKey(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("A non-null key is required");
+        }
+        return key;
+    }
+
+    /**
+     * Runs the action against the key's current value while the lock is held, storing
+     * the result, then releases the lock
+     *
+     * @param stripe The locked stripe
+     * @param lock The held lock
+     * @param key The key
+     * @param action The action
+     * @return The new value
+     * @throws GeneralException if the action fails
+     */
+    private V runLocked(Stripe stripe, Lock lock, K key, KeyedLockedAction<K, V> action) throws GeneralException {
+        final long acquired = System.nanoTime();
+        try {
+            V result = action.apply(key, values.get(key));
+            if (result == null) {
+                values.remove(key);
+            } else {
+                values.put(key, result);
+            }
+            return result;
+        } finally {
+            stripe.recordHold(System.nanoTime() - acquired);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the index of the given stripe, for logging
+     * @param stripe The stripe
+     * @return The index
+     */
+    private int stripeIndex(Stripe stripe) {
+        for (int i = 0; i < stripes.length; i++) {
+            if (stripes[i] == stripe) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the stripe guarding the given key, spreading the hash so that keys whose
+     * hashes differ only in the high bits still land on different stripes
+     *
+     * @param key The key
+     * @return The stripe
+     */
+    private Stripe stripeFor(K key) {
+        int h = requireKey(key).hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & mask];
+    }
+
+    /**
+     * Attempts to lock the key's stripe exclusively, waiting at most the given time.
+     * If the lock is acquired, passes the key and its current value to the action and
+     * stores the value it returns.
+     *
+     * @param key The key
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @param action The action to invoke while the stripe is locked
+     * @return True if the lock was acquired and the action was invoked, false on timeout
+     * @throws GeneralException if the action fails or the thread is interrupted
+     */
+    public boolean tryLockAndAct(K key, long timeout, TimeUnit unit, KeyedLockedAction<K, V> action) throws GeneralException {
+        Stripe stripe = stripeFor(key);
+        Lock lock = stripe.lock(false);
+        final long startTime = System.nanoTime();
+        boolean locked;
+        try {
+            locked = lock.tryLock(0, TimeUnit.NANOSECONDS);
+            if (!locked) {
+                stripe.contended.increment();
+                stripe.maxQueueLength.accumulateAndGet(stripe.queueLength() + 1, Math::max);
+                locked = lock.tryLock(timeout, unit);
+                stripe.recordWait(System.nanoTime() - startTime, locked);
+            } else {
+                stripe.recordWait(0L, true);
+            }
+        } catch(InterruptedException e) {
+            stripe.recordWait(System.nanoTime() - startTime, false);
+            throw new GeneralException(e);
+        }
+        if (!locked) {
+            if (log.isDebugEnabled()) {
+                log.debug("Thread " + Thread.currentThread().getName() + " timed out waiting for stripe " + stripeIndex(stripe) + " of lock " + uuid);
+            }
+            return false;
+        }
+        runLocked(stripe, lock, key, action);
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.request.AccountAggregationExecutor;
+import com.identityworksllc.iiq.common.vo.OutcomeType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.ObjectUtil;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.Request;
+import sailpoint.object.RequestDefinition;
+import sailpoint.request.RequestPermanentException;
+import sailpoint.tools.Pair;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the coalescing behavior of {@link AccountAggregationExecutor}, using a mocked
+ * context and a mocked AccountUtilities
+ */
+public class AccountAggregationExecutorTests {
+
+    private SailPointContext context;
+
+    private Request first;
+
+    private MockedStatic<ObjectUtil> objectUtil;
+
+    private Request own;
+
+    private Request second;
+
+    private static Request request(String id, RequestDefinition definition, String accountName) {
+        Request request = new Request();
+        request.setId(id);
+        request.setDefinition(definition);
+        request.setAttribute(AccountAggregationExecutor.INPUT_APPLICATION_NAME, "AD");
+        request.setAttribute(AccountAggregationExecutor.INPUT_TYPE, AccountAggregationExecutor.TYPE_FETCH);
+        request.setAttribute(AccountAggregationExecutor.INPUT_ACCOUNT_NAME, accountName);
+        return request;
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        RequestDefinition definition = new RequestDefinition();
+        definition.setId("def");
+
+        own = request("r0", definition, "a0");
+        own.setAttribute(AccountAggregationExecutor.INPUT_COALESCE, true);
+        first = request("r1", definition, "a1");
+        second = request("r2", definition, "a2");
+
+        context = mock(SailPointContext.class);
+        when(context.search(eq(Request.class), any(QueryOptions.class), eq("id"))).thenAnswer(invocation -> Arrays.asList(new Object[] { "r1" }, new Object[] { "r2" }).iterator());
+        when(context.getObjectById(Request.class, "r1")).thenReturn(first);
+        when(context.getObjectById(Request.class, "r2")).thenReturn(second);
+
+        objectUtil = Mockito.mockStatic(ObjectUtil.class);
+        objectUtil.when(() -> ObjectUtil.lockObject(eq(context), eq(Request.class), eq("r1"), (String) isNull(), anyString())).thenReturn(first);
+        objectUtil.when(() -> ObjectUtil.lockObject(eq(context), eq(Request.class), eq("r2"), (String) isNull(), anyString())).thenReturn(second);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        objectUtil.close();
+    }
+
+    @Test
+    public void claimedRequestsAreCompletedWithTheBatch() throws Exception {
+        try (MockedConstruction<AccountUtilities> utilities = Mockito.mockConstruction(AccountUtilities.class, (mock, construction) -> {
+            Map<Pair<String, String>, AggregationOutcome> results = new HashMap<>();
+            for (String account : Arrays.asList("a0", "a1", "a2")) {
+                results.put(Pair.make("AD", account), new AggregationOutcome("AD", account, OutcomeType.Success));
+            }
+            when(mock.aggregateAccounts(any(AccountUtilities.MultipleAggregateOptions.class))).thenReturn(results);
+        })) {
+            new AccountAggregationExecutor().execute(context, own, null);
+            assertEquals(1, utilities.constructed().size());
+        }
+
+        for (Request claimed : Arrays.asList(first, second)) {
+            assertNotNull(claimed.getLaunched());
+            assertNotNull(claimed.getCompleted());
+            assertEquals("r0", claimed.getAttribute(AccountAggregationExecutor.ATTR_COALESCED_INTO));
+        }
+        verify(context, never()).rollbackTransaction();
+    }
+
+    @Test
+    public void failedBatchReleasesClaimedRequests() throws Exception {
+        try (MockedConstruction<AccountUtilities> utilities = Mockito.mockConstruction(AccountUtilities.class, (mock, construction) -> {
+            when(mock.aggregateAccounts(any(AccountUtilities.MultipleAggregateOptions.class))).thenThrow(new IllegalStateException("Connector failed"));
+        })) {
+            assertThrows(RequestPermanentException.class, () -> new AccountAggregationExecutor().execute(context, own, null));
+        }
+
+        // Both Requests were committed as launched, then released when the batch failed
+        for (Request claimed : Arrays.asList(first, second)) {
+            assertNull(claimed.getLaunched());
+            assertNull(claimed.getHost());
+            assertNull(claimed.getCompleted());
+            assertNull(claimed.getAttribute(AccountAggregationExecutor.ATTR_COALESCED_INTO));
+            verify(context, times(1)).decache(claimed);
+            verify(context, times(2)).saveObject(claimed);
+        }
+        verify(context, times(1)).rollbackTransaction();
+        verify(context, times(3)).commitTransaction();
+    }
+
+    @Test
+    public void failedCompletionReleasesUncommittedRequests() throws Exception {
+        try (MockedConstruction<AccountUtilities> utilities = Mockito.mockConstruction(AccountUtilities.class, (mock, construction) -> {
+            Map<Pair<String, String>, AggregationOutcome> results = new HashMap<>();
+            for (String account : Arrays.asList("a0", "a1", "a2")) {
+                results.put(Pair.make("AD", account), new AggregationOutcome("AD", account, OutcomeType.Success));
+            }
+            when(mock.aggregateAccounts(any(AccountUtilities.MultipleAggregateOptions.class))).thenReturn(results);
+        })) {
+            // Saving the completion of the second Request fails
+            doNothing().doThrow(new IllegalStateException("Database failed")).doNothing().when(context).saveObject(second);
+            // Simulates re-reading each Request after its uncommitted completion is rolled back
+            doAnswer(invocation -> {
+                ((Request) invocation.getArgument(0)).setCompleted(null);
+                return null;
+            }).when(context).decache(any(Request.class));
+
+            assertThrows(RequestPermanentException.class, () -> new AccountAggregationExecutor().execute(context, own, null));
+        }
+
+        // Neither completion was committed, so both Requests are returned to the queue
+        for (Request claimed : Arrays.asList(first, second)) {
+            assertNull(claimed.getLaunched());
+            assertNull(claimed.getCompleted());
+            assertNull(claimed.getAttribute(AccountAggregationExecutor.ATTR_COALESCED_INTO));
+        }
+        verify(context, times(1)).rollbackTransaction();
+    }
+}
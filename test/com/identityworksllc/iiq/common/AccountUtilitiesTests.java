@@ -0,0 +1,234 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.AccountUtilities.AggregateOptions;
+import com.identityworksllc.iiq.common.AccountUtilities.MultipleAggregateOptions;
+import com.identityworksllc.iiq.common.vo.OutcomeType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.Aggregator;
+import sailpoint.api.SailPointContext;
+import sailpoint.connector.Connector;
+import sailpoint.connector.ConnectorFactory;
+import sailpoint.object.Application;
+import sailpoint.object.Identity;
+import sailpoint.object.ResourceObject;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the batch aggregation of {@link AccountUtilities#aggregateAccounts(MultipleAggregateOptions)},
+ * with each single-account aggregation replaced by one that records its options
+ */
+public class AccountUtilitiesTests {
+
+    /**
+     * The options of each single-account aggregation, in order
+     */
+    private List<AggregateOptions> aggregated;
+
+    private MockedStatic<ConnectorFactory> connectorFactory;
+
+    /**
+     * The shared connectors handed out by the connector factory, by application name
+     */
+    private Map<String, Connector> connectors;
+
+    private SailPointContext context;
+
+    private AccountUtilities utilities;
+
+    private static MultipleAggregateOptions accounts(String... applicationsAndAccounts) {
+        List<Pair<String, String>> accountsList = new ArrayList<>();
+        for (int i = 0; i < applicationsAndAccounts.length; i += 2) {
+            accountsList.add(Pair.make(applicationsAndAccounts[i], applicationsAndAccounts[i + 1]));
+        }
+        MultipleAggregateOptions options = new MultipleAggregateOptions();
+        options.setAccountsList(accountsList);
+        return options;
+    }
+
+    private static Application application(String name) {
+        Application application = new Application();
+        application.setName(name);
+        return application;
+    }
+
+    private static AggregateOptions provided(String applicationName, String identity, Map<String, Object> aggregateOptions) {
+        ResourceObject resourceObject = new ResourceObject();
+        resourceObject.setIdentity(identity);
+        AggregateOptions options = new AggregateOptions();
+        options.setApplicationName(applicationName);
+        options.setResourceObject(resourceObject);
+        options.setAggregateOptions(aggregateOptions);
+        return options;
+    }
+
+    /**
+     * Lists the aggregated accounts as application:account
+     */
+    private List<String> aggregatedAccounts() {
+        List<String> result = new ArrayList<>();
+        for (AggregateOptions options : aggregated) {
+            result.add(options.getApplicationName() + ":" + options.getAccountName());
+        }
+        return result;
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        aggregated = new ArrayList<>();
+        connectors = new HashMap<>();
+
+        context = mock(SailPointContext.class);
+        when(context.getObjectByName(Application.class, "AD")).thenReturn(application("AD"));
+        when(context.getObjectByName(Application.class, "HR")).thenReturn(application("HR"));
+
+        connectorFactory = Mockito.mockStatic(ConnectorFactory.class);
+        connectorFactory.when(() -> ConnectorFactory.getConnector(any(Application.class), isNull())).thenAnswer(invocation -> {
+            Application application = invocation.getArgument(0);
+            return connectors.computeIfAbsent(application.getName(), k -> mock(Connector.class));
+        });
+
+        utilities = spy(new AccountUtilities(context, mock(ProvisioningUtilities.class)));
+        doAnswer(invocation -> {
+            AggregateOptions options = invocation.getArgument(0);
+            aggregated.add(options);
+            return new AggregationOutcome(options.getApplicationName(), options.getAccountName(), OutcomeType.Success);
+        }).when(utilities).aggregateAccount(any(AggregateOptions.class));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        connectorFactory.close();
+    }
+
+    @Test
+    public void accountsAreGroupedByApplication() throws Exception {
+        Map<Pair<String, String>, AggregationOutcome> outcomes = utilities.aggregateAccounts(accounts("AD", "jdoe", "HR", "1001", "AD", "asmith"));
+
+        assertEquals(Arrays.asList("AD:jdoe", "AD:asmith", "HR:1001"), aggregatedAccounts());
+        assertEquals(3, outcomes.size());
+        // Each Application is loaded, and its connector built, once for the batch
+        verify(context, times(1)).getObjectByName(Application.class, "AD");
+        verify(context, times(1)).getObjectByName(Application.class, "HR");
+        connectorFactory.verify(() -> ConnectorFactory.getConnector(any(Application.class), isNull()), times(2));
+    }
+
+    @Test
+    public void batchOptionsAreMergedUnderAccountOptions() throws Exception {
+        when(context.getObject(Identity.class, "jdoe")).thenReturn(new Identity());
+        Map<String, Object> batchOptions = new HashMap<>();
+        batchOptions.put(Aggregator.ARG_TRACE, true);
+        batchOptions.put("source", "batch");
+        Map<String, Object> accountOptions = new HashMap<>();
+        accountOptions.put("source", "account");
+
+        MultipleAggregateOptions options = accounts("AD", "jdoe");
+        options.setIdentity("jdoe");
+        options.setAggregateOptions(batchOptions);
+        options.setAccountOptions(new ArrayList<>(Arrays.asList(provided("HR", "1001", accountOptions))));
+        utilities.aggregateAccounts(options);
+
+        assertEquals(2, aggregated.size());
+        Map<String, Object> listed = aggregated.get(0).getAggregateOptions();
+        assertEquals(true, listed.get(Aggregator.ARG_TRACE));
+        assertEquals("batch", listed.get("source"));
+        // An Identity batch only correlates
+        assertEquals(true, listed.get(Aggregator.ARG_CORRELATE_ONLY));
+
+        Map<String, Object> provided = aggregated.get(1).getAggregateOptions();
+        assertEquals(true, provided.get(Aggregator.ARG_TRACE));
+        assertEquals("account", provided.get("source"));
+        assertEquals(true, provided.get(Aggregator.ARG_CORRELATE_ONLY));
+    }
+
+    @Test
+    public void callerOptionsAreNotModified() throws Exception {
+        Map<String, Object> batchOptions = new HashMap<>();
+        batchOptions.put(Aggregator.ARG_TRACE, true);
+        Map<String, Object> accountOptions = new HashMap<>();
+        accountOptions.put("source", "account");
+        AggregateOptions callerOptions = provided("AD", "jdoe", accountOptions);
+
+        MultipleAggregateOptions options = new MultipleAggregateOptions();
+        options.setAggregateOptions(batchOptions);
+        options.setAccountOptions(new ArrayList<>(Arrays.asList(callerOptions)));
+        utilities.aggregateAccounts(options);
+
+        assertEquals(1, aggregated.size());
+        assertNotSame(callerOptions, aggregated.get(0));
+        assertEquals("jdoe", aggregated.get(0).getAccountName());
+        assertNull(callerOptions.getAccountName());
+        assertNull(callerOptions.getApplication());
+        assertNull(callerOptions.getConnector());
+        assertSame(accountOptions, callerOptions.getAggregateOptions());
+        assertEquals(1, accountOptions.size());
+        assertEquals(1, batchOptions.size());
+    }
+
+    @Test
+    public void connectorIsSharedAcrossTheBatch() throws Exception {
+        Connector own = mock(Connector.class);
+        AggregateOptions withConnector = provided("AD", "asmith", null);
+        withConnector.setConnector(own);
+
+        MultipleAggregateOptions options = accounts("AD", "jdoe", "AD", "bjones");
+        options.setAccountOptions(new ArrayList<>(Arrays.asList(withConnector)));
+        utilities.aggregateAccounts(options);
+
+        assertEquals(Arrays.asList("AD:jdoe", "AD:bjones", "AD:asmith"), aggregatedAccounts());
+        Connector shared = connectors.get("AD");
+        assertSame(shared, aggregated.get(0).getConnector());
+        assertSame(shared, aggregated.get(1).getConnector());
+        // An account that brought its own connector keeps it
+        assertSame(own, aggregated.get(2).getConnector());
+        assertSame(aggregated.get(0).getApplication(), aggregated.get(1).getApplication());
+    }
+
+    @Test
+    public void failedApplicationIsRecordedWhenContinuingOnError() throws Exception {
+        MultipleAggregateOptions options = accounts("Missing", "jdoe", "AD", "asmith");
+        assertThrows(GeneralException.class, () -> utilities.aggregateAccounts(options));
+
+        options.setContinueOnError(true);
+        Map<Pair<String, String>, AggregationOutcome> outcomes = utilities.aggregateAccounts(options);
+
+        assertEquals(Arrays.asList("AD:asmith"), aggregatedAccounts());
+        assertEquals(2, outcomes.size());
+        AggregationOutcome failed = outcomes.values().iterator().next();
+        assertEquals("Missing", failed.getApplicationName());
+        assertEquals(OutcomeType.Failure, failed.getStatus());
+    }
+
+    @Test
+    public void repeatedAccountsAreAggregatedOnce() throws Exception {
+        Map<String, Object> first = new HashMap<>();
+        first.put("source", "first");
+        Map<String, Object> last = new HashMap<>();
+        last.put("source", "last");
+
+        MultipleAggregateOptions options = accounts("AD", "jdoe", "AD", "asmith", "AD", "jdoe");
+        options.setAccountOptions(new ArrayList<>(Arrays.asList(provided("AD", "bjones", first), provided("AD", "bjones", last))));
+        Map<Pair<String, String>, AggregationOutcome> outcomes = utilities.aggregateAccounts(options);
+
+        // A repeated account is aggregated once, in the position of its last occurrence
+        assertEquals(Arrays.asList("AD:asmith", "AD:jdoe", "AD:bjones"), aggregatedAccounts());
+        assertEquals(3, outcomes.size());
+        // Where account options repeat a native identity, the last one wins
+        assertEquals("last", aggregated.get(2).getAggregateOptions().get("source"));
+    }
+}
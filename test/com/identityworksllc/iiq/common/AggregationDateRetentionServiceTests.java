@@ -0,0 +1,181 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.service.AggregationDateRetentionService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.IncrementalProjectionIterator;
+import sailpoint.api.SailPointContext;
+import sailpoint.api.SailPointFactory;
+import sailpoint.object.Application;
+import sailpoint.object.Custom;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.Server;
+import sailpoint.object.ServiceDefinition;
+import sailpoint.persistence.HibernatePersistenceManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the change detection of {@link AggregationDateRetentionService}, using a
+ * mocked context. Each call to {@link #run(Object[]...)} is one execution of the service,
+ * whose Application projection returns the given rows.
+ */
+public class AggregationDateRetentionServiceTests {
+
+    /**
+     * The Applications served by the private context, by ID
+     */
+    private Map<String, Application> applications;
+
+    private SailPointContext context;
+
+    private Custom custom;
+
+    private MockedStatic<SailPointFactory> factory;
+
+    private HibernatePersistenceManager manager;
+
+    private MockedStatic<HibernatePersistenceManager> managerStatics;
+
+    private SailPointContext privateContext;
+
+    private AggregationDateRetentionService service;
+
+    private static Application application(String id, String name, Date aggregationEnd) {
+        Application application = new Application();
+        application.setId(id);
+        application.setName(name);
+        application.setAttribute(AggregationDateRetentionService.ACCT_AGGREGATION_END, aggregationEnd);
+        return application;
+    }
+
+    /**
+     * Builds an Application projection row of id, created, and modified
+     */
+    private static Object[] row(String id, long modified) {
+        return new Object[] { id, new Date(0L), new Date(modified) };
+    }
+
+    /**
+     * Runs the service once, with the Application projection returning the given rows
+     */
+    private void run(Object[]... rows) throws Exception {
+        try (MockedConstruction<IncrementalProjectionIterator> projection = Mockito.mockConstruction(IncrementalProjectionIterator.class, (iterator, construction) -> {
+            Iterator<Object[]> source = Arrays.asList(rows).iterator();
+            when(iterator.hasNext()).thenAnswer(invocation -> source.hasNext());
+            when(iterator.next()).thenAnswer(invocation -> source.next());
+        })) {
+            service.execute(context);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        applications = new HashMap<>();
+        custom = new Custom();
+        custom.setName("Aggregation Date Storage");
+
+        ServiceDefinition definition = new ServiceDefinition();
+        definition.setName("Aggregation Date Retention");
+        definition.setHosts("global");
+
+        service = spy(new AggregationDateRetentionService());
+        doReturn(definition).when(service).getDefinition();
+
+        context = mock(SailPointContext.class);
+        when(context.getObjects(eq(Server.class), any(QueryOptions.class))).thenReturn(new ArrayList<>());
+
+        privateContext = mock(SailPointContext.class);
+        when(privateContext.getObjectByName(Custom.class, "Aggregation Date Storage")).thenReturn(custom);
+        when(privateContext.getObjectById(eq(Application.class), any(String.class))).thenAnswer(invocation -> applications.get((String) invocation.getArgument(1)));
+
+        factory = Mockito.mockStatic(SailPointFactory.class);
+        factory.when(SailPointFactory::getCurrentContext).thenReturn(privateContext);
+
+        manager = mock(HibernatePersistenceManager.class);
+        managerStatics = Mockito.mockStatic(HibernatePersistenceManager.class);
+        managerStatics.when(() -> HibernatePersistenceManager.getHibernatePersistenceManager(context)).thenReturn(manager);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        managerStatics.close();
+        factory.close();
+    }
+
+    @Test
+    public void changedApplicationIsRestoredFromCustom() throws Exception {
+        Date aggregated = new Date(5000L);
+        applications.put("1", application("1", "AD", aggregated));
+        applications.put("2", application("2", "HR", new Date(7000L)));
+        run(row("1", 1000L), row("2", 1000L));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> retained = (Map<String, Object>) custom.get("AD");
+        assertEquals(aggregated, retained.get(AggregationDateRetentionService.ACCT_AGGREGATION_END));
+
+        // A deployment overwrites AD's dates, which changes its modified timestamp
+        Application deployed = application("1", "AD", null);
+        applications.put("1", deployed);
+        run(row("1", 2000L), row("2", 1000L));
+
+        assertEquals(aggregated, deployed.getAttributeValue(AggregationDateRetentionService.ACCT_AGGREGATION_END));
+        verify(privateContext).saveObject(deployed);
+        // Only the changed Application was loaded again
+        verify(privateContext, times(2)).getObjectById(Application.class, "1");
+        verify(privateContext, times(1)).getObjectById(Application.class, "2");
+        verify(manager, times(2)).clearHighLevelCache();
+    }
+
+    @Test
+    public void deletedApplicationIsForgotten() throws Exception {
+        applications.put("1", application("1", "AD", new Date(5000L)));
+        applications.put("2", application("2", "HR", new Date(7000L)));
+        run(row("1", 1000L), row("2", 1000L));
+
+        // HR is deleted, which is not a change to anything that must be loaded
+        applications.remove("2");
+        run(row("1", 1000L));
+        verify(manager, times(1)).clearHighLevelCache();
+
+        // An Application deleted between the projection and the load is skipped
+        run(row("1", 1000L), row("3", 1000L));
+        verify(privateContext, times(1)).getObjectById(Application.class, "3");
+
+        // HR was forgotten, so if it reappears with the same timestamp, it is loaded again
+        applications.put("2", application("2", "HR", new Date(7000L)));
+        run(row("1", 1000L), row("2", 1000L));
+        verify(privateContext, times(2)).getObjectById(Application.class, "2");
+        verify(privateContext, times(1)).getObjectById(Application.class, "1");
+        verify(privateContext, times(3)).commitTransaction();
+    }
+
+    @Test
+    public void unchangedApplicationIsNotReloaded() throws Exception {
+        applications.put("1", application("1", "AD", new Date(5000L)));
+        run(row("1", 1000L));
+        run(row("1", 1000L));
+        run(row("1", 1000L));
+
+        // The first run is a full check; the others find nothing to load or evict
+        verify(privateContext, times(1)).getObjectById(Application.class, "1");
+        verify(privateContext, times(1)).commitTransaction();
+        verify(manager, times(1)).clearHighLevelCache();
+        factory.verify(SailPointFactory::pushContext, times(1));
+        assertNotNull(custom.get("AD"));
+    }
+}
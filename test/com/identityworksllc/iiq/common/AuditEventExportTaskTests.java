@@ -0,0 +1,302 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.task.AsyncBatchedLogWriter;
+import com.identityworksllc.iiq.common.task.AuditEventExportPartition;
+import com.identityworksllc.iiq.common.task.AuditEventExportTask;
+import com.identityworksllc.iiq.common.threads.ManagedWorkerPools;
+import org.apache.commons.logging.Log;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.IncrementalObjectIterator;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Attributes;
+import sailpoint.object.AuditEvent;
+import sailpoint.object.Configuration;
+import sailpoint.object.Filter;
+import sailpoint.object.NamedTimestamp;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.Rule;
+import sailpoint.object.SailPointObject;
+import sailpoint.object.TaskResult;
+import sailpoint.task.TaskMonitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the time slicing and resumable watermarks of {@link AuditEventExportTask} and
+ * {@link AuditEventExportPartition}, using a mocked context. Partitions are executed
+ * directly on the test thread, with their AuditEvent query returning the given events.
+ */
+public class AuditEventExportTaskTests {
+
+    private static final String FILTER = "action == \"login\"";
+
+    private SailPointContext context;
+
+    /**
+     * The lines written to the output Log
+     */
+    private List<String> exported;
+
+    /**
+     * The AuditEvent queries run by the partitions
+     */
+    private List<QueryOptions> queries;
+
+    /**
+     * The names and values of the NamedTimestamps saved, in order
+     */
+    private List<String> saved;
+
+    private AsyncBatchedLogWriter writer;
+
+    private static AuditEvent event(String id, long created) {
+        AuditEvent event = new AuditEvent();
+        event.setId(id);
+        event.setCreated(new Date(created));
+        event.setAction("login");
+        return event;
+    }
+
+    /**
+     * Finds the lower bound of the created date in the given AuditEvent query
+     */
+    private static Long lowerBound(List<Filter> filters) {
+        for (Filter filter : filters) {
+            if (filter instanceof Filter.LeafFilter) {
+                Filter.LeafFilter leaf = (Filter.LeafFilter) filter;
+                if ("created".equals(leaf.getProperty()) && leaf.getOperation() == Filter.LogicalOperation.GE) {
+                    return ((Date) leaf.getValue()).getTime();
+                }
+            } else if (filter instanceof Filter.CompositeFilter) {
+                Long bound = lowerBound(((Filter.CompositeFilter) filter).getChildren());
+                if (bound != null) {
+                    return bound;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static NamedTimestamp timestamp(String name, long value) {
+        NamedTimestamp timestamp = new NamedTimestamp();
+        timestamp.setName(name);
+        timestamp.setTimestamp(new Date(value));
+        return timestamp;
+    }
+
+    private AuditEventExportPartition partition(String watermarkName, long sliceStart, long sliceEnd) {
+        AuditEventExportPartition partition = new AuditEventExportPartition(watermarkName, sliceStart, sliceEnd);
+        partition.setFilters(Collections.singletonList(FILTER));
+        partition.setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        partition.setOutput(writer);
+        partition.setTotalCounter(new AtomicInteger());
+        partition.setSkippedCounter(new AtomicInteger());
+        partition.setExportedCounter(new AtomicInteger());
+        return partition;
+    }
+
+    /**
+     * Executes the partition on this thread, with its AuditEvent query returning the given events
+     */
+    @SuppressWarnings("rawtypes")
+    private Object run(AuditEventExportPartition partition, AuditEvent... events) throws Exception {
+        try (MockedConstruction<IncrementalObjectIterator> iterators = Mockito.mockConstruction(IncrementalObjectIterator.class, (iterator, construction) -> {
+            queries.add((QueryOptions) construction.arguments().get(2));
+            Iterator<AuditEvent> source = Arrays.asList(events).iterator();
+            when(iterator.hasNext()).thenAnswer(invocation -> source.hasNext());
+            when(iterator.next()).thenAnswer(invocation -> source.next());
+        })) {
+            return partition.execute(context, mock(Log.class));
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        exported = Collections.synchronizedList(new ArrayList<>());
+        queries = new ArrayList<>();
+        saved = new ArrayList<>();
+
+        Log output = mock(Log.class);
+        doAnswer(invocation -> exported.add((String) invocation.getArgument(0))).when(output).info(any());
+        writer = new AsyncBatchedLogWriter(output, 100, 10, "AuditEventExportTaskTests writer");
+
+        context = mock(SailPointContext.class);
+        doAnswer(invocation -> {
+            SailPointObject object = invocation.getArgument(0);
+            if (object instanceof NamedTimestamp) {
+                saved.add(object.getName() + "=" + ((NamedTimestamp) object).getTimestamp().getTime());
+            }
+            return null;
+        }).when(context).saveObject(any(SailPointObject.class));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        writer.close();
+    }
+
+    @Test
+    public void attributeValuesAreCopiedDeeply() {
+        Map<String, Object> nested = new HashMap<>();
+        nested.put("groups", new ArrayList<>(Arrays.asList("A", "B")));
+        Attributes<String, Object> attributes = new Attributes<>();
+        attributes.put("name", "jdoe");
+        attributes.put("when", new Date(1000L));
+        attributes.put("nested", nested);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> copy = (Map<String, Object>) AuditEventExportPartition.copyAttributeValue(context, attributes);
+
+        assertTrue(copy instanceof Attributes);
+        assertEquals(attributes, copy);
+        assertSame(attributes.get("name"), copy.get("name"));
+        assertNotSame(attributes.get("when"), copy.get("when"));
+
+        // Modifying the copy, as masking does, leaves the event's attributes alone
+        @SuppressWarnings("unchecked")
+        Map<String, Object> nestedCopy = (Map<String, Object>) copy.get("nested");
+        @SuppressWarnings("unchecked")
+        List<Object> groupsCopy = (List<Object>) nestedCopy.get("groups");
+        groupsCopy.add("C");
+        nestedCopy.put("password", "secret");
+        assertEquals(Arrays.asList("A", "B"), nested.get("groups"));
+        assertFalse(nested.containsKey("password"));
+    }
+
+    @Test
+    public void completedPartitionIsSkipped() throws Exception {
+        when(context.getObjectByName(NamedTimestamp.class, "w")).thenReturn(timestamp("w", 5000L));
+
+        assertEquals(0, run(partition("w", 1000L, 5000L), event("1", 2000L)));
+
+        assertTrue(queries.isEmpty());
+        assertTrue(saved.isEmpty());
+        assertTrue(exported.isEmpty());
+    }
+
+    @Test
+    public void filterRuleIsReloadedAfterEachCheckpoint() throws Exception {
+        Rule first = new Rule();
+        Rule second = new Rule();
+        Rule third = new Rule();
+        when(context.getObjectByName(Rule.class, "Audit Filter")).thenReturn(first, second, third);
+        List<Rule> ran = new ArrayList<>();
+        when(context.runRule(any(Rule.class), anyMap())).thenAnswer(invocation -> {
+            ran.add(invocation.getArgument(0));
+            return true;
+        });
+
+        AuditEventExportPartition partition = partition("w", 0L, 5000L);
+        partition.setFilterRuleName("Audit Filter");
+        partition.setCheckpointInterval(1);
+        run(partition, event("1", 1000L), event("2", 2000L), event("3", 3000L));
+
+        // Each checkpoint decaches the context, so the rule is loaded again after each one
+        verify(context, times(3)).decache();
+        assertEquals(3, ran.size());
+        assertSame(first, ran.get(0));
+        assertSame(second, ran.get(1));
+        assertSame(third, ran.get(2));
+        assertEquals(3, exported.size());
+    }
+
+    @Test
+    public void partitionResumesFromItsWatermark() throws Exception {
+        NamedTimestamp watermark = timestamp("w", 3000L);
+        when(context.getObjectByName(NamedTimestamp.class, "w")).thenReturn(watermark);
+
+        AuditEventExportPartition partition = partition("w", 1000L, 5000L);
+        partition.setCheckpointInterval(2);
+        Object processed = run(partition, event("1", 3000L), event("2", 3100L), event("3", 3100L), event("4", 3200L));
+
+        assertEquals(4, processed);
+        assertEquals(1, queries.size());
+        assertEquals(Long.valueOf(3000L), lowerBound(queries.get(0).getFilters()));
+        // A checkpoint never splits events with the same timestamp, and the finished
+        // partition's watermark is the end of its slice
+        assertEquals(Arrays.asList("w=3200", "w=5000"), saved);
+        assertEquals(4, exported.size());
+        assertEquals(4, partition.getExportedCounter().get());
+    }
+
+    @Test
+    public void runBoundsOfAnInterruptedRunAreReused() throws Exception {
+        NamedTimestamp lastRun = timestamp("AuditEventExportTask", 1000L);
+        when(context.getObjectByName(NamedTimestamp.class, "AuditEventExportTask")).thenReturn(lastRun);
+        when(context.getObjectByName(NamedTimestamp.class, "AuditEventExportTask:run start")).thenReturn(timestamp("AuditEventExportTask:run start", 1000L));
+        when(context.getObjectByName(NamedTimestamp.class, "AuditEventExportTask:run end")).thenReturn(timestamp("AuditEventExportTask:run end", 5000L));
+        when(context.search(eq(NamedTimestamp.class), any(QueryOptions.class), eq("id"))).thenReturn(Collections.<Object[]>emptyIterator());
+
+        TaskResult taskResult = new TaskResult();
+        Configuration systemConfig = mock(Configuration.class);
+        when(systemConfig.get(ManagedWorkerPools.CONFIG_BULKHEADS)).thenReturn(Collections.emptyMap());
+
+        Attributes<String, Object> arguments = new Attributes<>();
+        arguments.put("filters", new ArrayList<>(Collections.singletonList(FILTER)));
+        arguments.put("partitions", 4);
+        arguments.put("threads", 2);
+        arguments.put("bulkhead", "test-" + UUID.randomUUID());
+
+        List<String> slices = new ArrayList<>();
+        try (MockedStatic<Configuration> configuration = Mockito.mockStatic(Configuration.class);
+             MockedConstruction<TaskMonitor> monitors = Mockito.mockConstruction(TaskMonitor.class, (monitor, construction) -> when(monitor.lockMasterResult()).thenReturn(taskResult));
+             MockedConstruction<AuditEventExportPartition> partitions = Mockito.mockConstruction(AuditEventExportPartition.class, (partition, construction) -> {
+                 slices.add(construction.arguments().get(0) + " [" + construction.arguments().get(1) + ", " + construction.arguments().get(2) + ")");
+                 when(partition.runnable()).thenReturn(partition);
+             })) {
+            configuration.when(Configuration::getSystemConfig).thenReturn(systemConfig);
+
+            new AuditEventExportTask().execute(context, null, taskResult, arguments);
+        }
+
+        // The interval of the interrupted run is split again, so each watermark still applies
+        assertEquals(Arrays.asList(
+                "AuditEventExportTask:slice 1000-2000 [1000, 2000)",
+                "AuditEventExportTask:slice 2000-3000 [2000, 3000)",
+                "AuditEventExportTask:slice 3000-4000 [3000, 4000)",
+                "AuditEventExportTask:slice 4000-5000 [4000, 5000)"
+        ), slices);
+        verify(context, never()).search(eq(AuditEvent.class), any(QueryOptions.class), eq("created"));
+        // Only the last run time is saved, at the end of the reused interval
+        assertEquals(Collections.singletonList("AuditEventExportTask=5000"), saved);
+        assertEquals(5000L, lastRun.getTimestamp().getTime());
+    }
+
+    @Test
+    public void slicesCoverTheIntervalContiguously() {
+        List<long[]> slices = AuditEventExportTask.createSlices(0L, 100L, 8);
+        assertEquals(8, slices.size());
+        assertEquals(0L, slices.get(0)[0]);
+        assertEquals(100L, slices.get(7)[1]);
+        for (int i = 1; i < slices.size(); i++) {
+            assertEquals(slices.get(i - 1)[1], slices.get(i)[0]);
+            assertTrue(slices.get(i)[1] > slices.get(i)[0]);
+        }
+
+        // No more slices than milliseconds, and none at all for an empty interval
+        assertEquals(3, AuditEventExportTask.createSlices(10L, 13L, 8).size());
+        assertEquals(1, AuditEventExportTask.createSlices(10L, 13L, 0).size());
+        assertTrue(AuditEventExportTask.createSlices(10L, 10L, 4).isEmpty());
+        assertTrue(AuditEventExportTask.createSlices(10L, 5L, 4).isEmpty());
+    }
+}
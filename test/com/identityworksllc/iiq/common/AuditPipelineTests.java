@@ -0,0 +1,150 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.logging.LoggingConstants;
+import com.identityworksllc.iiq.common.plugin.audit.AuditPipeline;
+import com.identityworksllc.iiq.common.plugin.audit.AuditRecord;
+import com.identityworksllc.iiq.common.plugin.audit.AuditSink;
+import com.identityworksllc.iiq.common.plugin.audit.RollingFileAuditSink;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuditPipelineTests {
+    private static class CollectingSink implements AuditSink {
+        private final List<List<AuditRecord>> batches = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void write(List<AuditRecord> records) {
+            batches.add(new ArrayList<>(records));
+        }
+
+        private int total() {
+            return batches.stream().mapToInt(List::size).sum();
+        }
+    }
+
+    private static AuditRecord record(String endpoint, int i) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(LoggingConstants.LOG_CTX_ID, "request" + i);
+        fields.put(LoggingConstants.LOG_MDC_URI, "/api/" + endpoint);
+        return new AuditRecord(AuditPipelineTests.class, endpoint, "WARN", fields);
+    }
+
+    @Test
+    public void batchesAreCoalesced() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        AuditPipeline pipeline = new AuditPipeline(Collections.singletonList(sink), 1000, 50, 200);
+        for (int i = 0; i < 120; i++) {
+            assertTrue(pipeline.submit(record("a", i)));
+        }
+        pipeline.shutdown(5, TimeUnit.SECONDS);
+
+        assertEquals(120, sink.total());
+        assertEquals(120, pipeline.getWritten());
+        assertTrue(sink.batches.size() < 120);
+        for (List<AuditRecord> batch : sink.batches) {
+            assertTrue(batch.size() <= 50);
+        }
+        assertEquals("request0", sink.batches.get(0).get(0).get(LoggingConstants.LOG_CTX_ID));
+    }
+
+    @Test
+    public void droppedRecordsAreCounted() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        AuditPipeline pipeline = new AuditPipeline(Collections.singletonList(sink), 1000, 50, 0);
+
+        pipeline.setSampleRate(0.0);
+        assertFalse(pipeline.submit(record("a", 0)));
+        assertEquals(1, pipeline.getDroppedSampled());
+
+        pipeline.setSampleRate(1.0);
+        pipeline.setEndpointRateLimit(5);
+        int accepted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (pipeline.submit(record("b", i))) {
+                accepted++;
+            }
+        }
+        // Another endpoint has its own limit
+        assertTrue(pipeline.submit(record("c", 0)));
+        pipeline.shutdown(5, TimeUnit.SECONDS);
+
+        assertTrue(accepted >= 5 && accepted < 20);
+        assertEquals(20 - accepted, pipeline.getDroppedRateLimited());
+        assertEquals(accepted + 1, sink.total());
+
+        assertFalse(pipeline.submit(record("a", 1)));
+        assertEquals(1, pipeline.getDroppedQueueFull());
+    }
+
+    @Test
+    public void failingSinkDoesNotBlockOthers() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        AuditSink failing = records -> {
+            throw new IllegalStateException("fail");
+        };
+        AuditPipeline pipeline = new AuditPipeline(Arrays.asList(failing, sink), 100, 10, 0);
+        for (int i = 0; i < 5; i++) {
+            pipeline.submit(record("a", i));
+        }
+        pipeline.shutdown(5, TimeUnit.SECONDS);
+
+        assertEquals(5, sink.total());
+        assertEquals(5, pipeline.getFailed());
+        assertEquals(0, pipeline.getWritten());
+    }
+
+    @Test
+    public void recordsAreCountedOnceAcrossSinks() throws Exception {
+        CollectingSink first = new CollectingSink();
+        CollectingSink second = new CollectingSink();
+        AuditPipeline pipeline = new AuditPipeline(Arrays.asList(first, second), 100, 10, 0);
+        for (int i = 0; i < 25; i++) {
+            assertTrue(pipeline.submit(record("a", i)));
+        }
+        pipeline.shutdown(5, TimeUnit.SECONDS);
+
+        assertEquals(25, first.total());
+        assertEquals(25, second.total());
+        assertEquals(25, pipeline.getAccepted());
+        assertEquals(25, pipeline.getWritten());
+        assertEquals(0, pipeline.getFailed());
+    }
+
+    @Test
+    public void rollingFileRollsAndRetains() throws Exception {
+        Path dir = Files.createTempDirectory("audit");
+        Path active = dir.resolve("api-audit.log");
+        RollingFileAuditSink sink = new RollingFileAuditSink(active, 1000, 2);
+        try {
+            for (int i = 0; i < 100; i++) {
+                sink.write(Collections.singletonList(record("a", i)));
+            }
+            sink.close();
+
+            assertTrue(Files.exists(active));
+            assertTrue(Files.exists(dir.resolve("api-audit.log.1")));
+            assertTrue(Files.exists(dir.resolve("api-audit.log.2")));
+            assertFalse(Files.exists(dir.resolve("api-audit.log.3")));
+            assertTrue(Files.size(dir.resolve("api-audit.log.1")) <= 1200);
+
+            List<String> lines = Files.readAllLines(active);
+            String last = lines.get(lines.size() - 1);
+            assertTrue(last.contains("\"ctx\":\"request99\""));
+        } finally {
+            sink.close();
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) files::iterator) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.identityworksllc.iiq.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Application;
+import sailpoint.object.Attributes;
+import sailpoint.object.BundleSnapshot;
+import sailpoint.object.Difference;
+import sailpoint.object.Identity;
+import sailpoint.object.IdentityDifference;
+import sailpoint.object.IdentitySnapshot;
+import sailpoint.object.LinkSnapshot;
+import sailpoint.object.Permission;
+import sailpoint.object.PermissionDifference;
+import sailpoint.object.RoleAssignmentSnapshot;
+import sailpoint.tools.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the {@link BetterDifferencer} class, comparing the streaming API against
+ * the IdentityDifference API
+ */
+public class BetterDifferencerTests {
+
+    private SailPointContext context;
+
+    private MockedStatic<Identity> identityStatics;
+
+    private static Application application(String name) {
+        Application application = mock(Application.class);
+        when(application.getName()).thenReturn(name);
+        return application;
+    }
+
+    private static BundleSnapshot bundle(String name) {
+        BundleSnapshot bundle = mock(BundleSnapshot.class);
+        when(bundle.getName()).thenReturn(name);
+        return bundle;
+    }
+
+    private static LinkSnapshot link(String application, String nativeIdentity, Map<String, Object> attributes, Permission... permissions) {
+        Attributes<String, Object> linkAttributes = new Attributes<>();
+        linkAttributes.putAll(attributes);
+        if (permissions.length > 0) {
+            linkAttributes.put("directPermissions", new ArrayList<>(Arrays.asList(permissions)));
+        }
+        LinkSnapshot link = mock(LinkSnapshot.class);
+        when(link.getApplication()).thenReturn(application);
+        when(link.getApplicationName()).thenReturn(application);
+        when(link.getNativeIdentity()).thenReturn(nativeIdentity);
+        when(link.getAttributes()).thenReturn(linkAttributes);
+        return link;
+    }
+
+    private static Map<String, Object> map(Object... keysAndValues) {
+        Map<String, Object> result = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            result.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return result;
+    }
+
+    private static Permission permission(String target, String rights) {
+        Permission permission = new Permission();
+        permission.setTarget(target);
+        permission.setRights(rights);
+        return permission;
+    }
+
+    private static RoleAssignmentSnapshot roleAssignment(String name) {
+        RoleAssignmentSnapshot assignment = mock(RoleAssignmentSnapshot.class);
+        when(assignment.getName()).thenReturn(name);
+        return assignment;
+    }
+
+    /**
+     * Builds a comparable signature of a Difference, substituting the given attribute
+     * name if the Difference has none (as with role differences in an IdentityDifference)
+     */
+    private static String signature(Difference d, String defaultAttribute) {
+        String attribute = (d.getAttribute() != null) ? d.getAttribute() : defaultAttribute;
+        return attribute + "|" + d.getContext() + "|" + d.getOldValue() + "|" + d.getNewValue() + "|" + d.getAddedValues() + "|" + d.getRemovedValues();
+    }
+
+    private static String signature(PermissionDifference pd) {
+        return pd.getApplication() + "|" + pd.getTarget() + "|" + pd.getRights() + "|" + pd.isRemoved();
+    }
+
+    private static IdentitySnapshot snapshot(Map<String, Object> attributes, List<LinkSnapshot> links, List<BundleSnapshot> bundles, List<RoleAssignmentSnapshot> assignments) {
+        Attributes<String, Object> identityAttributes = new Attributes<>();
+        identityAttributes.putAll(attributes);
+        IdentitySnapshot snapshot = mock(IdentitySnapshot.class);
+        when(snapshot.getAttributes()).thenReturn(identityAttributes);
+        when(snapshot.getLinks()).thenReturn(links);
+        when(snapshot.getBundles()).thenReturn(bundles);
+        when(snapshot.getAssignedRoles()).thenReturn(assignments);
+        return snapshot;
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<>(values);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    private IdentitySnapshot after() {
+        return snapshot(
+                map("department", "HR", "title", "Developer", "location", "NYC"),
+                Arrays.asList(
+                        link("AD", "jdoe", map("memberOf", Arrays.asList("B", "C"), "mail", "jdoe@example.com"), permission("T1", "read"), permission("T2", "write")),
+                        link("AD", "jdoe2", map("mail", "jdoe2@example.com"))
+                ),
+                Arrays.asList(bundle("Role A"), bundle("Role B")),
+                Collections.emptyList()
+        );
+    }
+
+    private IdentitySnapshot before() {
+        return snapshot(
+                map("department", "IT", "title", "Developer"),
+                Arrays.asList(
+                        link("AD", "jdoe", map("memberOf", Arrays.asList("A", "B"), "mail", "jdoe@example.com"), permission("T1", "read")),
+                        link("HR", "1001", map("employeeId", "1001"))
+                ),
+                Collections.singletonList(bundle("Role A")),
+                Collections.singletonList(roleAssignment("Birthright"))
+        );
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // No ObjectConfig is available outside of IIQ, so all identity attributes are treated as single-valued
+        identityStatics = Mockito.mockStatic(Identity.class);
+        identityStatics.when(Identity::getObjectConfig).thenReturn(null);
+
+        context = mock(SailPointContext.class);
+        Application ad = application("AD");
+        Application hr = application("HR");
+        when(context.getObject(Application.class, "AD")).thenReturn(ad);
+        when(context.getObject(Application.class, "HR")).thenReturn(hr);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        identityStatics.close();
+    }
+
+    @Test
+    public void caseOnlyValueChangesAreNotAddedOrRemoved() throws Exception {
+        IdentitySnapshot before = snapshot(map(), Collections.singletonList(link("AD", "jdoe", map("memberOf", Arrays.asList("A", "b")))), Collections.emptyList(), Collections.emptyList());
+        IdentitySnapshot after = snapshot(map(), Collections.singletonList(link("AD", "jdoe", map("memberOf", Arrays.asList("a", "B", "C")))), Collections.emptyList(), Collections.emptyList());
+
+        // AD is not case-insensitive, so the change is reported, but the case-only changes are not listed
+        List<Difference> differences = new BetterDifferencer(context).firstDifferences(before, after, 10);
+        assertEquals(1, differences.size());
+        assertEquals(Collections.singletonList("C"), differences.get(0).getAddedValues());
+        assertTrue(Util.isEmpty(differences.get(0).getRemovedValues()));
+    }
+
+    @Test
+    public void countDifferencesCountsEverything() throws Exception {
+        BetterDifferencer differencer = new BetterDifferencer(context);
+
+        // 2 identity attributes, 5 link differences, 1 bundle, 1 assignment, 2 permissions
+        assertEquals(11, differencer.countDifferences(before(), after()));
+    }
+
+    @Test
+    public void firstDifferencesStopsAtLimit() throws Exception {
+        BetterDifferencer differencer = new BetterDifferencer(context);
+
+        List<String> all = new ArrayList<>();
+        differencer.diff(before(), after(), d -> all.add(signature(d, null)), null);
+        assertEquals(9, all.size());
+
+        List<Difference> first = differencer.firstDifferences(before(), after(), 3);
+        assertEquals(3, first.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(all.get(i), signature(first.get(i), null));
+        }
+
+        assertEquals(9, differencer.firstDifferences(before(), after(), 100).size());
+        assertTrue(differencer.firstDifferences(before(), after(), 0).isEmpty());
+        assertTrue(differencer.firstDifferences(before(), after(), -1).isEmpty());
+    }
+
+    @Test
+    public void noChangesProducesNoDifferences() throws Exception {
+        BetterDifferencer differencer = new BetterDifferencer(context);
+
+        // The unchanged T1 permission is still reported, as in an IdentityDifference
+        assertEquals(1, differencer.countDifferences(before(), before()));
+        assertTrue(differencer.firstDifferences(before(), before(), 5).isEmpty());
+
+        List<Difference> streamed = new ArrayList<>();
+        differencer.diff(before(), before(), streamed::add, null);
+        assertTrue(streamed.isEmpty());
+
+        IdentityDifference differences = differencer.diff(before(), before());
+        assertTrue(Util.isEmpty(differences.getAttributeDifferences()));
+        assertTrue(Util.isEmpty(differences.getLinkDifferences()));
+        assertTrue(Util.isEmpty(differences.getBundleDifferences()));
+        assertTrue(Util.isEmpty(differences.getAssignedRoleDifferences()));
+    }
+
+    @Test
+    public void streamingMatchesIdentityDifference() throws Exception {
+        BetterDifferencer differencer = new BetterDifferencer(context);
+
+        IdentityDifference differences = differencer.diff(before(), after());
+        List<String> expected = new ArrayList<>();
+        for (Difference d : Util.safeIterable(differences.getAttributeDifferences())) {
+            expected.add(signature(d, null));
+        }
+        for (Difference d : Util.safeIterable(differences.getLinkDifferences())) {
+            expected.add(signature(d, null));
+        }
+        for (Difference d : Util.safeIterable(differences.getBundleDifferences())) {
+            expected.add(signature(d, BetterDifferencer.ATTR_BUNDLES));
+        }
+        for (Difference d : Util.safeIterable(differences.getAssignedRoleDifferences())) {
+            expected.add(signature(d, BetterDifferencer.ATTR_ASSIGNED_ROLES));
+        }
+        List<String> expectedPermissions = new ArrayList<>();
+        for (PermissionDifference pd : Util.safeIterable(differences.getPermissionDifferences())) {
+            expectedPermissions.add(signature(pd));
+        }
+
+        List<String> streamed = new ArrayList<>();
+        List<String> streamedPermissions = new ArrayList<>();
+        differencer.diff(before(), after(), d -> streamed.add(signature(d, null)), pd -> streamedPermissions.add(signature(pd)));
+
+        assertEquals(sorted(expected), sorted(streamed));
+        assertEquals(sorted(expectedPermissions), sorted(streamedPermissions));
+
+        assertEquals(2, Util.size(differences.getAttributeDifferences()));
+        assertEquals(5, Util.size(differences.getLinkDifferences()));
+        assertEquals(1, Util.size(differences.getBundleDifferences()));
+        assertEquals(1, Util.size(differences.getAssignedRoleDifferences()));
+        assertEquals(2, Util.size(differences.getPermissionDifferences()));
+
+        String jdoeContext = IdentityDifference.generateContext("AD", "jdoe");
+        Difference memberOf = null;
+        for (Difference d : differences.getLinkDifferences()) {
+            if ("memberOf".equals(d.getAttribute()) && jdoeContext.equals(d.getContext())) {
+                memberOf = d;
+            }
+        }
+        assertNotNull(memberOf);
+        assertEquals(Collections.singletonList("C"), memberOf.getAddedValues());
+        assertEquals(Collections.singletonList("A"), memberOf.getRemovedValues());
+
+        // Neither the deleted HR link nor the new AD link had permissions
+        for (PermissionDifference pd : differences.getPermissionDifferences()) {
+            assertEquals("AD", pd.getApplication());
+            assertFalse(pd.isRemoved());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.task.export.ColumnarFileReader;
+import com.identityworksllc.iiq.common.task.export.ColumnarFileWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarFileTests {
+    private static List<ColumnarFileWriter.Column> columns() {
+        List<ColumnarFileWriter.Column> columns = new ArrayList<>();
+        columns.add(new ColumnarFileWriter.Column("application", ColumnarFileWriter.ColumnType.STRING));
+        columns.add(new ColumnarFileWriter.Column("nativeIdentity", ColumnarFileWriter.ColumnType.STRING));
+        columns.add(new ColumnarFileWriter.Column("count", ColumnarFileWriter.ColumnType.LONG));
+        columns.add(new ColumnarFileWriter.Column("active", ColumnarFileWriter.ColumnType.BOOLEAN));
+        columns.add(new ColumnarFileWriter.Column("created", ColumnarFileWriter.ColumnType.TIMESTAMP));
+        columns.add(new ColumnarFileWriter.Column("score", ColumnarFileWriter.ColumnType.DOUBLE));
+        return columns;
+    }
+
+    private static List<Object[]> readAll(Path path) throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        try (ColumnarFileReader reader = new ColumnarFileReader(path)) {
+            reader.forEachRow(row -> rows.add(row.clone()));
+        }
+        return rows;
+    }
+
+    @Test
+    public void abortedFileHasNoFooter() throws Exception {
+        Path path = Files.createTempFile("columnar", ".iiqcol");
+        try {
+            ColumnarFileWriter writer = new ColumnarFileWriter(path, columns(), 2, 300);
+            for (int i = 0; i < 3; i++) {
+                writer.write(Arrays.asList("AD", "user" + i, i, true, new Date(), 1.0));
+            }
+            writer.abort();
+            // Closing after an abort must not write the footer
+            writer.close();
+
+            assertThrows(IOException.class, () -> readAll(path));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void formattedDatesAreParsedWithTheColumnFormat() throws Exception {
+        Path path = Files.createTempFile("columnar", ".iiqcol");
+        try {
+            List<ColumnarFileWriter.Column> columns = new ArrayList<>();
+            columns.add(new ColumnarFileWriter.Column("created", ColumnarFileWriter.ColumnType.TIMESTAMP, "yyyy-MM-dd HH:mm"));
+            columns.add(new ColumnarFileWriter.Column("modified", ColumnarFileWriter.ColumnType.TIMESTAMP));
+            try (ColumnarFileWriter writer = new ColumnarFileWriter(path, columns)) {
+                writer.write(Arrays.asList("2024-03-05 14:30", "1000"));
+                assertThrows(IllegalArgumentException.class, () -> writer.write(Arrays.asList("05/03/2024", null)));
+            }
+
+            Calendar expected = Calendar.getInstance();
+            expected.clear();
+            expected.set(2024, Calendar.MARCH, 5, 14, 30);
+            List<Object[]> rows = readAll(path);
+            assertEquals(1, rows.size());
+            assertEquals(expected.getTime(), rows.get(0)[0]);
+            assertEquals(new Date(1000L), rows.get(0)[1]);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void mapRowsIgnoreUnknownKeys() throws Exception {
+        Path path = Files.createTempFile("columnar", ".iiqcol");
+        try {
+            try (ColumnarFileWriter writer = new ColumnarFileWriter(path, columns())) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("application", "AD");
+                row.put("count", "12");
+                row.put("unknown", "ignored");
+                writer.write(row);
+            }
+            List<Object[]> rows = readAll(path);
+            assertEquals(1, rows.size());
+            assertEquals("AD", rows.get(0)[0]);
+            assertNull(rows.get(0)[1]);
+            assertEquals(12L, rows.get(0)[2]);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void roundTripsAcrossRowGroups() throws Exception {
+        Path path = Files.createTempFile("columnar", ".iiqcol");
+        try {
+            int total = 2503;
+            try (ColumnarFileWriter writer = new ColumnarFileWriter(path, columns(), 1000, 300)) {
+                for (int i = 0; i < total; i++) {
+                    // application repeats (dictionary), nativeIdentity is unique (plain)
+                    writer.write(Arrays.asList(
+                            "App " + (i % 3),
+                            (i % 10 == 0) ? null : "user\u00e9" + i,
+                            i,
+                            (i % 2 == 0) ? "true" : "false",
+                            new Date(1000L * i),
+                            i / 2.0
+                    ));
+                }
+                assertEquals(total, writer.getRowCount());
+            }
+
+            List<Object[]> rows = new ArrayList<>();
+            try (ColumnarFileReader reader = new ColumnarFileReader(path)) {
+                assertEquals(6, reader.getColumns().size());
+                assertEquals(ColumnarFileWriter.ColumnType.TIMESTAMP, reader.getColumns().get(4).getType());
+                reader.forEachRow(row -> rows.add(row.clone()));
+                assertEquals(total, reader.getTotalRows());
+                assertEquals(3, reader.getRowGroupCount());
+            }
+
+            assertEquals(total, rows.size());
+            for (int i = 0; i < total; i++) {
+                Object[] row = rows.get(i);
+                assertEquals("App " + (i % 3), row[0]);
+                assertEquals((i % 10 == 0) ? null : "user\u00e9" + i, row[1]);
+                assertEquals((long) i, row[2]);
+                assertEquals(i % 2 == 0, row[3]);
+                assertEquals(new Date(1000L * i), row[4]);
+                assertEquals(i / 2.0, row[5]);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void unconvertibleValueIsRejected() throws Exception {
+        Path path = Files.createTempFile("columnar", ".iiqcol");
+        try (ColumnarFileWriter writer = new ColumnarFileWriter(path, columns())) {
+            assertThrows(IllegalArgumentException.class, () -> writer.write(Arrays.asList("AD", "x", "not a number")));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
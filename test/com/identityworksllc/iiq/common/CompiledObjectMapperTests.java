@@ -0,0 +1,154 @@
+package com.identityworksllc.iiq.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledObjectMapperTests {
+    public static class Child {
+        private String name;
+
+        private int weight;
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    public static class Parent {
+        @ObjectMapper.Nested(Child.class)
+        private List<Child> children;
+
+        private boolean enabled;
+
+        @ObjectMapper.Nested(Child.class)
+        private Map<String, Child> named;
+
+        @ObjectMapper.Aliases({"title"})
+        private String name;
+
+        public long count;
+
+        private Set<String> tags;
+
+        public List<Child> getChildren() {
+            return children;
+        }
+
+        public Map<String, Child> getNamed() {
+            return named;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Set<String> getTags() {
+            return tags;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setChildren(List<Child> children) {
+            this.children = children;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public void setNamed(Map<String, Child> named) {
+            this.named = named;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setTags(Set<String> tags) {
+            this.tags = tags;
+        }
+    }
+
+    private static Map<String, Object> child(String name, Object weight) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", name);
+        map.put("weight", weight);
+        return map;
+    }
+
+    private static Map<String, Object> parent() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", "root");
+        map.put("enabled", "true");
+        map.put("count", 12L);
+        map.put("tags", new HashSet<>(Arrays.asList("a", "b")));
+        map.put("children", Arrays.asList(child("one", 1), child("two", "2")));
+        map.put("named", Collections.singletonMap("x", child("three", 3)));
+        return map;
+    }
+
+    @Test
+    public void aliasIsDecoded() throws Exception {
+        Map<String, Object> input = new HashMap<>();
+        input.put("title", "aliased");
+        Parent result = new ObjectMapper<>(Parent.class).compiled().decode(input);
+        assertEquals("aliased", result.getName());
+    }
+
+    @Test
+    public void compiledDecodeMatchesReflectiveDecode() throws Exception {
+        ObjectMapper<Parent> mapper = new ObjectMapper<>(Parent.class);
+        Parent reflective = mapper.decode(parent());
+        Parent compiled = mapper.compiled().decode(parent());
+
+        assertEquals(reflective.getName(), compiled.getName());
+        assertEquals(reflective.isEnabled(), compiled.isEnabled());
+        assertEquals(reflective.count, compiled.count);
+        assertEquals(reflective.getTags(), compiled.getTags());
+        assertEquals(2, compiled.getChildren().size());
+        assertEquals("two", compiled.getChildren().get(1).getName());
+        assertEquals(2, compiled.getChildren().get(1).getWeight());
+        assertEquals("three", compiled.getNamed().get("x").getName());
+    }
+
+    @Test
+    public void encodeRoundTrips() throws Exception {
+        CompiledObjectMapper<Parent> mapper = new ObjectMapper<>(Parent.class).compiled();
+        Parent original = mapper.decode(parent());
+        Map<String, Object> encoded = mapper.encode(original);
+
+        assertEquals("root", encoded.get("name"));
+        assertEquals(true, encoded.get("enabled"));
+        assertTrue(encoded.get("children") instanceof List);
+
+        Parent again = mapper.decode(encoded);
+        assertEquals(original.getName(), again.getName());
+        assertEquals(original.count, again.count);
+        assertEquals(original.getChildren().get(0).getWeight(), again.getChildren().get(0).getWeight());
+        assertEquals(original.getNamed().get("x").getName(), again.getNamed().get("x").getName());
+    }
+
+    @Test
+    public void nullInputProducesEmptyObject() throws Exception {
+        Parent result = new ObjectMapper<>(Parent.class).compiled().decode(null);
+        assertNotNull(result);
+        assertNull(result.getName());
+    }
+}
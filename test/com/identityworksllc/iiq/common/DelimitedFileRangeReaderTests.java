@@ -0,0 +1,100 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.connector.DelimitedFileRangeReader;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DelimitedFileRangeReaderTests {
+    private static final String CONTENT = "id,name,notes\r\n"
+            + "1,Alice,\"likes, commas\"\r\n"
+            + "2,Bob,\"spans\nlines\"\n"
+            + "3,\"Carol \"\"C\"\"\",\n"
+            + "4,D\"ave,plain\n"
+            + "5,Eve,\"\u00fcml\u00e4ut\"";
+
+    private static List<List<String>> readAll(DelimitedFileRangeReader reader) {
+        List<List<String>> records = new ArrayList<>();
+        try (DelimitedFileRangeReader recordReader = reader) {
+            while (recordReader.hasNext()) {
+                records.add(recordReader.next());
+            }
+        }
+        return records;
+    }
+
+    private static Path writeContent() throws Exception {
+        Path path = Files.createTempFile("records", ".csv");
+        Files.write(path, CONTENT.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test
+    public void highBytesAreNotTheEndOfTheFile() throws Exception {
+        // With a window of 4 bytes, the first 0xFF byte starts a window and the last ends the file
+        String content = "1,ab\u00ff\n2,\"\u00ff\",z\u00ff\n3,\u00ff";
+        Path path = Files.createTempFile("records", ".csv");
+        Files.write(path, content.getBytes(StandardCharsets.ISO_8859_1));
+        try {
+            List<List<String>> records = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> readAll(new DelimitedFileRangeReader(path, 0L, Long.MAX_VALUE, ',', '"', StandardCharsets.ISO_8859_1, 4)));
+
+            assertEquals(3, records.size());
+            assertEquals(Arrays.asList("1", "ab\u00ff"), records.get(0));
+            assertEquals(Arrays.asList("2", "\u00ff", "z\u00ff"), records.get(1));
+            assertEquals(Arrays.asList("3", "\u00ff"), records.get(2));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void quotedFieldsAreTokenized() throws Exception {
+        Path path = writeContent();
+        try {
+            long dataStart = DelimitedFileRangeReader.skipRecords(path, 1, ',', '"');
+            List<List<String>> records = readAll(new DelimitedFileRangeReader(path, dataStart, Long.MAX_VALUE, ',', '"', StandardCharsets.UTF_8, 5));
+
+            assertEquals(5, records.size());
+            assertEquals(Arrays.asList("1", "Alice", "likes, commas"), records.get(0));
+            assertEquals(Arrays.asList("2", "Bob", "spans\nlines"), records.get(1));
+            assertEquals(Arrays.asList("3", "Carol \"C\"", ""), records.get(2));
+            assertEquals(Arrays.asList("4", "D\"ave", "plain"), records.get(3));
+            assertEquals(Arrays.asList("5", "Eve", "\u00fcml\u00e4ut"), records.get(4));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void rangesCoverEveryRecordOnce() throws Exception {
+        Path path = writeContent();
+        try {
+            long dataStart = DelimitedFileRangeReader.skipRecords(path, 1, ',', '"');
+            List<List<String>> expected = readAll(new DelimitedFileRangeReader(path, dataStart, Long.MAX_VALUE, ',', '"', StandardCharsets.UTF_8, 64));
+
+            for(int count = 1; count <= 10; count++) {
+                List<long[]> ranges = DelimitedFileRangeReader.split(path, dataStart, count, ',', '"');
+                assertTrue(ranges.size() <= count);
+                assertEquals(dataStart, ranges.get(0)[0]);
+                assertEquals(Files.size(path), ranges.get(ranges.size() - 1)[1]);
+
+                List<List<String>> combined = new ArrayList<>();
+                for(long[] range : ranges) {
+                    combined.addAll(readAll(new DelimitedFileRangeReader(path, range[0], range[1], ',', '"', StandardCharsets.UTF_8, 3)));
+                }
+                assertEquals(expected, combined);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
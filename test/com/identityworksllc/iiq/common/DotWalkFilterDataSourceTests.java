@@ -0,0 +1,287 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.reporting.DotWalkFilterDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Attributes;
+import sailpoint.object.Filter;
+import sailpoint.object.Identity;
+import sailpoint.object.LiveReport;
+import sailpoint.object.ObjectConfig;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.ReportColumnConfig;
+import sailpoint.reporting.ReportHelper;
+import sailpoint.reporting.datasource.DataSourceColumnHelper;
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the projection analysis and paging of {@link DotWalkFilterDataSource}, using a
+ * mocked context that serves the Identities "a" through "e"
+ */
+public class DotWalkFilterDataSourceTests {
+
+    /**
+     * The IDs of the Identities served by the mocked context, in ID order
+     */
+    private static final List<String> IDS = Arrays.asList("a", "b", "c", "d", "e");
+
+    private QueryOptions baseOptions;
+
+    private MockedConstruction<DataSourceColumnHelper> columnHelper;
+
+    private SailPointContext context;
+
+    private MockedStatic<ObjectConfig> objectConfig;
+
+    /**
+     * The options of each page query, excluding the projection probes
+     */
+    private List<QueryOptions> pageQueries;
+
+    /**
+     * The property lists of each projection query, including the probes
+     */
+    private List<List<String>> projections;
+
+    private MockedConstruction<ReportHelper> reportHelper;
+
+    private static ReportColumnConfig column(String field, String property) {
+        ReportColumnConfig column = new ReportColumnConfig();
+        column.setField(field);
+        column.setProperty(property);
+        return column;
+    }
+
+    /**
+     * Returns the value of the 'id' leaf filter with the given operation, or null
+     */
+    private static Object idFilterValue(QueryOptions qo, Filter.LogicalOperation operation) {
+        if (qo.getFilters() != null) {
+            for (Filter filter : qo.getFilters()) {
+                if (filter instanceof Filter.LeafFilter) {
+                    Filter.LeafFilter leaf = (Filter.LeafFilter) filter;
+                    if ("id".equals(leaf.getProperty()) && leaf.getOperation() == operation) {
+                        return leaf.getValue();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isPageQuery(QueryOptions qo) {
+        return qo.getOrderings() != null && qo.getOrderings().stream().anyMatch(o -> "id".equals(o.getColumn()));
+    }
+
+    /**
+     * Reads every row of the data source, returning the values of the given field
+     */
+    private static List<Object> readAll(DotWalkFilterDataSource dataSource, String field) throws Exception {
+        List<Object> values = new ArrayList<>();
+        while (dataSource.next()) {
+            values.add(dataSource.getFieldValue(field));
+        }
+        dataSource.close();
+        return values;
+    }
+
+    /**
+     * Answers a projection query against {@link #IDS}, honoring the 'id' greater-than
+     * filter, the first row, and the result limit
+     */
+    private List<Object[]> search(QueryOptions qo, List<String> properties) throws GeneralException {
+        projections.add(new ArrayList<>(properties));
+        if (properties.contains("firstname")) {
+            throw new GeneralException("could not resolve property: firstname");
+        }
+        if (isPageQuery(qo)) {
+            pageQueries.add(qo);
+        }
+        Object after = idFilterValue(qo, Filter.LogicalOperation.GT);
+        List<Object[]> rows = new ArrayList<>();
+        int index = 0;
+        for (String id : IDS) {
+            if (after != null && id.compareTo((String) after) <= 0) {
+                continue;
+            }
+            if (index++ < qo.getFirstRow()) {
+                continue;
+            }
+            if (qo.getResultLimit() > 0 && rows.size() >= qo.getResultLimit()) {
+                break;
+            }
+            Object[] row = new Object[properties.size()];
+            for (int i = 0; i < properties.size(); i++) {
+                row[i] = properties.get(i).equals("id") ? id : properties.get(i) + "-" + id;
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        baseOptions = new QueryOptions();
+        pageQueries = new ArrayList<>();
+        projections = new ArrayList<>();
+
+        context = mock(SailPointContext.class);
+        when(context.search(eq(Identity.class), any(QueryOptions.class), anyList())).thenAnswer(invocation -> search(invocation.getArgument(1), invocation.getArgument(2)).iterator());
+        when(context.getObjects(eq(Identity.class), any(QueryOptions.class))).thenAnswer(invocation -> {
+            List<Identity> identities = new ArrayList<>();
+            for (String id : (Collection<String>) idFilterValue(invocation.getArgument(1), Filter.LogicalOperation.IN)) {
+                Identity manager = new Identity();
+                manager.setName("boss-" + id);
+                Identity identity = new Identity();
+                identity.setId(id);
+                identity.setManager(manager);
+                identities.add(identity);
+            }
+            return identities;
+        });
+
+        objectConfig = Mockito.mockStatic(ObjectConfig.class);
+        reportHelper = Mockito.mockConstruction(ReportHelper.class, (mock, construction) -> when(mock.getFilterQueryOps(any(), any())).thenReturn(baseOptions));
+        columnHelper = Mockito.mockConstruction(DataSourceColumnHelper.class, (mock, construction) -> when(mock.getColumnValue(any(), any())).thenAnswer(invocation -> invocation.getArgument(0)));
+    }
+
+    /**
+     * Initializes a data source over the given columns with the given page size
+     */
+    private DotWalkFilterDataSource start(int pageSize, ReportColumnConfig... columns) throws Exception {
+        LiveReport report = mock(LiveReport.class, RETURNS_DEEP_STUBS);
+        doReturn(Identity.class).when(report.getDataSource()).getObjectClass();
+        when(report.getGridColumns()).thenReturn(Arrays.asList(columns));
+
+        Attributes<String, Object> arguments = new Attributes<>();
+        arguments.put("pageSize", pageSize);
+
+        DotWalkFilterDataSource dataSource = new DotWalkFilterDataSource();
+        dataSource.initialize(context, report, arguments, null, null);
+        return dataSource;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        columnHelper.close();
+        reportHelper.close();
+        objectConfig.close();
+    }
+
+    @Test
+    public void baseOptionsAreCopiedToEachPage() throws Exception {
+        Filter inactive = Filter.eq("inactive", false);
+        baseOptions.addFilter(inactive);
+        baseOptions.addGroupBy("name");
+
+        assertEquals(IDS.size(), readAll(start(2, column("name", "name")), "name").size());
+
+        for (QueryOptions qo : pageQueries) {
+            assertNotSame(baseOptions, qo);
+            assertTrue(qo.getFilters().contains(inactive));
+            assertEquals(Arrays.asList("name"), qo.getGroupBys());
+        }
+        // The paging filters were not added to the report's own options
+        assertEquals(1, baseOptions.getFilters().size());
+    }
+
+    @Test
+    public void idPagingIsUsedWithoutOrdering() throws Exception {
+        List<Object> names = readAll(start(2, column("name", "name")), "name");
+
+        assertEquals(Arrays.asList("name-a", "name-b", "name-c", "name-d", "name-e"), names);
+        assertEquals(3, pageQueries.size());
+        assertNull(idFilterValue(pageQueries.get(0), Filter.LogicalOperation.GT));
+        assertEquals("b", idFilterValue(pageQueries.get(1), Filter.LogicalOperation.GT));
+        assertEquals("d", idFilterValue(pageQueries.get(2), Filter.LogicalOperation.GT));
+        for (QueryOptions qo : pageQueries) {
+            assertEquals(0, qo.getFirstRow());
+            assertEquals(2, qo.getResultLimit());
+        }
+        verify(context, never()).getObjects(eq(Identity.class), any(QueryOptions.class));
+    }
+
+    @Test
+    public void offsetPagingIsUsedWithOrdering() throws Exception {
+        baseOptions.addOrdering("name", true);
+
+        List<Object> names = readAll(start(2, column("name", "name")), "name");
+
+        assertEquals(IDS.size(), names.size());
+        assertEquals(3, pageQueries.size());
+        for (int i = 0; i < pageQueries.size(); i++) {
+            QueryOptions qo = pageQueries.get(i);
+            assertEquals(i * 2, qo.getFirstRow());
+            assertNull(idFilterValue(qo, Filter.LogicalOperation.GT));
+            // The report's ordering comes first, with the ID as a tiebreaker
+            assertEquals("name", qo.getOrderings().get(0).getColumn());
+        }
+    }
+
+    @Test
+    public void propertiesThatCannotBeProjectedAreReadFromObjects() throws Exception {
+        DotWalkFilterDataSource dataSource = start(10, column("name", "name"), column("firstname", "firstname"), column("manager", "manager.name"));
+
+        // The combined probe failed, so each candidate was probed alone
+        assertTrue(projections.stream().anyMatch(p -> p.size() == 3 && p.containsAll(Arrays.asList("id", "name", "firstname"))));
+        assertTrue(projections.contains(Arrays.asList("id", "name")));
+        assertTrue(projections.contains(Arrays.asList("id", "firstname")));
+
+        List<Object> names = new ArrayList<>();
+        List<Object> managers = new ArrayList<>();
+        while (dataSource.next()) {
+            names.add(dataSource.getFieldValue("name"));
+            managers.add(dataSource.getFieldValue("manager"));
+        }
+        dataSource.close();
+
+        assertEquals(Arrays.asList("name-a", "name-b", "name-c", "name-d", "name-e"), names);
+        assertEquals(Arrays.asList("boss-a", "boss-b", "boss-c", "boss-d", "boss-e"), managers);
+        assertEquals(Arrays.asList("id", "name"), projections.get(projections.size() - 1));
+        // One page, so the objects were loaded with a single query and decached afterward
+        verify(context, times(1)).getObjects(eq(Identity.class), any(QueryOptions.class));
+        verify(context, times(IDS.size())).decache(any(Identity.class));
+    }
+
+    @Test
+    public void resultLimitAppliesAcrossPages() throws Exception {
+        baseOptions.setResultLimit(3);
+
+        List<Object> names = readAll(start(2, column("name", "name")), "name");
+
+        assertEquals(Arrays.asList("name-a", "name-b", "name-c"), names);
+        assertEquals(2, pageQueries.size());
+        assertEquals(2, pageQueries.get(0).getResultLimit());
+        assertEquals(1, pageQueries.get(1).getResultLimit());
+    }
+
+    @Test
+    public void simplePropertiesAreProjectedWithoutLoadingObjects() throws Exception {
+        DotWalkFilterDataSource dataSource = start(10, column("name", "name"), column("id", "id"));
+
+        assertTrue(dataSource.next());
+        assertEquals("a", dataSource.getFieldValue("id"));
+        assertEquals("name-a", dataSource.getFieldValue("name"));
+        dataSource.close();
+
+        assertEquals(Arrays.asList("id", "name"), projections.get(0));
+        verify(context, never()).getObjects(eq(Identity.class), any(QueryOptions.class));
+    }
+}
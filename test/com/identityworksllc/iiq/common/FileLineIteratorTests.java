@@ -0,0 +1,57 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.iterators.FileLineIterator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileLineIteratorTests {
+    private static List<String> readAll(FileLineIterator iterator) {
+        List<String> lines = new ArrayList<>();
+        try (FileLineIterator lineIterator = iterator) {
+            while (lineIterator.hasNext()) {
+                lines.add(lineIterator.next());
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void mappedWindowsMatchReader() throws Exception {
+        Path path = Files.createTempFile("lines", ".txt");
+        try {
+            String content = "id1\r\nid2\n\nthis line is longer than one window\n\u00fcmlaut \u00efd\nlast";
+            Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+
+            List<String> expected = Arrays.asList("id1", "id2", "", "this line is longer than one window", "\u00fcmlaut \u00efd", "last");
+            assertEquals(expected, readAll(new FileLineIterator(path, StandardCharsets.UTF_8, Long.MAX_VALUE, 7)));
+            assertEquals(expected, readAll(new FileLineIterator(path, StandardCharsets.UTF_8, 0L, 7)));
+            assertEquals(expected, readAll(new FileLineIterator(path, StandardCharsets.UTF_8, 0L, 1)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void trailingNewlineDoesNotAddLine() throws Exception {
+        Path path = Files.createTempFile("lines", ".txt");
+        try {
+            Files.write(path, "abc\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(Arrays.asList("abc"), readAll(new FileLineIterator(path, StandardCharsets.UTF_8, 0L, 3)));
+
+            Files.write(path, new byte[0]);
+            FileLineIterator empty = new FileLineIterator(path, StandardCharsets.UTF_8, 0L, 3);
+            assertFalse(empty.hasNext());
+            empty.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.identityworksllc.iiq.common;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.Mockito;
+import sailpoint.api.IncrementalProjectionIterator;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.ManagedAttribute;
+import sailpoint.object.QueryOptions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link ManagedAttributeResolver} and {@link ManagedAttributeIndex}, using a
+ * mocked context and mocked projection iterators
+ */
+public class ManagedAttributeResolverTests {
+
+    /**
+     * Mocks the construction of IncrementalProjectionIterators, each of which returns the
+     * next batch of rows from the queue, or nothing if the queue is empty
+     */
+    private static MockedConstruction<IncrementalProjectionIterator> projections(Deque<List<Object[]>> batches) {
+        return Mockito.mockConstruction(IncrementalProjectionIterator.class, (iterator, construction) -> {
+            List<Object[]> batch = batches.isEmpty() ? Collections.emptyList() : batches.poll();
+            Iterator<Object[]> rows = batch.iterator();
+            when(iterator.hasNext()).thenAnswer(invocation -> rows.hasNext());
+            when(iterator.next()).thenAnswer(invocation -> rows.next());
+        });
+    }
+
+    @SafeVarargs
+    private static Deque<List<Object[]>> queue(List<Object[]>... batches) {
+        return new ArrayDeque<>(Arrays.asList(batches));
+    }
+
+    /**
+     * Builds a projection row in the order of {@link ManagedAttributeResolver#SUMMARY_FIELDS}
+     */
+    private static Object[] row(String id, String value, long modified) {
+        return new Object[] { id, "memberOf", value, null, true, new Date(0L), new Date(modified) };
+    }
+
+    private static SailPointContext searching(List<Object[]> rows) throws Exception {
+        SailPointContext context = mock(SailPointContext.class);
+        when(context.search(eq(ManagedAttribute.class), any(QueryOptions.class), anyList())).thenAnswer(invocation -> new ArrayList<>(rows).iterator());
+        return context;
+    }
+
+    @Test
+    public void caseVariantsAllReceiveFoldedMatch() throws Exception {
+        SailPointContext context = searching(Collections.singletonList(row("1", "admins", 1000L)));
+        ManagedAttributeResolver resolver = new ManagedAttributeResolver(context);
+
+        ManagedAttributeResolver.Key upper = new ManagedAttributeResolver.Key("AD", "memberOf", "ADMINS");
+        ManagedAttributeResolver.Key mixed = new ManagedAttributeResolver.Key("AD", "memberOf", "Admins");
+        Map<ManagedAttributeResolver.Key, ManagedAttributeResolver.Summary> result = resolver.resolveSummaries(Arrays.asList(upper, mixed));
+
+        assertEquals(2, result.size());
+        assertEquals("1", result.get(upper).getId());
+        assertEquals("1", result.get(mixed).getId());
+        verify(context, times(1)).search(eq(ManagedAttribute.class), any(QueryOptions.class), anyList());
+    }
+
+    @Test
+    public void duplicateMatchesAreRejected() throws Exception {
+        SailPointContext context = searching(Arrays.asList(row("1", "admins", 1000L), row("2", "ADMINS", 1000L)));
+        ManagedAttributeResolver resolver = new ManagedAttributeResolver(context);
+
+        ManagedAttributeResolver.Key key = new ManagedAttributeResolver.Key("AD", "memberOf", "Admins");
+        assertThrows(TooManyResultsException.class, () -> resolver.resolveSummaries(Collections.singletonList(key)));
+    }
+
+    @Test
+    public void exactMatchPreferredOverFoldedMatch() throws Exception {
+        SailPointContext context = searching(Arrays.asList(row("1", "admins", 1000L), row("2", "Admins", 1000L)));
+        ManagedAttributeResolver resolver = new ManagedAttributeResolver(context);
+
+        ManagedAttributeResolver.Key lower = new ManagedAttributeResolver.Key("AD", "memberOf", "admins");
+        ManagedAttributeResolver.Key mixed = new ManagedAttributeResolver.Key("AD", "memberOf", "Admins");
+        Map<ManagedAttributeResolver.Key, ManagedAttributeResolver.Summary> result = resolver.resolveSummaries(Arrays.asList(lower, mixed));
+
+        assertEquals("1", result.get(lower).getId());
+        assertEquals("2", result.get(mixed).getId());
+    }
+
+    @Test
+    public void indexEvictsLeastRecentlyUsedApplication() throws Exception {
+        SailPointContext context = mock(SailPointContext.class);
+        ManagedAttributeIndex index = new ManagedAttributeIndex(3, 60000L, 60000L);
+        try (MockedConstruction<IncrementalProjectionIterator> projections = projections(queue(
+                Arrays.asList(row("1", "a1", 1000L), row("2", "a2", 1000L)),
+                Arrays.asList(row("3", "b1", 1000L), row("4", "b2", 1000L)),
+                Arrays.asList(row("1", "a1", 1000L), row("2", "a2", 1000L))))) {
+            assertTrue(index.get(context, new ManagedAttributeResolver.Key("A", "memberOf", "a1")).isPresent());
+            assertTrue(index.get(context, new ManagedAttributeResolver.Key("B", "memberOf", "b1")).isPresent());
+            assertEquals(2, index.size());
+
+            // A was evicted to make room for B, so it is warmed again
+            assertTrue(index.get(context, new ManagedAttributeResolver.Key("A", "memberOf", "a2")).isPresent());
+            assertEquals(3, projections.constructed().size());
+        }
+    }
+
+    @Test
+    public void indexHitsSkipTheDatabase() throws Exception {
+        SailPointContext context = searching(Collections.emptyList());
+        ManagedAttributeIndex index = new ManagedAttributeIndex(100, 60000L, 60000L);
+        ManagedAttributeResolver resolver = new ManagedAttributeResolver(context, index);
+        ManagedAttributeResolver.Key key = new ManagedAttributeResolver.Key("A", "memberOf", "a1");
+        try (MockedConstruction<IncrementalProjectionIterator> projections = projections(queue(
+                Collections.singletonList(row("1", "a1", 1000L))))) {
+            assertEquals("1", resolver.resolveSummaries(Collections.singletonList(key)).get(key).getId());
+        }
+        verify(context, never()).search(eq(ManagedAttribute.class), any(QueryOptions.class), anyList());
+    }
+
+    @Test
+    public void indexIsWarmedOnce() throws Exception {
+        SailPointContext context = mock(SailPointContext.class);
+        ManagedAttributeIndex index = new ManagedAttributeIndex(100, 60000L, 60000L);
+        try (MockedConstruction<IncrementalProjectionIterator> projections = projections(queue(
+                Arrays.asList(row("1", "a1", 1000L), row("2", "a2", 1000L))))) {
+            assertEquals("1", index.get(context, new ManagedAttributeResolver.Key("A", "memberOf", "a1")).get().getId());
+            assertEquals("2", index.get(context, new ManagedAttributeResolver.Key("A", "memberOf", "a2")).get().getId());
+            assertFalse(index.get(context, new ManagedAttributeResolver.Key("A", "memberOf", "a3")).isPresent());
+
+            assertEquals(1, projections.constructed().size());
+        }
+        assertEquals(2, index.getHits());
+        assertEquals(1, index.getMisses());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void indexIsUsableWhileAnApplicationWarms() throws Exception {
+        SailPointContext context = mock(SailPointContext.class);
+        ManagedAttributeIndex index = new ManagedAttributeIndex(100, 60000L, 60000L);
+        List<Boolean> completed = new ArrayList<>();
+        try (MockedConstruction<IncrementalProjectionIterator> projections = Mockito.mockConstruction(IncrementalProjectionIterator.class, (iterator, construction) -> {
+            Iterator<Object[]> rows = Collections.singletonList(row("1", "a1", 1000L)).iterator();
+            when(iterator.hasNext()).thenAnswer(invocation -> {
+                if (completed.isEmpty()) {
+                    // While A is being loaded, another thread can still use the index
+                    ExecutorService other = Executors.newSingleThreadExecutor();
+                    try {
+                        Future<Integer> size = other.submit(() -> {
+                            index.invalidate("B");
+                            return index.size();
+                        });
+                        completed.add(size.get(5, TimeUnit.SECONDS) == 0);
+                    } finally {
+                        other.shutdownNow();
+                    }
+                }
+                return rows.hasNext();
+            });
+            when(iterator.next()).thenAnswer(invocation -> rows.next());
+        })) {
+            assertTrue(index.get(context, new ManagedAttributeResolver.Key("A", "memberOf", "a1")).isPresent());
+            assertEquals(1, projections.constructed().size());
+        }
+        assertEquals(Collections.singletonList(true), completed);
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void indexRefreshesIncrementally() throws Exception {
+        SailPointContext context = mock(SailPointContext.class);
+        ManagedAttributeIndex index = new ManagedAttributeIndex(100, 0L, 60000L);
+        try (MockedConstruction<IncrementalProjectionIterator> projections = projections(queue(
+                Collections.singletonList(row("1", "a1", 1000L)),
+                Collections.singletonList(row("2", "a2", 2000L))))) {
+            assertFalse(index.get(context, new ManagedAttributeResolver.Key("A", "memberOf", "a2")).isPresent());
+
+            // The refresh interval has elapsed, so only new or modified entries are read
+            Optional<ManagedAttributeResolver.Summary> refreshed = index.get(context, new ManagedAttributeResolver.Key("A", "memberOf", "a2"));
+            assertTrue(refreshed.isPresent());
+            assertEquals("2", refreshed.get().getId());
+            assertEquals(2, projections.constructed().size());
+        }
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void tooLargeApplicationFallsBackToDatabase() throws Exception {
+        SailPointContext context = searching(Collections.singletonList(row("3", "a3", 1000L)));
+        ManagedAttributeIndex index = new ManagedAttributeIndex(2, 60000L, 60000L);
+        ManagedAttributeResolver resolver = new ManagedAttributeResolver(context, index);
+        ManagedAttributeResolver.Key key = new ManagedAttributeResolver.Key("A", "memberOf", "a3");
+        try (MockedConstruction<IncrementalProjectionIterator> projections = projections(queue(
+                Arrays.asList(row("1", "a1", 1000L), row("2", "a2", 1000L), row("3", "a3", 1000L))))) {
+            assertEquals("3", resolver.resolveSummaries(Collections.singletonList(key)).get(key).getId());
+            assertEquals("3", resolver.resolveSummaries(Collections.singletonList(key)).get(key).getId());
+
+            // The application is measured once and not indexed
+            assertEquals(1, projections.constructed().size());
+        }
+        assertEquals(0, index.size());
+        verify(context, times(2)).search(eq(ManagedAttribute.class), any(QueryOptions.class), anyList());
+    }
+}
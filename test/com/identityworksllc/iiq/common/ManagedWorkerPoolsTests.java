@@ -0,0 +1,223 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.threads.ManagedWorkerPools;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.object.Configuration;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the leases of {@link ManagedWorkerPools}, using a mocked SystemConfiguration.
+ * Each test uses its own bulkhead, since bulkheads live for the life of the JVM.
+ */
+public class ManagedWorkerPoolsTests {
+
+    /**
+     * The bulkhead configuration returned by the mocked SystemConfiguration
+     */
+    private Map<String, Object> bulkheads;
+
+    private MockedStatic<Configuration> configuration;
+
+    /**
+     * Waits for the given condition to become true, failing after five seconds
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for condition");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Returns a task that waits for the given latch, counting the tasks running at once
+     */
+    private static Runnable blocking(CountDownLatch release, AtomicInteger running, AtomicInteger maxRunning) {
+        return () -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Configures a new, uniquely named bulkhead
+     *
+     * @return The bulkhead name
+     */
+    private String bulkhead(int size, int queue, int maxPerCaller) {
+        String name = "test-" + UUID.randomUUID();
+        Map<String, Object> config = new HashMap<>();
+        config.put("size", size);
+        config.put("queue", queue);
+        config.put("maxPerCaller", maxPerCaller);
+        bulkheads.put(name, config);
+        return name;
+    }
+
+    @BeforeEach
+    public void setUp() {
+        bulkheads = new HashMap<>();
+        Configuration systemConfig = mock(Configuration.class);
+        when(systemConfig.getInteger("commonThreadPoolParallelism")).thenReturn(null);
+        when(systemConfig.get(ManagedWorkerPools.CONFIG_BULKHEADS)).thenReturn(bulkheads);
+        configuration = Mockito.mockStatic(Configuration.class);
+        configuration.when(Configuration::getSystemConfig).thenReturn(systemConfig);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        configuration.close();
+    }
+
+    @Test
+    public void awaitTerminationWaitsForRunningTasks() throws Exception {
+        String name = bulkhead(2, 10, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        ExecutorService lease = ManagedWorkerPools.lease(name, 2);
+
+        lease.execute(blocking(release, running, new AtomicInteger()));
+        await(() -> running.get() == 1);
+        lease.shutdown();
+
+        assertTrue(lease.isShutdown());
+        assertFalse(lease.awaitTermination(50, TimeUnit.MILLISECONDS));
+        assertFalse(lease.isTerminated());
+        assertThrows(RejectedExecutionException.class, () -> lease.execute(() -> { }));
+
+        release.countDown();
+        assertTrue(lease.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(lease.isTerminated());
+        assertEquals(0, ManagedWorkerPools.getMetrics().get(name).get("callers"));
+    }
+
+    @Test
+    public void parallelismIsCappedAtPerCallerLimit() throws Exception {
+        String name = bulkhead(4, 10, 2);
+        assertEquals(2, ManagedWorkerPools.getMaxPerCaller(name));
+
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutorService lease = ManagedWorkerPools.lease(name, 10);
+        for (int i = 0; i < 6; i++) {
+            lease.execute(blocking(release, running, maxRunning));
+        }
+        await(() -> running.get() == 2);
+        // The bulkhead has free threads, but the lease holds the rest of its work
+        Thread.sleep(100);
+        assertEquals(2, running.get());
+        assertEquals(0, ManagedWorkerPools.getMetrics().get(name).get("queued"));
+
+        release.countDown();
+        lease.shutdown();
+        assertTrue(lease.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void rejectedTasksAreRetriedWhenTheBulkheadHasRoom() throws Exception {
+        String name = bulkhead(1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+
+        // The first lease occupies the only thread, and the second fills the queue
+        ExecutorService first = ManagedWorkerPools.lease(name, 1);
+        first.execute(blocking(release, running, new AtomicInteger()));
+        await(() -> running.get() == 1);
+        ExecutorService second = ManagedWorkerPools.lease(name, 1);
+        second.execute(completed::incrementAndGet);
+
+        // The third lease's task is rejected and held until a task finishes
+        ExecutorService third = ManagedWorkerPools.lease(name, 1);
+        third.execute(completed::incrementAndGet);
+        assertEquals(1L, ManagedWorkerPools.getMetrics().get(name).get("rejected"));
+        third.shutdown();
+        assertFalse(third.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        for (ExecutorService lease : new ExecutorService[] { first, second, third }) {
+            lease.shutdown();
+            assertTrue(lease.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, completed.get());
+    }
+
+    @Test
+    public void shutdownNowCancelsRunningAndReturnsPendingTasks() throws Exception {
+        String name = bulkhead(1, 10, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        ExecutorService lease = ManagedWorkerPools.lease(name, 1);
+
+        Future<?> blocked = lease.submit(blocking(release, running, new AtomicInteger()));
+        await(() -> running.get() == 1);
+        lease.execute(() -> { });
+        lease.execute(() -> { });
+
+        List<Runnable> dropped = lease.shutdownNow();
+
+        assertEquals(2, dropped.size());
+        assertTrue(lease.awaitTermination(5, TimeUnit.SECONDS));
+        // The running task was interrupted without being released, and the bulkhead is still usable
+        await(() -> running.get() == 0 && blocked.isDone());
+        ExecutorService next = ManagedWorkerPools.lease(name, 1);
+        assertEquals("done", next.submit(() -> "done").get(5, TimeUnit.SECONDS));
+        next.shutdown();
+    }
+
+    @Test
+    public void submissionBlocksWhenTooManyTasksArePending() throws Exception {
+        String name = bulkhead(1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        ExecutorService lease = ManagedWorkerPools.lease(name, 1);
+
+        // One task runs and one is held locally, which reaches the queue bound of 1
+        lease.execute(blocking(release, running, new AtomicInteger()));
+        await(() -> running.get() == 1);
+        lease.execute(completed::incrementAndGet);
+
+        ExecutorService submitter = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> submission = submitter.submit(() -> lease.execute(completed::incrementAndGet));
+            Thread.sleep(100);
+            assertFalse(submission.isDone());
+
+            release.countDown();
+            submission.get(5, TimeUnit.SECONDS);
+        } finally {
+            submitter.shutdownNow();
+        }
+        lease.shutdown();
+        assertTrue(lease.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, completed.get());
+    }
+}
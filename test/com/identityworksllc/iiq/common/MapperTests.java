@@ -0,0 +1,246 @@
+package com.identityworksllc.iiq.common;
+
+import org.junit.jupiter.api.Test;
+import sailpoint.object.Application;
+import sailpoint.object.AttributeAssignment;
+import sailpoint.object.Attributes;
+import sailpoint.object.Identity;
+import sailpoint.object.Link;
+import sailpoint.object.ProvisioningPlan;
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link Mapper#objectToMap(Object)}, covering both the hand-written converters
+ * and the cached Jackson path
+ */
+public class MapperTests {
+    public static class Bean {
+        private Map<String, Object> attributes;
+
+        private boolean enabled;
+
+        private String name;
+
+        private List<String> owners;
+
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getOwners() {
+            return owners;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setAttributes(Map<String, Object> attributes) {
+            this.attributes = attributes;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setOwners(List<String> owners) {
+            this.owners = owners;
+        }
+    }
+
+    /**
+     * A bean whose property cannot be read
+     */
+    public static class BrokenBean {
+        public String getValue() {
+            throw new IllegalStateException("broken");
+        }
+    }
+
+    public static class OtherBean {
+        private String value;
+
+        public String getValue() {
+            return value;
+        }
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+    }
+
+    private static Bean bean(String name) {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("department", "IT");
+        Bean bean = new Bean();
+        bean.setName(name);
+        bean.setEnabled(true);
+        bean.setOwners(Arrays.asList("spadmin", "admin"));
+        bean.setAttributes(attributes);
+        return bean;
+    }
+
+    private static Identity identity(String name) {
+        Identity identity = new Identity();
+        identity.setId(name + "-id");
+        identity.setName(name);
+        return identity;
+    }
+
+    private static Link link(Identity identity) {
+        Application application = new Application();
+        application.setName("Active Directory");
+        Attributes<String, Object> attributes = new Attributes<>();
+        attributes.put("memberOf", Arrays.asList("CN=Group A", "CN=Group B"));
+        Link link = new Link();
+        link.setApplication(application);
+        link.setIdentity(identity);
+        link.setNativeIdentity("CN=John Doe,OU=Users,DC=example,DC=com");
+        link.setAttributes(attributes);
+        return link;
+    }
+
+    @Test
+    public void beanIsConvertedByTheCachedMapper() throws Exception {
+        // The mixin marks every bean with the "mappableFilter", so this fails unless the
+        // cached mapper registers a provider for it
+        Map<String, Object> map = Mapper.objectToMap(bean("bean"));
+
+        assertEquals("bean", map.get("name"));
+        assertEquals(true, map.get("enabled"));
+        assertEquals(Arrays.asList("spadmin", "admin"), map.get("owners"));
+        assertEquals(Collections.singletonMap("department", "IT"), map.get("attributes"));
+        assertTrue(map instanceof HashMap);
+    }
+
+    @Test
+    public void concurrentConversionsShareTheMapper() throws Exception {
+        Map<String, Object> expected = Mapper.objectToMap(bean("bean"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Map<String, Object>>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(executor.submit(() -> Mapper.objectToMap(bean("bean"))));
+            }
+            for (Future<Map<String, Object>> future : futures) {
+                assertEquals(expected, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void eachClassHasItsOwnCachedMapper() throws Exception {
+        assertSame(Mapper.getMapper(Bean.class), Mapper.getMapper(Bean.class));
+        assertNotSame(Mapper.getMapper(Bean.class), Mapper.getMapper(OtherBean.class));
+
+        OtherBean other = new OtherBean();
+        other.setValue("x");
+        assertEquals(Collections.singletonMap("value", "x"), Mapper.objectToMap(other));
+        // The mixin registered for one class does not leak into the other's output
+        assertEquals("bean", Mapper.objectToMap(bean("bean")).get("name"));
+    }
+
+    @Test
+    public void identityConverterIncludesManagerAndLinks() {
+        Identity manager = identity("boss");
+        Identity identity = identity("jdoe");
+        identity.setFirstname("John");
+        identity.setLastname("Doe");
+        identity.setAttribute("department", "IT");
+        identity.setManager(manager);
+        Link link = link(identity);
+        identity.setLinks(new ArrayList<>(Collections.singletonList(link)));
+
+        Map<String, Object> map = Mapper.toMap(identity);
+
+        assertEquals("jdoe-id", map.get("id"));
+        assertEquals("jdoe", map.get("name"));
+        assertEquals("John", map.get("firstname"));
+        assertEquals("Doe", map.get("lastname"));
+        assertEquals("IT", map.get("department"));
+        assertEquals(false, map.get("inactive"));
+        assertEquals("boss-id", map.get("manager.id"));
+        assertEquals("boss", map.get("manager.name"));
+        assertEquals(Collections.singletonList(Mapper.toMap(link)), map.get("links"));
+    }
+
+    @Test
+    public void identityConverterToleratesMissingManagerAndLinks() {
+        Map<String, Object> map = Mapper.toMap(identity("jdoe"));
+
+        assertEquals("jdoe", map.get("name"));
+        assertFalse(map.containsKey("manager.name"));
+        assertEquals(Collections.emptyList(), map.get("links"));
+    }
+
+    @Test
+    public void linkWithoutIdentityIsConverted() throws Exception {
+        Map<String, Object> map = Mapper.objectToMap(link(null));
+
+        assertEquals("CN=John Doe,OU=Users,DC=example,DC=com", map.get("nativeIdentity"));
+        assertEquals("Active Directory", map.get("application.name"));
+        assertFalse(map.containsKey("identity.name"));
+    }
+
+    @Test
+    public void nullIsAnEmptyMap() throws Exception {
+        assertEquals(Collections.emptyMap(), Mapper.objectToMap(null));
+    }
+
+    @Test
+    public void sailPointObjectsUseTheHandWrittenConverters() throws Exception {
+        Identity identity = identity("jdoe");
+        Link link = link(identity);
+        Map<String, Object> linkMap = Mapper.objectToMap(link);
+        assertEquals(Mapper.toMap(link), linkMap);
+        // Jackson would have nested the identity rather than flattening it
+        assertEquals("jdoe", linkMap.get("identity.name"));
+        assertEquals(Arrays.asList("CN=Group A", "CN=Group B"), linkMap.get("memberOf"));
+
+        assertEquals(Mapper.toMap(identity), Mapper.objectToMap(identity));
+
+        Application application = link.getApplication();
+        assertEquals(Mapper.toMap(application), Mapper.objectToMap(application));
+
+        ProvisioningPlan plan = new ProvisioningPlan();
+        plan.setNativeIdentity("jdoe");
+        assertEquals(Mapper.toMap(plan), Mapper.objectToMap(plan));
+
+        AttributeAssignment assignment = mock(AttributeAssignment.class);
+        when(assignment.getName()).thenReturn("memberOf");
+        when(assignment.getApplicationName()).thenReturn("Active Directory");
+        when(assignment.getStringValue()).thenReturn("CN=Group A");
+        Map<String, Object> assignmentMap = Mapper.objectToMap(assignment);
+        assertEquals(Mapper.toMap(assignment), assignmentMap);
+        assertEquals("CN=Group A", assignmentMap.get("value"));
+    }
+
+    @Test
+    public void unreadableBeanIsAGeneralException() {
+        GeneralException e = assertThrows(GeneralException.class, () -> Mapper.objectToMap(new BrokenBean()));
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+}
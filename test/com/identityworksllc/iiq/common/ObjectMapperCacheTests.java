@@ -0,0 +1,114 @@
+package com.identityworksllc.iiq.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ObjectMapperCacheTests {
+    public static class SimpleConfig {
+        private String name;
+
+        private List<String> values;
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getValues() {
+            return values;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setValues(List<String> values) {
+            this.values = values;
+        }
+    }
+
+    private static Map<String, Object> config(String name, String... values) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", name);
+        map.put("values", new ArrayList<>(Arrays.asList(values)));
+        return map;
+    }
+
+    @Test
+    public void cachedDecodeReturnsSameObject() throws Exception {
+        ObjectMapper<SimpleConfig> mapper = new ObjectMapper<>(SimpleConfig.class);
+        SimpleConfig first = mapper.decode(config("a", "1", "2"), true);
+        SimpleConfig second = mapper.decode(config("a", "1", "2"), true);
+        assertSame(first, second);
+        assertEquals(1, mapper.getCache().getHits());
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsed() throws Exception {
+        ObjectMapper<SimpleConfig> mapper = new ObjectMapper<>(SimpleConfig.class);
+        mapper.configureCache(2, 0, TimeUnit.SECONDS);
+        SimpleConfig a = mapper.decode(config("a"), true);
+        mapper.decode(config("b"), true);
+        mapper.decode(config("a"), true);
+        mapper.decode(config("c"), true);
+
+        assertEquals(2, mapper.getCache().size());
+        assertEquals(1, mapper.getCache().getEvictions());
+        // "a" was touched more recently than "b", so it should survive
+        assertSame(a, mapper.decode(config("a"), true));
+    }
+
+    @Test
+    public void equalHashCodesDoNotCollide() throws Exception {
+        // "Aa" and "BB" have the same String.hashCode()
+        Map<String, Object> first = config("Aa");
+        Map<String, Object> second = config("BB");
+        assertEquals(first.hashCode(), second.hashCode());
+
+        ObjectMapper<SimpleConfig> mapper = new ObjectMapper<>(SimpleConfig.class);
+        assertEquals("Aa", mapper.decode(first, true).getName());
+        assertEquals("BB", mapper.decode(second, true).getName());
+    }
+
+    @Test
+    public void fingerprintIgnoresKeyOrder() throws Exception {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("x", "1");
+        first.put("y", Arrays.asList("a", "b"));
+
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("y", Arrays.asList("a", "b"));
+        second.put("x", "1");
+
+        assertEquals(ObjectMapper.fingerprint(first), ObjectMapper.fingerprint(second));
+    }
+
+    @Test
+    public void fingerprintIsNotAmbiguous() throws Exception {
+        Map<String, Object> first = new HashMap<>();
+        first.put("x", Arrays.asList("a,b"));
+
+        Map<String, Object> second = new HashMap<>();
+        second.put("x", Arrays.asList("a", "b"));
+
+        assertNotEquals(ObjectMapper.fingerprint(first), ObjectMapper.fingerprint(second));
+    }
+
+    @Test
+    public void mutatingInputDoesNotAffectCache() throws Exception {
+        ObjectMapper<SimpleConfig> mapper = new ObjectMapper<>(SimpleConfig.class);
+        Map<String, Object> input = config("a", "1");
+        SimpleConfig first = mapper.decode(input, true);
+
+        @SuppressWarnings("unchecked")
+        List<String> values = (List<String>) input.get("values");
+        values.add("2");
+
+        SimpleConfig second = mapper.decode(input, true);
+        assertNotSame(first, second);
+        assertEquals(Arrays.asList("1", "2"), second.getValues());
+    }
+}
@@ -0,0 +1,125 @@
+package com.identityworksllc.iiq.common;
+
+import org.junit.jupiter.api.Test;
+import sailpoint.object.Attributes;
+import sailpoint.object.ProvisioningPlan;
+import sailpoint.object.ProvisioningPlan.AccountRequest;
+import sailpoint.object.ProvisioningPlan.AttributeRequest;
+import sailpoint.tools.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link ProvisioningUtilities#mergePlansByIdentity(List)}
+ */
+public class ProvisioningUtilitiesTests {
+
+    private static AccountRequest accountRequest(AccountRequest.Operation operation, String nativeIdentity, String attribute, String value) {
+        AccountRequest request = new AccountRequest(operation, "AD", null, nativeIdentity);
+        request.add(new AttributeRequest(attribute, ProvisioningPlan.Operation.Add, value));
+        return request;
+    }
+
+    private static ProvisioningPlan plan(String identityName, AccountRequest... requests) {
+        ProvisioningPlan plan = new ProvisioningPlan();
+        plan.setNativeIdentity(identityName);
+        for (AccountRequest request : requests) {
+            plan.add(request);
+        }
+        return plan;
+    }
+
+    @Test
+    public void argumentsFromLaterPlansWin() throws Exception {
+        ProvisioningPlan first = plan("jdoe", accountRequest(AccountRequest.Operation.Modify, "cn=jdoe", "memberOf", "A"));
+        first.setArguments(new Attributes<>());
+        first.getArguments().put("source", "first");
+        first.getArguments().put("flow", "leaver");
+        first.getAccountRequests().get(0).setArguments(new Attributes<>());
+        first.getAccountRequests().get(0).getArguments().put("priority", "low");
+
+        ProvisioningPlan second = plan("jdoe", accountRequest(AccountRequest.Operation.Modify, "cn=jdoe", "memberOf", "B"));
+        second.setArguments(new Attributes<>());
+        second.getArguments().put("source", "second");
+        second.getAccountRequests().get(0).setArguments(new Attributes<>());
+        second.getAccountRequests().get(0).getArguments().put("priority", "high");
+
+        ProvisioningPlan merged = ProvisioningUtilities.mergePlansByIdentity(Arrays.asList(first, second)).get("jdoe");
+
+        assertEquals("second", merged.getArguments().get("source"));
+        assertEquals("leaver", merged.getArguments().get("flow"));
+        assertEquals(1, merged.getAccountRequests().size());
+        assertEquals("high", merged.getAccountRequests().get(0).getArguments().get("priority"));
+
+        // The input plans keep their own arguments
+        assertEquals("first", first.getArguments().get("source"));
+        assertEquals("low", first.getAccountRequests().get(0).getArguments().get("priority"));
+    }
+
+    @Test
+    public void createsWithoutNativeIdentityAreNotCombined() throws Exception {
+        ProvisioningPlan first = plan("jdoe", accountRequest(AccountRequest.Operation.Create, null, "memberOf", "A"));
+        ProvisioningPlan second = plan("jdoe", accountRequest(AccountRequest.Operation.Create, null, "memberOf", "B"));
+
+        ProvisioningPlan merged = ProvisioningUtilities.mergePlansByIdentity(Arrays.asList(first, second)).get("jdoe");
+
+        assertEquals(2, merged.getAccountRequests().size());
+    }
+
+    @Test
+    public void nullOperationIsTreatedAsModify() throws Exception {
+        ProvisioningPlan first = plan("jdoe", accountRequest(null, "cn=jdoe", "memberOf", "A"));
+        ProvisioningPlan second = plan("jdoe", accountRequest(AccountRequest.Operation.Modify, "cn=jdoe", "memberOf", "B"));
+        ProvisioningPlan third = plan("jdoe", accountRequest(AccountRequest.Operation.Disable, "cn=jdoe", "memberOf", "C"));
+
+        ProvisioningPlan merged = ProvisioningUtilities.mergePlansByIdentity(Arrays.asList(first, second, third)).get("jdoe");
+
+        assertEquals(2, merged.getAccountRequests().size());
+        assertEquals(2, Util.size(merged.getAccountRequests().get(0).getAttributeRequests()));
+        assertEquals(AccountRequest.Operation.Disable, merged.getAccountRequests().get(1).getOperation());
+    }
+
+    @Test
+    public void plansAreGroupedByIdentityInOrder() throws Exception {
+        ProvisioningPlan noIdentity = plan(null, accountRequest(AccountRequest.Operation.Modify, "cn=nobody", "memberOf", "A"));
+        List<ProvisioningPlan> plans = Arrays.asList(
+                plan("jdoe", accountRequest(AccountRequest.Operation.Modify, "cn=jdoe", "memberOf", "A")),
+                plan("asmith", accountRequest(AccountRequest.Operation.Modify, "cn=asmith", "memberOf", "A")),
+                noIdentity,
+                plan("jdoe", accountRequest(AccountRequest.Operation.Modify, "cn=jdoe", "memberOf", "B"))
+        );
+
+        Map<String, ProvisioningPlan> merged = ProvisioningUtilities.mergePlansByIdentity(plans);
+
+        assertEquals(Arrays.asList("jdoe", "asmith"), new ArrayList<>(merged.keySet()));
+        assertEquals(1, merged.get("asmith").getAccountRequests().size());
+        assertEquals(1, merged.get("jdoe").getAccountRequests().size());
+    }
+
+    @Test
+    public void sameApplicationAndNativeIdentityAreCombinedWithoutModifyingInputs() throws Exception {
+        AccountRequest firstRequest = accountRequest(AccountRequest.Operation.Modify, "cn=jdoe", "memberOf", "A");
+        AccountRequest secondRequest = accountRequest(AccountRequest.Operation.Modify, "CN=JDOE", "memberOf", "B");
+        List<ProvisioningPlan> plans = Arrays.asList(plan("jdoe", firstRequest), plan("jdoe", secondRequest));
+
+        ProvisioningPlan merged = ProvisioningUtilities.mergePlansByIdentity(plans).get("jdoe");
+
+        assertEquals(1, merged.getAccountRequests().size());
+        AccountRequest combined = merged.getAccountRequests().get(0);
+        assertNotSame(firstRequest, combined);
+        assertEquals(2, Util.size(combined.getAttributeRequests()));
+
+        assertEquals(1, Util.size(firstRequest.getAttributeRequests()));
+        assertEquals(1, Util.size(secondRequest.getAttributeRequests()));
+        assertSame(firstRequest, plans.get(0).getAccountRequests().get(0));
+
+        // Merging again produces the same result, rather than accumulating requests
+        ProvisioningPlan again = ProvisioningUtilities.mergePlansByIdentity(plans).get("jdoe");
+        assertEquals(2, Util.size(again.getAccountRequests().get(0).getAttributeRequests()));
+    }
+}
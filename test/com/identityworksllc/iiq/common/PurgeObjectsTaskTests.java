@@ -0,0 +1,273 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.task.PurgeObjectsTask;
+import com.identityworksllc.iiq.common.task.PurgeObjectsWorker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.ObjectUtil;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Attributes;
+import sailpoint.object.AuditEvent;
+import sailpoint.object.Custom;
+import sailpoint.object.Filter;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.TaskResult;
+import sailpoint.task.TaskMonitor;
+import sailpoint.tools.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the resumable checkpoint of {@link PurgeObjectsTask}, using a mocked context.
+ * Each chunk's {@link PurgeObjectsWorker} is replaced by a {@link ChunkAction}, so that the
+ * tests control the order in which chunks complete and whether they succeed.
+ */
+public class PurgeObjectsTaskTests {
+
+    /**
+     * The deletion of a single chunk, standing in for a {@link PurgeObjectsWorker}
+     */
+    @FunctionalInterface
+    private interface ChunkAction {
+        /**
+         * @param index The index of the chunk, in order of its IDs
+         * @return True if the chunk succeeded
+         */
+        boolean run(int index) throws Exception;
+    }
+
+    private static final String CHECKPOINT = "Purge checkpoint";
+
+    private static final String CHECKPOINT_KEY = "AuditEvent|*|false";
+
+    /**
+     * The IDs in each chunk, in the order the chunks were created
+     */
+    private List<List<String>> chunks;
+
+    private SailPointContext context;
+
+    private Custom custom;
+
+    private MockedConstruction<TaskMonitor> monitors;
+
+    private MockedStatic<ObjectUtil> objectUtil;
+
+    /**
+     * The ID queries run by the task
+     */
+    private List<QueryOptions> queries;
+
+    /**
+     * The checkpoint IDs saved, in order
+     */
+    private List<String> saved;
+
+    private PurgeObjectsTask task;
+
+    private TaskResult taskResult;
+
+    private static Custom checkpoint(String key, String lastId) {
+        Custom custom = new Custom();
+        custom.setName(CHECKPOINT);
+        custom.put("key", key);
+        custom.put("lastId", lastId);
+        return custom;
+    }
+
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            ids.add(String.format("%02d", i));
+        }
+        return ids;
+    }
+
+    /**
+     * Finds the ID after which the given query starts, or null if it starts at the beginning
+     */
+    private static String startsAfter(QueryOptions qo) {
+        for (Filter filter : qo.getFilters()) {
+            if (filter instanceof Filter.LeafFilter) {
+                Filter.LeafFilter leaf = (Filter.LeafFilter) filter;
+                if ("id".equals(leaf.getProperty()) && leaf.getOperation() == Filter.LogicalOperation.GT) {
+                    return (String) leaf.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Purges every AuditEvent in chunks of 2 IDs on 3 threads, with the ID query returning
+     * the given IDs and each chunk's worker replaced by the given action
+     */
+    @SuppressWarnings("unchecked")
+    private void purge(List<String> ids, ChunkAction action) throws Exception {
+        doAnswer(invocation -> {
+            queries.add(invocation.getArgument(1));
+            List<Object[]> rows = new ArrayList<>();
+            for (String id : ids) {
+                rows.add(new Object[] { id });
+            }
+            return rows.iterator();
+        }).when(context).search(eq(AuditEvent.class), any(QueryOptions.class), eq("id"));
+
+        Attributes<String, Object> arguments = new Attributes<>();
+        arguments.put("objectType", "AuditEvent");
+        arguments.put("deleteAll", true);
+        arguments.put("simulate", false);
+        arguments.put("threads", 3);
+        arguments.put("batchSize", 2);
+        arguments.put("checkpointName", CHECKPOINT);
+
+        try (MockedConstruction<PurgeObjectsWorker> workers = Mockito.mockConstruction(PurgeObjectsWorker.class, (worker, construction) -> {
+            int index = chunks.size();
+            List<String> chunk = new ArrayList<>((List<String>) construction.arguments().get(1));
+            chunks.add(chunk);
+            AtomicBoolean succeeded = new AtomicBoolean();
+            AtomicReference<AtomicInteger> failedCounter = new AtomicReference<>();
+            doAnswer(invocation -> {
+                failedCounter.set(invocation.getArgument(0));
+                return null;
+            }).when(worker).setFailedCounter(any(AtomicInteger.class));
+            when(worker.getLastId()).thenReturn(chunk.get(chunk.size() - 1));
+            when(worker.isSucceeded()).thenAnswer(invocation -> succeeded.get());
+            when(worker.runnable()).thenReturn(() -> {
+                boolean ok;
+                try {
+                    ok = action.run(index);
+                } catch (Exception e) {
+                    ok = false;
+                }
+                if (ok) {
+                    succeeded.set(true);
+                } else {
+                    failedCounter.get().incrementAndGet();
+                }
+            });
+        })) {
+            task.execute(context, null, taskResult, arguments);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        chunks = Collections.synchronizedList(new ArrayList<>());
+        queries = new ArrayList<>();
+        saved = Collections.synchronizedList(new ArrayList<>());
+        task = new PurgeObjectsTask();
+        taskResult = new TaskResult();
+
+        context = mock(SailPointContext.class);
+        when(context.getObjectByName(Custom.class, CHECKPOINT)).thenAnswer(invocation -> custom);
+        doAnswer(invocation -> {
+            custom = invocation.getArgument(0);
+            saved.add(custom.getString("lastId"));
+            return null;
+        }).when(context).saveObject(any(Custom.class));
+        doAnswer(invocation -> {
+            custom = null;
+            saved.add(null);
+            return null;
+        }).when(context).removeObject(any(Custom.class));
+
+        objectUtil = Mockito.mockStatic(ObjectUtil.class);
+        objectUtil.when(() -> ObjectUtil.getSailPointClass("AuditEvent")).thenAnswer(invocation -> AuditEvent.class);
+
+        monitors = Mockito.mockConstruction(TaskMonitor.class, (monitor, construction) -> when(monitor.lockMasterResult()).thenReturn(taskResult));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        monitors.close();
+        objectUtil.close();
+    }
+
+    @Test
+    public void changedPurgeIgnoresTheCheckpoint() throws Exception {
+        custom = checkpoint("SyslogEvent|*|false", "04");
+
+        purge(ids(2), index -> true);
+
+        assertEquals(1, queries.size());
+        assertNull(startsAfter(queries.get(0)));
+        assertEquals(Collections.singletonList(Arrays.asList("01", "02")), chunks);
+    }
+
+    @Test
+    public void completedPurgeRemovesTheCheckpoint() throws Exception {
+        custom = checkpoint(CHECKPOINT_KEY, "04");
+
+        purge(Arrays.asList("05", "06", "07"), index -> true);
+
+        // The run resumes after the checkpoint, and starts from the beginning next time
+        assertEquals("04", startsAfter(queries.get(0)));
+        assertEquals(Arrays.asList(Arrays.asList("05", "06"), Collections.singletonList("07")), chunks);
+        assertNull(custom);
+        assertNull(saved.get(saved.size() - 1));
+    }
+
+    @Test
+    public void failedMiddleChunkHoldsTheCheckpoint() throws Exception {
+        purge(ids(6), index -> index != 1);
+
+        assertEquals(3, chunks.size());
+        // The last chunk succeeded, but the checkpoint cannot pass the failed chunk before it
+        assertEquals("02", saved.get(saved.size() - 1));
+        assertEquals(CHECKPOINT_KEY, custom.getString("key"));
+        List<Message> errors = taskResult.getErrors();
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).getKey().contains("resume after ID 02"));
+
+        // The next run resumes with the failed chunk
+        chunks.clear();
+        queries.clear();
+        task = new PurgeObjectsTask();
+        purge(Arrays.asList("03", "04", "05", "06"), index -> true);
+        assertEquals("02", startsAfter(queries.get(0)));
+        assertEquals(Arrays.asList("03", "04"), chunks.get(0));
+        assertNull(custom);
+    }
+
+    @Test
+    public void outOfOrderChunksAdvanceTheCheckpointInOrder() throws Exception {
+        CountDownLatch laterChunks = new CountDownLatch(2);
+        List<String> savedBeforeFirstChunk = new ArrayList<>();
+        purge(ids(6), index -> {
+            if (index > 0) {
+                laterChunks.countDown();
+                return true;
+            }
+            // The first chunk finishes last; give the task time to check on its progress
+            assertTrue(laterChunks.await(5, TimeUnit.SECONDS));
+            Thread.sleep(1500L);
+            savedBeforeFirstChunk.addAll(saved);
+            task.terminate();
+            return true;
+        });
+
+        // Nothing could be checkpointed while the first chunk was running
+        assertTrue(savedBeforeFirstChunk.isEmpty());
+        // Once it finished, the checkpoint moved past every chunk
+        assertEquals("06", saved.get(saved.size() - 1));
+        assertTrue(taskResult.getErrors() == null || taskResult.getErrors().isEmpty());
+    }
+}
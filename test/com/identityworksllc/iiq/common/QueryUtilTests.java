@@ -0,0 +1,107 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.query.QueryUtil;
+import org.junit.jupiter.api.Test;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Filter;
+import sailpoint.object.Identity;
+import sailpoint.object.QueryOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the static helpers in {@link QueryUtil}
+ */
+public class QueryUtilTests {
+
+    /**
+     * Returns an Identity for each ID in the query's 'in' filter, except those starting with "missing"
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Identity> identitiesFor(QueryOptions qo) {
+        Filter.LeafFilter filter = (Filter.LeafFilter) qo.getFilters().get(0);
+        assertEquals("id", filter.getProperty());
+        List<Identity> identities = new ArrayList<>();
+        for (String id : (Collection<String>) filter.getValue()) {
+            if (!id.startsWith("missing")) {
+                Identity identity = new Identity();
+                identity.setId(id);
+                identities.add(identity);
+            }
+        }
+        return identities;
+    }
+
+    @Test
+    public void copiedQueryOptionsAreIndependent() throws Exception {
+        QueryOptions original = new QueryOptions();
+        original.addFilter(Filter.eq("inactive", false));
+        original.addOrdering("name", true);
+        original.addGroupBy("type");
+        original.setResultLimit(50);
+        original.setFirstRow(10);
+        original.setDistinct(true);
+        original.setCacheResults(true);
+
+        QueryOptions copy = QueryUtil.copyQueryOptions(original);
+        assertEquals(original.getFilters(), copy.getFilters());
+        assertEquals(original.getOrderings(), copy.getOrderings());
+        assertEquals(original.getGroupBys(), copy.getGroupBys());
+        assertEquals(50, copy.getResultLimit());
+        assertEquals(10, copy.getFirstRow());
+        assertTrue(copy.isDistinct());
+
+        copy.setCacheResults(false);
+        copy.addFilter(Filter.eq("name", "jdoe"));
+        copy.addOrdering("id", true);
+
+        assertTrue(original.isCacheResults());
+        assertEquals(1, original.getFilters().size());
+        assertEquals(1, original.getOrderings().size());
+    }
+
+    @Test
+    public void copyOfNullIsEmpty() throws Exception {
+        QueryOptions copy = QueryUtil.copyQueryOptions(null);
+        assertNotNull(copy);
+        assertTrue(copy.getFilters() == null || copy.getFilters().isEmpty());
+    }
+
+    @Test
+    public void objectsByIdAreLoadedInChunks() throws Exception {
+        SailPointContext context = mock(SailPointContext.class);
+        List<Integer> chunkSizes = new ArrayList<>();
+        when(context.getObjects(eq(Identity.class), any(QueryOptions.class))).thenAnswer(invocation -> {
+            QueryOptions qo = invocation.getArgument(1);
+            chunkSizes.add(((Collection<?>) ((Filter.LeafFilter) qo.getFilters().get(0)).getValue()).size());
+            return identitiesFor(qo);
+        });
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            ids.add("id" + i);
+        }
+        ids.add("id0");
+        ids.add("missing");
+
+        Map<String, Identity> objects = QueryUtil.getObjectsById(context, Identity.class, ids);
+
+        assertEquals(2500, objects.size());
+        assertEquals("id2499", objects.get("id2499").getId());
+        assertFalse(objects.containsKey("missing"));
+        // Duplicates are queried once, so 2501 distinct IDs make three chunks
+        assertEquals(Arrays.asList(QueryUtil.MAX_IN_SIZE, QueryUtil.MAX_IN_SIZE, 501), chunkSizes);
+
+        assertTrue(QueryUtil.getObjectsById(context, Identity.class, new ArrayList<>()).isEmpty());
+        verify(context, times(3)).getObjects(eq(Identity.class), any(QueryOptions.class));
+    }
+}
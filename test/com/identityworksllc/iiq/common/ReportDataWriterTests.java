@@ -0,0 +1,125 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.task.export.ReportDataWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sailpoint.tools.GeneralException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the writer thread of {@link ReportDataWriter}, using a mocked connection
+ */
+public class ReportDataWriterTests {
+
+    private Connection connection;
+
+    private PreparedStatement delete;
+
+    private PreparedStatement insert;
+
+    /**
+     * The values of the inserted cells, in the order they were added to a batch
+     */
+    private List<String> inserted;
+
+    private static ReportDataWriter writer(Connection connection, int insertBatchSize, int commitInterval, int queueDepth) {
+        return new ReportDataWriter(connection, "Report", "run-1", new Timestamp(1000L), insertBatchSize, commitInterval, queueDepth);
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        inserted = Collections.synchronizedList(new ArrayList<>());
+        String[] value = new String[1];
+        insert = mock(PreparedStatement.class);
+        doAnswer(invocation -> value[0] = invocation.getArgument(1)).when(insert).setString(eq(5), anyString());
+        doAnswer(invocation -> inserted.add(value[0])).when(insert).addBatch();
+        delete = mock(PreparedStatement.class);
+        when(delete.executeUpdate()).thenReturn(3);
+        connection = mock(Connection.class);
+        when(connection.prepareStatement(startsWith("insert"))).thenReturn(insert);
+        when(connection.prepareStatement(startsWith("delete"))).thenReturn(delete);
+    }
+
+    @Test
+    public void abandonedRunIsRolledBackAndDeleted() throws Exception {
+        try (ReportDataWriter writer = writer(connection, 1, 1, 10)) {
+            writer.start();
+            writer.add(0, "name", "a");
+            writer.add(1, "name", "b");
+            writer.add(2, "name", "c");
+            // Closed without finishing, as when parsing fails or the task is terminated
+        }
+
+        assertEquals(Arrays.asList("a", "b", "c"), inserted);
+        verify(connection).rollback();
+        verify(delete).setString(1, "run-1");
+        verify(delete).executeUpdate();
+    }
+
+    @Test
+    public void abandonedRunWithoutCommitsIsOnlyRolledBack() throws Exception {
+        try (ReportDataWriter writer = writer(connection, 10, 1, 10)) {
+            writer.start();
+            writer.add(0, "name", "a");
+        }
+
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+        verify(connection, never()).prepareStatement(startsWith("delete"));
+    }
+
+    @Test
+    public void cellsAreBatchedAndCommitted() throws Exception {
+        try (ReportDataWriter writer = writer(connection, 2, 2, 1)) {
+            writer.start();
+            for (int i = 0; i < 5; i++) {
+                writer.add(i, "name", "v" + i);
+            }
+            writer.finish();
+        }
+
+        verify(connection).setAutoCommit(false);
+        assertEquals(Arrays.asList("v0", "v1", "v2", "v3", "v4"), inserted);
+        // Two full batches, then the remainder at the end
+        verify(insert, times(3)).executeBatch();
+        // Once after the second batch, then at the end
+        verify(connection, times(2)).commit();
+        verify(insert).setString(2, "run-1");
+        verify(connection, never()).rollback();
+        verify(connection, never()).prepareStatement(startsWith("delete"));
+    }
+
+    @Test
+    public void writerFailureIsReportedToTheCaller() throws Exception {
+        when(insert.executeBatch()).thenReturn(new int[] { 1 }).thenThrow(new SQLException("disk full"));
+        try (ReportDataWriter writer = writer(connection, 1, 1, 1)) {
+            writer.start();
+            // The caller is not left waiting on the full queue once the writer has failed
+            GeneralException e = assertThrows(GeneralException.class, () -> {
+                for (int i = 0; i < 1000; i++) {
+                    writer.add(i, "name", "v" + i);
+                }
+                writer.finish();
+            });
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+
+        verify(connection).rollback();
+        // The first batch was committed, so the run was deleted
+        verify(delete).executeUpdate();
+    }
+}
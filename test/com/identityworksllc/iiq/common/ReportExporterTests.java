@@ -0,0 +1,207 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.task.export.ExportConnectionInfo;
+import com.identityworksllc.iiq.common.task.export.ReportExporter;
+import com.identityworksllc.iiq.common.threads.ManagedWorkerPools;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Attributes;
+import sailpoint.object.Configuration;
+import sailpoint.object.TaskDefinition;
+import sailpoint.object.TaskResult;
+import sailpoint.task.TaskMonitor;
+import sailpoint.tools.Message;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the concurrent run of {@link ReportExporter}, with the export of each report
+ * replaced by a test action. The export pipeline itself is covered by
+ * {@link ReportDataWriterTests}.
+ */
+public class ReportExporterTests {
+
+    /**
+     * A single report export, standing in for running and exporting the report
+     */
+    @FunctionalInterface
+    private interface ExportAction {
+        Map<String, Object> export(String reportName) throws Exception;
+    }
+
+    /**
+     * An exporter whose reports are exported by the given action
+     */
+    private static final class TestableExporter extends ReportExporter {
+        private final ExportAction action;
+
+        private TestableExporter(ExportAction action) {
+            this.action = action;
+        }
+
+        @Override
+        protected Map<String, Object> exportReport(String reportName, ExportConnectionInfo connectionInfo, Timestamp taskTimestamp) throws Exception {
+            return action.export(reportName);
+        }
+    }
+
+    private MockedStatic<Configuration> configuration;
+
+    private SailPointContext context;
+
+    private MockedConstruction<TaskMonitor> monitors;
+
+    private Path outputDirectory;
+
+    private TaskResult taskResult;
+
+    private static Map<String, Object> stats(String reportName) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("report", reportName);
+        return stats;
+    }
+
+    /**
+     * Builds the task arguments for columnar output of the given reports, in a new bulkhead
+     */
+    private Attributes<String, Object> arguments(String... reports) {
+        String bulkhead = "test-" + UUID.randomUUID();
+        Attributes<String, Object> arguments = new Attributes<>();
+        arguments.put("reports", new ArrayList<>(Arrays.asList(reports)));
+        arguments.put("outputFormat", ReportExporter.OUTPUT_FORMAT_COLUMNAR);
+        arguments.put("outputDirectory", outputDirectory.toString());
+        arguments.put("reportConcurrency", reports.length);
+        arguments.put("bulkhead", bulkhead);
+        return arguments;
+    }
+
+    private List<Message> messages(Message.Type type) {
+        List<Message> result = new ArrayList<>();
+        for (Message message : taskResult.getMessages()) {
+            if (message.getType() == type) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> statistics() {
+        return (List<Map<String, Object>>) taskResult.getAttribute("reportStatistics");
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        outputDirectory = Files.createTempDirectory("reports");
+        taskResult = new TaskResult();
+
+        context = mock(SailPointContext.class);
+        when(context.getObjectByName(eq(TaskDefinition.class), anyString())).thenAnswer(invocation -> {
+            TaskDefinition report = new TaskDefinition();
+            report.setName(invocation.getArgument(1));
+            return report;
+        });
+
+        Configuration systemConfig = mock(Configuration.class);
+        when(systemConfig.get(ManagedWorkerPools.CONFIG_BULKHEADS)).thenReturn(Collections.emptyMap());
+        configuration = Mockito.mockStatic(Configuration.class);
+        configuration.when(Configuration::getSystemConfig).thenReturn(systemConfig);
+
+        monitors = Mockito.mockConstruction(TaskMonitor.class, (monitor, construction) -> when(monitor.lockMasterResult()).thenReturn(taskResult));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        monitors.close();
+        configuration.close();
+        Files.deleteIfExists(outputDirectory);
+    }
+
+    @Test
+    public void failedReportDoesNotStopTheOthers() throws Exception {
+        ReportExporter exporter = new TestableExporter(reportName -> {
+            if (reportName.equals("A")) {
+                throw new IllegalStateException("report A failed");
+            }
+            return stats(reportName);
+        });
+
+        exporter.execute(context, null, taskResult, arguments("A", "B"));
+
+        assertEquals(Collections.singletonList(stats("B")), statistics());
+        List<Message> errors = messages(Message.Type.Error);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).getKey().contains("A: export failed"));
+    }
+
+    @Test
+    public void reportsAreExportedConcurrently() throws Exception {
+        CountDownLatch started = new CountDownLatch(3);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ReportExporter exporter = new TestableExporter(reportName -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                // Every report must be in progress at once for any of them to finish
+                started.countDown();
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+                return stats(reportName);
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+
+        exporter.execute(context, null, taskResult, arguments("A", "B", "C"));
+
+        assertEquals(3, maxRunning.get());
+        // The statistics are in report order, regardless of completion order
+        assertEquals(Arrays.asList(stats("A"), stats("B"), stats("C")), statistics());
+        assertTrue(messages(Message.Type.Error).isEmpty());
+    }
+
+    @Test
+    public void terminateStopsRunningReports() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        ReportExporter[] exporter = new ReportExporter[1];
+        exporter[0] = new TestableExporter(reportName -> {
+            started.countDown();
+            if (started.await(5, TimeUnit.SECONDS)) {
+                exporter[0].terminate();
+            }
+            // Waits to be interrupted, as a long report would
+            Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            return stats(reportName);
+        });
+
+        long start = System.currentTimeMillis();
+        exporter[0].execute(context, null, taskResult, arguments("A", "B"));
+
+        assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(20));
+        assertTrue(statistics().isEmpty());
+        // Neither report is reported as exported or as a plain failure
+        assertEquals(2, messages(Message.Type.Warn).size());
+        assertTrue(messages(Message.Type.Error).isEmpty());
+    }
+}
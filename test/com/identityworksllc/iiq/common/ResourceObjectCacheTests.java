@@ -0,0 +1,156 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.connector.ResourceObjectCache;
+import org.junit.jupiter.api.Test;
+import sailpoint.object.Attributes;
+import sailpoint.object.ResourceObject;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link ResourceObjectCache}, using loader lambdas in place of a connector
+ */
+public class ResourceObjectCacheTests {
+
+    private static ResourceObject account(String identity, int version) {
+        ResourceObject object = new ResourceObject();
+        object.setIdentity(identity);
+        object.setObjectType("account");
+        Attributes<String, Object> attributes = new Attributes<>();
+        attributes.put("version", version);
+        object.setAttributes(attributes);
+        return object;
+    }
+
+    /**
+     * Waits for the given condition to become true, failing after five seconds
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for condition");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void concurrentFetchesAreCoalesced() throws Exception {
+        ResourceObjectCache cache = new ResourceObjectCache(1, TimeUnit.MINUTES, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ResourceObjectCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return account("jdoe", 1);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ResourceObject> first = executor.submit(() -> cache.get("account", "jdoe", null, loader));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<ResourceObject> second = executor.submit(() -> cache.get("account", "jdoe", null, loader));
+            await(() -> (Long) cache.getStatistics().get("getObjectCacheCoalesced") == 1L);
+
+            release.countDown();
+            assertEquals(1, first.get(5, TimeUnit.SECONDS).getAttribute("version"));
+            assertEquals(1, second.get(5, TimeUnit.SECONDS).getAttribute("version"));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.getStatistics().get("getObjectCacheMisses"));
+    }
+
+    @Test
+    public void entriesExpireAfterTtl() throws Exception {
+        ResourceObjectCache cache = new ResourceObjectCache(50, TimeUnit.MILLISECONDS, 10);
+        AtomicInteger loads = new AtomicInteger();
+        ResourceObjectCache.Loader loader = () -> account("jdoe", loads.incrementAndGet());
+
+        assertEquals(1, cache.get("account", "jdoe", null, loader).getAttribute("version"));
+        assertEquals(1, cache.get("account", "jdoe", null, loader).getAttribute("version"));
+        Thread.sleep(100);
+        assertEquals(2, cache.get("account", "jdoe", null, loader).getAttribute("version"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void hitsReturnCopies() throws Exception {
+        ResourceObjectCache cache = new ResourceObjectCache(1, TimeUnit.MINUTES, 10);
+        AtomicInteger loads = new AtomicInteger();
+        ResourceObjectCache.Loader loader = () -> account("jdoe", loads.incrementAndGet());
+
+        ResourceObject first = cache.get("account", "jdoe", null, loader);
+        first.getAttributes().put("version", 99);
+        ResourceObject second = cache.get("account", "jdoe", null, loader);
+        assertNotSame(first, second);
+        assertEquals(1, second.getAttribute("version"));
+
+        // Options are part of the key, and missing objects are not cached
+        assertEquals(2, cache.get("account", "jdoe", Collections.singletonMap("fetchGroups", true), loader).getAttribute("version"));
+        assertNull(cache.get("account", "missing", null, () -> null));
+        assertNull(cache.get("account", "missing", null, () -> null));
+
+        assertEquals(1L, cache.getStatistics().get("getObjectCacheHits"));
+        assertEquals(4L, cache.getStatistics().get("getObjectCacheMisses"));
+        assertEquals(2, cache.getStatistics().get("getObjectCacheSize"));
+    }
+
+    @Test
+    public void invalidationDetachesFetchInProgress() throws Exception {
+        ResourceObjectCache cache = new ResourceObjectCache(1, TimeUnit.MINUTES, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ResourceObjectCache.Loader loader = () -> {
+            int version = loads.incrementAndGet();
+            if (version == 1) {
+                // The fetch that started before provisioning
+                loading.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return account("jdoe", version);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ResourceObject> stale = executor.submit(() -> cache.get("account", "jdoe", null, loader));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+            cache.invalidate(Collections.singletonList("jdoe"));
+
+            // A fetch after the invalidation does not wait for the earlier one
+            Future<ResourceObject> fresh = executor.submit(() -> cache.get("account", "jdoe", null, loader));
+            assertEquals(2, fresh.get(5, TimeUnit.SECONDS).getAttribute("version"));
+
+            release.countDown();
+            assertEquals(1, stale.get(5, TimeUnit.SECONDS).getAttribute("version"));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The stale result was not cached over the fresh one
+        assertEquals(2, cache.get("account", "jdoe", null, loader).getAttribute("version"));
+        assertEquals(2, loads.get());
+        assertEquals(0L, cache.getStatistics().get("getObjectCacheCoalesced"));
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 
 import java.util.*;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -110,4 +111,47 @@ public class SamenessTests {
         assertTrue(Sameness.isSame("test", list, true));
         assertTrue(Sameness.isSame(list, "test", true));
     }
+
+    @Test
+    public void isSameWithCollectionDuplicates() {
+        assertTrue(Sameness.isSame(Arrays.asList("a", "a", "b"), Arrays.asList("b", "a"), false));
+        assertTrue(Sameness.isSame(Arrays.asList("a", "b", "b"), Arrays.asList("a", "b"), false));
+        assertFalse(Sameness.isSame(Arrays.asList("a", "a", "a"), Arrays.asList("a", "b", "c"), false));
+        assertTrue(Sameness.isSame(Arrays.asList("A", "a"), Collections.singletonList("a"), true));
+    }
+
+    @Test
+    public void isSameWithSortedAndUnsortedCollections() {
+        List<String> sorted = Arrays.asList("CN=A,DC=x", "CN=B,DC=x", "CN=C,DC=x");
+        List<String> unsorted = Arrays.asList("CN=C,DC=x", "CN=A,DC=x", "CN=B,DC=x");
+        List<String> different = Arrays.asList("CN=A,DC=x", "CN=B,DC=x", "CN=D,DC=x");
+        assertTrue(Sameness.isSame(sorted, new ArrayList<>(sorted), false));
+        assertTrue(Sameness.isSame(sorted, unsorted, false));
+        assertFalse(Sameness.isSame(sorted, different, false));
+        assertFalse(Sameness.isSame(unsorted, different, false));
+        assertFalse(Sameness.isSame(sorted, sorted.subList(0, 2), false));
+        assertTrue(Sameness.isSame(new HashSet<>(sorted), new HashSet<>(unsorted), false));
+        assertFalse(Sameness.isSame(new HashSet<>(sorted), new HashSet<>(different), false));
+    }
+
+    @Test
+    public void isSameWithMixedTypesIgnoreCase() {
+        assertTrue(Sameness.isSame(Arrays.asList(1, 2), Arrays.asList("2", "1"), true));
+        assertFalse(Sameness.isSame(Arrays.asList(1, 2), Arrays.asList("2", "1"), false));
+    }
+
+    @Test
+    public void compareReturnsDeltas() {
+        SetComparison.Delta sortedDelta = SetComparison.compare(Arrays.asList("a", "b", "b", "d"), Arrays.asList("b", "c", "d"), false);
+        assertEquals(Collections.singletonList("a"), sortedDelta.getAdded());
+        assertEquals(Collections.singletonList("c"), sortedDelta.getRemoved());
+        assertFalse(sortedDelta.isSame());
+
+        SetComparison.Delta hashDelta = SetComparison.compare(Arrays.asList("D", "a", "X", "x"), Arrays.asList("c", "B", "d", "A"), true);
+        assertEquals(Collections.singletonList("X"), hashDelta.getAdded());
+        assertEquals(Arrays.asList("c", "B"), hashDelta.getRemoved());
+
+        assertTrue(SetComparison.compare(Arrays.asList("b", "a"), Arrays.asList("A", "B", "a"), true).isSame());
+        assertEquals(Collections.singletonList("a"), SetComparison.compare(Collections.singletonList("a"), null, false).getAdded());
+    }
 }
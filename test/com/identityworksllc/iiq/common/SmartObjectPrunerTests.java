@@ -0,0 +1,360 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.query.QueryUtil;
+import com.identityworksllc.iiq.common.task.SmartObjectPruner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.ObjectUtil;
+import sailpoint.api.SailPointContext;
+import sailpoint.api.SailPointFactory;
+import sailpoint.api.Terminator;
+import sailpoint.object.Attributes;
+import sailpoint.object.AuditEvent;
+import sailpoint.object.Configuration;
+import sailpoint.object.Filter;
+import sailpoint.object.Identity;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.SailPointObject;
+import sailpoint.object.Script;
+import sailpoint.object.TaskResult;
+import sailpoint.task.TaskMonitor;
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the lazy selection and batched deletion of {@link SmartObjectPruner}, using
+ * a mocked context. The batch workers run on the test thread, so that the static mocks
+ * apply to them.
+ */
+public class SmartObjectPrunerTests {
+
+    /**
+     * An executor that runs each task on the submitting thread
+     */
+    private static final class InlineExecutor extends AbstractExecutorService {
+        private boolean shutdown;
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("The executor has been shut down");
+            }
+            command.run();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * A pruner whose batches run on the test thread, and which counts its completed batches
+     */
+    private static final class TestablePruner extends SmartObjectPruner {
+        private int afterBatches;
+
+        @Override
+        public void afterBatch(SailPointContext context) throws GeneralException {
+            afterBatches++;
+        }
+
+        @Override
+        protected void prepareExecutor() {
+            executor = new InlineExecutor();
+        }
+
+        /**
+         * Marks the task as terminated, as {@link #terminate()} would, without stopping the executor
+         */
+        private void stop() {
+            terminated.set(true);
+        }
+    }
+
+    private static final String CONFIG_NAME = "IDW - Smart Pruner Configuration";
+
+    private Configuration configuration;
+
+    private SailPointContext context;
+
+    /**
+     * The IDs of the deleted objects, in order
+     */
+    private List<String> deleted;
+
+    private MockedStatic<SailPointFactory> factory;
+
+    /**
+     * The ID of every Identity, in ascending order
+     */
+    private List<String> identities;
+
+    /**
+     * The sizes of the batches loaded by the workers, in order
+     */
+    private List<Integer> loads;
+
+    private MockedConstruction<TaskMonitor> monitors;
+
+    private MockedStatic<ObjectUtil> objectUtil;
+
+    /**
+     * The ID queries run against the Identity table, in order
+     */
+    private List<QueryOptions> pages;
+
+    private TestablePruner pruner;
+
+    private MockedStatic<QueryUtil> queryUtil;
+
+    private TaskResult taskResult;
+
+    private MockedConstruction<Terminator> terminators;
+
+    private SailPointContext threadContext;
+
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            ids.add(String.format("%04d", i));
+        }
+        return ids;
+    }
+
+    private static Map<String, Object> selector(String type, Object selector) {
+        Map<String, Object> objectConfig = new HashMap<>();
+        objectConfig.put("type", type);
+        if (selector != null) {
+            objectConfig.put("selector", selector);
+        }
+        return objectConfig;
+    }
+
+    /**
+     * Finds the ID after which the given query starts, or null if it starts at the beginning
+     */
+    private static String startsAfter(QueryOptions qo) {
+        for (Filter filter : qo.getFilters()) {
+            if (filter instanceof Filter.LeafFilter) {
+                Filter.LeafFilter leaf = (Filter.LeafFilter) filter;
+                if ("id".equals(leaf.getProperty()) && leaf.getOperation() == Filter.LogicalOperation.GT) {
+                    return (String) leaf.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void prune(int batchSize) throws Exception {
+        Attributes<String, Object> arguments = new Attributes<>();
+        arguments.put("batchSize", batchSize);
+        pruner.execute(context, null, taskResult, arguments);
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        configuration = new Configuration();
+        configuration.setName(CONFIG_NAME);
+        deleted = new ArrayList<>();
+        identities = new ArrayList<>();
+        loads = new ArrayList<>();
+        pages = new ArrayList<>();
+        pruner = new TestablePruner();
+        taskResult = new TaskResult();
+
+        context = mock(SailPointContext.class);
+        when(context.getObjectByName(Configuration.class, CONFIG_NAME)).thenReturn(configuration);
+        doAnswer(invocation -> {
+            QueryOptions qo = invocation.getArgument(1);
+            pages.add(qo);
+            String after = startsAfter(qo);
+            List<Object[]> rows = new ArrayList<>();
+            for (String id : identities) {
+                if ((after == null || id.compareTo(after) > 0) && rows.size() < qo.getResultLimit()) {
+                    rows.add(new Object[] { id });
+                }
+            }
+            return rows.iterator();
+        }).when(context).search(eq(Identity.class), any(QueryOptions.class), eq("id"));
+
+        threadContext = mock(SailPointContext.class);
+        factory = Mockito.mockStatic(SailPointFactory.class);
+        factory.when(SailPointFactory::getCurrentContext).thenReturn(threadContext);
+
+        objectUtil = Mockito.mockStatic(ObjectUtil.class);
+        objectUtil.when(() -> ObjectUtil.getSailPointClass("AuditEvent")).thenAnswer(invocation -> AuditEvent.class);
+        objectUtil.when(() -> ObjectUtil.getSailPointClass("Identity")).thenAnswer(invocation -> Identity.class);
+
+        queryUtil = Mockito.mockStatic(QueryUtil.class);
+        queryUtil.when(() -> QueryUtil.getObjectsById(eq(threadContext), any(), anyCollection())).thenAnswer(invocation -> {
+            Class<?> spClass = invocation.getArgument(1);
+            Collection<String> ids = invocation.getArgument(2);
+            loads.add(ids.size());
+            Map<String, SailPointObject> loaded = new HashMap<>();
+            for (String id : ids) {
+                SailPointObject spo = (SailPointObject) spClass.getDeclaredConstructor().newInstance();
+                spo.setId(id);
+                loaded.put(id, spo);
+            }
+            return loaded;
+        });
+
+        terminators = Mockito.mockConstruction(Terminator.class, (terminator, construction) -> doAnswer(invocation -> {
+            SailPointObject spo = invocation.getArgument(0);
+            deleted.add(spo.getId());
+            return null;
+        }).when(terminator).deleteObject(any(SailPointObject.class)));
+
+        monitors = Mockito.mockConstruction(TaskMonitor.class, (monitor, construction) -> when(monitor.lockMasterResult()).thenReturn(taskResult));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        monitors.close();
+        terminators.close();
+        queryUtil.close();
+        objectUtil.close();
+        factory.close();
+    }
+
+    @Test
+    public void allSelectorReadsIdsOnePageAtATime() throws Exception {
+        identities.addAll(ids(2500));
+        configuration.put("Identity", selector("all", null));
+
+        prune(100);
+
+        assertEquals(identities, deleted);
+        // Each page starts after the last ID of the one before it, and the short page is the last
+        assertEquals(3, pages.size());
+        assertNull(startsAfter(pages.get(0)));
+        assertEquals("1000", startsAfter(pages.get(1)));
+        assertEquals("2000", startsAfter(pages.get(2)));
+        for (QueryOptions page : pages) {
+            assertEquals(1000, page.getResultLimit());
+        }
+        // Each batch of 100 is loaded with one query and closed once
+        assertEquals(25, loads.size());
+        assertTrue(loads.stream().allMatch(size -> size == 100));
+        assertEquals(25, pruner.afterBatches);
+        assertEquals(2500, taskResult.getAttribute("successes"));
+    }
+
+    @Test
+    public void fullLastPageIsFollowedByAnEmptyOne() throws Exception {
+        identities.addAll(ids(2000));
+        configuration.put("Identity", selector("all", null));
+
+        prune(500);
+
+        assertEquals(identities, deleted);
+        assertEquals(3, pages.size());
+        assertEquals("2000", startsAfter(pages.get(2)));
+    }
+
+    @Test
+    public void interruptedBatchIsStillClosed() throws Exception {
+        identities.addAll(ids(150));
+        configuration.put("Identity", selector("all", null));
+        doAnswer(invocation -> {
+            if (deleted.size() == 3) {
+                pruner.stop();
+            }
+            return null;
+        }).when(threadContext).commitTransaction();
+
+        prune(100);
+
+        assertEquals(ids(3), deleted);
+        // The first batch stopped partway through, but was still closed; the second never started
+        assertEquals(1, pruner.afterBatches);
+        assertEquals(Collections.singletonList(100), loads);
+    }
+
+    @Test
+    public void postSelectorScriptFiltersEachBatch() throws Exception {
+        identities.addAll(ids(10));
+        Map<String, Object> objectConfig = selector("filter", "inactive == true");
+        objectConfig.put("postSelectorScript", "return object.getId().endsWith(\"2\");");
+        configuration.put("Identity", objectConfig);
+        when(threadContext.runScript(any(Script.class), anyMap())).thenAnswer(invocation -> {
+            Map<String, Object> params = invocation.getArgument(1);
+            SailPointObject spo = (SailPointObject) params.get("object");
+            assertSame(threadContext, params.get("context"));
+            return spo.getId().endsWith("2");
+        });
+
+        prune(5);
+
+        assertEquals(Arrays.asList("0002"), deleted);
+        // Every object is checked against the script, in batches of 5
+        verify(threadContext, times(10)).runScript(any(Script.class), anyMap());
+        assertEquals(Arrays.asList(5, 5), loads);
+        // The configured filter is applied to the ID query
+        assertEquals(1, pages.size());
+        assertTrue(pages.get(0).getFilters().stream().anyMatch(filter -> filter.toString().contains("inactive")));
+        assertEquals(10, taskResult.getAttribute("successes"));
+    }
+
+    @Test
+    public void selectorsAreReadInTurn() throws Exception {
+        identities.addAll(ids(3));
+        configuration.put("Identity", selector("all", null));
+        configuration.put("AuditEvent", selector("script", "return ids;"));
+        when(context.runScript(any(Script.class), anyMap())).thenAnswer(invocation -> {
+            // The ID query for the next selector has not run yet
+            assertTrue(pages.isEmpty());
+            return new ArrayList<>(Arrays.asList("a1", "a2"));
+        });
+
+        prune(3);
+
+        assertEquals(Arrays.asList("a1", "a2", "0001", "0002", "0003"), deleted);
+        // A batch spanning both selectors is loaded with one query per type
+        assertEquals(Arrays.asList(2, 1, 2), loads);
+        assertEquals(2, pruner.afterBatches);
+    }
+}
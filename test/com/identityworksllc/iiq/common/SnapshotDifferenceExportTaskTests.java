@@ -0,0 +1,309 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.task.SnapshotDifferenceExportTask;
+import com.identityworksllc.iiq.common.task.ThreadExecutorWorker;
+import com.identityworksllc.iiq.common.task.ThreadedTaskListener;
+import com.identityworksllc.iiq.common.task.export.ExportPartition;
+import org.apache.commons.logging.LogFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.IncrementalProjectionIterator;
+import sailpoint.api.SailPointContext;
+import sailpoint.api.SailPointFactory;
+import sailpoint.object.Attributes;
+import sailpoint.object.Identity;
+import sailpoint.object.IdentitySnapshot;
+import sailpoint.object.TaskResult;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.JdbcUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the batch lifecycle of {@link SnapshotDifferenceExportTask}, using mocked
+ * JDBC and IIQ objects
+ */
+public class SnapshotDifferenceExportTaskTests {
+
+    /**
+     * Exposes the protected setup methods of the task
+     */
+    private static class TestableTask extends SnapshotDifferenceExportTask {
+        private ThreadedTaskListener<String> listener(TaskResult result) {
+            return createTaskListener(result);
+        }
+
+        private void setUp(TaskResult result) throws Exception {
+            setUp(result, null);
+        }
+
+        /**
+         * Parses the arguments, resuming from the given stored timestamp, or doing a
+         * full export if it is null
+         */
+        private void setUp(TaskResult result, Instant resumeFrom) throws Exception {
+            this.taskResult = result;
+            Attributes<String, Object> args = new Attributes<>();
+            args.put("url", "jdbc:test:export");
+            args.put("username", "export");
+            args.put("password", "1:ACP:secret");
+            args.put("timestampName", "test");
+            args.put("fullExport", resumeFrom == null);
+            try (MockedConstruction<NamedTimestampUtils> timestamps = Mockito.mockConstruction(NamedTimestampUtils.class, (mock, construction) -> when(mock.get("test")).thenReturn(Optional.ofNullable(resumeFrom)))) {
+                parseArgs(args);
+            }
+        }
+    }
+
+    /**
+     * An in-memory stand-in for the export table, driven by the mocked JDBC statements.
+     * Rows are arrays indexed by insert parameter position, so row[1] is the identity
+     * name and row[5] the after date.
+     */
+    private static final class FakeTable {
+        private final List<Object[]> batch = new ArrayList<>();
+
+        private final List<Object[]> committed = new ArrayList<>();
+
+        private final Object[] current = new Object[14];
+
+        private final Object[] deleteParameters = new Object[3];
+
+        private final List<Object[]> uncommitted = new ArrayList<>();
+
+        private long count(String identityName) {
+            return committed.stream().filter(row -> identityName.equals(row[1])).count();
+        }
+    }
+
+    private Connection connection;
+
+    private PreparedStatement delete;
+
+    private MockedStatic<ExportPartition> exportPartition;
+
+    private MockedStatic<Identity> identityStatics;
+
+    private PreparedStatement insert;
+
+    private MockedStatic<JdbcUtil> jdbcUtil;
+
+    private static IdentitySnapshot snapshot(String id, Date created, String department) {
+        Attributes<String, Object> attributes = new Attributes<>();
+        attributes.put("department", department);
+        IdentitySnapshot snapshot = mock(IdentitySnapshot.class);
+        when(snapshot.getId()).thenReturn(id);
+        when(snapshot.getCreated()).thenReturn(created);
+        when(snapshot.getAttributes()).thenReturn(attributes);
+        return snapshot;
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        identityStatics = Mockito.mockStatic(Identity.class);
+        identityStatics.when(Identity::getObjectConfig).thenReturn(null);
+
+        insert = mock(PreparedStatement.class);
+        delete = mock(PreparedStatement.class);
+        connection = mock(Connection.class);
+        when(connection.prepareStatement(startsWith("insert"))).thenReturn(insert);
+        when(connection.prepareStatement(startsWith("delete"))).thenReturn(delete);
+
+        exportPartition = Mockito.mockStatic(ExportPartition.class);
+        exportPartition.when(() -> ExportPartition.openConnection(any(), any())).thenReturn(connection);
+
+        jdbcUtil = Mockito.mockStatic(JdbcUtil.class);
+        jdbcUtil.when(() -> JdbcUtil.isMySQL(any(Connection.class))).thenReturn(false);
+    }
+
+    /**
+     * Runs one worker batch over the given identity names. Each Identity has the
+     * snapshots s1 and s2; loading snapshots of the Identities in 'failing' fails.
+     */
+    private void runBatch(TestableTask task, List<String> names, String... failing) throws Exception {
+        Date first = new Date(1000L);
+        Date second = new Date(2000L);
+        IdentitySnapshot before = snapshot("s1", first, "IT");
+        IdentitySnapshot after = snapshot("s2", second, "HR");
+        SailPointContext threadContext = mock(SailPointContext.class);
+        List<String> failed = Arrays.asList(failing);
+        try (MockedConstruction<IncrementalProjectionIterator> projections = Mockito.mockConstruction(IncrementalProjectionIterator.class, (iterator, construction) -> {
+            String identityName = names.get(construction.getCount() - 1);
+            String prefix = failed.contains(identityName) ? "missing-" : "";
+            when(iterator.hasNext()).thenReturn(true, true, false);
+            when(iterator.next()).thenReturn(new Object[] { prefix + "s1", first }, new Object[] { prefix + "s2", second });
+        })) {
+            when(threadContext.getObjectById(IdentitySnapshot.class, "s1")).thenReturn(before);
+            when(threadContext.getObjectById(IdentitySnapshot.class, "s2")).thenReturn(after);
+            when(threadContext.getObjectById(eq(IdentitySnapshot.class), startsWith("missing-"))).thenThrow(new GeneralException("Database failed"));
+
+            ThreadExecutorWorker<String> worker = new ThreadExecutorWorker<>(names, task, task.listener(mock(TaskResult.class)));
+            worker.execute(threadContext, LogFactory.getLog(SnapshotDifferenceExportTaskTests.class));
+        }
+    }
+
+    /**
+     * Backs the mocked statements with the given table
+     */
+    private void useTable(FakeTable table) throws Exception {
+        doAnswer(invocation -> table.current[(Integer) invocation.getArgument(0)] = invocation.getArgument(1)).when(insert).setString(anyInt(), any());
+        doAnswer(invocation -> table.current[(Integer) invocation.getArgument(0)] = invocation.getArgument(1)).when(insert).setTimestamp(anyInt(), any());
+        doAnswer(invocation -> table.current[(Integer) invocation.getArgument(0)] = null).when(insert).setNull(anyInt(), anyInt());
+        doAnswer(invocation -> table.batch.add(table.current.clone())).when(insert).addBatch();
+        when(insert.executeBatch()).thenAnswer(invocation -> {
+            table.uncommitted.addAll(table.batch);
+            table.batch.clear();
+            return new int[0];
+        });
+        doAnswer(invocation -> {
+            table.committed.addAll(table.uncommitted);
+            table.uncommitted.clear();
+            return null;
+        }).when(connection).commit();
+        doAnswer(invocation -> table.deleteParameters[(Integer) invocation.getArgument(0)] = invocation.getArgument(1)).when(delete).setString(anyInt(), any());
+        doAnswer(invocation -> table.deleteParameters[(Integer) invocation.getArgument(0)] = invocation.getArgument(1)).when(delete).setTimestamp(anyInt(), any());
+        when(delete.executeUpdate()).thenAnswer(invocation -> {
+            Timestamp after = (Timestamp) table.deleteParameters[2];
+            int before = table.committed.size();
+            table.committed.removeIf(row -> row[1].equals(table.deleteParameters[1]) && (after == null || ((Timestamp) row[5]).after(after)));
+            return before - table.committed.size();
+        });
+    }
+
+    @AfterEach
+    public void tearDown() {
+        jdbcUtil.close();
+        exportPartition.close();
+        identityStatics.close();
+    }
+
+    @Test
+    public void batchRowsAreCommittedAndConnectionClosed() throws Exception {
+        SailPointContext threadContext = mock(SailPointContext.class);
+        Date first = new Date(1000L);
+        Date second = new Date(2000L);
+        IdentitySnapshot before = snapshot("s1", first, "IT");
+        IdentitySnapshot after = snapshot("s2", second, "HR");
+        when(threadContext.getObjectById(IdentitySnapshot.class, "s1")).thenReturn(before);
+        when(threadContext.getObjectById(IdentitySnapshot.class, "s2")).thenReturn(after);
+
+        TestableTask task = new TestableTask();
+        task.setUp(mock(TaskResult.class));
+
+        try (MockedConstruction<IncrementalProjectionIterator> projections = Mockito.mockConstruction(IncrementalProjectionIterator.class, (iterator, construction) -> {
+            when(iterator.hasNext()).thenReturn(true, true, false);
+            when(iterator.next()).thenReturn(new Object[] { "s1", first }, new Object[] { "s2", second });
+        })) {
+            ThreadExecutorWorker<String> worker = new ThreadExecutorWorker<>(Collections.singletonList("jdoe"), task, task.listener(mock(TaskResult.class)));
+            worker.execute(threadContext, LogFactory.getLog(SnapshotDifferenceExportTaskTests.class));
+
+            assertEquals(1, projections.constructed().size());
+        }
+
+        // One connection for the batch, with the department difference written and committed
+        exportPartition.verify(() -> ExportPartition.openConnection(any(), any()), times(1));
+        verify(insert, times(1)).addBatch();
+        verify(insert, times(1)).executeBatch();
+        verify(connection, times(1)).commit();
+        verify(insert, times(1)).close();
+        verify(delete, times(1)).close();
+        verify(connection, times(1)).close();
+        verify(connection, never()).rollback();
+    }
+
+    @Test
+    public void rerunAfterPartialFullExportReplacesCommittedRows() throws Exception {
+        FakeTable table = new FakeTable();
+        useTable(table);
+
+        // The first run commits jdoe's rows, but asmith fails, so the timestamp is not advanced
+        TestableTask partial = new TestableTask();
+        partial.setUp(mock(TaskResult.class));
+        runBatch(partial, Arrays.asList("jdoe", "asmith"), "asmith");
+        assertEquals(1, table.count("jdoe"));
+        assertEquals(0, table.count("asmith"));
+
+        TestableTask rerun = new TestableTask();
+        rerun.setUp(mock(TaskResult.class));
+        runBatch(rerun, Arrays.asList("jdoe", "asmith"));
+
+        assertEquals(1, table.count("jdoe"));
+        assertEquals(1, table.count("asmith"));
+        // Snapshot dates keep their time of day
+        for (Object[] row : table.committed) {
+            assertEquals(new Timestamp(1000L), row[4]);
+            assertEquals(new Timestamp(2000L), row[5]);
+        }
+    }
+
+    @Test
+    public void resumedRerunKeepsRowsBeforeResumeTimestamp() throws Exception {
+        FakeTable table = new FakeTable();
+        useTable(table);
+        // A row from an earlier, successful run, before the stored timestamp
+        Object[] older = new Object[14];
+        older[1] = "jdoe";
+        older[5] = new Timestamp(500L);
+        table.committed.add(older);
+
+        Instant resumeFrom = Instant.ofEpochMilli(1500L);
+        TestableTask partial = new TestableTask();
+        partial.setUp(mock(TaskResult.class), resumeFrom);
+        runBatch(partial, Arrays.asList("jdoe", "asmith"), "asmith");
+        assertEquals(2, table.count("jdoe"));
+
+        TestableTask rerun = new TestableTask();
+        rerun.setUp(mock(TaskResult.class), resumeFrom);
+        runBatch(rerun, Arrays.asList("jdoe", "asmith"));
+
+        assertEquals(2, table.count("jdoe"));
+        assertTrue(table.committed.contains(older));
+        assertEquals(1, table.count("asmith"));
+        verify(connection, atLeastOnce()).prepareStatement(contains("after_date >"));
+    }
+
+    @Test
+    public void terminationClosesAbandonedBatchesWithoutAdvancingTimestamp() throws Exception {
+        SailPointContext context = mock(SailPointContext.class);
+        TestableTask task = new TestableTask();
+        task.setUp(mock(TaskResult.class));
+
+        // A worker that was interrupted before reaching afterBatch
+        task.beforeBatch(mock(SailPointContext.class));
+
+        try (MockedStatic<SailPointFactory> factory = Mockito.mockStatic(SailPointFactory.class);
+             MockedConstruction<NamedTimestampUtils> timestamps = Mockito.mockConstruction(NamedTimestampUtils.class)) {
+            factory.when(SailPointFactory::getCurrentContext).thenReturn(context);
+
+            task.terminate();
+
+            assertTrue(timestamps.constructed().isEmpty());
+        }
+
+        verify(connection, never()).commit();
+        verify(connection, times(1)).rollback();
+        verify(insert, times(1)).close();
+        verify(connection, times(1)).close();
+    }
+}
@@ -0,0 +1,139 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.plugin.StreamingJsonResult;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import sailpoint.api.IncrementalProjectionIterator;
+import sailpoint.api.SailPointContext;
+import sailpoint.api.SailPointFactory;
+import sailpoint.object.Identity;
+import sailpoint.object.QueryOptions;
+import sailpoint.tools.CloseableIterator;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the JSON output of {@link StreamingJsonResult}
+ */
+public class StreamingJsonResultTests {
+
+    /**
+     * A closeable iterator that fails after a given number of rows
+     */
+    private static final class FailingIterator implements CloseableIterator<Object> {
+        private boolean closed;
+
+        private final int failAfter;
+
+        private int index;
+
+        private FailingIterator(int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public Object next() {
+            if (index >= failAfter) {
+                throw new IllegalStateException("Source failed at row " + index);
+            }
+            return index++;
+        }
+    }
+
+    private static String write(StreamingJsonResult result) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        result.write(output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void emptyIteratorWritesEmptyArray() throws Exception {
+        assertEquals("[]", write(StreamingJsonResult.of(Collections.emptyIterator())));
+        assertEquals("{\"data\":[],\"count\":0,\"truncated\":false}", write(StreamingJsonResult.of(Collections.emptyIterator()).withEnvelope("data")));
+    }
+
+    @Test
+    public void iteratorIsClosedWhenSourceFails() throws Exception {
+        FailingIterator source = new FailingIterator(3);
+        boolean[] cleanedUp = new boolean[1];
+        StreamingJsonResult result = StreamingJsonResult.of(source).withFlushEvery(1).onClose(() -> cleanedUp[0] = true);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertThrows(IllegalStateException.class, () -> result.write(output));
+
+        assertTrue(source.closed);
+        assertTrue(cleanedUp[0]);
+        // The rows before the failure were already flushed to the client
+        assertTrue(new String(output.toByteArray(), StandardCharsets.UTF_8).startsWith("[0,1,2"));
+    }
+
+    @Test
+    public void maxRowsTruncatesAndClosesIterator() throws Exception {
+        FailingIterator source = new FailingIterator(100);
+        assertEquals("{\"rows\":[0,1,2],\"count\":3,\"truncated\":true}", write(StreamingJsonResult.of(source).withMaxRows(3).withEnvelope("rows")));
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void nullsAndDatesAreWritten() throws Exception {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("name", "jdoe");
+        first.put("manager", null);
+        first.put("created", new Date(1000L));
+        List<Object> values = Arrays.asList(first, null, "text");
+        Iterator<Object> rows = values.iterator();
+
+        assertEquals("[{\"name\":\"jdoe\",\"manager\":null,\"created\":1000},null,\"text\"]", write(StreamingJsonResult.of(rows)));
+    }
+
+    @Test
+    public void rowTransformerIsApplied() throws Exception {
+        StreamingJsonResult result = StreamingJsonResult.of(Arrays.asList("a", "b").iterator()).withRowTransformer(row -> Collections.singletonMap("value", row));
+        assertEquals("[{\"value\":\"a\"},{\"value\":\"b\"}]", write(result));
+    }
+
+    @Test
+    public void truncatedProjectionReadsNoFurtherRows() throws Exception {
+        SailPointContext context = mock(SailPointContext.class);
+        int[] read = new int[1];
+        try (MockedStatic<SailPointFactory> factory = Mockito.mockStatic(SailPointFactory.class);
+             MockedConstruction<IncrementalProjectionIterator> projections = Mockito.mockConstruction(IncrementalProjectionIterator.class, (rows, construction) -> {
+                 // An effectively endless query, so that draining it would never finish
+                 when(rows.hasNext()).thenReturn(true);
+                 when(rows.next()).thenAnswer(invocation -> new Object[] { "id" + read[0], "name" + read[0]++ });
+             })) {
+            factory.when(SailPointFactory::getCurrentContext).thenReturn(context);
+
+            StreamingJsonResult result = StreamingJsonResult.ofProjection(Identity.class, new QueryOptions(), Arrays.asList("id", "name")).withMaxRows(2).withEnvelope("data");
+            assertEquals("{\"data\":[{\"id\":\"id0\",\"name\":\"name0\"},{\"id\":\"id1\",\"name\":\"name1\"}],\"count\":2,\"truncated\":true}", write(result));
+
+            assertEquals(1, projections.constructed().size());
+            assertEquals(2, read[0]);
+            verify(projections.constructed().get(0), times(2)).next();
+            factory.verify(() -> SailPointFactory.releaseContext(context));
+        }
+    }
+}
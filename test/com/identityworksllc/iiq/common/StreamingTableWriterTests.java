@@ -0,0 +1,77 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.table.CellOptions;
+import com.identityworksllc.iiq.common.table.StreamingTableWriter;
+import com.identityworksllc.iiq.common.table.Table;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingTableWriterTests {
+    private static List<Object> list(Object... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+
+    @Test
+    public void matchesTableOutput() throws Exception {
+        List<Object> headers = list("Name", "Groups");
+        List<List<Object>> rows = Arrays.asList(
+                list("Alice <admin>", list("A", "B")),
+                list("Bob", "")
+        );
+
+        Table table = new Table();
+        table.withClass("report");
+        table.row(headers).header();
+        for (List<Object> row : rows) {
+            table.row(row);
+        }
+        table.setColumnStyle(0, "font-weight: bold");
+        table.setColumnCellOptions(1, CellOptions.addCssClasses("groups"));
+
+        StringBuilder streamed = new StringBuilder();
+        StreamingTableWriter writer = new StreamingTableWriter(streamed);
+        writer.withClass("report");
+        writer.setColumnStyle(0, "font-weight: bold");
+        writer.setColumnCellOptions(1, CellOptions.addCssClasses("groups"));
+        writer.start(headers);
+        for (List<Object> row : rows) {
+            assertTrue(writer.row(row));
+        }
+        writer.finish();
+
+        assertEquals(table.render(), streamed.toString());
+        assertTrue(streamed.toString().contains("Alice &lt;admin&gt;"));
+        assertEquals(2, writer.getRowsWritten());
+        assertFalse(writer.isTruncated());
+    }
+
+    @Test
+    public void truncatesAtMaxRows() throws Exception {
+        StringBuilder streamed = new StringBuilder();
+        StreamingTableWriter writer = new StreamingTableWriter(streamed);
+        writer.setMaxRows(2);
+        writer.start(list("A", "B"));
+        assertTrue(writer.row(list("1", "2")));
+        assertTrue(writer.row(list("3", "4")));
+        assertFalse(writer.row(list("5", "6")));
+        writer.finish();
+
+        String html = streamed.toString();
+        assertTrue(writer.isTruncated());
+        assertEquals(2, writer.getRowsWritten());
+        assertFalse(html.contains(">5<"));
+        assertTrue(html.endsWith("<tfoot><tr><td class=\"truncated\" colspan=\"2\">Only the first 2 rows are shown</td></tr></tfoot></table>"));
+    }
+
+    @Test
+    public void optionsCannotChangeAfterStart() throws Exception {
+        StreamingTableWriter writer = new StreamingTableWriter(new StringBuilder());
+        writer.start(list("A"));
+        assertThrows(IllegalStateException.class, () -> writer.setColumnStyle(0, "color: red"));
+    }
+}
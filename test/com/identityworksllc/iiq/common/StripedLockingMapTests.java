@@ -0,0 +1,135 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.threads.StripedLockingMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripedLockingMapTests {
+    @Test
+    public void concurrentUpdatesAreNotLost() throws Exception {
+        StripedLockingMap<String, Integer> map = new StripedLockingMap<>(8, false);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        map.lockAndAct("key" + (i % 4), (key, value) -> (value == null) ? 1 : value + 1);
+                        map.increment("count");
+                        map.append("list", i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int k = 0; k < 4; k++) {
+            assertEquals(Integer.valueOf(2000), map.get("key" + k));
+        }
+        assertEquals(8000L, map.getCount("count"));
+        assertEquals(8000, map.getAppended("list").size());
+        assertEquals(0L, map.getCount("missing"));
+        assertTrue(map.getAppended("missing").isEmpty());
+
+        long acquisitions = 0;
+        for (Map<String, Object> stripe : map.getMetrics()) {
+            acquisitions += (Long) stripe.get("acquisitions");
+        }
+        assertEquals(8000L, acquisitions);
+    }
+
+    @Test
+    public void nullResultRemovesKey() throws Exception {
+        StripedLockingMap<String, String> map = new StripedLockingMap<>();
+        map.lockAndAct("a", (key, value) -> "value");
+        assertEquals("value", map.get("a"));
+        map.lockAndAct("a", (key, value) -> null);
+        assertNull(map.get("a"));
+        assertEquals(StripedLockingMap.DEFAULT_STRIPES, map.getStripeCount());
+    }
+
+    @Test
+    public void readsDoNotBlockEachOther() throws Exception {
+        StripedLockingMap<String, String> map = new StripedLockingMap<>(1, true);
+        map.lockAndAct("a", (key, value) -> "value");
+
+        CountDownLatch bothReading = new CountDownLatch(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                futures.add(executor.submit(() -> {
+                    boolean[] result = new boolean[1];
+                    map.readAndAct("a", value -> {
+                        bothReading.countDown();
+                        try {
+                            result[0] = bothReading.await(5, TimeUnit.SECONDS) && "value".equals(value);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                    return result[0];
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void tryLockAndActTimesOut() throws Exception {
+        StripedLockingMap<String, String> map = new StripedLockingMap<>(1, false);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> holder = executor.submit(() -> {
+                map.lockAndAct("a", (key, value) -> {
+                    locked.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "held";
+                });
+                return null;
+            });
+            assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+            assertFalse(map.tryLockAndAct("b", 50, TimeUnit.MILLISECONDS, (key, value) -> "b"));
+            assertNull(map.get("b"));
+
+            release.countDown();
+            holder.get();
+            assertTrue(map.tryLockAndAct("b", 1, TimeUnit.SECONDS, (key, value) -> "b"));
+            assertEquals("b", map.get("b"));
+        } finally {
+            executor.shutdown();
+        }
+
+        Map<String, Object> stripe = map.getMetrics().get(0);
+        assertEquals(1L, stripe.get("timeouts"));
+        assertEquals(1L, stripe.get("contended"));
+        assertEquals(2L, stripe.get("acquisitions"));
+        assertEquals(1L, stripe.get("maxQueueLength"));
+    }
+}
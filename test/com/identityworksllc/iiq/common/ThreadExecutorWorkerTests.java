@@ -0,0 +1,99 @@
+package com.identityworksllc.iiq.common;
+
+import com.identityworksllc.iiq.common.task.PrivateContextObjectConsumer;
+import com.identityworksllc.iiq.common.task.ThreadExecutorWorker;
+import com.identityworksllc.iiq.common.task.ThreadedTaskListener;
+import org.apache.commons.logging.Log;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sailpoint.api.SailPointContext;
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the batch callbacks of {@link ThreadExecutorWorker}, invoked directly with a mocked context
+ */
+public class ThreadExecutorWorkerTests {
+
+    private PrivateContextObjectConsumer<String> consumer;
+
+    /**
+     * The items passed to the consumer, in order
+     */
+    private List<String> consumed;
+
+    private ThreadedTaskListener<String> listener;
+
+    private Log log;
+
+    private AtomicBoolean terminated;
+
+    private SailPointContext threadContext;
+
+    private ThreadExecutorWorker<String> worker(String... items) {
+        return new ThreadExecutorWorker<>(Arrays.asList(items), consumer, listener);
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        consumed = new ArrayList<>();
+        terminated = new AtomicBoolean();
+        log = mock(Log.class);
+        threadContext = mock(SailPointContext.class);
+
+        consumer = mock(PrivateContextObjectConsumer.class);
+        doAnswer(invocation -> consumed.add(invocation.getArgument(2))).when(consumer).threadExecute(eq(threadContext), anyMap(), anyString());
+
+        listener = mock(ThreadedTaskListener.class);
+        when(listener.isTerminated()).thenAnswer(invocation -> terminated.get());
+    }
+
+    @Test
+    public void failedBeforeBatchSkipsTheBatch() throws Exception {
+        doThrow(new GeneralException("no")).when(listener).beforeBatch(threadContext);
+
+        worker("a", "b").execute(threadContext, log);
+
+        assertTrue(consumed.isEmpty());
+        verify(listener, never()).afterBatch(any());
+    }
+
+    @Test
+    public void failedItemDoesNotStopTheBatch() throws Exception {
+        doThrow(new GeneralException("no")).when(consumer).threadExecute(eq(threadContext), anyMap(), eq("a"));
+
+        worker("a", "b").execute(threadContext, log);
+
+        assertEquals(Arrays.asList("b"), consumed);
+        verify(listener).handleFailure("a");
+        verify(listener).handleSuccess("b");
+        verify(listener).afterBatch(threadContext);
+    }
+
+    @Test
+    public void interruptedBatchIsStillClosed() throws Exception {
+        doAnswer(invocation -> {
+            consumed.add(invocation.getArgument(2));
+            terminated.set(true);
+            return null;
+        }).when(consumer).threadExecute(eq(threadContext), anyMap(), eq("a"));
+
+        assertThrows(InterruptedException.class, () -> worker("a", "b", "c").execute(threadContext, log));
+
+        assertEquals(Arrays.asList("a"), consumed);
+        verify(listener).beforeBatch(threadContext);
+        verify(listener).afterBatch(threadContext);
+    }
+}